@@ -63,8 +63,7 @@ public class CalculateLocations
     protected ObjectStoreWriter osw;
     protected ObjectStore os;
     private Model model;
-
-
+    private int overlapThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
 
     /**
      * Create a new CalculateLocations object from an ObjectStoreWriter
@@ -76,6 +75,14 @@ public class CalculateLocations
         this.model = os.getModel();
     }
 
+    /**
+     * Set the number of chromosomes that createOverlapRelations() finds overlaps on at once.
+     * @param overlapThreads the number of threads
+     */
+    public void setOverlapThreads(int overlapThreads) {
+        this.overlapThreads = overlapThreads;
+    }
+
 
     /**
      * Create OverlapRelation objects for all overlapping SequenceFeatures by querying
@@ -93,12 +100,8 @@ public class CalculateLocations
         osw.beginTransaction();
         Map<String, Integer> summary = new HashMap<String, Integer>();
         Map<Integer, Chromosome> chromosomeMap = makeChromosomeMap();
-        Iterator<?> chromosomeIdIter = chromosomeMap.keySet().iterator();
-        while (chromosomeIdIter.hasNext()) {
-            Integer id = (Integer) chromosomeIdIter.next();
-            createSubjectOverlapRelations(chromosomeMap.get(id), classNamesToIgnore,
-                    ignoreSelfMatches, summary);
-        }
+        OverlapUtil.createOverlaps(os, chromosomeMap.values(), classNamesToIgnore,
+                ignoreSelfMatches, osw, summary, overlapThreads);
         osw.commitTransaction();
         LOG.info("Stored a total of " + summary.remove("total") + " overlaps");
         List<SortElement> sortList = new ArrayList<SortElement>();
@@ -141,28 +144,6 @@ public class CalculateLocations
         }
     }
 
-    /**
-     * Create OverlapRelation objects for locations that have the given subject.
-     *
-     * @param subject a Chromosome object on which to create the overlaps
-     * @param classNamesToIgnore a List of the names of those classes that should be ignored when
-     * searching for overlaps.  Sub classes to these classes are ignored too. In addition, an
-     * entry can be of the form class=class, which specifies that the particular combination should
-     * be ignored. Hence an entry of the form class is equivalent to class=InterMineObject
-     * @param ignoreSelfMatches if true, don't create OverlapRelations between two objects of the
-     * same class
-     * @param summary a Map to which summary data will be added
-     */
-    private void createSubjectOverlapRelations(Chromosome subject, List<String> classNamesToIgnore,
-            boolean ignoreSelfMatches, Map<String, Integer> summary) throws Exception {
-        LOG.info("Creating overlaps for id " + subject.getId() + ", identifier: "
-                 + subject.getPrimaryIdentifier());
-
-        OverlapUtil.createOverlaps(os, subject, classNamesToIgnore, ignoreSelfMatches, osw,
-                summary);
-    }
-
-
     /**
      * Create a Location that spans the locations of some child objects.  eg. create a location for
      * Transcript that is as big as all the exons in it's exons collection.  One new location will
@@ -260,18 +241,21 @@ public class CalculateLocations
         }
 
         osw.beginTransaction();
-        // make new locations and store them
+        // make new locations and store them, referring to the objects by id rather than reading
+        // each of them
         Iterator<?> locatedOnObjectIterator = locatedOnObjectMap.keySet().iterator();
         while (locatedOnObjectIterator.hasNext()) {
             Integer locatedOnObjectId = (Integer) locatedOnObjectIterator.next();
-            BioEntity locatedOnObject = (BioEntity) os.getObjectById(locatedOnObjectId);
+            ProxyReference locatedOnObject =
+                new ProxyReference(os, locatedOnObjectId, BioEntity.class);
             Map<Integer, SimpleLoc> parentObjectMap
                 = locatedOnObjectMap.get(locatedOnObjectId);
             Iterator<?> parentObjectMapIterator = parentObjectMap.keySet().iterator();
 
             while (parentObjectMapIterator.hasNext()) {
                 Integer parentObjectId = (Integer) parentObjectMapIterator.next();
-                BioEntity parentObject = (BioEntity) os.getObjectById(parentObjectId);
+                ProxyReference parentObject =
+                    new ProxyReference(os, parentObjectId, BioEntity.class);
                 SimpleLoc parentObjectSimpleLoc = parentObjectMap.get(parentObjectId);
                 Location newLocation =
                     (Location) DynamicUtil.createObject(Collections.singleton(Location.class));
@@ -279,8 +263,8 @@ public class CalculateLocations
                 newLocation.setStart(new Integer(parentObjectSimpleLoc.getStart()));
                 newLocation.setEnd(new Integer(parentObjectSimpleLoc.getEnd()));
                 newLocation.setStrand(parentObjectSimpleLoc.getStrand());
-                newLocation.setFeature(parentObject);
-                newLocation.setLocatedOn(locatedOnObject);
+                newLocation.proxyFeature(parentObject);
+                newLocation.proxyLocatedOn(locatedOnObject);
 
                 osw.store(newLocation);
             }
@@ -10,12 +10,21 @@ package org.intermine.bio.postprocess;
  *
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.Model;
@@ -26,7 +35,6 @@ import org.intermine.model.bio.SequenceFeature;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
-import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
@@ -73,8 +81,80 @@ public abstract class OverlapUtil
             List<?> classNamesToIgnore, boolean ignoreSelfMatches, ObjectStoreWriter osw,
             Map<String, Integer> summary)
         throws ObjectStoreException, ClassNotFoundException {
-        Model model = os.getModel();
+        Map<Class<?>, Set<Class<?>>> classesToIgnore =
+            getClassesToIgnore(os.getModel(), classNamesToIgnore);
+        SubjectOverlaps overlaps = findOverlaps(os, subject, classesToIgnore, ignoreSelfMatches);
+        storeOverlaps(overlaps, osw, summary);
+    }
 
+    /**
+     * Creates OverlapRelations for overlapping SequenceFeature objects that are located on each
+     * of the given subjects. The overlaps on each subject are found by a pool of threads, and
+     * are stored by the calling thread as they are found, as the ObjectStoreWriter is not
+     * shared.
+     *
+     * @param os the ObjectStore to query
+     * @param subjects the SequenceFeatures (eg. Chromosomes) where the LSFs are located
+     * @param classNamesToIgnore a List of the names of those classes that should be ignored when
+     * searching for overlaps, as for createOverlaps(ObjectStore, SequenceFeature, ...)
+     * @param ignoreSelfMatches if true, don't create OverlapRelations between two objects of the
+     * same class
+     * @param osw the ObjectStoreWriter to use to write to the database
+     * @param summary a Map, to which summary data will be added
+     * @param threads the number of subjects to find overlaps on at once
+     * @throws ObjectStoreException if an error occurs while reading or writing
+     */
+    public static void createOverlaps(final ObjectStore os,
+            Collection<? extends SequenceFeature> subjects, List<?> classNamesToIgnore,
+            final boolean ignoreSelfMatches, ObjectStoreWriter osw, Map<String, Integer> summary,
+            int threads) throws ObjectStoreException {
+        final Map<Class<?>, Set<Class<?>>> classesToIgnore =
+            getClassesToIgnore(os.getModel(), classNamesToIgnore);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<SubjectOverlaps> completionService =
+            new ExecutorCompletionService<SubjectOverlaps>(executor);
+        try {
+            Iterator<? extends SequenceFeature> subjectIter = subjects.iterator();
+            int running = 0;
+            // keep each thread busy, without holding the overlaps of every subject at once
+            while (running > 0 || subjectIter.hasNext()) {
+                while (running < threads * 2 && subjectIter.hasNext()) {
+                    final SequenceFeature subject = subjectIter.next();
+                    completionService.submit(new Callable<SubjectOverlaps>() {
+                        @Override
+                        public SubjectOverlaps call() {
+                            LOG.info("Creating overlaps for id " + subject.getId()
+                                    + ", identifier: " + subject.getPrimaryIdentifier());
+                            return findOverlaps(os, subject, classesToIgnore, ignoreSelfMatches);
+                        }
+                    });
+                    running++;
+                }
+                SubjectOverlaps overlaps;
+                try {
+                    overlaps = completionService.take().get();
+                } catch (InterruptedException e) {
+                    throw new ObjectStoreException("Interrupted while finding overlaps", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ObjectStoreException) {
+                        throw (ObjectStoreException) e.getCause();
+                    }
+                    throw new ObjectStoreException("Error while finding overlaps", e.getCause());
+                }
+                running--;
+                storeOverlaps(overlaps, osw, summary);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse the classNamesToIgnore argument of createOverlaps() into a map from a class to the
+     * classes that it should not be overlapped with.
+     */
+    private static Map<Class<?>, Set<Class<?>>> getClassesToIgnore(Model model,
+            List<?> classNamesToIgnore) {
         Map<Class<?>, Set<Class<?>>> classesToIgnore = new HashMap<Class<?>, Set<Class<?>>>();
 
         Iterator<?> classNamesToIgnoreIter = classNamesToIgnore.iterator();
@@ -106,19 +186,30 @@ public abstract class OverlapUtil
                 // ignore
             }
         }
+        return classesToIgnore;
+    }
 
+    /**
+     * Find the overlapping SequenceFeatures on a subject. Only the positions, ids and classes of
+     * the features are read, and the rules for ignoring features are worked out once for each
+     * pair of classes rather than for each pair of features.
+     */
+    private static SubjectOverlaps findOverlaps(ObjectStore os, SequenceFeature subject,
+            Map<Class<?>, Set<Class<?>>> classesToIgnore, boolean ignoreSelfMatches) {
         Query q = new Query();
         ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
         q.setConstraint(cs);
+        q.setDistinct(false);
 
         QueryClass qcLoc = new QueryClass(Location.class);
         q.addFrom(qcLoc);
-        q.addToSelect(qcLoc);
-
-        q.setDistinct(false);
         QueryClass qcObj = new QueryClass(SequenceFeature.class);
         q.addFrom(qcObj);
-        q.addToSelect(qcObj);
+        QueryField qfStart = new QueryField(qcLoc, "start");
+        q.addToSelect(qfStart);
+        q.addToSelect(new QueryField(qcLoc, "end"));
+        q.addToSelect(new QueryField(qcObj, "id"));
+        q.addToSelect(new QueryField(qcObj, "class"));
 
         QueryObjectReference ref1 = new QueryObjectReference(qcLoc, "feature");
         ContainsConstraint cc1 = new ContainsConstraint(ref1, ConstraintOp.CONTAINS, qcObj);
@@ -129,86 +220,177 @@ public abstract class OverlapUtil
                 subject);
         cs.addConstraint(subjectIdConstraint);
 
-        q.addToOrderBy(new QueryField(qcLoc, "start"));
-
-        try {
-            ((ObjectStoreInterMineImpl) os).goFaster(q);
-            Results results = os.execute(q);
-            Map<Location, SequenceFeature> currentLocations
-                = new HashMap<Location, SequenceFeature>();
-            int count = 0;
-            Iterator<?> resIter = results.iterator();
-
-            while (resIter.hasNext()) {
-                ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
-
-                Location location = (Location) rr.get(0);
-
-                if (location.getStart() == null || location.getEnd() == null) {
-                    continue;
+        q.addToOrderBy(qfStart);
+
+        // the locations, in order of start, with a number for the class of each feature
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        int[] ids = new int[1024];
+        short[] types = new short[1024];
+        int size = 0;
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        Map<Class<?>, Short> classNumbers = new HashMap<Class<?>, Short>();
+
+        Results results = os.execute(q, 10000, true, false, false);
+        for (Object o : results) {
+            ResultsRow<?> rr = (ResultsRow<?>) o;
+            if (rr.get(0) == null || rr.get(1) == null) {
+                continue;
+            }
+            Class<?> clazz = (Class<?>) rr.get(3);
+            Short classNumber = classNumbers.get(clazz);
+            if (classNumber == null) {
+                if (isAClassToIgnore(classesToIgnore, clazz)) {
+                    classNumber = Short.valueOf((short) -1);
+                } else {
+                    classNumber = Short.valueOf((short) classes.size());
+                    classes.add(clazz);
                 }
+                classNumbers.put(clazz, classNumber);
+            }
+            if (classNumber.shortValue() < 0) {
+                continue;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+            }
+            starts[size] = ((Integer) rr.get(0)).intValue();
+            ends[size] = ((Integer) rr.get(1)).intValue();
+            ids[size] = ((Integer) rr.get(2)).intValue();
+            types[size] = classNumber.shortValue();
+            size++;
+        }
 
-                SequenceFeature lsf = (SequenceFeature) rr.get(1);
+        boolean[][] ignored = new boolean[classes.size()][classes.size()];
+        for (int i = 0; i < classes.size(); i++) {
+            for (int j = 0; j < classes.size(); j++) {
+                Class<?> class1 = classes.get(i);
+                Class<?> class2 = classes.get(j);
+                ignored[i][j] = (ignoreSelfMatches && class1.equals(class2))
+                    || ignoreCombination(classesToIgnore, class1, class2)
+                    || ignoreCombination(classesToIgnore, class2, class1);
+            }
+        }
+
+        int[] pairs = findOverlappingPairs(Arrays.copyOf(starts, size),
+                Arrays.copyOf(ends, size), Arrays.copyOf(types, size), ignored);
+        int[][] pairCounts = new int[classes.size()][classes.size()];
+        int[] featurePairs = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i += 2) {
+            featurePairs[i] = ids[pairs[i]];
+            featurePairs[i + 1] = ids[pairs[i + 1]];
+            pairCounts[types[pairs[i]]][types[pairs[i + 1]]]++;
+        }
 
-                if (isAClassToIgnore(classesToIgnore, lsf.getClass())) {
-                    continue;
+        // summarise the pairs of classes, as "A - B" with the names in order
+        Map<String, Integer> summary = new HashMap<String, Integer>();
+        for (int i = 0; i < classes.size(); i++) {
+            for (int j = 0; j < classes.size(); j++) {
+                if (pairCounts[i][j] > 0) {
+                    String classname1 = Util.getFriendlyName(classes.get(i));
+                    String classname2 = Util.getFriendlyName(classes.get(j));
+                    String summaryLine = classname1.compareTo(classname2) > 0
+                        ? classname2 + " - " + classname1 : classname1 + " - " + classname2;
+                    Integer summaryCount = summary.get(summaryLine);
+                    summary.put(summaryLine, Integer.valueOf(pairCounts[i][j]
+                                + (summaryCount == null ? 0 : summaryCount.intValue())));
                 }
+            }
+        }
+        return new SubjectOverlaps(subject, results.size(), featurePairs, summary);
+    }
 
-                int start = location.getStart().intValue();
-
-                // Okay, first we compare this location to all the currentLocations.
-                Iterator<?> currIter = currentLocations.entrySet().iterator();
-                while (currIter.hasNext()) {
-                    Map.Entry<Location, SequenceFeature> currEntry = (Map.Entry<Location,
-                            SequenceFeature>) currIter.next();
-                    Location currLoc = currEntry.getKey();
-                    SequenceFeature currLsf = currEntry.getValue();
-                    if (currLoc.getEnd().intValue() < start) {
-                        currIter.remove();
-                    } else {
-                        // They overlap, so check to see if we have configured them out.
-                        if ((!ignoreSelfMatches)
-                                || (!lsf.getClass().equals(currLsf.getClass()))) {
-                            if (!(ignoreCombination(classesToIgnore, lsf.getClass(),
-                                            currLsf.getClass())
-                                    || ignoreCombination(classesToIgnore, currLsf.getClass(),
-                                        lsf.getClass()))) {
-                                ++count;
-                                osw.addToCollection(lsf.getId(), SequenceFeature.class,
-                                        "overlappingFeatures", currLsf.getId());
-                                osw.addToCollection(currLsf.getId(), SequenceFeature.class,
-                                        "overlappingFeatures", lsf.getId());
-
-                                // Log it, for the summary.
-                                String classname1 = Util.getFriendlyName(lsf.getClass());
-                                String classname2 = Util.getFriendlyName(currLsf
-                                        .getClass());
-
-                                String summaryLine = classname1.compareTo(classname2) > 0
-                                    ? classname2 + " - " + classname1 : classname1 + " - "
-                                    + classname2;
-                                Integer summaryCount = summary.get(summaryLine);
-                                if (summaryCount == null) {
-                                    summaryCount = new Integer(0);
-                                }
-                                summary.put(summaryLine, new Integer(summaryCount.intValue()
-                                            + 1));
-                            }
+    /**
+     * Find the overlapping locations by sweeping along them in order of start, keeping the
+     * locations that have not ended. A location overlaps one that has not ended if it shares any
+     * base with it.
+     *
+     * @param starts the starts of the locations, in ascending order
+     * @param ends the ends of the locations
+     * @param types a number for the class of each location
+     * @param ignored whether to ignore overlaps between each pair of classes
+     * @return the pairs of overlapping locations, each as the index of the later location
+     * followed by the index of the earlier one
+     */
+    static int[] findOverlappingPairs(int[] starts, int[] ends, short[] types,
+            boolean[][] ignored) {
+        int[] pairs = new int[64];
+        int pairCount = 0;
+        int[] active = new int[64];
+        int activeCount = 0;
+        for (int i = 0; i < starts.length; i++) {
+            int start = starts[i];
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                int current = active[a];
+                if (ends[current] >= start) {
+                    active[kept++] = current;
+                    if (!ignored[types[i]][types[current]]) {
+                        if (pairCount + 2 > pairs.length) {
+                            pairs = Arrays.copyOf(pairs, pairs.length * 2);
                         }
+                        pairs[pairCount++] = i;
+                        pairs[pairCount++] = current;
                     }
                 }
-                currentLocations.put(location, lsf);
             }
-            LOG.info("Stored " + count + " overlaps for " + results.size()
-                    + " features on feature id " + subject.getId() + ", identifier: "
-                     + subject.getSecondaryIdentifier());
-            Integer summaryCount = summary.get("total");
-            if (summaryCount == null) {
-                summaryCount = new Integer(0);
+            if (kept == active.length) {
+                active = Arrays.copyOf(active, active.length * 2);
             }
-            summary.put("total", new Integer(summaryCount.intValue() + count));
-        } finally {
-            ((ObjectStoreInterMineImpl) os).releaseGoFaster(q);
+            active[kept++] = i;
+            activeCount = kept;
+        }
+        return Arrays.copyOf(pairs, pairCount);
+    }
+
+    /**
+     * Store the overlaps found on a subject in the overlappingFeatures collections of the
+     * features, and add them to the summary.
+     */
+    private static void storeOverlaps(SubjectOverlaps overlaps, ObjectStoreWriter osw,
+            Map<String, Integer> summary) throws ObjectStoreException {
+        int[] pairs = overlaps.featurePairs;
+        for (int i = 0; i < pairs.length; i += 2) {
+            Integer id1 = Integer.valueOf(pairs[i]);
+            Integer id2 = Integer.valueOf(pairs[i + 1]);
+            osw.addToCollection(id1, SequenceFeature.class, "overlappingFeatures", id2);
+            osw.addToCollection(id2, SequenceFeature.class, "overlappingFeatures", id1);
+        }
+        for (Map.Entry<String, Integer> entry : overlaps.summary.entrySet()) {
+            Integer summaryCount = summary.get(entry.getKey());
+            summary.put(entry.getKey(), Integer.valueOf(entry.getValue().intValue()
+                        + (summaryCount == null ? 0 : summaryCount.intValue())));
+        }
+        int count = pairs.length / 2;
+        LOG.info("Stored " + count + " overlaps for " + overlaps.featureCount
+                + " features on feature id " + overlaps.subject.getId() + ", identifier: "
+                 + overlaps.subject.getSecondaryIdentifier());
+        Integer summaryCount = summary.get("total");
+        if (summaryCount == null) {
+            summaryCount = new Integer(0);
+        }
+        summary.put("total", new Integer(summaryCount.intValue() + count));
+    }
+
+    /**
+     * The overlaps found on one subject, as pairs of feature ids.
+     */
+    private static class SubjectOverlaps
+    {
+        private final SequenceFeature subject;
+        private final int featureCount;
+        private final int[] featurePairs;
+        private final Map<String, Integer> summary;
+
+        SubjectOverlaps(SequenceFeature subject, int featureCount, int[] featurePairs,
+                Map<String, Integer> summary) {
+            this.subject = subject;
+            this.featureCount = featureCount;
+            this.featurePairs = featurePairs;
+            this.summary = summary;
         }
     }
 
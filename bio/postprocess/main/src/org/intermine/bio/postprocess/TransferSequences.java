@@ -10,10 +10,18 @@ package org.intermine.bio.postprocess;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 import org.intermine.bio.util.ClobAccessReverseComplement;
@@ -47,6 +55,7 @@ import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.IntToIntMap;
 
 /**
  * Transfer sequences from the Assembly objects to the other objects that are located on the
@@ -59,7 +68,9 @@ public class TransferSequences
 {
     protected ObjectStoreWriter osw;
     private Model model;
+    private int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
     private static final Logger LOG = Logger.getLogger(TransferSequences.class);
+    private static final int BATCH_SIZE = 1000;
 
     /**
      * Create a new TransferSequences object from the given ObjectStoreWriter
@@ -83,11 +94,31 @@ public class TransferSequences
         osw.store(feature);
     }
 
+    /**
+     * Set the number of chromosomes that transferToLocatedSequenceFeatures() reads at once.
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     /**
      * Use the Location relations to copy the sequence from the Chromosomes to every
      * SequenceFeature that is located on a Chromosome and which doesn't already have a
      * sequence (ie. don't copy to Assembly).  Uses the ObjectStoreWriter that was passed to the
      * constructor.
+     * <p>
+     * The features of each chromosome are read by a pool of threads, and stored by the calling
+     * thread in batches as they are read, as the ObjectStoreWriter is not shared. The queries are
+     * precomputed before any are read, and all the sequences are stored in one transaction that
+     * is committed after every chromosome is read, because committing alters the database and
+     * so invalidates the results the other threads are still reading, and drops precomputed
+     * tables under them. The transaction therefore covers the whole genome: the database holds
+     * the uncommitted sequences until the end, and if the transfer fails none are kept.
+     * <p>
+     * A feature with several locations on one chromosome is given the sequence of the location
+     * stored last. A feature located on several chromosomes is given the sequence from the
+     * chromosome with the lowest id, whichever order the chromosomes are read in.
      *
      * @throws Exception if there are problems with the transfer
      */
@@ -116,22 +147,93 @@ public class TransferSequences
         LOG.info("Found " + chromosomes.size() + " chromosomes with sequence, took "
                 + (System.currentTimeMillis() - startTime) + " ms.");
 
+        Map<Chromosome, Query> queries = new LinkedHashMap<Chromosome, Query>();
         for (Chromosome chr : chromosomes) {
-            String organism = "";
-            if (chr.getOrganism() != null) {
-                organism = chr.getOrganism().getShortName();
+            queries.put(chr, createFeatureQuery(chr));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // hold a few batches per thread, so that reading waits for writing to catch up
+        final BlockingQueue<FeatureSequences> queue =
+            new ArrayBlockingQueue<FeatureSequences>(threads * 2);
+        try {
+            for (final Map.Entry<Chromosome, Query> entry : queries.entrySet()) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            readChromosome(entry.getKey(), entry.getValue(), queue);
+                        } catch (InterruptedException e) {
+                            // the transfer has been abandoned
+                        }
+                    }
+                });
             }
-            LOG.info("Starting transfer for " + organism + " chromosome "
-                    + chr.getPrimaryIdentifier());
-            transferForChromosome(chr);
+            storeFeatureSequences(queue, chromosomes.size());
+        } finally {
+            executor.shutdownNow();
         }
     }
 
+    /**
+     * Take the batches read from the chromosomes and store them, committing once every
+     * chromosome is finished.
+     */
+    private void storeFeatureSequences(BlockingQueue<FeatureSequences> queue, int chromosomeCount)
+        throws Exception {
+        // the chromosome each feature has its sequence from, and the id of that sequence, so that
+        // the chromosome with the lowest id wins however the threads are scheduled
+        IntToIntMap storedFrom = new IntToIntMap();
+        IntToIntMap sequenceIds = new IntToIntMap();
+        long start = System.currentTimeMillis();
+        int i = 0;
+        int finished = 0;
+        osw.beginTransaction();
+        while (finished < chromosomeCount) {
+            FeatureSequences batch = queue.take();
+            if (batch.error != null) {
+                throw batch.error;
+            }
+            int chrId = batch.chromosome.getId().intValue();
+            for (int j = 0; j < batch.features.size(); j++) {
+                SequenceFeature cloneLsf = batch.features.get(j);
+                int featureId = cloneLsf.getId().intValue();
+                int from = storedFrom.get(featureId);
+                if (from != -1 && from < chrId) {
+                    continue;
+                }
+                Sequence sequence = batch.sequences.get(j);
+                if (from != -1) {
+                    // replace the sequence from the other chromosome rather than orphan it
+                    sequence.setId(new Integer(sequenceIds.get(featureId)));
+                }
+                osw.store(sequence);
+                cloneLsf.setSequence(sequence);
+                osw.store(cloneLsf);
+                storedFrom.put(featureId, chrId);
+                sequenceIds.put(featureId, sequence.getId().intValue());
+                i++;
+                if (i % 1000 == 0) {
+                    long now = System.currentTimeMillis();
+                    LOG.info("Set sequences for " + i + " features"
+                             + " (avg = " + ((60000L * i) / (now - start)) + " per minute)");
+                }
+            }
+            if (batch.last) {
+                finished++;
+                LOG.info("Finished reading " + batch.count + " feature sequences for "
+                        + getDescription(batch.chromosome) + " - took "
+                        + (System.currentTimeMillis() - batch.startTime) + " ms.");
+            }
+        }
+        osw.commitTransaction();
+    }
 
-    private void transferForChromosome(Chromosome chr) throws Exception {
-
-        long startTime = System.currentTimeMillis();
-
+    /**
+     * Create and precompute the query for the features on a chromosome that have no sequence,
+     * and their locations.
+     */
+    private Query createFeatureQuery(Chromosome chr) throws ObjectStoreException {
         ObjectStore os = osw.getObjectStore();
         Query q = new Query();
         q.setDistinct(false);
@@ -153,6 +255,7 @@ public class TransferSequences
         QueryClass qcLoc = new QueryClass(Location.class);
         q.addFrom(qcLoc);
         q.addToSelect(qcLoc);
+        q.addToOrderBy(qcLoc);
         QueryObjectReference ref1 = new QueryObjectReference(qcLoc, "locatedOn");
         ContainsConstraint cc1 = new ContainsConstraint(ref1, ConstraintOp.CONTAINS, qcChr);
         cs.addConstraint(cc1);
@@ -167,105 +270,134 @@ public class TransferSequences
 
         q.setConstraint(cs);
 
-        osw.beginTransaction();
-
         Set<QueryNode> indexesToCreate = new HashSet<QueryNode>();
         indexesToCreate.add(qcLoc);
         indexesToCreate.add(qcSub);
         ((ObjectStoreInterMineImpl) os).precompute(q, indexesToCreate,
             Constants.PRECOMPUTE_CATEGORY);
-        Results results = os.execute(q, 1000, true, true, true);
-
-        @SuppressWarnings("unchecked") Iterator<ResultsRow> resIter = (Iterator) results.iterator();
-
-        long start = System.currentTimeMillis();
-        int i = 0;
-        while (resIter.hasNext()) {
-            ResultsRow<?> rr = resIter.next();
+        return q;
+    }
 
-            SequenceFeature feature = (SequenceFeature) rr.get(0);
-            Location locationOnChr = (Location) rr.get(1);
+    /**
+     * Read the features on a chromosome that have no sequence, and pass them to the writing
+     * thread in batches along with their new sequences. The sequences refer to the residues of
+     * the chromosome rather than copying them. The rows are in order of feature and then of
+     * location, so only the last location of each feature is passed on.
+     */
+    private void readChromosome(Chromosome chr, Query q, BlockingQueue<FeatureSequences> queue)
+        throws InterruptedException {
+        FeatureSequences batch = new FeatureSequences(chr, System.currentTimeMillis(), 0);
+        try {
+            LOG.info("Starting transfer for " + getDescription(chr));
+            ObjectStore os = osw.getObjectStore();
+            Results results = os.execute(q, 1000, true, true, true);
 
-            try {
+            // every sub-sequence shares this, so the length of the chromosome is only read once
+            ClobAccess chrSequence = chr.getSequence().getResidues();
 
-                if (PostProcessUtil.isInstance(model, feature, "ChromosomeBand")) {
-                    continue;
-                }
+            @SuppressWarnings("unchecked") Iterator<ResultsRow> resIter =
+                (Iterator) results.iterator();
 
-                if (PostProcessUtil.isInstance(model, feature, "SNP")) {
-                    continue;
-                }
+            // the last feature given a sequence, held back until its locations are all read
+            SequenceFeature pendingFeature = null;
+            ClobAccess pendingSeq = null;
+            while (resIter.hasNext()) {
+                ResultsRow<?> rr = resIter.next();
 
-                /**
-                 * In human intermine, SNP is not a sequence alteration, which I think is wrong
-                 * But here are the kinds of types that are alterations:
-                 *
-                 *      Deletion
-                 *      Genetic Marker
-                 *      Indel
-                 *      Insertion
-                 *      SNV
-                 *      Substitution
-                 *      Tandem Repeat
-                 */
-                if (PostProcessUtil.isInstance(model, feature, "SequenceAlteration")) {
-                    continue;
-                }
+                SequenceFeature feature = (SequenceFeature) rr.get(0);
+                Location locationOnChr = (Location) rr.get(1);
 
-                if (feature instanceof Gene) {
-                    Gene gene = (Gene) feature;
-                    if (gene.getLength() != null && gene.getLength().intValue() > 2000000) {
-                        LOG.warn("gene too long in transferToSequenceFeatures() ignoring: "
-                                  + gene);
+                try {
+                    ClobAccess featureSeq = getFeatureSequence(feature, chrSequence,
+                            locationOnChr);
+                    if (featureSeq == null) {
                         continue;
                     }
+                    if (pendingFeature != null && !pendingFeature.getId().equals(feature.getId())) {
+                        batch.add(PostProcessUtil.cloneInterMineObject(pendingFeature), pendingSeq);
+                        if (batch.features.size() == BATCH_SIZE) {
+                            queue.put(batch);
+                            batch = new FeatureSequences(chr, batch.startTime, batch.count);
+                        }
+                    }
+                    pendingFeature = feature;
+                    pendingSeq = featureSeq;
+                } catch (Exception e) {
+                    Exception e2 = new Exception("Exception while processing SequenceFeature "
+                            + feature);
+                    e2.initCause(e);
+                    throw e2;
                 }
+            }
+            if (pendingFeature != null) {
+                batch.add(PostProcessUtil.cloneInterMineObject(pendingFeature), pendingSeq);
+            }
+            batch.last = true;
+        } catch (Exception e) {
+            batch.error = e;
+        } catch (Error e) {
+            // the writing thread is waiting for this chromosome
+            batch.error = new Exception("Error while reading chromosome " + chr.getId(), e);
+        }
+        queue.put(batch);
+    }
 
-                ClobAccess featureSeq = getSubSequence(chr.getSequence(), locationOnChr);
+    /**
+     * Get the sequence of a feature from the sequence of the chromosome it is located on.
+     *
+     * @return the sequence, or null if the feature should not be given one
+     */
+    private ClobAccess getFeatureSequence(SequenceFeature feature, ClobAccess chrSequence,
+            Location locationOnChr) {
+        if (PostProcessUtil.isInstance(model, feature, "ChromosomeBand")) {
+            return null;
+        }
 
-                if (featureSeq == null) {
-                    // probably the locationOnChr is out of range
-                    continue;
-                }
+        if (PostProcessUtil.isInstance(model, feature, "SNP")) {
+            return null;
+        }
 
-                Sequence sequence =
-                    (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
-                sequence.setResidues(featureSeq);
-                sequence.setLength(featureSeq.length());
-                osw.store(sequence);
-                SequenceFeature cloneLsf = PostProcessUtil.cloneInterMineObject(feature);
-                cloneLsf.setSequence(sequence);
-                cloneLsf.setLength(new Integer(featureSeq.length()));
-                osw.store(cloneLsf);
-                i++;
-                if (i % 1000 == 0) {
-                    long now = System.currentTimeMillis();
-                    LOG.info("Set sequences for " + i + " features"
-                             + " (avg = " + ((60000L * i) / (now - start)) + " per minute)");
-                }
-            } catch (Exception e) {
-                Exception e2 = new Exception("Exception while processing SequenceFeature "
-                        + feature);
-                e2.initCause(e);
-                throw e2;
+        /**
+         * In human intermine, SNP is not a sequence alteration, which I think is wrong
+         * But here are the kinds of types that are alterations:
+         *
+         *      Deletion
+         *      Genetic Marker
+         *      Indel
+         *      Insertion
+         *      SNV
+         *      Substitution
+         *      Tandem Repeat
+         */
+        if (PostProcessUtil.isInstance(model, feature, "SequenceAlteration")) {
+            return null;
+        }
+
+        if (feature instanceof Gene) {
+            Gene gene = (Gene) feature;
+            if (gene.getLength() != null && gene.getLength().intValue() > 2000000) {
+                LOG.warn("gene too long in transferToSequenceFeatures() ignoring: "
+                          + gene);
+                return null;
             }
         }
 
-        osw.commitTransaction();
+        // null if the locationOnChr is probably out of range
+        return getSubSequence(chrSequence, locationOnChr);
+    }
 
+    private static String getDescription(Chromosome chr) {
         String organism = "";
         if (chr.getOrganism() != null) {
             organism = chr.getOrganism().getShortName();
         }
-        LOG.info("Finished setting " + i + " feature sequences for " + organism + " chromosome "
-                + chr.getPrimaryIdentifier() + " - took "
-                + (System.currentTimeMillis() - startTime) + " ms.");
+        return organism + " chromosome " + chr.getPrimaryIdentifier();
     }
 
-    private static ClobAccess getSubSequence(Sequence chromosomeSequence, Location locationOnChr) {
+    private static ClobAccess getSubSequence(ClobAccess chromosomeSequenceString,
+            Location locationOnChr) {
         int charsToCopy =
             locationOnChr.getEnd().intValue() - locationOnChr.getStart().intValue() + 1;
-        ClobAccess chromosomeSequenceString = chromosomeSequence.getResidues();
 
         if (charsToCopy > chromosomeSequenceString.length()) {
             LOG.warn("SequenceFeature too long, ignoring - Location: "
@@ -428,4 +560,37 @@ public class TransferSequences
 
         osw.commitTransaction();
     }
+
+    /**
+     * A batch of features read from a chromosome, with the sequences to store for them.
+     */
+    private static class FeatureSequences
+    {
+        private final Chromosome chromosome;
+        private final long startTime;
+        private final List<SequenceFeature> features = new ArrayList<SequenceFeature>();
+        private final List<Sequence> sequences = new ArrayList<Sequence>();
+        // the number of features read from the chromosome so far, including this batch
+        private int count;
+        // true if this is the last batch of the chromosome
+        private boolean last = false;
+        private Exception error = null;
+
+        FeatureSequences(Chromosome chromosome, long startTime, int count) {
+            this.chromosome = chromosome;
+            this.startTime = startTime;
+            this.count = count;
+        }
+
+        void add(SequenceFeature cloneLsf, ClobAccess featureSeq) {
+            Sequence sequence =
+                (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
+            sequence.setResidues(featureSeq);
+            sequence.setLength(featureSeq.length());
+            cloneLsf.setLength(new Integer(featureSeq.length()));
+            features.add(cloneLsf);
+            sequences.add(sequence);
+            count++;
+        }
+    }
 }
@@ -49,4 +49,21 @@ public class OverlapUtilTest extends TestCase {
         assertFalse(OverlapUtil.ignoreCombination(classesToIgnore, class1, class2));
     }
 
+    public void testFindOverlappingPairs() throws Exception {
+        // sorted by start: 0:[1,10] 1:[5,6] 2:[6,20] 3:[11,12] 4:[21,30]
+        int[] starts = new int[] {1, 5, 6, 11, 21};
+        int[] ends = new int[] {10, 6, 20, 12, 30};
+        short[] types = new short[] {0, 1, 0, 1, 1};
+        boolean[][] ignored = new boolean[2][2];
+
+        int[] pairs = OverlapUtil.findOverlappingPairs(starts, ends, types, ignored);
+        assertEquals("[1, 0, 2, 0, 2, 1, 3, 2]", Arrays.toString(pairs));
+
+        // as if ignoring self matches
+        ignored[0][0] = true;
+        ignored[1][1] = true;
+        pairs = OverlapUtil.findOverlappingPairs(starts, ends, types, ignored);
+        assertEquals("[1, 0, 2, 1, 3, 2]", Arrays.toString(pairs));
+    }
+
 }
@@ -198,6 +198,83 @@ public class TransferSequencesTest extends TestCase
         checkExonSequences();
     }
 
+    public void testTransferToLocatedSequenceFeaturesOneThread() throws Exception {
+        TransferSequences ts = new TransferSequences(osw);
+        ts.setThreads(1);
+        ts.transferToLocatedSequenceFeatures();
+        checkExonSequences();
+    }
+
+    public void testTransferToLocatedSequenceFeaturesManyChromosomes() throws Exception {
+        Exon[] exons = new Exon[6];
+        osw.beginTransaction();
+        for (int i = 0; i < exons.length; i++) {
+            Chromosome chr =
+                (Chromosome) DynamicUtil.createObject(Collections.singleton(Chromosome.class));
+            chr.setPrimaryIdentifier("chromosome_" + i);
+            Sequence chrSequence =
+                (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
+            PendingClob clob = new PendingClob(storedChrSequence);
+            chrSequence.setResidues(clob.subSequence(0, storedChrSequence.length()));
+            chr.setSequence(chrSequence);
+            exons[i] = (Exon) DynamicUtil.createObject(Collections.singleton(Exon.class));
+            exons[i].setPrimaryIdentifier("chromosome_" + i + "_exon");
+            Location loc = createLocation(chr, exons[i], "1", 1673 + i * 100, 1759 + i * 100);
+            osw.store(chrSequence);
+            osw.store(chr);
+            osw.store(exons[i]);
+            osw.store(loc);
+        }
+        osw.commitTransaction();
+
+        TransferSequences ts = new TransferSequences(osw);
+        ts.setThreads(3);
+        ts.transferToLocatedSequenceFeatures();
+        checkExonSequences();
+
+        ObjectStore os = osw.getObjectStore();
+        for (int i = 0; i < exons.length; i++) {
+            Exon resExon = (Exon) os.getObjectById(exons[i].getId());
+            assertEquals(storedChrSequence.substring(1672 + i * 100, 1759 + i * 100),
+                    resExon.getSequence().getResidues().toString());
+        }
+    }
+
+    public void testTransferToLocatedSequenceFeaturesSeveralLocations() throws Exception {
+        osw.beginTransaction();
+        Chromosome[] chrs = new Chromosome[2];
+        for (int i = 0; i < chrs.length; i++) {
+            chrs[i] =
+                (Chromosome) DynamicUtil.createObject(Collections.singleton(Chromosome.class));
+            chrs[i].setPrimaryIdentifier("chromosome_" + i);
+            Sequence chrSequence =
+                (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
+            PendingClob clob = new PendingClob(storedChrSequence);
+            chrSequence.setResidues(clob.subSequence(0, storedChrSequence.length()));
+            chrs[i].setSequence(chrSequence);
+            osw.store(chrSequence);
+            osw.store(chrs[i]);
+        }
+        Exon exon = (Exon) DynamicUtil.createObject(Collections.singleton(Exon.class));
+        exon.setPrimaryIdentifier("several_locations_exon");
+        osw.store(exon);
+        // the second chromosome is read too, but the first has the lower id
+        osw.store(createLocation(chrs[1], exon, "1", 100, 200));
+        osw.store(createLocation(chrs[0], exon, "1", 300, 400));
+        osw.store(createLocation(chrs[0], exon, "1", 500, 600));
+        osw.commitTransaction();
+
+        TransferSequences ts = new TransferSequences(osw);
+        ts.setThreads(2);
+        ts.transferToLocatedSequenceFeatures();
+
+        osw.flushObjectById();
+        Exon resExon = (Exon) osw.getObjectStore().getObjectById(exon.getId());
+        assertEquals(storedChrSequence.substring(499, 600),
+                resExon.getSequence().getResidues().toString());
+        assertEquals(new Integer(101), resExon.getLength());
+    }
+
     public void testTranscriptSequence() throws Exception {
         TransferSequences ts = new TransferSequences(osw);
         ts.transferToLocatedSequenceFeatures();
@@ -0,0 +1,93 @@
+package org.intermine.bio.web.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChromosomeIntervalsTest {
+
+    // sizes either side of the powers of two, where the implicit tree gains a level
+    private static final int[] SIZES = {0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63,
+        64, 65, 1023, 1024, 1025, 4095, 4096, 4097};
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(20151017L);
+        for (int n : SIZES) {
+            for (int maxLength : new int[] {1, 10, 1000, 100000}) {
+                ChromosomeIntervals intervals = build(random, n, 100000, maxLength);
+                for (int i = 0; i < 200; i++) {
+                    int start = random.nextInt(110000) - 5000;
+                    int end = start + random.nextInt(maxLength * 2);
+                    check(intervals, start, end);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTouchingEndpoints() {
+        Random random = new Random(42L);
+        for (int n : SIZES) {
+            ChromosomeIntervals intervals = build(random, n, 10000, 100);
+            for (int i = 0; i < intervals.size(); i++) {
+                int start = intervals.getStart(i);
+                int end = intervals.getEnd(i);
+                // regions that share only the first or last base of the location
+                check(intervals, start - 50, start);
+                check(intervals, end, end + 50);
+                check(intervals, start, start);
+                check(intervals, end, end);
+                // regions that stop one base short of the location
+                check(intervals, start - 50, start - 1);
+                check(intervals, end + 1, end + 50);
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        ChromosomeIntervals intervals = new ChromosomeIntervals.Builder().build();
+        assertEquals(0, intervals.size());
+        assertEquals(0, intervals.findOverlaps(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+    }
+
+    @Test
+    public void testReversedLocation() {
+        ChromosomeIntervals.Builder builder = new ChromosomeIntervals.Builder();
+        builder.add(200, 100, 7, (short) 3);
+        ChromosomeIntervals intervals = builder.build();
+        assertEquals(100, intervals.getStart(0));
+        assertEquals(200, intervals.getEnd(0));
+        assertEquals(7, intervals.getId(0));
+        assertEquals(3, intervals.getType(0));
+        assertArrayEquals(new int[] {0}, intervals.findOverlaps(200, 300));
+        assertArrayEquals(new int[0], intervals.findOverlaps(201, 300));
+    }
+
+    private static ChromosomeIntervals build(Random random, int n, int length, int maxLength) {
+        ChromosomeIntervals.Builder builder = new ChromosomeIntervals.Builder();
+        for (int i = 0; i < n; i++) {
+            int start = random.nextInt(length);
+            builder.add(start, start + random.nextInt(maxLength), i, (short) (i % 5));
+        }
+        return builder.build();
+    }
+
+    private static void check(ChromosomeIntervals intervals, int start, int end) {
+        int[] expected = new int[intervals.size()];
+        int count = 0;
+        for (int i = 0; i < intervals.size(); i++) {
+            if (intervals.getStart(i) <= end && intervals.getEnd(i) >= start) {
+                expected[count++] = i;
+            }
+        }
+        assertArrayEquals("overlaps of " + start + ".." + end + " in " + intervals.size()
+                + " locations", Arrays.copyOf(expected, count),
+                intervals.findOverlaps(start, end));
+    }
+}
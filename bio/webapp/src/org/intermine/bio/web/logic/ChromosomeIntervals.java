@@ -0,0 +1,239 @@
+package org.intermine.bio.web.logic;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * The locations of the features on one chromosome, for finding the features that overlap a
+ * region without querying the database.
+ * <p>
+ * The locations are held in arrays sorted by start, which are also an implicit binary tree: the
+ * location at index i is a node at the level of the lowest unset bit of i, and the tree records
+ * the greatest end in the subtree of each node, so a search only visits the subtrees that can
+ * hold overlapping locations.
+ *
+ * @author intermine
+ */
+public final class ChromosomeIntervals
+{
+    // searching every location of a subtree is faster than descending it below this level
+    private static final int SCAN_LEVEL = 3;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] ids;
+    private final short[] types;
+    private final int[] maxEnds;
+    private final int rootLevel;
+
+    private ChromosomeIntervals(int[] starts, int[] ends, int[] ids, short[] types) {
+        this.starts = starts;
+        this.ends = ends;
+        this.ids = ids;
+        this.types = types;
+        this.maxEnds = new int[starts.length];
+        this.rootLevel = index();
+    }
+
+    /**
+     * @return the number of locations
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * @param i the index of a location
+     * @return the start of the location
+     */
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @param i the index of a location
+     * @return the end of the location
+     */
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    /**
+     * @param i the index of a location
+     * @return the id of the feature at the location
+     */
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    /**
+     * @param i the index of a location
+     * @return the number given by the Builder to the type of the feature at the location
+     */
+    public short getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * Find the locations that overlap a region, including those that only share its first or
+     * last base.
+     *
+     * @param start the start of the region
+     * @param end the end of the region
+     * @return the indexes of the locations, in order of start
+     */
+    public int[] findOverlaps(int start, int end) {
+        int n = starts.length;
+        int[] retval = new int[16];
+        int count = 0;
+        if (rootLevel < 0) {
+            return new int[0];
+        }
+        // the nodes to visit, their levels, and whether their left subtree has been visited
+        int[] stackNodes = new int[64];
+        int[] stackLevels = new int[64];
+        boolean[] stackLeftDone = new boolean[64];
+        int top = 0;
+        stackNodes[top] = (1 << rootLevel) - 1;
+        stackLevels[top] = rootLevel;
+        stackLeftDone[top++] = false;
+        while (top > 0) {
+            top--;
+            int node = stackNodes[top];
+            int level = stackLevels[top];
+            if (level <= SCAN_LEVEL) {
+                int from = node >> level << level;
+                int to = Math.min(from + (1 << (level + 1)) - 1, n);
+                for (int i = from; i < to && starts[i] <= end; i++) {
+                    if (ends[i] >= start) {
+                        if (count == retval.length) {
+                            retval = Arrays.copyOf(retval, count * 2);
+                        }
+                        retval[count++] = i;
+                    }
+                }
+            } else if (!stackLeftDone[top]) {
+                int left = node - (1 << (level - 1));
+                stackLeftDone[top++] = true;
+                // a left child beyond the end of the arrays may still have children within them
+                if (left >= n || maxEnds[left] >= start) {
+                    stackNodes[top] = left;
+                    stackLevels[top] = level - 1;
+                    stackLeftDone[top++] = false;
+                }
+            } else if (node < n && starts[node] <= end) {
+                if (ends[node] >= start) {
+                    if (count == retval.length) {
+                        retval = Arrays.copyOf(retval, count * 2);
+                    }
+                    retval[count++] = node;
+                }
+                stackNodes[top] = node + (1 << (level - 1));
+                stackLevels[top] = level - 1;
+                stackLeftDone[top++] = false;
+            }
+        }
+        return Arrays.copyOf(retval, count);
+    }
+
+    /**
+     * Record the greatest end in the subtree of each node, from the leaves up.
+     *
+     * @return the level of the root, or -1 if there are no locations
+     */
+    private int index() {
+        int n = starts.length;
+        if (n == 0) {
+            return -1;
+        }
+        // the rightmost node of the tree built so far, and the greatest end in its subtree
+        int last = 0;
+        int lastMax = 0;
+        for (int i = 0; i < n; i += 2) {
+            last = i;
+            lastMax = ends[i];
+            maxEnds[i] = ends[i];
+        }
+        int level;
+        for (level = 1; (1L << level) <= n; level++) {
+            int half = 1 << (level - 1);
+            for (int i = (half << 1) - 1; i < n; i += half << 2) {
+                // a right child beyond the end of the arrays stands for the rightmost subtree
+                int rightMax = (i + half < n) ? maxEnds[i + half] : lastMax;
+                maxEnds[i] = Math.max(ends[i], Math.max(maxEnds[i - half], rightMax));
+            }
+            last = (((last >> level) & 1) != 0) ? last - half : last + half;
+            if (last < n && maxEnds[last] > lastMax) {
+                lastMax = maxEnds[last];
+            }
+        }
+        return level - 1;
+    }
+
+    /**
+     * Collects the locations on a chromosome.
+     */
+    public static final class Builder
+    {
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private int[] ids = new int[1024];
+        private short[] types = new short[1024];
+        private int size = 0;
+
+        /**
+         * Add a location.
+         *
+         * @param start the start of the location
+         * @param end the end of the location
+         * @param id the id of the feature at the location
+         * @param type a number for the type of the feature
+         */
+        public void add(int start, int end, int id, short type) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+            }
+            starts[size] = Math.min(start, end);
+            ends[size] = Math.max(start, end);
+            ids[size] = id;
+            types[size] = type;
+            size++;
+        }
+
+        /**
+         * @return the locations added, sorted by start
+         */
+        public ChromosomeIntervals build() {
+            // sort the starts along with the positions they came from
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) starts[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedStarts = new int[size];
+            int[] sortedEnds = new int[size];
+            int[] sortedIds = new int[size];
+            short[] sortedTypes = new short[size];
+            for (int i = 0; i < size; i++) {
+                int from = (int) order[i];
+                sortedStarts[i] = starts[from];
+                sortedEnds[i] = ends[from];
+                sortedIds[i] = ids[from];
+                sortedTypes[i] = types[from];
+            }
+            return new ChromosomeIntervals(sortedStarts, sortedEnds, sortedIds, sortedTypes);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.intermine.bio.web.logic;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.bio.Chromosome;
+import org.intermine.model.bio.Location;
+import org.intermine.model.bio.Organism;
+import org.intermine.model.bio.SequenceFeature;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * The locations of the sequence features on the chromosomes of each organism, held in memory so
+ * that genomic region searches find the features overlapping all their regions without running
+ * a query per region.
+ * <p>
+ * The locations of an organism are read with one query the first time the organism is searched,
+ * and kept for the life of the ObjectStore, as the production database does not change. Each
+ * organism is read at most once, by the first search that asks for it; searches of the same
+ * organism wait for that read, while searches of other organisms go ahead.
+ *
+ * @author intermine
+ */
+public final class GenomicRegionIndex
+{
+    private static final Logger LOG = Logger.getLogger(GenomicRegionIndex.class);
+    private static final int BATCH_SIZE = 10000;
+
+    private static final Map<ObjectStore, GenomicRegionIndex> INSTANCES =
+        new IdentityHashMap<ObjectStore, GenomicRegionIndex>();
+
+    private final ObjectStore os;
+    // chromosome primaryIdentifier to locations, for each organism short name
+    private final ConcurrentMap<String, FutureTask<Map<String, ChromosomeIntervals>>> organisms =
+        new ConcurrentHashMap<String, FutureTask<Map<String, ChromosomeIntervals>>>();
+    // the feature classes, numbered by their position
+    private final List<Class<?>> types = new CopyOnWriteArrayList<Class<?>>();
+    private final Map<Class<?>, Short> typeNumbers = new HashMap<Class<?>, Short>();
+
+    private GenomicRegionIndex(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Get the index for an ObjectStore.
+     *
+     * @param os the ObjectStore the features are in
+     * @return the index
+     */
+    public static synchronized GenomicRegionIndex getInstance(ObjectStore os) {
+        GenomicRegionIndex retval = INSTANCES.get(os);
+        if (retval == null) {
+            retval = new GenomicRegionIndex(os);
+            INSTANCES.put(os, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Get the locations of the features of an organism, reading them if this is the first time
+     * the organism has been asked for.
+     *
+     * @param organismName the short name of the organism
+     * @return a map from chromosome primaryIdentifier to the locations on that chromosome
+     */
+    public Map<String, ChromosomeIntervals> getChromosomes(final String organismName) {
+        FutureTask<Map<String, ChromosomeIntervals>> task = organisms.get(organismName);
+        if (task == null) {
+            FutureTask<Map<String, ChromosomeIntervals>> newTask =
+                new FutureTask<Map<String, ChromosomeIntervals>>(
+                        new Callable<Map<String, ChromosomeIntervals>>() {
+                            @Override
+                            public Map<String, ChromosomeIntervals> call() {
+                                return Collections.unmodifiableMap(read(organismName));
+                            }
+                        });
+            task = organisms.putIfAbsent(organismName, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading the locations of "
+                    + organismName, e);
+        } catch (ExecutionException e) {
+            // forget the failure so that the next search reads the organism again
+            organisms.remove(organismName, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed to read the locations of " + organismName, cause);
+        }
+    }
+
+    /**
+     * Get the class of the feature at a location.
+     *
+     * @param intervals the locations on a chromosome
+     * @param i the index of a location
+     * @return the class of the feature
+     */
+    public Class<?> getType(ChromosomeIntervals intervals, int i) {
+        return types.get(intervals.getType(i));
+    }
+
+    private Map<String, ChromosomeIntervals> read(String organismName) {
+        long startTime = System.currentTimeMillis();
+
+        QueryClass qcOrg = new QueryClass(Organism.class);
+        QueryClass qcChr = new QueryClass(Chromosome.class);
+        QueryClass qcFeature = new QueryClass(SequenceFeature.class);
+        QueryClass qcLoc = new QueryClass(Location.class);
+
+        Query q = new Query();
+        q.addFrom(qcLoc);
+        q.addFrom(qcFeature);
+        q.addFrom(qcChr);
+        q.addFrom(qcOrg);
+        q.addToSelect(new QueryField(qcChr, "primaryIdentifier"));
+        q.addToSelect(new QueryField(qcLoc, "start"));
+        q.addToSelect(new QueryField(qcLoc, "end"));
+        q.addToSelect(new QueryField(qcFeature, "id"));
+        q.addToSelect(new QueryField(qcFeature, "class"));
+
+        ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
+        constraints.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(qcFeature, "organism"), ConstraintOp.CONTAINS, qcOrg));
+        constraints.addConstraint(new SimpleConstraint(new QueryField(qcOrg, "shortName"),
+                ConstraintOp.EQUALS, new QueryValue(organismName)));
+        constraints.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(qcLoc, "feature"), ConstraintOp.CONTAINS, qcFeature));
+        constraints.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(qcLoc, "locatedOn"), ConstraintOp.CONTAINS, qcChr));
+        q.setConstraint(constraints);
+
+        Map<String, ChromosomeIntervals.Builder> builders =
+            new HashMap<String, ChromosomeIntervals.Builder>();
+        Results results = os.execute(q, BATCH_SIZE, true, false, false);
+        int count = 0;
+        for (Object o : results) {
+            ResultsRow<?> row = (ResultsRow<?>) o;
+            String chr = (String) row.get(0);
+            Integer start = (Integer) row.get(1);
+            Integer end = (Integer) row.get(2);
+            if (chr == null || start == null || end == null) {
+                continue;
+            }
+            ChromosomeIntervals.Builder builder = builders.get(chr);
+            if (builder == null) {
+                builder = new ChromosomeIntervals.Builder();
+                builders.put(chr, builder);
+            }
+            builder.add(start.intValue(), end.intValue(), ((Integer) row.get(3)).intValue(),
+                    getTypeNumber((Class<?>) row.get(4)));
+            count++;
+        }
+
+        Map<String, ChromosomeIntervals> retval = new HashMap<String, ChromosomeIntervals>();
+        for (Map.Entry<String, ChromosomeIntervals.Builder> entry : builders.entrySet()) {
+            retval.put(entry.getKey(), entry.getValue().build());
+        }
+        LOG.info("Read " + count + " locations on " + retval.size() + " chromosomes of "
+                + organismName + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        return retval;
+    }
+
+    // synchronized as organisms may be read at the same time
+    private synchronized short getTypeNumber(Class<?> type) {
+        Short retval = typeNumbers.get(type);
+        if (retval == null) {
+            retval = Short.valueOf((short) types.size());
+            types.add(type);
+            typeNumbers.put(type, retval);
+        }
+        return retval.shortValue();
+    }
+}
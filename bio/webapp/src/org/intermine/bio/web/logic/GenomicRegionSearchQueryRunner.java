@@ -11,6 +11,7 @@ package org.intermine.bio.web.logic;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -18,14 +19,22 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.results.ExportResultsIterator;
@@ -37,6 +46,7 @@ import org.intermine.metadata.ConstraintOp;
 import org.intermine.model.bio.SOTerm;
 import org.intermine.model.bio.SequenceFeature;
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
@@ -55,6 +65,22 @@ import org.intermine.web.logic.session.SessionMethods;
  */
 public class GenomicRegionSearchQueryRunner implements Runnable
 {
+    private static final Logger LOG = Logger.getLogger(GenomicRegionSearchQueryRunner.class);
+    // the number of regions searched together, and whose features are read with one query
+    private static final int CHUNK_SIZE = 200;
+    private static final int IDENTIFIER_BATCH_SIZE = 1000;
+    // the position of the feature type in the rows of results
+    private static final int FEATURE_TYPE_COLUMN = 3;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "genomic-region-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     private HttpServletRequest request = null;
     private String spanUUIDString = null;
     private GenomicRegionSearchConstraint grsc = null;
@@ -109,7 +135,9 @@ public class GenomicRegionSearchQueryRunner implements Runnable
         request.getSession().setAttribute("spanConstraintMap", spanConstraintMap);
         request.setAttribute("spanQueryTotalCount", grsc.getGenomicRegionList().size());
 
-        (new Thread(this)).start();
+        Thread thread = new Thread(this, "genomic-region-search " + spanUUIDString);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     @Override
@@ -158,63 +186,212 @@ public class GenomicRegionSearchQueryRunner implements Runnable
             spanOverlapFullStatMap.put(spanUUIDString, spanOverlapResultStatMap);
             request.getSession().setAttribute("spanOverlapFullStatMap", spanOverlapFullStatMap);
 
+            ObjectStore os = SessionMethods.getInterMineAPI(request.getSession()).getObjectStore();
             try {
-                ObjectStore os = SessionMethods.getInterMineAPI(
-                        request.getSession()).getObjectStore();
+                searchIndex(os, spanOverlapResultDisplayMap, spanOverlapResultStatMap);
+            } catch (Exception e) {
+                LOG.warn("Could not search the genomic region index, running a query per region",
+                        e);
+                try {
+                    searchQueries(os, spanOverlapResultDisplayMap, spanOverlapResultStatMap);
+                } catch (Exception e2) {
+                    LOG.error("Genomic region search failed", e2);
+                }
+            }
+        }
+    }
 
-                for (Entry<GenomicRegion, Query> e : queryMap.entrySet()) {
-                    Results results = os.execute(e.getValue());
+    /**
+     * Find the features in all the regions from the GenomicRegionIndex, in chunks of regions that
+     * are searched in parallel. The results of each chunk are added to the result maps in the
+     * order of the regions as soon as they and the chunks before them are ready, so the results
+     * page can show them while the rest are found.
+     */
+    private void searchIndex(final ObjectStore os,
+            Map<GenomicRegion, List<List<String>>> resultMap,
+            Map<GenomicRegion, Map<String, Integer>> statMap) throws Exception {
+        final GenomicRegionIndex index = GenomicRegionIndex.getInstance(os);
+        final Map<String, ChromosomeIntervals> chromosomes =
+            index.getChromosomes(grsc.getOrgName());
+
+        List<GenomicRegion> regions = new ArrayList<GenomicRegion>(queryMap.keySet());
+        List<Future<List<List<List<String>>>>> futures =
+            new ArrayList<Future<List<List<List<String>>>>>();
+        for (int i = 0; i < regions.size(); i += CHUNK_SIZE) {
+            final List<GenomicRegion> chunk =
+                regions.subList(i, Math.min(i + CHUNK_SIZE, regions.size()));
+            futures.add(EXECUTOR.submit(new Callable<List<List<List<String>>>>() {
+                @Override
+                public List<List<List<String>>> call() {
+                    return findFeatures(os, index, chromosomes, chunk);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                List<List<List<String>>> chunkResults = futures.get(i).get();
+                for (int j = 0; j < chunkResults.size(); j++) {
+                    addResults(regions.get(i * CHUNK_SIZE + j), chunkResults.get(j), resultMap,
+                            statMap);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
 
-                    List<List<String>> spanResults = new ArrayList<List<String>>();
+    /**
+     * Find the features that overlap each of some regions, as rows of the columns selected by
+     * GenomicRegionSearchUtil.createQueryList.
+     */
+    private List<List<List<String>>> findFeatures(ObjectStore os, GenomicRegionIndex index,
+            Map<String, ChromosomeIntervals> chromosomes, List<GenomicRegion> regions) {
+        Set<Class<?>> featureTypes = grsc.getFeatureTypes();
+        boolean extended = grsc.getExtendedRegionSize() > 0;
+
+        // the index of each overlapping location, for each region
+        List<int[]> overlaps = new ArrayList<int[]>();
+        Set<Integer> ids = new HashSet<Integer>();
+        for (GenomicRegion region : regions) {
+            ChromosomeIntervals intervals = chromosomes.get(region.getChr());
+            int[] found = new int[0];
+            if (intervals != null) {
+                found = intervals.findOverlaps(
+                        (extended ? region.getExtendedStart() : region.getStart()).intValue(),
+                        (extended ? region.getExtendedEnd() : region.getEnd()).intValue());
+                int count = 0;
+                for (int i : found) {
+                    if (featureTypes.contains(index.getType(intervals, i))) {
+                        found[count++] = i;
+                        ids.add(Integer.valueOf(intervals.getId(i)));
+                    }
+                }
+                found = Arrays.copyOf(found, count);
+            }
+            overlaps.add(found);
+        }
 
-                    Map<String, Integer> spanStatMap = new HashMap<String, Integer>();
-                    ValueComparator bvc =  new ValueComparator(spanStatMap);
-                    @SuppressWarnings("unchecked")
-                    TreeMap<String, Integer> sortedStatMap = new TreeMap<String, Integer>(bvc);
+        Map<Integer, String[]> identifiers = getIdentifiers(os, ids);
+        List<List<List<String>>> retval = new ArrayList<List<List<String>>>();
+        for (int r = 0; r < regions.size(); r++) {
+            String chr = regions.get(r).getChr();
+            ChromosomeIntervals intervals = chromosomes.get(chr);
+            // the query was distinct
+            Set<List<String>> rows = new LinkedHashSet<List<String>>();
+            for (int i : overlaps.get(r)) {
+                Integer id = Integer.valueOf(intervals.getId(i));
+                String[] featureIdentifiers = identifiers.get(id);
+                List<String> row = new ArrayList<String>();
+                row.add(id.toString());
+                row.add(featureIdentifiers == null ? "" : featureIdentifiers[0]);
+                row.add(featureIdentifiers == null ? "" : featureIdentifiers[1]);
+                row.add(index.getType(intervals, i).getSimpleName());
+                row.add(chr);
+                row.add(String.valueOf(intervals.getStart(i)));
+                row.add(String.valueOf(intervals.getEnd(i)));
+                rows.add(row);
+            }
+            retval.add(new ArrayList<List<String>>(rows));
+        }
+        return retval;
+    }
 
-                    if (results == null || results.isEmpty()) {
-                        spanOverlapResultDisplayMap.put(e.getKey(), null);
-                    }
-                    else {
-                        for (Iterator<?> iter = results.iterator(); iter.hasNext();) {
-                            ResultsRow<?> row = (ResultsRow<?>) iter.next();
-
-                            List<String> resultRow = new ArrayList<String>();
-
-                            for (Object o : row) {
-                                String item = new String();
-
-                                // NULL for symbol or PID
-                                o = o == null ? new String() : o;
-
-                                if (o instanceof Class) {
-                                    item = ((Class) o).getSimpleName();
-                                    // add class stat to spanStatMap
-                                    if (spanStatMap.containsKey(item)) {
-                                        spanStatMap.put(item, spanStatMap.get(item) + 1);
-                                    } else {
-                                        spanStatMap.put(item, 1);
-                                    }
-                                } else {
-                                    item = o.toString();
-                                }
-
-                                resultRow.add(item);
-                            }
-                            spanResults.add(resultRow);
-                        }
-                        spanOverlapResultDisplayMap.put(e.getKey(), spanResults);
+    /**
+     * Read the primaryIdentifier and symbol of some features, with "" for null values.
+     */
+    private static Map<Integer, String[]> getIdentifiers(ObjectStore os, Set<Integer> ids) {
+        Map<Integer, String[]> retval = new HashMap<Integer, String[]>();
+        List<Integer> idList = new ArrayList<Integer>(ids);
+        for (int i = 0; i < idList.size(); i += IDENTIFIER_BATCH_SIZE) {
+            QueryClass qcFeature = new QueryClass(SequenceFeature.class);
+            QueryField qfFeatureId = new QueryField(qcFeature, "id");
+            Query q = new Query();
+            q.addFrom(qcFeature);
+            q.addToSelect(qfFeatureId);
+            q.addToSelect(new QueryField(qcFeature, "primaryIdentifier"));
+            q.addToSelect(new QueryField(qcFeature, "symbol"));
+            q.setConstraint(new BagConstraint(qfFeatureId, ConstraintOp.IN,
+                    idList.subList(i, Math.min(i + IDENTIFIER_BATCH_SIZE, idList.size()))));
+            for (Object o : os.execute(q, IDENTIFIER_BATCH_SIZE, true, false, false)) {
+                ResultsRow<?> row = (ResultsRow<?>) o;
+                retval.put((Integer) row.get(0), new String[] {
+                    row.get(1) == null ? "" : row.get(1).toString(),
+                    row.get(2) == null ? "" : row.get(2).toString()});
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Run the query of each region in turn.
+     */
+    private void searchQueries(ObjectStore os,
+            Map<GenomicRegion, List<List<String>>> resultMap,
+            Map<GenomicRegion, Map<String, Integer>> statMap) {
+        for (Entry<GenomicRegion, Query> e : queryMap.entrySet()) {
+            Results results = os.execute(e.getValue());
+
+            List<List<String>> spanResults = new ArrayList<List<String>>();
+            for (Iterator<?> iter = results.iterator(); iter.hasNext();) {
+                ResultsRow<?> row = (ResultsRow<?>) iter.next();
+
+                List<String> resultRow = new ArrayList<String>();
+
+                for (Object o : row) {
+                    String item = new String();
 
-                        sortedStatMap.putAll(spanStatMap);
-                        spanOverlapResultStatMap.put(e.getKey(), sortedStatMap);
+                    // NULL for symbol or PID
+                    o = o == null ? new String() : o;
+
+                    if (o instanceof Class) {
+                        item = ((Class) o).getSimpleName();
+                    } else {
+                        item = o.toString();
                     }
+
+                    resultRow.add(item);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                spanResults.add(resultRow);
             }
+            addResults(e.getKey(), spanResults, resultMap, statMap);
         }
     }
 
+    /**
+     * Add the features found in a region to the result maps, with the count of each type.
+     */
+    private static void addResults(GenomicRegion region, List<List<String>> spanResults,
+            Map<GenomicRegion, List<List<String>>> resultMap,
+            Map<GenomicRegion, Map<String, Integer>> statMap) {
+        if (spanResults.isEmpty()) {
+            resultMap.put(region, null);
+            return;
+        }
+
+        Map<String, Integer> spanStatMap = new HashMap<String, Integer>();
+        ValueComparator bvc =  new ValueComparator(spanStatMap);
+        @SuppressWarnings("unchecked")
+        TreeMap<String, Integer> sortedStatMap = new TreeMap<String, Integer>(bvc);
+
+        for (List<String> row : spanResults) {
+            // add class stat to spanStatMap
+            String item = row.get(FEATURE_TYPE_COLUMN);
+            if (spanStatMap.containsKey(item)) {
+                spanStatMap.put(item, spanStatMap.get(item) + 1);
+            } else {
+                spanStatMap.put(item, 1);
+            }
+        }
+        resultMap.put(region, spanResults);
+
+        sortedStatMap.putAll(spanStatMap);
+        statMap.put(region, sortedStatMap);
+    }
+
     /**
      * Query the information of all the organisms and their chromosomes' names and length. The
      * results is stored in a Map. The result data will be used to validate users' span data.
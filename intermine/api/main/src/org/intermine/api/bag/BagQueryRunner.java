@@ -23,6 +23,7 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.intermine.InterMineException;
+import org.intermine.api.config.ClassKeyHelper;
 import org.intermine.api.template.ApiTemplate;
 import org.intermine.api.template.TemplateManager;
 import org.intermine.metadata.FieldDescriptor;
@@ -51,6 +52,7 @@ public class BagQueryRunner
     private Map<String, List<FieldDescriptor>> classKeys;
     private BagQueryConfig bagQueryConfig;
     private TemplateManager templateManager;
+    private IdentifierIndexManager identifierIndexManager = null;
 
     /**
      * Construct with configured bag queries and a map of type -&gt; key fields.
@@ -70,6 +72,34 @@ public class BagQueryRunner
         this.templateManager = templateManager;
     }
 
+    /**
+     * Resolve the identifiers of some types from in-memory indexes, rather than by running the
+     * bag queries, once the indexes are ready.
+     *
+     * @param identifierIndexManager the indexes, or null to always run the bag queries
+     */
+    public void setIdentifierIndexManager(IdentifierIndexManager identifierIndexManager) {
+        this.identifierIndexManager = identifierIndexManager;
+    }
+
+    /**
+     * Start building the indexes of the bag queries for each indexed type, without an extra
+     * constraint value.
+     *
+     * @throws ClassNotFoundException if an indexed type isn't in the model
+     */
+    public void prepareIdentifierIndexes() throws ClassNotFoundException {
+        if (identifierIndexManager == null) {
+            return;
+        }
+        for (String type : identifierIndexManager.getTypes()) {
+            Class<?> typeCls = Class.forName(model.getPackageName() + "." + type);
+            for (BagQuery bq : getBagQueriesForType(bagQueryConfig, typeCls.getName())) {
+                getIdentifierIndex(bq, typeCls, null);
+            }
+        }
+    }
+
     /**
      * Given an input list of string identifiers search for corresponding objects. First run a
      * default query then any queries configured for the specified type.
@@ -152,9 +182,20 @@ public class BagQueryRunner
         boolean matchOnFirst = bagQueryConfig.getMatchOnFirst();
 
         for (BagQuery bq : queries) {
+            IdentifierIndex index = getIdentifierIndex(bq, typeCls, extraFieldValue);
             // run the next query on identifiers not yet resolved
             // OR all identifiers if matchOnFirst = FALSE
-            if (!unresolved.isEmpty() || !matchOnFirst) {
+            if (index != null && (!unresolved.isEmpty() || !matchOnFirst)) {
+                Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
+                Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
+                for (String inputString : new ArrayList<String>(toProcess)) {
+                    for (Integer id : index.getIds(inputString, caseSensitive)) {
+                        processMatch(resMap, unresolved, id, inputString);
+                    }
+                }
+                addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
+                            matchOnFirst, bq.matchesAreIssues());
+            } else if (!unresolved.isEmpty() || !matchOnFirst) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
                 try {
                     Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
@@ -188,7 +229,16 @@ public class BagQueryRunner
                 addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
                             matchOnFirst, bq.matchesAreIssues());
             }
-            if (!wildcardInput.isEmpty()) {
+            if (!wildcardInput.isEmpty() && index != null) {
+                Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
+                for (String wildcard : wildcardInput) {
+                    for (Integer id : index.getWildcardIds(wildcard)) {
+                        processMatch(resMap, wildcardUnresolved, id, wildcard);
+                    }
+                }
+                addWildcardResults(resMap, wildcardUnresolved, wildcardUnresolvedOriginal, bqr,
+                        bq, typeCls, matchOnFirst);
+            } else if (!wildcardInput.isEmpty()) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
 
                 Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
@@ -208,20 +258,8 @@ public class BagQueryRunner
                         }
                     }
                 }
-                for (Map.Entry<String, Set<Integer>> entry : resMap.entrySet()) {
-                    // This is a dummy issue just to give a message when running queries
-                    bqr.addIssue(BagQueryResult.WILDCARD, bq.getMessage(),
-                            entry.getKey(), new ArrayList<Object>(entry.getValue()));
-                    if (matchOnFirst) {
-                        addResults(resMap, wildcardUnresolved, bqr, bq.getMessage(),
-                                typeCls, true, matchOnFirst, bq.matchesAreIssues());
-                    } else {
-                        addResults(resMap, wildcardUnresolvedOriginal, bqr, bq.getMessage(),
-                                typeCls, true, matchOnFirst, bq.matchesAreIssues());
-                    }
-
-                }
-
+                addWildcardResults(resMap, wildcardUnresolved, wildcardUnresolvedOriginal, bqr,
+                        bq, typeCls, matchOnFirst);
             }
         }
 
@@ -231,6 +269,41 @@ public class BagQueryRunner
         return bqr;
     }
 
+    private void addWildcardResults(Map<String, Set<Integer>> resMap,
+            Set<String> wildcardUnresolved, Set<String> wildcardUnresolvedOriginal,
+            BagQueryResult bqr, BagQuery bq, Class<?> typeCls, boolean matchOnFirst)
+        throws InterMineException {
+        for (Map.Entry<String, Set<Integer>> entry : resMap.entrySet()) {
+            // This is a dummy issue just to give a message when running queries
+            bqr.addIssue(BagQueryResult.WILDCARD, bq.getMessage(),
+                    entry.getKey(), new ArrayList<Object>(entry.getValue()));
+            if (matchOnFirst) {
+                addResults(resMap, wildcardUnresolved, bqr, bq.getMessage(),
+                        typeCls, true, matchOnFirst, bq.matchesAreIssues());
+            } else {
+                addResults(resMap, wildcardUnresolvedOriginal, bqr, bq.getMessage(),
+                        typeCls, true, matchOnFirst, bq.matchesAreIssues());
+            }
+
+        }
+    }
+
+    /**
+     * Get the index of the identifiers found by a bag query, if the type is indexed and the
+     * index is ready.
+     */
+    private IdentifierIndex getIdentifierIndex(BagQuery bq, Class<?> typeCls,
+            String extraFieldValue) {
+        String type = TypeUtil.unqualifiedName(typeCls.getName());
+        if (identifierIndexManager == null || !identifierIndexManager.getTypes().contains(type)) {
+            return null;
+        }
+        // the default query depends on the class keys
+        String key = type + " " + bq + " keys=" + ClassKeyHelper.getKeyFields(classKeys, type)
+            + " extra=" + extraFieldValue;
+        return identifierIndexManager.getIndex(key, bq, extraFieldValue);
+    }
+
     private static void processMatch(Map<String, Set<Integer>> resMap, Set<String> unresolved,
         Integer id, String field) {
         Set<Integer> ids = resMap.get(field);
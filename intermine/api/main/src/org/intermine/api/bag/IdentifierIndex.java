@@ -0,0 +1,161 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The identifiers found by a bag query, for resolving input without running the query. Each value
+ * of the fields selected by the query is mapped, in lower case, to the ids of the objects in the
+ * rows it was found in.
+ * <p>
+ * The values are kept sorted, so wildcards are matched against the range of values that start
+ * with the text before the first '*' rather than against every value.
+ *
+ * @author intermine
+ */
+public final class IdentifierIndex implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // sorted lower case values, with the ids and original values for values[i] held in
+    // ids[starts[i]] to ids[starts[i + 1] - 1]
+    private final String[] values;
+    private final int[] starts;
+    private final int[] ids;
+    private final String[] originals;
+
+    private IdentifierIndex(String[] values, int[] starts, int[] ids, String[] originals) {
+        this.values = values;
+        this.starts = starts;
+        this.ids = ids;
+        this.originals = originals;
+    }
+
+    /**
+     * Create an index from the rows of a bag query, which hold the id of an object followed by
+     * the values that identify it.
+     * @param rows the rows of the query, each a List
+     * @return the index
+     */
+    public static IdentifierIndex create(Iterable<?> rows) {
+        Map<String, List<Object[]>> postings = new HashMap<String, List<Object[]>>();
+        int size = 0;
+        for (Object rowObj : rows) {
+            List<?> row = (List<?>) rowObj;
+            Integer id = (Integer) row.get(0);
+            for (int i = 1; i < row.size(); i++) {
+                Object fieldObject = row.get(i);
+                if (fieldObject != null) {
+                    String original = String.valueOf(fieldObject);
+                    String value = original.toLowerCase();
+                    List<Object[]> valuePostings = postings.get(value);
+                    if (valuePostings == null) {
+                        valuePostings = new ArrayList<Object[]>(1);
+                        postings.put(value, valuePostings);
+                    }
+                    // share the lower case string where the value already was
+                    valuePostings.add(new Object[] {original.equals(value) ? value : original,
+                        id});
+                    size++;
+                }
+            }
+        }
+
+        String[] values = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(values);
+        int[] starts = new int[values.length + 1];
+        int[] ids = new int[size];
+        String[] originals = new String[size];
+        int position = 0;
+        for (int i = 0; i < values.length; i++) {
+            starts[i] = position;
+            for (Object[] posting : postings.get(values[i])) {
+                originals[position] = (String) posting[0];
+                ids[position] = ((Integer) posting[1]).intValue();
+                position++;
+            }
+        }
+        starts[values.length] = position;
+        return new IdentifierIndex(values, starts, ids, originals);
+    }
+
+    /**
+     * Get the ids of the objects identified by some input.
+     * @param input the identifier
+     * @param caseSensitive true if the case of the identifier has to match too
+     * @return the ids, which may include duplicates
+     */
+    public List<Integer> getIds(String input, boolean caseSensitive) {
+        int i = Arrays.binarySearch(values, input.toLowerCase());
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> retval = new ArrayList<Integer>(starts[i + 1] - starts[i]);
+        for (int j = starts[i]; j < starts[i + 1]; j++) {
+            if (!caseSensitive || input.equals(originals[j])) {
+                retval.add(new Integer(ids[j]));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Get the ids of the objects identified by a wildcard, in which '*' matches any text and
+     * case is ignored.
+     * @param wildcard the wildcard
+     * @return the ids, which may include duplicates
+     */
+    public List<Integer> getWildcardIds(String wildcard) {
+        String lowerWildcard = wildcard.toLowerCase();
+        int star = lowerWildcard.indexOf('*');
+        String prefix = (star == -1) ? lowerWildcard : lowerWildcard.substring(0, star);
+        StringBuilder regex = new StringBuilder();
+        String[] parts = lowerWildcard.split("\\*", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (parts[i].length() > 0) {
+                regex.append(Pattern.quote(parts[i]));
+            }
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+
+        List<Integer> retval = new ArrayList<Integer>();
+        int from = Arrays.binarySearch(values, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        for (int i = from; i < values.length && values[i].startsWith(prefix); i++) {
+            if (pattern.matcher(values[i]).matches()) {
+                for (int j = starts[i]; j < starts[i + 1]; j++) {
+                    retval.add(new Integer(ids[j]));
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the number of distinct values in the index
+     */
+    public int size() {
+        return values.length;
+    }
+}
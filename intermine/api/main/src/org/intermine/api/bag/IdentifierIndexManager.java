@@ -0,0 +1,265 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.Results;
+
+/**
+ * Holds the IdentifierIndexes used by the BagQueryRunner to resolve the identifiers of some
+ * types without querying the database.
+ * <p>
+ * Indexes are built in a background thread the first time they are asked for, and the
+ * BagQueryRunner runs its queries until they are ready. Each index is saved in a directory for
+ * the serial number of the database, so it is read back rather than built again after a restart,
+ * and is not used once the database has been rebuilt.
+ *
+ * @author intermine
+ */
+public class IdentifierIndexManager
+{
+    private static final Logger LOG = Logger.getLogger(IdentifierIndexManager.class);
+    private static final String DIRECTORY_NAME = "identifier-index";
+    private static final String SUFFIX = ".idx";
+    // mark an index that is being built, or that can't be built for its query
+    private static final Object BUILDING = new Object();
+    private static final Object UNAVAILABLE = new Object();
+
+    private final ObjectStore os;
+    private final Set<String> types;
+    private final File directory;
+    private final ConcurrentMap<String, Object> indexes = new ConcurrentHashMap<String, Object>();
+    private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     * @param os the ObjectStore the bag queries are run on
+     * @param types the unqualified names of the types to index
+     * @param directory the directory to save the indexes in, or null to keep them in memory only
+     */
+    public IdentifierIndexManager(ObjectStore os, Collection<String> types, File directory) {
+        this.os = os;
+        this.types = Collections.unmodifiableSet(new HashSet<String>(types));
+        this.directory = getVersionDirectory(directory);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "identifier-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the unqualified names of the types that are indexed
+     */
+    public Set<String> getTypes() {
+        return types;
+    }
+
+    /**
+     * Get the index for a bag query, starting to build it if there isn't one yet.
+     * @param key a description of the query that changes if its results would
+     * @param bq the bag query
+     * @param extraFieldValue the value for the extra constraint of the query, if any
+     * @return the index, or null if it is not ready
+     */
+    public IdentifierIndex getIndex(final String key, final BagQuery bq,
+            final String extraFieldValue) {
+        Object index = indexes.get(key);
+        if (index == null && indexes.putIfAbsent(key, BUILDING) == null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    indexes.put(key, loadOrBuild(key, bq, extraFieldValue));
+                }
+            });
+        }
+        return (index instanceof IdentifierIndex) ? (IdentifierIndex) index : null;
+    }
+
+    /**
+     * Wait until the indexes asked for so far are ready, or can't be built.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException if the indexes could not be waited for
+     */
+    void awaitIndexes() throws InterruptedException, ExecutionException {
+        // the indexes are built in order on one thread, so they are done when this is
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        }).get();
+    }
+
+    /**
+     * Stop building indexes.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Object loadOrBuild(String key, BagQuery bq, String extraFieldValue) {
+        File file = (directory == null) ? null : new File(directory, digest(key) + SUFFIX);
+        if (file != null && file.exists()) {
+            try {
+                IdentifierIndex index = read(file, key);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not read identifier index " + file, e);
+            } catch (ClassNotFoundException e) {
+                LOG.warn("Could not read identifier index " + file, e);
+            }
+        }
+        long start = System.currentTimeMillis();
+        IdentifierIndex index;
+        try {
+            // a query for every identifier
+            Query q = bq.getQueryForWildcards(Collections.singleton("*"), extraFieldValue);
+            Results results = os.execute(q, 10000, true, false, false);
+            index = IdentifierIndex.create(results);
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Could not build identifier index for " + key, e);
+            return UNAVAILABLE;
+        } catch (RuntimeException e) {
+            // a query that couldn't handle the extra value, or an ObjectStoreException
+            LOG.warn("Could not build identifier index for " + key, e);
+            return UNAVAILABLE;
+        }
+        LOG.info("Built identifier index of " + index.size() + " values in "
+                + (System.currentTimeMillis() - start) + "ms for " + key);
+        if (file != null) {
+            try {
+                write(file, key, index);
+            } catch (IOException e) {
+                LOG.warn("Could not save identifier index " + file, e);
+                file.delete();
+            }
+        }
+        return index;
+    }
+
+    private static IdentifierIndex read(File file, String key)
+        throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file))));
+        try {
+            if (key.equals(in.readObject())) {
+                return (IdentifierIndex) in.readObject();
+            }
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String key, IdentifierIndex index) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile))));
+        try {
+            out.writeObject(key);
+            out.writeObject(index);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Get the directory to save the indexes of this build of the database in, removing the
+     * indexes of other builds.
+     */
+    private File getVersionDirectory(File parent) {
+        if (parent == null || !(os instanceof ObjectStoreInterMineImpl)) {
+            return null;
+        }
+        String serialNumber;
+        try {
+            serialNumber = MetadataManager.retrieve(((ObjectStoreInterMineImpl) os).getDatabase(),
+                    MetadataManager.SERIAL_NUMBER);
+        } catch (SQLException e) {
+            LOG.warn("Could not read the serial number, not saving identifier indexes", e);
+            return null;
+        }
+        if (serialNumber == null) {
+            return null;
+        }
+        File root = new File(parent, DIRECTORY_NAME);
+        File[] versions = root.listFiles();
+        if (versions != null) {
+            for (File version : versions) {
+                if (version.isDirectory() && !version.getName().equals(serialNumber)) {
+                    LOG.info("Removing identifier indexes for database " + version.getName());
+                    for (File file : version.listFiles()) {
+                        file.delete();
+                    }
+                    version.delete();
+                }
+            }
+        }
+        File retval = new File(root, serialNumber);
+        if (!retval.isDirectory() && !retval.mkdirs()) {
+            LOG.warn("Could not create " + retval + ", not saving identifier indexes");
+            return null;
+        }
+        return retval;
+    }
+
+    private static String digest(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new BigInteger(1, digest.digest(key.getBytes("UTF-8"))).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 is not available", e);
+        }
+    }
+}
@@ -10,30 +10,79 @@ package org.intermine.api.idresolution;
  *
  */
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
+import org.apache.log4j.Logger;
 import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.bag.BagQueryUpgrade;
 
 /**
+ * Runs identifier resolution jobs on a fixed number of threads.
+ * <p>
+ * Jobs wait in a queue for each Priority, and a thread only takes a background job when no
+ * interactive job can be run, so list upgrades started in the background do not delay the lists
+ * users are uploading. Each owner may have a limited number of jobs running at once, and the
+ * other jobs of that owner wait while the jobs of other owners are run.
+ * <p>
+ * Finished jobs are kept so that their results can be fetched, until they are removed or until
+ * they have been finished for longer than the retention period.
  *
  * @author Alex
  *
  */
 public final class IDResolver
 {
+    private static final Logger LOG = Logger.getLogger(IDResolver.class);
+
+    /** The default number of threads running jobs */
+    public static final int DEFAULT_THREADS = 4;
+    /** The default maximum number of running jobs per owner */
+    public static final int DEFAULT_MAX_JOBS_PER_OWNER = 2;
+    /** The default time that finished jobs are kept, in milliseconds */
+    public static final long DEFAULT_RETENTION = 3 * 60 * 60 * 1000L;
+
+    /**
+     * The order in which queued jobs are run.
+     */
+    public enum Priority {
+        /** work that a user is waiting for */
+        INTERACTIVE,
+        /** work that nobody is waiting for */
+        BACKGROUND
+    }
 
     /**
      * list of jobs
      */
     private final Map<UUID, Job> jobs = new ConcurrentHashMap<UUID, Job>();
+    private final Map<UUID, Long> finishedAt = new ConcurrentHashMap<UUID, Long>();
 
     private static IDResolver instance = new IDResolver();
 
+    // The pending tasks of each priority, and the number of running tasks of each owner, guarded
+    // by the queues themselves
+    private final Map<Priority, LinkedList<Task>> queues =
+        new EnumMap<Priority, LinkedList<Task>>(Priority.class);
+    private final Map<String, Integer> running = new HashMap<String, Integer>();
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private int threads = DEFAULT_THREADS;
+    private int maxJobsPerOwner = DEFAULT_MAX_JOBS_PER_OWNER;
+    private volatile long retention = DEFAULT_RETENTION;
+    private int workerCount = 0;
+
+    // Times that tasks waited in the queues
+    private long waitCount = 0;
+    private long totalWait = 0;
+    private long maxWait = 0;
+
     /**
      *
      * @return ID resolver
@@ -42,10 +91,38 @@ public final class IDResolver
         return instance;
     }
 
-    private ExecutorService threadPool;
-
     private IDResolver() {
-        this.threadPool = Executors.newCachedThreadPool();
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedList<Task>());
+        }
+    }
+
+    /**
+     * Sets the limits on running jobs. Threads are started as jobs are submitted, and threads
+     * beyond a lowered limit stop once their current job has finished.
+     *
+     * @param threads the number of jobs to run at once
+     * @param maxJobsPerOwner the maximum number of running jobs per owner
+     * @param retention the time in milliseconds to keep finished jobs for
+     */
+    public void configure(int threads, int maxJobsPerOwner, long retention) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (maxJobsPerOwner < 1) {
+            throw new IllegalArgumentException("maxJobsPerOwner must be positive: "
+                    + maxJobsPerOwner);
+        }
+        synchronized (queues) {
+            this.threads = threads;
+            this.maxJobsPerOwner = maxJobsPerOwner;
+            this.retention = retention;
+            while (workers.size() > threads) {
+                workers.remove(workers.size() - 1);
+            }
+            startWorkers();
+            queues.notifyAll();
+        }
     }
 
     /**
@@ -75,34 +152,77 @@ public final class IDResolver
     }
 
     /**
+     * Submit a job that is not limited per owner.
      *
      * @param runner bag query runner
      * @param input input
      * @return job
      */
     public Job submit(BagQueryRunner runner, JobInput input) {
+        return submit(runner, input, null);
+    }
+
+    /**
+     *
+     * @param runner bag query runner
+     * @param input input
+     * @param owner the user the job is run for, or null if the job is not limited per owner
+     * @return job
+     */
+    public Job submit(BagQueryRunner runner, JobInput input, String owner) {
         UUID id = UUID.randomUUID();
         Job job = new ResolutionJob(id, runner, input);
-        return submitJob(id, job);
+        return submitJob(id, job, owner);
     }
 
     /**
+     * Submit a job that is not limited per owner.
      *
      * @param upgrade upgrade
      * @return job
      */
     public Job submit(BagQueryUpgrade upgrade) {
+        return submit(upgrade, null);
+    }
+
+    /**
+     *
+     * @param upgrade upgrade
+     * @param owner the user the job is run for, or null if the job is not limited per owner
+     * @return job
+     */
+    public Job submit(BagQueryUpgrade upgrade, String owner) {
         UUID id = UUID.randomUUID();
         Job job = new UpgradeJob(id, upgrade);
-        return submitJob(id, job);
+        return submitJob(id, job, owner);
     }
 
-    private Job submitJob(UUID id, Job job) {
+    private Job submitJob(UUID id, Job job, String owner) {
+        removeExpiredJobs();
         jobs.put(id, job);
-        threadPool.submit(job);
+        enqueue(new Task(id, job, owner, Priority.INTERACTIVE));
         return job;
     }
 
+    /**
+     * Run some work on the threads that run the jobs, without keeping it as a job.
+     *
+     * @param work the work
+     * @param owner the user the work is run for, or null if it is not limited per owner
+     * @param priority the priority of the work
+     */
+    public void execute(Runnable work, String owner, Priority priority) {
+        enqueue(new Task(null, work, owner, priority));
+    }
+
+    private void enqueue(Task task) {
+        synchronized (queues) {
+            startWorkers();
+            queues.get(task.priority).add(task);
+            queues.notifyAll();
+        }
+    }
+
     /**
      *
      * @param uid id
@@ -112,11 +232,214 @@ public final class IDResolver
         if (uid == null) {
             return null;
         }
+        UUID id;
         try {
-            return jobs.remove(UUID.fromString(uid));
+            id = UUID.fromString(uid);
         } catch (IllegalArgumentException e) {
             return null;
         }
+        synchronized (queues) {
+            for (LinkedList<Task> queue : queues.values()) {
+                Iterator<Task> iter = queue.iterator();
+                while (iter.hasNext()) {
+                    if (id.equals(iter.next().id)) {
+                        iter.remove();
+                    }
+                }
+            }
+        }
+        finishedAt.remove(id);
+        return jobs.remove(id);
+    }
+
+    /**
+     * Removes the jobs that finished longer ago than the retention period.
+     */
+    public void removeExpiredJobs() {
+        long cutOff = System.currentTimeMillis() - retention;
+        Iterator<Map.Entry<UUID, Long>> iter = finishedAt.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<UUID, Long> entry = iter.next();
+            if (entry.getValue().longValue() < cutOff) {
+                iter.remove();
+                jobs.remove(entry.getKey());
+            }
+        }
     }
 
+    /**
+     * Returns the number of jobs and other work waiting for a thread.
+     *
+     * @return the number of pending tasks
+     */
+    public int getPendingCount() {
+        synchronized (queues) {
+            int pending = 0;
+            for (LinkedList<Task> queue : queues.values()) {
+                pending += queue.size();
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * Returns the mean time that jobs and other work have waited for a thread.
+     *
+     * @return the mean wait in milliseconds
+     */
+    public long getMeanQueueWait() {
+        synchronized (queues) {
+            return (waitCount == 0) ? 0 : totalWait / waitCount;
+        }
+    }
+
+    /**
+     * Returns the longest time that a job or other work has waited for a thread.
+     *
+     * @return the longest wait in milliseconds
+     */
+    public long getMaxQueueWait() {
+        synchronized (queues) {
+            return maxWait;
+        }
+    }
+
+    /**
+     * Stops the threads once their current jobs have finished, removing the jobs that have not
+     * started. Submitting another job starts them again.
+     */
+    public void shutdown() {
+        synchronized (queues) {
+            workers.clear();
+            for (LinkedList<Task> queue : queues.values()) {
+                for (Task task : queue) {
+                    if (task.id != null) {
+                        jobs.remove(task.id);
+                    }
+                }
+                queue.clear();
+            }
+            queues.notifyAll();
+        }
+    }
+
+    /**
+     * Must be called holding the queues lock.
+     */
+    private void startWorkers() {
+        while (workers.size() < threads) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            Thread thread = new Thread(worker, "IDResolver worker " + (workerCount++));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Takes the first task of the highest priority whose owner is running fewer than the maximum
+     * number of jobs, waiting until there is one.
+     *
+     * @return the task, or null if the worker should stop
+     */
+    private Task take(Worker worker) throws InterruptedException {
+        synchronized (queues) {
+            while (workers.contains(worker)) {
+                for (LinkedList<Task> queue : queues.values()) {
+                    Iterator<Task> iter = queue.iterator();
+                    while (iter.hasNext()) {
+                        Task task = iter.next();
+                        int ownerRunning = getRunning(task.owner);
+                        if (task.owner == null || ownerRunning < maxJobsPerOwner) {
+                            iter.remove();
+                            if (task.owner != null) {
+                                running.put(task.owner, Integer.valueOf(ownerRunning + 1));
+                            }
+                            long wait = System.currentTimeMillis() - task.submittedAt;
+                            waitCount++;
+                            totalWait += wait;
+                            maxWait = Math.max(maxWait, wait);
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug(task + " waited " + wait + "ms, mean wait "
+                                        + (totalWait / waitCount) + "ms");
+                            }
+                            return task;
+                        }
+                    }
+                }
+                queues.wait();
+            }
+            return null;
+        }
+    }
+
+    private void finished(Task task) {
+        if (task.id != null && jobs.containsKey(task.id)) {
+            finishedAt.put(task.id, Long.valueOf(System.currentTimeMillis()));
+        }
+        synchronized (queues) {
+            if (task.owner != null) {
+                int ownerRunning = getRunning(task.owner) - 1;
+                if (ownerRunning > 0) {
+                    running.put(task.owner, Integer.valueOf(ownerRunning));
+                } else {
+                    running.remove(task.owner);
+                }
+                // jobs of this owner may have been waiting
+                queues.notifyAll();
+            }
+        }
+    }
+
+    private int getRunning(String owner) {
+        Integer count = (owner == null) ? null : running.get(owner);
+        return (count == null) ? 0 : count.intValue();
+    }
+
+    private static final class Task
+    {
+        private final UUID id;
+        private final Runnable work;
+        private final String owner;
+        private final Priority priority;
+        private final long submittedAt = System.currentTimeMillis();
+
+        private Task(UUID id, Runnable work, String owner, Priority priority) {
+            this.id = id;
+            this.work = work;
+            this.owner = owner;
+            this.priority = priority;
+        }
+
+        @Override
+        public String toString() {
+            return priority + " " + ((id == null) ? work.getClass().getSimpleName() : "job " + id)
+                + " for " + owner;
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = take(this);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.work.run();
+                } catch (Throwable t) {
+                    LOG.error(task + " failed", t);
+                } finally {
+                    finished(task);
+                }
+            }
+        }
+    }
 }
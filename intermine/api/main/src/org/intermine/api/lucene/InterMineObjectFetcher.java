@@ -45,8 +45,10 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.pathquery.PathException;
 import org.intermine.util.DynamicUtil;
 import org.intermine.util.ObjectPipe;
@@ -80,6 +82,10 @@ public class InterMineObjectFetcher extends Thread
     Field idField = null;
     Field categoryField = null;
 
+    private Integer fromId = null;
+    private Integer toId = null;
+    private Set<Class<? extends InterMineObject>> indexedClasses = null;
+
     /**
      * initialize the documentfetcher thread
      * @param os
@@ -124,6 +130,24 @@ public class InterMineObjectFetcher extends Thread
         this.attributePrefixes = attributePrefixes;
     }
 
+    /**
+     * Only fetch the objects with ids in a range, so that several fetchers can share the work.
+     * @param fromId the lowest id to fetch
+     * @param toId the id after the highest to fetch
+     */
+    public void setIdRange(Integer fromId, Integer toId) {
+        this.fromId = fromId;
+        this.toId = toId;
+    }
+
+    /**
+     * Only fetch the objects of some classes, rather than all those not ignored.
+     * @param indexedClasses the classes of the objects to fetch
+     */
+    public void setIndexedClasses(Set<Class<? extends InterMineObject>> indexedClasses) {
+        this.indexedClasses = indexedClasses;
+    }
+
     /**
      * get list of fields contained in the fetched documents
      * @return fields
@@ -133,7 +157,8 @@ public class InterMineObjectFetcher extends Thread
     }
 
     /**
-     * fetch objects from database, create documents and add them to the queue
+     * fetch objects from database, create documents and add them to the queue. The queue is not
+     * finished, as it may be shared with other fetchers.
      */
     @Override
     @SuppressWarnings("unchecked")
@@ -156,7 +181,14 @@ public class InterMineObjectFetcher extends Thread
                 q.addToSelect(qc);
 
                 QueryField qf = new QueryField(qc, "class");
-                q.setConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+                ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+                if (indexedClasses != null) {
+                    cs.addConstraint(new BagConstraint(qf, ConstraintOp.IN, indexedClasses));
+                } else {
+                    cs.addConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+                }
+                addIdRange(cs, new QueryField(qc, "id"));
+                q.setConstraint(cs);
 
                 LOG.info("QUERY: " + q.toString());
 
@@ -187,9 +219,17 @@ public class InterMineObjectFetcher extends Thread
         } catch (Exception e) {
             LOG.warn(null, e);
         }
+    }
 
-        //notify main thread that we're done
-        indexingQueue.finish();
+    private void addIdRange(ConstraintSet cs, QueryField id) {
+        if (fromId != null) {
+            cs.addConstraint(new SimpleConstraint(id, ConstraintOp.GREATER_THAN_EQUALS,
+                    new QueryValue(fromId)));
+        }
+        if (toId != null) {
+            cs.addConstraint(new SimpleConstraint(id, ConstraintOp.LESS_THAN,
+                    new QueryValue(toId)));
+        }
     }
 
     private Document handleObject(
@@ -585,6 +625,7 @@ public class InterMineObjectFetcher extends Thread
                 QueryField topId = new QueryField(queryClass, "id");
                 q.addToSelect(topId);
                 q.addToOrderBy(topId); // important for optimization in run()
+                addIdRange(constraints, topId);
             } else {
                 if (parentClassDescriptor == null) {
                     continue;
@@ -20,7 +20,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,7 +38,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -64,13 +72,24 @@ import org.apache.lucene.util.Version;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.data.Objects;
 import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.Util;
 import org.intermine.model.InterMineObject;
 import org.intermine.modelproduction.MetadataManager;
 import org.intermine.modelproduction.MetadataManager.LargeObjectOutputStream;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.pathquery.Path;
+import org.intermine.pathquery.PathException;
 import org.intermine.sql.Database;
 import org.intermine.util.ObjectPipe;
 
@@ -116,9 +135,15 @@ public final class KeywordSearch
 
     private static final Logger LOG = Logger.getLogger(KeywordSearch.class);
 
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_RAM_BUFFER_MB = 64;
+    // properties that change how the index is built but not what is in it
+    private static final Set<String> INDEXING_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "index.temp.directory", "index.incremental", "index.fetchers", "index.writers",
+            "index.ram.buffer.mb"));
+
     private static IndexReader reader = null;
     private static BoboIndexReader boboIndexReader = null;
-    private static ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(100000);
     private static LuceneIndexContainer index = null;
 
     private static Properties properties = null;
@@ -400,16 +425,35 @@ public final class KeywordSearch
     }
 
     /**
-     * writes index and associated directory to the database using the metadatamanager.
+     * writes index and associated directory to the database using the metadatamanager. The
+     * index is updated rather than rebuilt if index.incremental is set in
+     * keyword_search.properties.
      *
      * @param os intermine objectstore
      * @param classKeys map of classname to key field descriptors (from InterMineAPI)
      */
     public static void saveIndexToDatabase(ObjectStore os,
             Map<String, List<FieldDescriptor>> classKeys) {
+        parseProperties(os);
+        boolean incremental = properties != null
+                && Boolean.parseBoolean(properties.getProperty("index.incremental", "").trim());
+        saveIndexToDatabase(os, classKeys, incremental);
+    }
+
+    /**
+     * writes index and associated directory to the database using the metadatamanager.
+     *
+     * @param os intermine objectstore
+     * @param classKeys map of classname to key field descriptors (from InterMineAPI)
+     * @param incremental if true, start from the index stored in the database and only index
+     * again the classes whose objects have changed since it was built
+     */
+    public static void saveIndexToDatabase(ObjectStore os,
+            Map<String, List<FieldDescriptor>> classKeys, boolean incremental) {
         try {
-            if (index == null) {
-                createIndex(os, classKeys);
+            if (index == null && !createIndex(os, classKeys, incremental)) {
+                LOG.info("The search index stored in the database is up to date");
+                return;
             }
 
             LOG.debug("Deleting previous search index dirctory blob from db...");
@@ -508,6 +552,9 @@ public final class KeywordSearch
         } catch (SQLException e) {
             LOG.error(null, e);
             throw new RuntimeException("Index creation failed: ", e);
+        } catch (ObjectStoreException e) {
+            LOG.error(null, e);
+            throw new RuntimeException("Index creation failed: ", e);
         }
     }
 
@@ -926,7 +973,6 @@ public final class KeywordSearch
     private static FSDirectory readFSDirectory(String path, InputStream is)
         throws IOException, FileNotFoundException {
         long time = System.currentTimeMillis();
-        final int bufferSize = 2048;
         File directoryPath = new File(path + File.separator + LUCENE_INDEX_DIR);
         LOG.debug("Directory path: " + directoryPath);
 
@@ -942,6 +988,18 @@ public final class KeywordSearch
             directoryPath.mkdir();
         }
 
+        extractDirectory(directoryPath, is);
+
+        FSDirectory directory = FSDirectory.open(directoryPath);
+
+        LOG.info("Successfully restored FS directory from database in "
+                + (System.currentTimeMillis() - time) + " ms");
+        return directory;
+    }
+
+    private static void extractDirectory(File directoryPath, InputStream is)
+        throws IOException, FileNotFoundException {
+        final int bufferSize = 2048;
         ZipInputStream zis = new ZipInputStream(is);
         ZipEntry entry;
         try {
@@ -970,12 +1028,6 @@ public final class KeywordSearch
         } finally {
             zis.close();
         }
-
-        FSDirectory directory = FSDirectory.open(directoryPath);
-
-        LOG.info("Successfully restored FS directory from database in "
-                + (System.currentTimeMillis() - time) + " ms");
-        return directory;
     }
 
     private static RAMDirectory readRAMDirectory(InputStream is)
@@ -1038,21 +1090,18 @@ public final class KeywordSearch
         }
     }
 
-    private static File createIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys)
-        throws IOException {
+    private static boolean createIndex(ObjectStore os,
+            Map<String, List<FieldDescriptor>> classKeys, boolean incremental)
+        throws IOException, ObjectStoreException {
         long time = System.currentTimeMillis();
         File tempFile = null;
         LOG.debug("Creating keyword search index...");
 
         parseProperties(os);
 
-        LOG.info("Starting fetcher thread...");
-        InterMineObjectFetcher fetchThread =
-                new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
-                        ignoredFields, specialReferences, classBoost, facets, attributePrefixes);
-        fetchThread.start();
+        Map<String, ClassSignature> signatures = getClassSignatures(os);
+        String configuration = getConfigurationDigest(os, classKeys);
 
-        // index the docs queued by the fetchers
         LOG.info("Preparing indexer...");
         index = new LuceneIndexContainer();
         try {
@@ -1071,40 +1120,86 @@ public final class KeywordSearch
 
         LOG.info("Index directory: " + tempFile.getAbsolutePath());
 
+        // in incremental mode only the classes that have changed since the stored index was
+        // built are indexed again
+        LuceneIndexContainer previous = null;
+        Set<String> touched = null;
+        if (incremental) {
+            previous = restorePreviousIndex(os, tempFile, configuration);
+        }
+        if (previous != null) {
+            try {
+                touched = getTouchedCategories(os.getModel(), previous.getClassSignatures(),
+                        signatures);
+            } catch (PathException e) {
+                LOG.warn("Could not follow the indexed references, rebuilding the index", e);
+                previous = null;
+            }
+        }
+        if (touched != null && touched.isEmpty()) {
+            LOG.info("No classes have changed since the search index was built");
+            deleteIndexDirectory();
+            return false;
+        }
+
+        Set<Class<? extends InterMineObject>> indexedClasses = null;
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        if (touched != null) {
+            LOG.info("Indexing the changed classes " + touched);
+            indexedClasses = new HashSet<Class<? extends InterMineObject>>();
+        }
+        for (Map.Entry<String, ClassSignature> entry : signatures.entrySet()) {
+            ClassSignature signature = entry.getValue();
+            if (touched == null || touched.contains(entry.getKey())) {
+                if (indexedClasses != null) {
+                    indexedClasses.addAll(signature.getClasses());
+                }
+                minId = Math.min(minId, signature.getMinId());
+                maxId = Math.max(maxId, signature.getMaxId());
+            }
+        }
+
+        int threads = Math.min(DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
         IndexWriter writer;
-        writer = new IndexWriter(index.getDirectory(), new WhitespaceAnalyzer(), true,
+        writer = new IndexWriter(index.getDirectory(), new WhitespaceAnalyzer(), previous == null,
                  IndexWriter.MaxFieldLength.UNLIMITED); //autocommit = false?
         writer.setMergeFactor(10); //10 default, higher values = more parts
-        writer.setRAMBufferSizeMB(64); //flush to disk when docs take up X MB
+        //flush to disk when docs take up X MB
+        writer.setRAMBufferSizeMB(getIntProperty("index.ram.buffer.mb", DEFAULT_RAM_BUFFER_MB));
 
-        int indexed = 0;
+        if (previous != null) {
+            for (String category : touched) {
+                writer.deleteDocuments(new Term("Category", category));
+            }
+            index.getFieldNames().addAll(previous.getFieldNames());
+            index.getFieldBoosts().putAll(previous.getFieldBoosts());
+        }
+        index.setClassSignatures(new HashMap<String, String>());
+        for (Map.Entry<String, ClassSignature> entry : signatures.entrySet()) {
+            index.getClassSignatures().put(entry.getKey(), entry.getValue().toString());
+        }
+        index.setConfiguration(configuration);
+
+        ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(100000);
+        int fetcherCount = getIntProperty("index.fetchers", threads);
+        if (indexedClasses != null && indexedClasses.isEmpty()) {
+            fetcherCount = 0;
+        } else if (maxId >= minId) {
+            fetcherCount = (int) Math.min(fetcherCount, (long) maxId - minId + 1);
+        }
+        LOG.info("Starting " + fetcherCount + " fetcher threads...");
+        List<InterMineObjectFetcher> fetchers = startFetchers(os, classKeys, indexingQueue,
+                indexedClasses, minId, maxId, fetcherCount);
 
-        // loop and index while we still have fetchers running
+        // index the docs queued by the fetchers
         LOG.debug("Starting to index...");
-        while (indexingQueue.hasNext()) {
-            Document doc = indexingQueue.next();
+        int indexed = indexDocuments(writer, indexingQueue,
+                getIntProperty("index.writers", threads), time);
 
-            // nothing in the queue?
-            if (doc != null) {
-                try {
-                    writer.addDocument(doc);
-                    indexed++;
-                } catch (IOException e) {
-                    LOG.error("Failed to submit #" + doc.getFieldable("id") + " to the index",
-                            e);
-                }
-
-                if (indexed % 10000 == 1) {
-                    LOG.info("docs indexed=" + indexed + "; thread state="
-                            + fetchThread.getState() + "; docs/ms=" + indexed * 1.0F
-                            / (System.currentTimeMillis() - time) + "; memory="
-                            + Runtime.getRuntime().freeMemory() / 1024 + "k/"
-                            + Runtime.getRuntime().maxMemory() / 1024 + "k" + "; time="
-                            + (System.currentTimeMillis() - time) + "ms");
-                }
-            }
+        for (InterMineObjectFetcher fetcher : fetchers) {
+            index.getFieldNames().addAll(fetcher.getFieldNames());
         }
-        index.getFieldNames().addAll(fetchThread.getFieldNames());
         LOG.debug("Indexing done, optimizing index files...");
         try {
             writer.optimize();
@@ -1118,7 +1213,295 @@ public final class KeywordSearch
         LOG.info("Indexing of " + indexed + " documents finished in "
                 + String.format("%02d:%02d.%03d", (int) Math.floor(seconds / 60), seconds % 60,
                         time % 1000) + " minutes");
-        return tempFile;
+        return true;
+    }
+
+    /**
+     * Start the threads that fetch the objects to index, each fetching a range of ids, and a
+     * thread that finishes the queue when they are done.
+     */
+    private static List<InterMineObjectFetcher> startFetchers(ObjectStore os,
+            Map<String, List<FieldDescriptor>> classKeys, final ObjectPipe<Document> queue,
+            Set<Class<? extends InterMineObject>> indexedClasses, int minId, int maxId,
+            int fetcherCount) {
+        final List<InterMineObjectFetcher> fetchers = new ArrayList<InterMineObjectFetcher>();
+        long span = (long) maxId - minId + 1;
+        for (int i = 0; i < fetcherCount; i++) {
+            InterMineObjectFetcher fetcher =
+                    new InterMineObjectFetcher(os, classKeys, queue, ignoredClasses,
+                            ignoredFields, specialReferences, classBoost, facets,
+                            attributePrefixes);
+            // the first and last fetchers are left open-ended
+            Integer fromId = (i == 0) ? null
+                    : Integer.valueOf((int) (minId + span * i / fetcherCount));
+            Integer toId = (i == fetcherCount - 1) ? null
+                    : Integer.valueOf((int) (minId + span * (i + 1) / fetcherCount));
+            fetcher.setIdRange(fromId, toId);
+            fetcher.setIndexedClasses(indexedClasses);
+            fetcher.setName("search-index-fetcher-" + i);
+            fetchers.add(fetcher);
+            fetcher.start();
+        }
+
+        Thread finisher = new Thread("search-index-finisher") {
+            @Override
+            public void run() {
+                try {
+                    for (InterMineObjectFetcher fetcher : fetchers) {
+                        fetcher.join();
+                    }
+                } catch (InterruptedException e) {
+                    LOG.error("Interrupted while waiting for the fetchers", e);
+                }
+                //notify the indexers that we're done
+                queue.finish();
+            }
+        };
+        finisher.start();
+        return fetchers;
+    }
+
+    /**
+     * Add the documents in the queue to the index from several threads, until the queue is
+     * finished.
+     * @return the number of documents indexed
+     */
+    private static int indexDocuments(final IndexWriter writer, final ObjectPipe<Document> queue,
+            int writerCount, final long time) {
+        final AtomicInteger indexed = new AtomicInteger();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < Math.max(writerCount, 1); i++) {
+            Thread thread = new Thread("search-index-writer-" + i) {
+                @Override
+                public void run() {
+                    while (true) {
+                        Document doc;
+                        synchronized (queue) {
+                            if (!queue.hasNext()) {
+                                return;
+                            }
+                            doc = queue.next();
+                        }
+
+                        // nothing in the queue?
+                        if (doc != null) {
+                            try {
+                                writer.addDocument(doc);
+                            } catch (IOException e) {
+                                LOG.error("Failed to submit #" + doc.getFieldable("id")
+                                        + " to the index", e);
+                                continue;
+                            }
+                            int count = indexed.incrementAndGet();
+                            if (count % 10000 == 1) {
+                                LOG.info("docs indexed=" + count + "; docs/ms=" + count * 1.0F
+                                        / (System.currentTimeMillis() - time) + "; memory="
+                                        + Runtime.getRuntime().freeMemory() / 1024 + "k/"
+                                        + Runtime.getRuntime().maxMemory() / 1024 + "k"
+                                        + "; time=" + (System.currentTimeMillis() - time)
+                                        + "ms");
+                            }
+                        }
+                    }
+                }
+            };
+            writers.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : writers) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing", e);
+        }
+        return indexed.get();
+    }
+
+    /**
+     * Count the objects of each class to be indexed, along with the lowest, highest and sum of
+     * their ids. The classes are keyed by the unqualified name used for the Category field.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, ClassSignature> getClassSignatures(ObjectStore os)
+        throws ObjectStoreException {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        QueryField classField = new QueryField(qc, "class");
+        QueryField idField = new QueryField(qc, "id");
+        q.addToSelect(classField);
+        q.addToSelect(new QueryFunction());
+        q.addToSelect(new QueryFunction(idField, QueryFunction.MIN));
+        q.addToSelect(new QueryFunction(idField, QueryFunction.MAX));
+        q.addToSelect(new QueryFunction(idField, QueryFunction.SUM));
+        q.addToGroupBy(classField);
+        q.setConstraint(new BagConstraint(classField, ConstraintOp.NOT_IN, ignoredClasses));
+
+        Map<String, ClassSignature> signatures = new HashMap<String, ClassSignature>();
+        for (Object result : os.execute(q, 1000, false, false, false)) {
+            ResultsRow<Object> row = (ResultsRow<Object>) result;
+            Class<?> cls = (Class<?>) row.get(0);
+            Class<?> topClass = Util.decomposeClass(cls).iterator().next();
+            ClassDescriptor cld = os.getModel().getClassDescriptorByName(topClass.getName());
+            if (cld == null) {
+                continue;
+            }
+            ClassSignature signature = signatures.get(cld.getUnqualifiedName());
+            if (signature == null) {
+                signature = new ClassSignature();
+                signatures.put(cld.getUnqualifiedName(), signature);
+            }
+            signature.add((Class<? extends InterMineObject>) cls,
+                    ((Number) row.get(1)).longValue(), ((Number) row.get(2)).intValue(),
+                    ((Number) row.get(3)).intValue(),
+                    new BigDecimal(String.valueOf(row.get(4))).toBigInteger());
+        }
+        return signatures;
+    }
+
+    /**
+     * Make a digest of everything other than the data that the documents depend on, so an index
+     * is only updated if it was built the same way.
+     */
+    private static String getConfigurationDigest(ObjectStore os,
+            Map<String, List<FieldDescriptor>> classKeys) {
+        StringBuilder sb = new StringBuilder();
+        if (properties != null) {
+            for (Map.Entry<Object, Object> entry
+                    : new TreeMap<Object, Object>(properties).entrySet()) {
+                if (!INDEXING_PROPERTIES.contains(entry.getKey())) {
+                    sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+                }
+            }
+        }
+        sb.append(new TreeMap<String, List<FieldDescriptor>>(classKeys)).append('\n');
+        sb.append(os.getModel());
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new BigInteger(1, digest.digest(sb.toString().getBytes("UTF-8")))
+                .toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 is not available", e);
+        }
+    }
+
+    /**
+     * Extract the stored index into the directory, if it was built with the same configuration
+     * and has the signatures of its classes.
+     * @return the stored index, or null if the index has to be built from scratch
+     */
+    private static LuceneIndexContainer restorePreviousIndex(ObjectStore os, File directoryPath,
+            String configuration) {
+        Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
+        try {
+            LuceneIndexContainer previous = restoreIndex(db);
+            if (previous == null) {
+                return null;
+            }
+            if (previous.getClassSignatures() == null
+                    || !"FSDirectory".equals(previous.getDirectoryType())) {
+                LOG.info("The stored search index cannot be updated, rebuilding it");
+                return null;
+            }
+            if (!configuration.equals(previous.getConfiguration())) {
+                LOG.info("The search configuration or model has changed, rebuilding the index");
+                return null;
+            }
+            InputStream is = MetadataManager.readLargeBinary(db,
+                    MetadataManager.SEARCH_INDEX_DIRECTORY);
+            if (is == null) {
+                LOG.warn("Could not find search directory!");
+                return null;
+            }
+            try {
+                extractDirectory(directoryPath, is);
+            } finally {
+                is.close();
+            }
+            return previous;
+        } catch (SQLException e) {
+            LOG.warn("Could not restore the stored search index, rebuilding it", e);
+        } catch (IOException e) {
+            LOG.warn("Could not restore the stored search index, rebuilding it", e);
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Could not restore the stored search index, rebuilding it", e);
+        }
+        return null;
+    }
+
+    /**
+     * Find the classes whose documents have to be rebuilt: those whose objects have changed,
+     * and those with indexed references that can lead to objects that have changed.
+     */
+    private static Set<String> getTouchedCategories(Model model, Map<String, String> previous,
+            Map<String, ClassSignature> current) throws PathException {
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, ClassSignature> entry : current.entrySet()) {
+            if (!entry.getValue().toString().equals(previous.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String category : previous.keySet()) {
+            if (!current.containsKey(category)) {
+                changed.add(category);
+            }
+        }
+
+        Set<String> touched = new HashSet<String>(changed);
+        if (changed.isEmpty()) {
+            return touched;
+        }
+        for (Entry<Class<? extends InterMineObject>, String[]> specialReference
+                : specialReferences.entrySet()) {
+            ClassDescriptor cld = model.getClassDescriptorByName(
+                    specialReference.getKey().getName());
+            if (cld == null || specialReference.getValue() == null) {
+                continue;
+            }
+            for (String reference : specialReference.getValue()) {
+                Path path = new Path(model, cld.getUnqualifiedName() + "." + reference);
+                List<ClassDescriptor> clds = path.getElementClassDescriptors();
+                if (containsAny(model, clds.subList(1, clds.size()), changed)) {
+                    touched.add(cld.getUnqualifiedName());
+                    for (ClassDescriptor sub : model.getAllSubs(cld)) {
+                        touched.add(sub.getUnqualifiedName());
+                    }
+                    break;
+                }
+            }
+        }
+        return touched;
+    }
+
+    private static boolean containsAny(Model model, List<ClassDescriptor> clds,
+            Set<String> categories) {
+        for (ClassDescriptor cld : clds) {
+            for (String category : categories) {
+                ClassDescriptor categoryCld = model.getClassDescriptorByName(category);
+                if (categoryCld != null && cld.getType().isAssignableFrom(categoryCld.getType())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int getIntProperty(String key, int defaultValue) {
+        String value = (properties == null) ? null : properties.getProperty(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("keyword_search.properties: '" + key + "' should be a number, not '" + value
+                    + "'");
+            return defaultValue;
+        }
     }
 
     private static File makeTempFile(String tempDir) throws IOException {
@@ -1249,7 +1632,6 @@ public final class KeywordSearch
             }
         }
         boboIndexReader = null;
-        indexingQueue = null;
         index = null;
         properties = null;
         tempDirectory = null;
@@ -1260,4 +1642,44 @@ public final class KeywordSearch
         facets = null;
         attributePrefixes = null;
     }
+
+    /**
+     * The number of objects of a class and the range and sum of their ids, which change when
+     * objects are added or removed.
+     */
+    private static class ClassSignature
+    {
+        private final Set<Class<? extends InterMineObject>> classes =
+            new HashSet<Class<? extends InterMineObject>>();
+        private long count = 0;
+        private int minId = Integer.MAX_VALUE;
+        private int maxId = Integer.MIN_VALUE;
+        private BigInteger idSum = BigInteger.ZERO;
+
+        void add(Class<? extends InterMineObject> cls, long clsCount, int clsMinId, int clsMaxId,
+                BigInteger clsIdSum) {
+            classes.add(cls);
+            count += clsCount;
+            minId = Math.min(minId, clsMinId);
+            maxId = Math.max(maxId, clsMaxId);
+            idSum = idSum.add(clsIdSum);
+        }
+
+        Set<Class<? extends InterMineObject>> getClasses() {
+            return classes;
+        }
+
+        int getMinId() {
+            return minId;
+        }
+
+        int getMaxId() {
+            return maxId;
+        }
+
+        @Override
+        public String toString() {
+            return count + ":" + minId + ":" + maxId + ":" + idSum;
+        }
+    }
 }
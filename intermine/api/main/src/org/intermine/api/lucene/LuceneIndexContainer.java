@@ -29,6 +29,8 @@ class LuceneIndexContainer implements Serializable
     private String directoryType;
     private HashSet<String> fieldNames = new HashSet<String>();
     private HashMap<String, Float> fieldBoosts = new HashMap<String, Float>();
+    private HashMap<String, String> classSignatures = null;
+    private String configuration = null;
 
     /**
      * get lucene directory for this index
@@ -98,6 +100,42 @@ class LuceneIndexContainer implements Serializable
         this.fieldBoosts = fieldBoosts;
     }
 
+    /**
+     * get the signatures of the objects of each class when the index was built, so a later
+     * build can tell which classes have changed
+     * @return map of unqualified class name to signature, or null if the index was built
+     *         without them
+     */
+    public HashMap<String, String> getClassSignatures() {
+        return classSignatures;
+    }
+
+    /**
+     * set the signatures of the objects of each class in the index
+     * @param classSignatures
+     *            map of unqualified class name to signature
+     */
+    public void setClassSignatures(HashMap<String, String> classSignatures) {
+        this.classSignatures = classSignatures;
+    }
+
+    /**
+     * get the digest of the configuration and model the index was built with
+     * @return digest, or null if the index was built without one
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * set the digest of the configuration and model the index was built with
+     * @param configuration
+     *            digest
+     */
+    public void setConfiguration(String configuration) {
+        this.configuration = configuration;
+    }
+
     @Override
     public String toString() {
         return "INDEX [[" + directory + "" + ", fields = " + fieldNames + "" + ", boosts = "
@@ -0,0 +1,264 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryCloner;
+import org.intermine.objectstore.query.QueryCollectionPathExpression;
+import org.intermine.objectstore.query.QueryObjectPathExpression;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.PathConstraint;
+import org.intermine.pathquery.PathConstraintLookup;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.util.CacheMapFactory;
+
+/**
+ * A cache of ObjectStore Queries made from PathQueries by MainHelper.makeQuery(), so that a
+ * PathQuery that is run again is not verified and converted again.
+ * <p>
+ * The key is the Model of the PathQuery, compared by identity, with the XML of the PathQuery to
+ * execute, which includes the view, constraints with their values, constraint logic, joins and
+ * sort order, and the ids of the ObjectStoreBags of any lists it uses. Queries with LOOKUP
+ * constraints are not cached, as converting them runs a bag query against the current data and
+ * returns its results.
+ * <p>
+ * Each caller is given its own copy of the cached Query, made by QueryCloner, with the paths
+ * mapped to the nodes of the copy, so callers may modify the Query they are given. The cache is
+ * created by CacheMapFactory with the name "pathquery", so its type and size are configured with
+ * the os.cache properties.
+ *
+ * @author intermine
+ */
+public final class CompiledQueryCache
+{
+    private static final Logger LOG = Logger.getLogger(CompiledQueryCache.class);
+
+    /** The maximum number of Queries held by an lru cache, if not configured */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final Map<Key, Entry> CACHE = CacheMapFactory.createCache("pathquery",
+            "PathQuery to Query cache", DEFAULT_MAX_ENTRIES);
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong UNCACHEABLE = new AtomicLong();
+
+    private CompiledQueryCache() {
+        // don't instantiate
+    }
+
+    /**
+     * Converts a PathQuery into an ObjectStore Query, using a cached Query if the same PathQuery
+     * has been converted before. The arguments and exceptions are as for MainHelper.makeQuery().
+     *
+     * @param pathQuery the PathQuery
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
+     * String path in the pathQuery to objects in the result Query
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return an ObjectStore Query object
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public static Query makeQuery(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
+            Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        Key key = getKey(pathQuery, savedBags);
+        if (key == null) {
+            UNCACHEABLE.incrementAndGet();
+            return MainHelper.makeQuery(pathQuery, savedBags, pathToQueryNode, bagQueryRunner,
+                    returnBagQueryResults);
+        }
+        Entry entry = CACHE.get(key);
+        if (entry == null) {
+            long misses = MISSES.incrementAndGet();
+            Map<String, QuerySelectable> entryPathToQueryNode
+                = new HashMap<String, QuerySelectable>();
+            Query q = MainHelper.makeQuery(pathQuery, savedBags, entryPathToQueryNode,
+                    bagQueryRunner, returnBagQueryResults);
+            entry = new Entry(q, entryPathToQueryNode);
+            CACHE.put(key, entry);
+            if (misses % 1000 == 0) {
+                LOG.info(getStatistics());
+            }
+        } else {
+            HITS.incrementAndGet();
+        }
+        Query q = QueryCloner.cloneQuery(entry.query);
+        if (pathToQueryNode != null) {
+            Map<Object, QuerySelectable> nodes = new IdentityHashMap<Object, QuerySelectable>();
+            mapNodes(entry.query.getSelect(), q.getSelect(), nodes);
+            for (Map.Entry<String, QuerySelectable> path : entry.pathToQueryNode.entrySet()) {
+                QuerySelectable node = nodes.get(path.getValue());
+                // QueryClasses are shared by the copy, and QueryFields compare equal
+                pathToQueryNode.put(path.getKey(), (node == null) ? path.getValue() : node);
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Maps the nodes selected by a Query, and those selected within its path expressions, to the
+     * nodes in the same positions of a copy of it.
+     */
+    private static void mapNodes(List<QuerySelectable> select, List<QuerySelectable> copySelect,
+            Map<Object, QuerySelectable> nodes) {
+        for (int i = 0; i < select.size(); i++) {
+            QuerySelectable node = select.get(i);
+            QuerySelectable copy = copySelect.get(i);
+            nodes.put(node, copy);
+            if (node instanceof QueryObjectPathExpression) {
+                QueryObjectPathExpression qope = (QueryObjectPathExpression) node;
+                QueryObjectPathExpression copyQope = (QueryObjectPathExpression) copy;
+                nodes.put(qope.getDefaultClass(), copyQope.getDefaultClass());
+                mapNodes(qope.getSelect(), copyQope.getSelect(), nodes);
+            } else if (node instanceof QueryCollectionPathExpression) {
+                QueryCollectionPathExpression qcpe = (QueryCollectionPathExpression) node;
+                QueryCollectionPathExpression copyQcpe = (QueryCollectionPathExpression) copy;
+                nodes.put(qcpe.getDefaultClass(), copyQcpe.getDefaultClass());
+                mapNodes(qcpe.getSelect(), copyQcpe.getSelect(), nodes);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of conversions that used a cached Query.
+     *
+     * @return the number of hits
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * Returns the number of conversions of cacheable PathQueries that were not in the cache.
+     *
+     * @return the number of misses
+     */
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    /**
+     * Returns the number of conversions of PathQueries that could not be cached.
+     *
+     * @return the number of uncacheable conversions
+     */
+    public static long getUncacheable() {
+        return UNCACHEABLE.get();
+    }
+
+    /**
+     * Returns a description of the hits and misses so far, for logging.
+     *
+     * @return a String
+     */
+    public static String getStatistics() {
+        long hits = HITS.get();
+        long misses = MISSES.get();
+        return "PathQuery to Query cache: " + hits + " hits, " + misses + " misses ("
+            + (hits + misses == 0 ? 0 : (100 * hits) / (hits + misses)) + "% hit rate), "
+            + UNCACHEABLE.get() + " uncacheable, " + CACHE.size() + " entries";
+    }
+
+    /**
+     * Removes every Query from the cache, for example after the model or the lists have been
+     * changed outside this web application.
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * Returns the key for a PathQuery, or null if it cannot be cached.
+     */
+    private static Key getKey(PathQuery pathQuery, Map<String, InterMineBag> savedBags) {
+        PathQuery toExecute;
+        synchronized (pathQuery) {
+            toExecute = pathQuery.getQueryToExecute();
+        }
+        StringBuilder key = new StringBuilder();
+        synchronized (toExecute) {
+            for (PathConstraint con : toExecute.getConstraints().keySet()) {
+                if (con instanceof PathConstraintLookup) {
+                    return null;
+                }
+            }
+            key.append(toExecute.toXml(PathQuery.USERPROFILE_VERSION));
+            for (String bagName : new TreeSet<String>(toExecute.getBagNames())) {
+                InterMineBag bag = (savedBags == null) ? null : savedBags.get(bagName);
+                if (bag == null) {
+                    // Let MainHelper report the missing list
+                    return null;
+                }
+                key.append('\n').append(bagName).append('=').append(bag.getOsb().getBagId());
+            }
+        }
+        return new Key(toExecute.getModel(), key.toString());
+    }
+
+    /**
+     * The Model of a PathQuery and its text, as Queries made for different models differ even
+     * when their PathQueries are written the same.
+     */
+    private static final class Key
+    {
+        private final Model model;
+        private final String text;
+
+        Key(Model model, String text) {
+            this.model = model;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return (model == other.model) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(model) + text.hashCode();
+        }
+    }
+
+    /**
+     * A converted Query, with the map from paths to the nodes of the Query.
+     */
+    private static class Entry
+    {
+        private final Query query;
+        private final Map<String, QuerySelectable> pathToQueryNode;
+
+        Entry(Query query, Map<String, QuerySelectable> pathToQueryNode) {
+            this.query = query;
+            this.pathToQueryNode = Collections.unmodifiableMap(pathToQueryNode);
+        }
+    }
+}
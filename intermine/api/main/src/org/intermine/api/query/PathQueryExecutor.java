@@ -30,7 +30,9 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.StreamingResults;
 import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryCollectionPathExpression;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
 import org.intermine.pathquery.PathQuery;
@@ -133,13 +135,55 @@ public class PathQueryExecutor extends QueryExecutor
         return new ResultIterator(pathQuery, q, results, pathToQueryNode, start, limit);
     }
 
+    /**
+     * Executes object store query and returns results as iterator over rows, reading the rows
+     * through a single forward-only database cursor where the ObjectStore supports it. This runs
+     * in constant memory and plans the query once, so it should be used for large exports that
+     * read the results once in order. The iterator must be closed if it is not read to the end.
+     *
+     * @param pathQuery path query to be executed
+     * @param start index of first result which will be retrieved
+     * @param limit maximum number of results
+     * @return results
+     * @throws ObjectStoreException if fail to execute query
+     */
+    public ExportResultsIterator executeStreaming(PathQuery pathQuery, final int start,
+            final int limit) throws ObjectStoreException {
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            return execute(pathQuery, start, limit);
+        }
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Map<String, BagQueryResult> returnBagQueryResults = new HashMap<String, BagQueryResult>();
+
+        Query q = makeQuery(pathQuery, returnBagQueryResults, pathToQueryNode);
+        ObjectStoreInterMineImpl osimi = (ObjectStoreInterMineImpl) os;
+        if (hasOuterJoinedCollection(pathToQueryNode)) {
+            // A row of the query may expand to several rows of results, so the rows to skip
+            // can only be counted once they are read
+            StreamingResults results = osimi.executeStreaming(q, batchSize, true, true);
+            return new ResultIterator(pathQuery, q, results, pathToQueryNode, start, limit);
+        }
+        // Each row of the query is one row of results, so the database can skip to start
+        StreamingResults results = osimi.executeStreaming(q, start, limit, batchSize, true, true);
+        return new ResultIterator(pathQuery, q, results, pathToQueryNode, 0, limit);
+    }
+
+    private static boolean hasOuterJoinedCollection(Map<String, QuerySelectable> pathToQueryNode) {
+        for (QuerySelectable node : pathToQueryNode.values()) {
+            if (node instanceof QueryCollectionPathExpression) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Query makeQuery(PathQuery pathQuery, Map<String, BagQueryResult> pathToBagQueryResult,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
 
         Map<String, InterMineBag> allBags = bagManager.getCurrentBags(profile);
 
-        Query q = MainHelper.makeQuery(pathQuery, allBags, pathToQueryNode, bagQueryRunner,
-                pathToBagQueryResult);
+        Query q = CompiledQueryCache.makeQuery(pathQuery, allBags, pathToQueryNode,
+                bagQueryRunner, pathToBagQueryResult);
         return q;
     }
 
@@ -266,6 +310,26 @@ class ResultIterator extends ExportResultsIterator
         this.start = start;
     }
 
+    /**
+     * Constructor for ExportResultsIterator reading from a database cursor.
+     *
+     * @param pathQuery a PathQuery to run.
+     * @param q The object-store query this path-query corresponds to.
+     * @param results the results of executing the query with a cursor
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @param start the first row of results to be returned
+     * @param limit the number of result rows to return
+     * @throws ObjectStoreException if something goes wrong executing the query
+     */
+    public ResultIterator(PathQuery pathQuery, Query q, StreamingResults results,
+            Map<String, QuerySelectable> pathToQueryNode, int start, int limit)
+        throws ObjectStoreException {
+        super(pathQuery, q, results, pathToQueryNode);
+        this.limit = limit;
+        this.start = start;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -281,6 +345,8 @@ class ResultIterator extends ExportResultsIterator
         }
 
         if (counter >= (limit + start)) {
+            // Don't hold a cursor open for rows we will never read
+            close();
             return false;
         } else {
             return super.hasNext();
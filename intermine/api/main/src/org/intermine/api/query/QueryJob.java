@@ -0,0 +1,321 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.results.ExportResultsIterator;
+import org.intermine.api.results.ResultElement;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * A PathQuery that is run in the background by a QueryJobManager, rather than on the thread
+ * of the request that submitted it. The results are read from a database cursor and passed to
+ * a ResultsHandler, which stores them until they are fetched.
+ * <p>
+ * While it runs, the job registers itself as the request id of its thread with the
+ * ObjectStoreInterMineImpl, so that cancel() can cancel the SQL statement that is running.
+ *
+ * @author intermine
+ */
+public class QueryJob implements Runnable
+{
+    private static final Logger LOG = Logger.getLogger(QueryJob.class);
+
+    /**
+     * The states of a job.
+     */
+    public enum Status {
+        /** The job is waiting for a thread */
+        PENDING,
+        /** The job is running */
+        RUNNING,
+        /** The results have been stored */
+        SUCCESS,
+        /** The job failed */
+        ERROR,
+        /** The job was cancelled */
+        CANCELLED
+    }
+
+    /**
+     * Somewhere to put the results of a job.
+     */
+    public interface ResultsHandler
+    {
+        /**
+         * Stores the results of a job. This is called on the thread running the job.
+         *
+         * @param results the rows of results
+         * @throws Exception if the results cannot be stored
+         */
+        void handle(Iterator<List<ResultElement>> results) throws Exception;
+
+        /**
+         * Releases anything held for the results, once the job has been removed.
+         */
+        void release();
+    }
+
+    private final UUID uid = UUID.randomUUID();
+    private final String owner;
+    private final PathQuery pathQuery;
+    private final PathQueryExecutor executor;
+    private final ObjectStore os;
+    private final int start;
+    private final int limit;
+    private final ResultsHandler handler;
+    private final Date submittedAt = new Date();
+
+    private volatile Status status = Status.PENDING;
+    private volatile boolean cancelled = false;
+    private volatile Exception error = null;
+    private volatile Date startedAt = null;
+    private volatile Date finishedAt = null;
+    private volatile int rowCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param owner the user or client that the job is run for
+     * @param pathQuery the query to run
+     * @param executor the executor to run the query with
+     * @param os the ObjectStore the executor uses, to cancel the query with
+     * @param start the index of the first row to return
+     * @param limit the maximum number of rows to return
+     * @param handler somewhere to put the results
+     */
+    public QueryJob(String owner, PathQuery pathQuery, PathQueryExecutor executor,
+            ObjectStore os, int start, int limit, ResultsHandler handler) {
+        this.owner = owner;
+        this.pathQuery = pathQuery;
+        this.executor = executor;
+        this.os = os;
+        this.start = start;
+        this.limit = limit;
+        this.handler = handler;
+    }
+
+    /**
+     * Runs the query and passes the results to the ResultsHandler, unless the job has been
+     * cancelled.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (status != Status.PENDING) {
+                return;
+            }
+            status = Status.RUNNING;
+            startedAt = new Date();
+        }
+        ObjectStoreInterMineImpl ios = getCancellableObjectStore();
+        Exception failure = null;
+        try {
+            if (ios != null) {
+                ios.registerRequestId(this);
+            }
+            Iterator<List<ResultElement>> results = null;
+            try {
+                results = executeQuery();
+                handler.handle(new CountingIterator(results));
+            } finally {
+                if (results instanceof ExportResultsIterator) {
+                    // Release the cursor if the handler did not read all the rows
+                    ((ExportResultsIterator) results).close();
+                }
+                if (ios != null) {
+                    ios.deregisterRequestId(this);
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+        synchronized (this) {
+            if (cancelled) {
+                status = Status.CANCELLED;
+            } else if (failure != null) {
+                LOG.warn("Query job " + uid + " failed", failure);
+                error = failure;
+                status = Status.ERROR;
+            } else {
+                status = Status.SUCCESS;
+            }
+            finishedAt = new Date();
+        }
+    }
+
+    /**
+     * Runs the query. Results are read through a database cursor where possible, as they are
+     * only read once.
+     *
+     * @return the rows of results
+     * @throws ObjectStoreException if the query cannot be run
+     */
+    protected Iterator<List<ResultElement>> executeQuery() throws ObjectStoreException {
+        return executor.executeStreaming(pathQuery, start, limit);
+    }
+
+    /**
+     * Cancels the job. A pending job will not be run, and the statement of a running job is
+     * cancelled through the ObjectStore.
+     *
+     * @return false if the job had already finished
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (isFinished()) {
+                return false;
+            }
+            cancelled = true;
+            if (status == Status.PENDING) {
+                status = Status.CANCELLED;
+                finishedAt = new Date();
+                return true;
+            }
+        }
+        ObjectStoreInterMineImpl ios = getCancellableObjectStore();
+        if (ios != null) {
+            try {
+                ios.cancelRequest(this);
+            } catch (ObjectStoreException e) {
+                LOG.warn("Could not cancel query job " + uid, e);
+            }
+        }
+        return true;
+    }
+
+    private ObjectStoreInterMineImpl getCancellableObjectStore() {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            return (ObjectStoreInterMineImpl) os;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the job has succeeded, failed or been cancelled
+     */
+    public boolean isFinished() {
+        Status s = status;
+        return (s == Status.SUCCESS) || (s == Status.ERROR) || (s == Status.CANCELLED);
+    }
+
+    /**
+     * @return the unique id of the job
+     */
+    public String getUid() {
+        return uid.toString();
+    }
+
+    /**
+     * @return the user or client that the job is run for
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the query run by the job
+     */
+    public PathQuery getPathQuery() {
+        return pathQuery;
+    }
+
+    /**
+     * @return where the results are put
+     */
+    public ResultsHandler getResultsHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the exception that made the job fail, or null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return the number of rows read so far
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return when the job was submitted
+     */
+    public Date getSubmittedAt() {
+        return submittedAt;
+    }
+
+    /**
+     * @return when the job started running, or null if it has not
+     */
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return when the job finished, or null if it has not
+     */
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Counts the rows read by the handler, and stops it once the job is cancelled, because
+     * rows already fetched by the cursor are not affected by cancelling the statement.
+     */
+    private class CountingIterator implements Iterator<List<ResultElement>>
+    {
+        private final Iterator<List<ResultElement>> iterator;
+
+        CountingIterator(Iterator<List<ResultElement>> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (cancelled) {
+                throw new CancellationException("Query job " + uid + " was cancelled");
+            }
+            return iterator.hasNext();
+        }
+
+        @Override
+        public List<ResultElement> next() {
+            List<ResultElement> row = iterator.next();
+            rowCount++;
+            return row;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
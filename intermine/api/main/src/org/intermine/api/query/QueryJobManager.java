@@ -0,0 +1,268 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs QueryJobs on a fixed number of threads, so that long-running queries submitted through
+ * the web services wait for a thread here rather than holding a servlet container thread.
+ * <p>
+ * Pending jobs are queued per owner, and the threads take jobs from the owners in turn, so
+ * one user submitting many exports does not delay the queries of everyone else. The number of
+ * unfinished jobs per owner and the number of pending jobs in total are both bounded, and
+ * submit() throws a RejectedExecutionException when either limit is reached.
+ * <p>
+ * Finished jobs are kept so that their results can be fetched, until they are removed or
+ * until they have been finished for longer than the retention period.
+ *
+ * @author intermine
+ */
+public class QueryJobManager
+{
+    private static final Logger LOG = Logger.getLogger(QueryJobManager.class);
+
+    /** The default number of threads running jobs */
+    public static final int DEFAULT_THREADS = 4;
+    /** The default maximum number of unfinished jobs per owner */
+    public static final int DEFAULT_MAX_JOBS_PER_OWNER = 5;
+    /** The default maximum number of pending jobs */
+    public static final int DEFAULT_MAX_PENDING = 100;
+    /** The default time that finished jobs are kept, in milliseconds */
+    public static final long DEFAULT_RETENTION = 3 * 60 * 60 * 1000L;
+
+    private final int maxJobsPerOwner;
+    private final int maxPending;
+    private final long retention;
+
+    private final Map<String, QueryJob> jobs = new ConcurrentHashMap<String, QueryJob>();
+    // The queues of pending jobs, in the order that the owners will be served
+    private final LinkedHashMap<String, LinkedList<QueryJob>> queues
+        = new LinkedHashMap<String, LinkedList<QueryJob>>();
+    private int pending = 0;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructor, which starts the threads.
+     *
+     * @param threads the number of jobs to run at once
+     * @param maxJobsPerOwner the maximum number of unfinished jobs per owner
+     * @param maxPending the maximum number of jobs waiting for a thread
+     * @param retention the time in milliseconds to keep finished jobs for
+     */
+    public QueryJobManager(int threads, int maxJobsPerOwner, int maxPending, long retention) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.maxJobsPerOwner = maxJobsPerOwner;
+        this.maxPending = maxPending;
+        this.retention = retention;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Worker(), "QueryJobManager worker " + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a job to be run.
+     *
+     * @param job the job
+     * @return the job
+     * @throws RejectedExecutionException if the owner has too many unfinished jobs, or too many
+     * jobs are waiting
+     */
+    public QueryJob submit(QueryJob job) {
+        removeExpiredJobs();
+        String owner = job.getOwner();
+        synchronized (queues) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Query jobs are not being accepted");
+            }
+            if (pending >= maxPending) {
+                throw new RejectedExecutionException("Too many query jobs are waiting ("
+                        + pending + ")");
+            }
+            int unfinished = 0;
+            for (QueryJob other : jobs.values()) {
+                if (owner.equals(other.getOwner()) && !other.isFinished()) {
+                    unfinished++;
+                }
+            }
+            if (unfinished >= maxJobsPerOwner) {
+                throw new RejectedExecutionException("Too many unfinished query jobs ("
+                        + unfinished + ") for " + owner);
+            }
+            jobs.put(job.getUid(), job);
+            LinkedList<QueryJob> queue = queues.get(owner);
+            if (queue == null) {
+                queue = new LinkedList<QueryJob>();
+                queues.put(owner, queue);
+            }
+            queue.add(job);
+            pending++;
+            queues.notify();
+        }
+        return job;
+    }
+
+    /**
+     * Looks up a job.
+     *
+     * @param uid the job id
+     * @return the job, or null if there is no such job
+     */
+    public QueryJob getJob(String uid) {
+        if (uid == null) {
+            return null;
+        }
+        return jobs.get(uid);
+    }
+
+    /**
+     * Returns the number of jobs waiting for a thread.
+     *
+     * @return the number of pending jobs
+     */
+    public int getPendingCount() {
+        synchronized (queues) {
+            return pending;
+        }
+    }
+
+    /**
+     * Cancels a job if it has not finished, and removes it, releasing its results.
+     *
+     * @param uid the job id
+     * @return the job, or null if there is no such job
+     */
+    public QueryJob removeJob(String uid) {
+        if (uid == null) {
+            return null;
+        }
+        QueryJob job = jobs.remove(uid);
+        if (job != null) {
+            cancel(job);
+            job.getResultsHandler().release();
+        }
+        return job;
+    }
+
+    /**
+     * Cancels a job, taking it off its queue if it has not started.
+     *
+     * @param job the job
+     * @return false if the job had already finished
+     */
+    public boolean cancel(QueryJob job) {
+        synchronized (queues) {
+            LinkedList<QueryJob> queue = queues.get(job.getOwner());
+            if ((queue != null) && queue.remove(job)) {
+                pending--;
+                if (queue.isEmpty()) {
+                    queues.remove(job.getOwner());
+                }
+            }
+        }
+        return job.cancel();
+    }
+
+    /**
+     * Removes the jobs that finished longer ago than the retention period.
+     */
+    public void removeExpiredJobs() {
+        long cutOff = System.currentTimeMillis() - retention;
+        Iterator<QueryJob> iter = jobs.values().iterator();
+        while (iter.hasNext()) {
+            QueryJob job = iter.next();
+            if (job.isFinished() && (job.getFinishedAt() != null)
+                    && (job.getFinishedAt().getTime() < cutOff)) {
+                iter.remove();
+                job.getResultsHandler().release();
+            }
+        }
+    }
+
+    /**
+     * Stops the threads, cancelling and removing every job.
+     */
+    public void shutdown() {
+        synchronized (queues) {
+            shutdown = true;
+            queues.notifyAll();
+        }
+        for (String uid : new ArrayList<String>(jobs.keySet())) {
+            removeJob(uid);
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Takes the next job of the owner at the front of the queue, and moves the owner to the back
+     * of the queue if it has more jobs waiting.
+     */
+    private QueryJob take() throws InterruptedException {
+        synchronized (queues) {
+            while (!shutdown && queues.isEmpty()) {
+                queues.wait();
+            }
+            if (shutdown) {
+                return null;
+            }
+            Iterator<Map.Entry<String, LinkedList<QueryJob>>> iter = queues.entrySet().iterator();
+            Map.Entry<String, LinkedList<QueryJob>> first = iter.next();
+            iter.remove();
+            LinkedList<QueryJob> queue = first.getValue();
+            QueryJob job = queue.removeFirst();
+            if (!queue.isEmpty()) {
+                queues.put(first.getKey(), queue);
+            }
+            pending--;
+            return job;
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        @Override
+        public void run() {
+            while (!shutdown) {
+                QueryJob job;
+                try {
+                    job = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (job == null) {
+                    return;
+                }
+                try {
+                    job.run();
+                } catch (Throwable t) {
+                    LOG.error("Query job " + job.getUid() + " failed", t);
+                }
+            }
+        }
+    }
+}
@@ -162,8 +162,8 @@ public class WebResultsExecutor extends QueryExecutor
 
         Map<String, InterMineBag> allBags = bagManager.getBags(profile);
 
-        Query q = MainHelper.makeQuery(pathQuery, allBags, pathToQueryNode, bagQueryRunner,
-                pathToBagQueryResult);
+        Query q = CompiledQueryCache.makeQuery(pathQuery, allBags, pathToQueryNode,
+                bagQueryRunner, pathToBagQueryResult);
         return q;
     }
 
@@ -21,6 +21,7 @@ import org.apache.log4j.Logger;
 import org.intermine.model.FastPathObject;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.StreamingResults;
 import org.intermine.objectstore.query.PathExpressionField;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryCollectionPathExpression;
@@ -49,6 +50,7 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     private final Query query;
     private int columnCount;
     protected final Results results;
+    protected final StreamingResults streamingResults;
     private boolean isGoingFaster = false;
     protected final PathQuery originatingQuery;
 
@@ -66,6 +68,28 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     public ExportResultsIterator(PathQuery pathQuery, Query q, Results results,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
         this.results = results;
+        this.streamingResults = null;
+        this.originatingQuery = pathQuery;
+        this.query = q;
+        init(pathQuery, pathToQueryNode);
+    }
+
+    /**
+     * Constructor for ExportResultsIterator reading from a forward-only database cursor rather
+     * than a Results object, so that the export runs in constant memory. The caller must call
+     * close() if it does not read all the rows.
+     *
+     * @param pathQuery a PathQuery to run
+     * @param q original query
+     * @param streamingResults the results of executing the query with a cursor
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @throws ObjectStoreException if something goes wrong executing the query
+     */
+    public ExportResultsIterator(PathQuery pathQuery, Query q, StreamingResults streamingResults,
+            Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
+        this.results = null;
+        this.streamingResults = streamingResults;
         this.originatingQuery = pathQuery;
         this.query = q;
         init(pathQuery, pathToQueryNode);
@@ -86,7 +110,11 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     }
 
     private void init(PathQuery pq, Map<String, QuerySelectable> pathToQueryNode) {
-        osIter = ((List) results).iterator();
+        if (streamingResults != null) {
+            osIter = (Iterator) streamingResults;
+        } else {
+            osIter = ((List) results).iterator();
+        }
 
         List<List<ResultElement>> empty = Collections.emptyList();
         subIter = empty.iterator();
@@ -136,13 +164,25 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     }
 
     /**
-     * Switches on the goFaster mode in the objectstore for this query.
+     * Releases the database resources held by this iterator, if it is reading from a cursor. This
+     * does nothing for an iterator reading from a Results object, and may be called more than
+     * once.
+     */
+    public void close() {
+        if (streamingResults != null) {
+            streamingResults.close();
+        }
+    }
+
+    /**
+     * Switches on the goFaster mode in the objectstore for this query. This does nothing if the
+     * iterator is reading from a cursor, as the query is only planned once.
      *
      * @throws RuntimeException if something goes wrong
      */
     public void goFaster()  {
         try {
-            if ((!results.isSingleBatch()) && (!isGoingFaster)) {
+            if ((results != null) && (!results.isSingleBatch()) && (!isGoingFaster)) {
                 ((ObjectStoreInterMineImpl) results.getObjectStore()).goFaster(results.getQuery());
                 isGoingFaster = true;
             }
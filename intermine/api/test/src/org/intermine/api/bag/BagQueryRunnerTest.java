@@ -295,6 +295,76 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
         assertEquals(ids, new HashSet(res.getIssues().get(BagQueryResult.WILDCARD).get("searching key fields").get("EmployeeA*")));
     }
 
+    // the identifier indexes find the same objects as the bag queries do
+    public void testIdentifierIndexes() throws Exception {
+        List<String> input = Arrays.asList("EmployeeA1", "employeea2", "EMPLOYEEB1", "Mr.", "1",
+                "DepartmentA1", "ContractorA", "EmployeeA*", "*B1", "employeeb*", "*", "rubbish");
+        for (boolean matchOnFirst : new boolean[] {true, false}) {
+            TestingBagQueryRunner sqlRunner = getRunner(matchOnFirst);
+            TestingBagQueryRunner indexRunner = getRunner(matchOnFirst);
+            final Set<String> indexed = new HashSet<String>();
+            IdentifierIndexManager manager = new IdentifierIndexManager(os,
+                    Arrays.asList("Employee", "Manager"), null) {
+                @Override
+                public IdentifierIndex getIndex(String key, BagQuery bq, String extraFieldValue) {
+                    IdentifierIndex index = super.getIndex(key, bq, extraFieldValue);
+                    if (index != null) {
+                        indexed.add(key);
+                    }
+                    return index;
+                }
+            };
+            indexRunner.setIdentifierIndexManager(manager);
+            try {
+                indexRunner.prepareIdentifierIndexes();
+                manager.awaitIndexes();
+                for (String type : new String[] {"Employee", "Manager"}) {
+                    for (boolean doWildcards : new boolean[] {true, false}) {
+                        for (boolean caseSensitive : new boolean[] {true, false}) {
+                            String message = type + " matchOnFirst=" + matchOnFirst
+                                + " doWildcards=" + doWildcards + " caseSensitive="
+                                + caseSensitive;
+                            BagQueryResult expected = sqlRunner.search(type, input, null,
+                                    doWildcards, caseSensitive);
+                            BagQueryResult res = indexRunner.search(type, input, null,
+                                    doWildcards, caseSensitive);
+                            assertEquals(message, normalise(expected.getMatches()),
+                                    normalise(res.getMatches()));
+                            assertEquals(message, normalise(expected.getIssues()),
+                                    normalise(res.getIssues()));
+                            assertEquals(message, normalise(expected.getUnresolved()),
+                                    normalise(res.getUnresolved()));
+                        }
+                    }
+                }
+            } finally {
+                manager.shutdown();
+            }
+            assertFalse("no identifier index was used", indexed.isEmpty());
+        }
+    }
+
+    // the order in which inputs and objects are found differs between the indexes and queries
+    private static Object normalise(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> retval = new HashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                retval.put(entry.getKey(), normalise(entry.getValue()));
+            }
+            return retval;
+        } else if (value instanceof Collection) {
+            Set<Object> retval = new HashSet<Object>();
+            for (Object element : (Collection<?>) value) {
+                retval.add(normalise(element));
+            }
+            return retval;
+        } else if (value instanceof ConvertedObjectPair) {
+            ConvertedObjectPair pair = (ConvertedObjectPair) value;
+            return Arrays.asList(pair.getOldObject(), pair.getNewObject());
+        }
+        return value;
+    }
+
     // we need to test a query that matches a different type.  Probably
     // need to add another query to: testmodel/webapp/main/resources/webapp/WEB-INF/bag-queries.xml
 
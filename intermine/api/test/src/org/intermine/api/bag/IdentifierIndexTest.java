@@ -0,0 +1,52 @@
+package org.intermine.api.bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class IdentifierIndexTest extends TestCase
+{
+    private IdentifierIndex index;
+
+    public IdentifierIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        rows.add(Arrays.asList(new Object[] {new Integer(1), "EmployeeA1", "a1"}));
+        rows.add(Arrays.asList(new Object[] {new Integer(2), "EmployeeA2", null}));
+        rows.add(Arrays.asList(new Object[] {new Integer(3), "employeea1", "b.1"}));
+        rows.add(Arrays.asList(new Object[] {new Integer(4), "EmployeeB1", new Integer(40)}));
+        index = IdentifierIndex.create(rows);
+    }
+
+    public void testGetIds() {
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)),
+                new HashSet<Integer>(index.getIds("EMPLOYEEA1", false)));
+        assertEquals(Collections.singletonList(1), index.getIds("EmployeeA1", true));
+        assertEquals(Collections.singletonList(3), index.getIds("employeea1", true));
+        assertEquals(Collections.emptyList(), index.getIds("EMPLOYEEA1", true));
+        assertEquals(Collections.singletonList(4), index.getIds("40", false));
+        assertEquals(Collections.emptyList(), index.getIds("null", false));
+        assertEquals(Collections.emptyList(), index.getIds("Employee", false));
+        assertEquals(6, index.size());
+    }
+
+    public void testGetWildcardIds() {
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)),
+                new HashSet<Integer>(index.getWildcardIds("employeea*")));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3, 4)),
+                new HashSet<Integer>(index.getWildcardIds("*1")));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3, 4)),
+                new HashSet<Integer>(index.getWildcardIds("Emp*E*1")));
+        // other characters are not patterns
+        assertEquals(Collections.singletonList(3), index.getWildcardIds("b.*"));
+        assertEquals(Collections.emptyList(), index.getWildcardIds("a.*"));
+        assertEquals(Collections.emptyList(), index.getWildcardIds("x*"));
+    }
+}
@@ -0,0 +1,172 @@
+package org.intermine.api.idresolution;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.idresolution.IDResolver.Priority;
+import org.intermine.api.idresolution.Job.JobStatus;
+
+public class IDResolverTest extends TestCase
+{
+    private final IDResolver resolver = IDResolver.getInstance();
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    public IDResolverTest(String arg) {
+        super(arg);
+    }
+
+    public void tearDown() {
+        release.countDown();
+        resolver.shutdown();
+        resolver.configure(IDResolver.DEFAULT_THREADS, IDResolver.DEFAULT_MAX_JOBS_PER_OWNER,
+                IDResolver.DEFAULT_RETENTION);
+    }
+
+    public void testInteractiveBeforeBackground() throws Exception {
+        resolver.configure(1, 5, 60000);
+        CountDownLatch running = new CountDownLatch(1);
+        resolver.execute(new TestWork("blocker", running, true), "a", Priority.BACKGROUND);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(3);
+        resolver.execute(new TestWork("upgrade", done, false), "a", Priority.BACKGROUND);
+        resolver.execute(new TestWork("upload1", done, false), "b", Priority.INTERACTIVE);
+        resolver.execute(new TestWork("upload2", done, false), null, Priority.INTERACTIVE);
+        assertEquals(3, resolver.getPendingCount());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("blocker", "upload1", "upload2", "upgrade"),
+                new ArrayList<String>(started));
+    }
+
+    public void testMaxJobsPerOwner() throws Exception {
+        resolver.configure(2, 1, 60000);
+        CountDownLatch running = new CountDownLatch(1);
+        resolver.execute(new TestWork("a1", running, true), "a", Priority.INTERACTIVE);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(1);
+        resolver.execute(new TestWork("a2", new CountDownLatch(1), false), "a",
+                Priority.INTERACTIVE);
+        resolver.execute(new TestWork("b1", done, false), "b", Priority.BACKGROUND);
+        // the second thread skips the job of the busy owner
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a1", "b1"), new ArrayList<String>(started));
+        assertEquals(1, resolver.getPendingCount());
+        release.countDown();
+        for (int i = 0; i < 100 && resolver.getPendingCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, resolver.getPendingCount());
+    }
+
+    public void testFewerThreads() throws Exception {
+        resolver.configure(3, 5, 60000);
+        CountDownLatch running = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            resolver.execute(new TestWork("blocker" + i, running, true), null,
+                    Priority.INTERACTIVE);
+        }
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        resolver.configure(1, 5, 60000);
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadNames.add(Thread.currentThread().getName());
+                    try {
+                        // long enough for other threads to take the other tasks, if they could
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        // finish
+                    }
+                    done.countDown();
+                }
+            }, null, Priority.INTERACTIVE);
+        }
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // the threads beyond the new limit stopped after their current task
+        assertEquals(1, threadNames.size());
+    }
+
+    public void testRemoveExpiredJobs() throws Exception {
+        resolver.configure(1, 5, 60000);
+        // a job without a runner, which fails as soon as it is run
+        Job finished = resolver.submit((BagQueryRunner) null, (JobInput) null);
+        CountDownLatch running = new CountDownLatch(1);
+        resolver.execute(new TestWork("blocker", running, true), null, Priority.INTERACTIVE);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        Job pending = resolver.submit((BagQueryRunner) null, (JobInput) null);
+        assertEquals(JobStatus.ERROR, finished.getStatus());
+
+        resolver.removeExpiredJobs();
+        assertSame(finished, resolver.getJobById(finished.getUid()));
+        assertSame(pending, resolver.getJobById(pending.getUid()));
+
+        resolver.configure(1, 5, 0);
+        Thread.sleep(10);
+        resolver.removeExpiredJobs();
+        assertNull(resolver.getJobById(finished.getUid()));
+        // jobs that have not finished are kept whatever the retention period
+        assertSame(pending, resolver.getJobById(pending.getUid()));
+    }
+
+    public void testShutdownRemovesPendingJobs() throws Exception {
+        resolver.configure(1, 5, 60000);
+        CountDownLatch running = new CountDownLatch(1);
+        resolver.execute(new TestWork("blocker", running, true), null, Priority.INTERACTIVE);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        Job pending = resolver.submit((BagQueryRunner) null, (JobInput) null);
+        assertSame(pending, resolver.getJobById(pending.getUid()));
+        resolver.shutdown();
+        assertNull(resolver.getJobById(pending.getUid()));
+        assertEquals(0, resolver.getPendingCount());
+    }
+
+    private class TestWork implements Runnable
+    {
+        private final String name;
+        private final CountDownLatch latch;
+        private final boolean block;
+
+        TestWork(String name, CountDownLatch latch, boolean block) {
+            this.name = name;
+            this.latch = latch;
+            this.block = block;
+        }
+
+        @Override
+        public void run() {
+            started.add(name);
+            latch.countDown();
+            if (block) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // finish
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.InterMineModelParser;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryObjectPathExpression;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.Constraints;
+import org.intermine.pathquery.OrderDirection;
+import org.intermine.pathquery.OuterJoinStatus;
+import org.intermine.pathquery.PathQuery;
+
+public class CompiledQueryCacheTest extends TestCase
+{
+    private static final Map<String, InterMineBag> NO_BAGS = new HashMap<String, InterMineBag>();
+
+    private Model model;
+
+    public CompiledQueryCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+        CompiledQueryCache.clear();
+    }
+
+    public void testHit() throws Exception {
+        Map<String, QuerySelectable> pathToQueryNode1 = new HashMap<String, QuerySelectable>();
+        Query q1 = CompiledQueryCache.makeQuery(employeeQuery("EmployeeA1"), NO_BAGS,
+                pathToQueryNode1, null, new HashMap<String, BagQueryResult>());
+        long hits = CompiledQueryCache.getHits();
+
+        Map<String, QuerySelectable> pathToQueryNode2 = new HashMap<String, QuerySelectable>();
+        Query q2 = CompiledQueryCache.makeQuery(employeeQuery("EmployeeA1"), NO_BAGS,
+                pathToQueryNode2, null, new HashMap<String, BagQueryResult>());
+        assertNotSame(q1, q2);
+        assertEquals(q1.toString(), q2.toString());
+        assertEquals(hits + 1, CompiledQueryCache.getHits());
+        assertEquals(pathToQueryNode1.keySet(), pathToQueryNode2.keySet());
+        assertEquals(q1.getSelect().indexOf(pathToQueryNode1.get("Employee.name")),
+                q2.getSelect().indexOf(pathToQueryNode2.get("Employee.name")));
+    }
+
+    public void testCopiesAreIndependent() throws Exception {
+        Query q1 = CompiledQueryCache.makeQuery(employeeQuery("EmployeeA1"), NO_BAGS, null, null,
+                null);
+        String iql = q1.toString();
+        q1.clearOrderBy();
+        q1.setDistinct(!q1.isDistinct());
+        Query q2 = CompiledQueryCache.makeQuery(employeeQuery("EmployeeA1"), NO_BAGS, null, null,
+                null);
+        assertEquals(iql, q2.toString());
+    }
+
+    public void testOuterJoinNodes() throws Exception {
+        PathQuery pq = new PathQuery(model);
+        pq.addViews("Employee.name", "Employee.address.address");
+        pq.setOuterJoinStatus("Employee.address", OuterJoinStatus.OUTER);
+        CompiledQueryCache.makeQuery(pq, NO_BAGS, null, null, null);
+
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Query q = CompiledQueryCache.makeQuery(pq, NO_BAGS, pathToQueryNode, null, null);
+        QuerySelectable address = pathToQueryNode.get("Employee.address");
+        assertTrue(address instanceof QueryObjectPathExpression);
+        // the node for the outer join is the one in the copy that was returned
+        boolean found = false;
+        for (QuerySelectable node : q.getSelect()) {
+            found = found || (node == address);
+        }
+        assertTrue(found);
+    }
+
+    public void testModelInKey() throws Exception {
+        Model copy = new InterMineModelParser().process(new StringReader(model.toString()));
+        CompiledQueryCache.makeQuery(employeeQuery("EmployeeA1"), NO_BAGS, null, null, null);
+        long misses = CompiledQueryCache.getMisses();
+        PathQuery pq = new PathQuery(copy);
+        pq.addViews("Employee.name", "Employee.department.name");
+        pq.addConstraint(Constraints.eq("Employee.name", "EmployeeA1"));
+        pq.addOrderBy("Employee.department.name", OrderDirection.ASC);
+        CompiledQueryCache.makeQuery(pq, NO_BAGS, null, null, null);
+        assertEquals(misses + 1, CompiledQueryCache.getMisses());
+    }
+
+    public void testDifferentValue() throws Exception {
+        Query q1 = CompiledQueryCache.makeQuery(employeeQuery("EmployeeA1"), NO_BAGS, null, null,
+                null);
+        Query q2 = CompiledQueryCache.makeQuery(employeeQuery("EmployeeA2"), NO_BAGS, null, null,
+                null);
+        assertNotSame(q1, q2);
+        assertFalse(q1.toString().equals(q2.toString()));
+        assertEquals(MainHelper.makeQuery(employeeQuery("EmployeeA2"), NO_BAGS, null, null, null)
+                .toString(), q2.toString());
+    }
+
+    public void testLookupNotCached() throws Exception {
+        PathQuery pq = new PathQuery(model);
+        pq.addView("Employee.name");
+        pq.addConstraint(Constraints.lookup("Employee", "EmployeeA1", null));
+        long uncacheable = CompiledQueryCache.getUncacheable();
+        try {
+            CompiledQueryCache.makeQuery(pq, NO_BAGS, null, null, null);
+        } catch (Exception e) {
+            // There is no BagQueryRunner
+        }
+        assertEquals(uncacheable + 1, CompiledQueryCache.getUncacheable());
+    }
+
+    private PathQuery employeeQuery(String name) {
+        PathQuery pq = new PathQuery(model);
+        pq.addViews("Employee.name", "Employee.department.name");
+        pq.addConstraint(Constraints.eq("Employee.name", name));
+        pq.addOrderBy("Employee.department.name", OrderDirection.ASC);
+        return pq;
+    }
+}
@@ -0,0 +1,144 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.results.ResultElement;
+
+public class QueryJobManagerTest extends TestCase
+{
+    private QueryJobManager manager;
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    public QueryJobManagerTest(String arg) {
+        super(arg);
+    }
+
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (manager != null) {
+            manager.shutdown();
+        }
+    }
+
+    public void testOwnersTakeTurns() throws Exception {
+        manager = new QueryJobManager(1, 5, 10, 60000);
+        QueryJob blocker = manager.submit(new TestJob("a", "blocker", true));
+        waitForStatus(blocker, QueryJob.Status.RUNNING);
+        QueryJob a1 = manager.submit(new TestJob("a", "a1", false));
+        QueryJob a2 = manager.submit(new TestJob("a", "a2", false));
+        QueryJob b1 = manager.submit(new TestJob("b", "b1", false));
+        assertEquals(3, manager.getPendingCount());
+        release.countDown();
+        waitForStatus(a1, QueryJob.Status.SUCCESS);
+        waitForStatus(a2, QueryJob.Status.SUCCESS);
+        waitForStatus(b1, QueryJob.Status.SUCCESS);
+        assertEquals(4, blocker.getRowCount());
+        assertEquals(Arrays.asList("blocker", "a1", "b1", "a2"), new ArrayList<String>(started));
+    }
+
+    public void testLimits() throws Exception {
+        manager = new QueryJobManager(1, 2, 2, 60000);
+        QueryJob blocker = manager.submit(new TestJob("a", "blocker", true));
+        waitForStatus(blocker, QueryJob.Status.RUNNING);
+        manager.submit(new TestJob("a", "a1", false));
+        try {
+            manager.submit(new TestJob("a", "a2", false));
+            fail("Expected exception");
+        } catch (RejectedExecutionException e) {
+            // expected - too many unfinished jobs for a
+        }
+        manager.submit(new TestJob("b", "b1", false));
+        try {
+            manager.submit(new TestJob("c", "c1", false));
+            fail("Expected exception");
+        } catch (RejectedExecutionException e) {
+            // expected - too many pending jobs
+        }
+    }
+
+    public void testCancel() throws Exception {
+        manager = new QueryJobManager(1, 5, 10, 60000);
+        QueryJob blocker = manager.submit(new TestJob("a", "blocker", true));
+        waitForStatus(blocker, QueryJob.Status.RUNNING);
+        QueryJob pending = manager.submit(new TestJob("b", "b1", false));
+        assertTrue(manager.cancel(pending));
+        assertEquals(QueryJob.Status.CANCELLED, pending.getStatus());
+        assertEquals(0, manager.getPendingCount());
+
+        assertTrue(manager.cancel(blocker));
+        release.countDown();
+        waitForStatus(blocker, QueryJob.Status.CANCELLED);
+        assertFalse(manager.cancel(blocker));
+        assertFalse(started.contains("b1"));
+
+        assertSame(blocker, manager.removeJob(blocker.getUid()));
+        assertNull(manager.getJob(blocker.getUid()));
+    }
+
+    private void waitForStatus(QueryJob job, QueryJob.Status status) throws Exception {
+        for (int i = 0; (i < 500) && (job.getStatus() != status); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, job.getStatus());
+    }
+
+    private class TestJob extends QueryJob
+    {
+        private final String name;
+        private final boolean block;
+
+        TestJob(String owner, String name, boolean block) {
+            super(owner, null, null, null, 0, 10, new QueryJob.ResultsHandler() {
+                @Override
+                public void handle(Iterator<List<ResultElement>> results) {
+                    while (results.hasNext()) {
+                        results.next();
+                    }
+                }
+
+                @Override
+                public void release() {
+                    // nothing to release
+                }
+            });
+            this.name = name;
+            this.block = block;
+        }
+
+        @Override
+        protected Iterator<List<ResultElement>> executeQuery() {
+            started.add(name);
+            if (block) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            List<List<ResultElement>> rows = new ArrayList<List<ResultElement>>();
+            for (int i = 0; i < 4; i++) {
+                rows.add(Collections.singletonList(new ResultElement(new Integer(i))));
+            }
+            return rows.iterator();
+        }
+    }
+}
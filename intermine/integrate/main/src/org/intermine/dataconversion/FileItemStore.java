@@ -0,0 +1,410 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+
+/**
+ * Reads Items from a directory written by a FileItemWriter. The segment files and the indexes
+ * are memory-mapped, so Items are read straight from the page cache, and reading the Items of a
+ * class, or all Items, in order reads the segment files sequentially.
+ * <p>
+ * Each Item is given the number, starting from 1, of its position in the order that the Items
+ * were stored. A FileItemStore may be read from several threads at once.
+ *
+ * @author intermine
+ */
+public class FileItemStore
+{
+    /** The default size in bytes after which FileItemWriter starts a new segment file */
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    static final String MANIFEST = "store.properties";
+    static final String POSITIONS = "positions.dat";
+    static final String AMENDMENTS = "amendments.dat";
+    static final String IDS = "ids.dat";
+    static final String CLASSES = "classes.dat";
+    static final String KEYS = "keys.tmp";
+    static final String SEGMENT_PREFIX = "items-";
+    static final String SEGMENT_SUFFIX = ".dat";
+
+    static final byte ITEM = 1;
+    static final byte ATTRIBUTE = 2;
+    static final byte REFERENCE = 3;
+    static final byte COLLECTION = 4;
+
+    private final File dir;
+    private final int itemCount;
+    private final ByteBuffer[] segments;
+    private final MappedArray positions;
+    private final MappedArray ids;
+    private final long idCount;
+    private final MappedArray classes;
+    private final Map<String, Long> namespaceBases = new HashMap<String, Long>();
+    private final SortedMap<String, Integer> namespaceMaxima = new TreeMap<String, Integer>();
+    private final Map<String, long[]> classRanges = new HashMap<String, long[]>();
+    private final MappedArray amendments;
+
+    /**
+     * Opens the item store in the given directory.
+     *
+     * @param dir the directory
+     * @throws IOException if the directory does not contain a complete item store, or it cannot
+     * be read
+     */
+    public FileItemStore(File dir) throws IOException {
+        this.dir = dir;
+        File manifestFile = new File(dir, MANIFEST);
+        if (!manifestFile.exists()) {
+            throw new IOException("No item store in " + dir + " - " + MANIFEST + " is missing,"
+                    + " so the FileItemWriter was not closed");
+        }
+        Properties manifest = new Properties();
+        InputStream in = new FileInputStream(manifestFile);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+        itemCount = Integer.parseInt(manifest.getProperty("items"));
+        idCount = Long.parseLong(manifest.getProperty("ids"));
+        for (String key : manifest.stringPropertyNames()) {
+            String value = manifest.getProperty(key);
+            if (key.startsWith("namespace.") && key.endsWith(".base")) {
+                namespaceBases.put(key.substring(10, key.length() - 5), Long.valueOf(value));
+            } else if (key.startsWith("namespace.") && key.endsWith(".max")) {
+                namespaceMaxima.put(key.substring(10, key.length() - 4), Integer.valueOf(value));
+            } else if (key.startsWith("class.") && key.endsWith(".offset")) {
+                classRange(key.substring(6, key.length() - 7))[0] = Long.parseLong(value);
+            } else if (key.startsWith("class.") && key.endsWith(".count")) {
+                classRange(key.substring(6, key.length() - 6))[1] = Long.parseLong(value);
+            }
+        }
+
+        segments = new ByteBuffer[Integer.parseInt(manifest.getProperty("segments"))];
+        for (int i = 0; i < segments.length; i++) {
+            RandomAccessFile segment = new RandomAccessFile(new File(dir, segmentName(i)), "r");
+            try {
+                segments[i] = segment.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        segment.length());
+            } finally {
+                segment.close();
+            }
+        }
+        positions = new MappedArray(new File(dir, POSITIONS), itemCount * 8L, false);
+        ids = new MappedArray(new File(dir, IDS), idCount * 4, false);
+        classes = new MappedArray(new File(dir, CLASSES), itemCount * 4L, false);
+
+        amendments = new MappedArray(new File(dir, AMENDMENTS), itemCount * 8L, false);
+    }
+
+    /**
+     * Returns the number of Items in the store.
+     *
+     * @return the number of Items
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Returns the highest number after the underscore of the identifiers in each namespace, the
+     * namespace being the part of the identifier before the underscore.
+     *
+     * @return a SortedMap from namespace to highest number
+     */
+    public SortedMap<String, Integer> getNamespaceMaxima() {
+        return Collections.unmodifiableSortedMap(namespaceMaxima);
+    }
+
+    /**
+     * Returns the number of the Item with the given identifier.
+     *
+     * @param identifier an Item identifier
+     * @return the number of the Item, or 0 if there is no such Item
+     */
+    public int getItemNumber(String identifier) {
+        int index = (identifier == null) ? -1 : identifier.indexOf("_");
+        if (index == -1) {
+            return 0;
+        }
+        Long base = namespaceBases.get(identifier.substring(0, index));
+        if (base == null) {
+            return 0;
+        }
+        int suffix;
+        try {
+            suffix = Integer.parseInt(identifier.substring(index + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        int max = namespaceMaxima.get(identifier.substring(0, index)).intValue();
+        if ((suffix < 0) || (suffix > max)) {
+            return 0;
+        }
+        return ids.getInt(base.longValue() + suffix);
+    }
+
+    /**
+     * Returns the number of Items with the given class name.
+     *
+     * @param className the unqualified class name, as in Item.getClassName()
+     * @return the number of Items
+     */
+    public int getClassCount(String className) {
+        long[] range = classRanges.get(className);
+        return (range == null) ? 0 : (int) range[1];
+    }
+
+    /**
+     * Returns the number of an Item with the given class name.
+     *
+     * @param className the unqualified class name, as in Item.getClassName()
+     * @param index the index of the Item among the Items of the class, in the order they were
+     * stored, from 0 to getClassCount(className) - 1
+     * @return the number of the Item
+     */
+    public int getItemNumberForClass(String className, int index) {
+        long[] range = classRanges.get(className);
+        if ((range == null) || (index < 0) || (index >= range[1])) {
+            throw new IndexOutOfBoundsException("No item " + index + " of class " + className
+                    + " in " + dir);
+        }
+        return classes.getInt(range[0] + index);
+    }
+
+    /**
+     * Returns the class name of an Item, without reading the rest of the Item.
+     *
+     * @param itemNumber the number of the Item
+     * @return the class name
+     */
+    public String getClassName(int itemNumber) {
+        ByteBuffer buf = record(position(itemNumber));
+        buf.get();
+        buf.getInt();
+        skipString(buf);
+        return readString(buf);
+    }
+
+    /**
+     * Reads an Item, with its attributes, references and collections, including those that were
+     * stored after the Item itself. The id of the Item is set to its number.
+     *
+     * @param itemNumber the number of the Item
+     * @return a new Item
+     */
+    public Item getItem(int itemNumber) {
+        ByteBuffer buf = record(position(itemNumber));
+        if (buf.get() != ITEM) {
+            throw new IllegalStateException("Item store in " + dir + " is corrupt at item "
+                    + itemNumber);
+        }
+        Item item = new Item();
+        item.setId(new Integer(buf.getInt()));
+        item.setIdentifier(readString(buf));
+        item.setClassName(readString(buf));
+        item.setImplementations(readString(buf));
+        for (int i = buf.getInt(); i > 0; i--) {
+            addAttribute(item, readString(buf), readString(buf));
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+            addReference(item, readString(buf), readString(buf));
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+            addCollection(item, readString(buf), readString(buf));
+        }
+
+        // The position of the last amendment, or 0 as no amendment can be the first record
+        long amendment = amendments.getLong(itemNumber - 1);
+        if (amendment != 0) {
+            // The amendments are chained from the last to the first, but are applied in order
+            List<Long> chain = new ArrayList<Long>();
+            long next = amendment;
+            while (next != -1L) {
+                chain.add(new Long(next));
+                ByteBuffer amendmentBuf = record(next);
+                amendmentBuf.get();
+                amendmentBuf.getInt();
+                next = amendmentBuf.getLong();
+            }
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                ByteBuffer amendmentBuf = record(chain.get(i).longValue());
+                byte type = amendmentBuf.get();
+                amendmentBuf.getInt();
+                amendmentBuf.getLong();
+                String name = readString(amendmentBuf);
+                String value = readString(amendmentBuf);
+                if (type == ATTRIBUTE) {
+                    addAttribute(item, name, value);
+                } else if (type == REFERENCE) {
+                    addReference(item, name, value);
+                } else {
+                    addCollection(item, name, value);
+                }
+            }
+        }
+        return item;
+    }
+
+    private static void addAttribute(Item item, String name, String value) {
+        Attribute a = new Attribute();
+        a.setName(name);
+        a.setValue(value);
+        a.setItem(item);
+        item.addAttributes(a);
+    }
+
+    private static void addReference(Item item, String name, String refId) {
+        Reference r = new Reference();
+        r.setName(name);
+        r.setRefId(refId);
+        r.setItem(item);
+        item.addReferences(r);
+    }
+
+    private static void addCollection(Item item, String name, String refIds) {
+        ReferenceList r = new ReferenceList();
+        r.setName(name);
+        r.setRefIds(refIds);
+        r.setItem(item);
+        item.addCollections(r);
+    }
+
+    private long position(int itemNumber) {
+        if ((itemNumber < 1) || (itemNumber > itemCount)) {
+            throw new IndexOutOfBoundsException("No item " + itemNumber + " in " + dir);
+        }
+        return positions.getLong(itemNumber - 1);
+    }
+
+    /**
+     * Returns a buffer positioned at the record at the given position. The buffer is not shared,
+     * so that several threads can read at once.
+     */
+    private ByteBuffer record(long position) {
+        ByteBuffer retval = segments[(int) (position >>> 32)].duplicate();
+        retval.position((int) position);
+        return retval;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void skipString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length > 0) {
+            buf.position(buf.position() + length);
+        }
+    }
+
+    private long[] classRange(String className) {
+        long[] retval = classRanges.get(className);
+        if (retval == null) {
+            retval = new long[2];
+            classRanges.put(className, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Writes a String, which may be null, in the form read by readString().
+     *
+     * @param out the stream to write to
+     * @param s the String
+     * @throws IOException if the String cannot be written
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Returns the position of a record, from its segment and its offset in the segment.
+     *
+     * @param segment the number of the segment
+     * @param offset the offset of the record in the segment
+     * @return the position
+     */
+    static long position(int segment, long offset) {
+        return (((long) segment) << 32) | offset;
+    }
+
+    /**
+     * Returns the name of a segment file.
+     *
+     * @param segment the number of the segment
+     * @return the file name
+     */
+    static String segmentName(int segment) {
+        return SEGMENT_PREFIX + segment + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * Deletes the files of any item store in the given directory. Other files are left alone.
+     *
+     * @param dir the directory
+     * @throws IOException if a file cannot be deleted
+     */
+    static void delete(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (MANIFEST.equals(name) || POSITIONS.equals(name) || AMENDMENTS.equals(name)
+                    || IDS.equals(name) || CLASSES.equals(name) || KEYS.equals(name)
+                    || (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))) {
+                if (!file.delete()) {
+                    throw new IOException("Cannot delete " + file);
+                }
+            }
+        }
+    }
+}
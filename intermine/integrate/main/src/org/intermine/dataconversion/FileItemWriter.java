@@ -0,0 +1,399 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Stores Items in a directory of files, which can then be read by a FileItemStore. Items are
+ * only ever appended, in the order that they are stored, to segment files that are written
+ * sequentially. Attributes, references and collections stored for an Item after the Item itself
+ * are appended as amendment records. When the writer is closed, it writes the indexes that
+ * FileItemStore uses to find an Item by its identifier and the Items of each class.
+ * <p>
+ * Any item store already in the directory is deleted when the writer is created.
+ *
+ * @author intermine
+ */
+public class FileItemWriter implements ItemWriter
+{
+    private static final Logger LOG = Logger.getLogger(FileItemWriter.class);
+    private static final int AMENDMENT_PAGE_BITS = 16;
+
+    private final File dir;
+    private final long segmentSize;
+    private DataOutputStream data;
+    private int segment = -1;
+    private long segmentOffset = 0;
+    private final DataOutputStream positions;
+    private final DataOutputStream keys;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(buffer);
+    private int itemCount = 0;
+    private final Map<String, Integer> namespaceIndexes = new HashMap<String, Integer>();
+    private final List<String> namespaces = new ArrayList<String>();
+    private final List<Integer> maxSuffixes = new ArrayList<Integer>();
+    private final Map<String, Integer> classIndexes = new HashMap<String, Integer>();
+    private final List<String> classNames = new ArrayList<String>();
+    private final List<Integer> classCounts = new ArrayList<Integer>();
+    // the position of the last amendment to each Item, or 0 if it has none, in pages that are
+    // only allocated once an Item in them is amended, as most Items never are
+    private long[][] lastAmendments = new long[16][];
+    private boolean closed = false;
+
+    /**
+     * Creates a writer for a new item store in the given directory, with segment files of the
+     * default size.
+     *
+     * @param dir the directory, which is created if it does not exist
+     * @throws ObjectStoreException if the files cannot be created
+     */
+    public FileItemWriter(File dir) throws ObjectStoreException {
+        this(dir, FileItemStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a writer for a new item store in the given directory.
+     *
+     * @param dir the directory, which is created if it does not exist
+     * @param segmentSize the size in bytes after which a new segment file is started
+     * @throws ObjectStoreException if the files cannot be created
+     */
+    public FileItemWriter(File dir, long segmentSize) throws ObjectStoreException {
+        if ((segmentSize < 1) || (segmentSize > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Segment size must be between 1 and "
+                    + Integer.MAX_VALUE + ": " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory " + dir);
+            }
+            FileItemStore.delete(dir);
+            positions = open(FileItemStore.POSITIONS);
+            keys = open(FileItemStore.KEYS);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Cannot create item store in " + dir, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        if (StringUtils.isEmpty(item.getClassName())
+            && StringUtils.isEmpty(item.getImplementations())) {
+            throw new RuntimeException("className not set for item: " + item.getIdentifier());
+        }
+        String identifier = item.getIdentifier();
+        int index = (identifier == null) ? -1 : identifier.indexOf("_");
+        int suffix = -1;
+        if (index != -1) {
+            try {
+                suffix = Integer.parseInt(identifier.substring(index + 1));
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+        }
+        if (suffix < 0) {
+            throw new ObjectStoreException("illegal identifier (\"" + identifier + "\") for item");
+        }
+        int itemNumber = itemCount + 1;
+        buffer.reset();
+        try {
+            record.writeByte(FileItemStore.ITEM);
+            record.writeInt(itemNumber);
+            FileItemStore.writeString(record, identifier);
+            FileItemStore.writeString(record, item.getClassName());
+            FileItemStore.writeString(record, item.getImplementations());
+            record.writeInt(item.getAttributes().size());
+            for (Attribute a : item.getAttributes()) {
+                FileItemStore.writeString(record, a.getName());
+                FileItemStore.writeString(record, a.getValue());
+            }
+            record.writeInt(item.getReferences().size());
+            for (Reference r : item.getReferences()) {
+                FileItemStore.writeString(record, r.getName());
+                FileItemStore.writeString(record, r.getRefId());
+            }
+            record.writeInt(item.getCollections().size());
+            for (ReferenceList r : item.getCollections()) {
+                FileItemStore.writeString(record, r.getName());
+                FileItemStore.writeString(record, r.getRefIds());
+            }
+            positions.writeLong(append());
+            keys.writeInt(index(identifier.substring(0, index), suffix));
+            keys.writeInt(suffix);
+            keys.writeInt(classIndex(item.getClassName()));
+        } catch (IOException e) {
+            throw new ObjectStoreException("Error writing item " + identifier, e);
+        }
+        itemCount = itemNumber;
+        Integer retval = new Integer(itemNumber);
+        item.setId(retval);
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        amend(FileItemStore.COLLECTION, itemId, refList.getName(), refList.getRefIds());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Reference ref, Integer itemId) throws ObjectStoreException {
+        amend(FileItemStore.REFERENCE, itemId, ref.getName(), ref.getRefId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        amend(FileItemStore.ATTRIBUTE, itemId, att.getName(), att.getValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        for (Item item : items) {
+            store(item);
+        }
+    }
+
+    /**
+     * Closes the segment files and writes the indexes. After this, the directory can be opened
+     * as a FileItemStore.
+     *
+     * @throws ObjectStoreException if the indexes cannot be written, or two Items have the same
+     * identifier
+     */
+    public void close() throws ObjectStoreException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long start = System.currentTimeMillis();
+        try {
+            if (data != null) {
+                data.close();
+            }
+            positions.close();
+            keys.close();
+            Properties manifest = new Properties();
+            manifest.setProperty("items", Integer.toString(itemCount));
+            manifest.setProperty("segments", Integer.toString(segment + 1));
+
+            // Give each namespace a range of ids in the same way as ItemToObjectTranslator does,
+            // so that an identifier can be found in the id index without a hash lookup
+            long[] bases = new long[namespaces.size()];
+            Map<String, Integer> sortedNamespaces = new TreeMap<String, Integer>(namespaceIndexes);
+            long idCount = 0;
+            for (Map.Entry<String, Integer> entry : sortedNamespaces.entrySet()) {
+                int nsIndex = entry.getValue().intValue();
+                bases[nsIndex] = idCount;
+                manifest.setProperty("namespace." + entry.getKey() + ".base",
+                        Long.toString(idCount));
+                manifest.setProperty("namespace." + entry.getKey() + ".max",
+                        maxSuffixes.get(nsIndex).toString());
+                idCount += maxSuffixes.get(nsIndex).intValue() + 1L;
+            }
+            if (idCount > Integer.MAX_VALUE) {
+                throw new ObjectStoreException("Item identifiers need " + idCount + " ids, which"
+                        + " is more than an Integer can hold");
+            }
+            manifest.setProperty("ids", Long.toString(idCount));
+
+            // The items of each class are written together, in the order they were stored
+            long[] classOffsets = new long[classNames.size()];
+            Map<String, Integer> sortedClasses = new TreeMap<String, Integer>(classIndexes);
+            long offset = 0;
+            for (Map.Entry<String, Integer> entry : sortedClasses.entrySet()) {
+                int classIndex = entry.getValue().intValue();
+                classOffsets[classIndex] = offset;
+                manifest.setProperty("class." + entry.getKey() + ".offset", Long.toString(offset));
+                manifest.setProperty("class." + entry.getKey() + ".count",
+                        classCounts.get(classIndex).toString());
+                offset += classCounts.get(classIndex).intValue();
+            }
+
+            MappedArray ids = new MappedArray(new File(dir, FileItemStore.IDS), idCount * 4,
+                    true);
+            MappedArray classes = new MappedArray(new File(dir, FileItemStore.CLASSES),
+                    itemCount * 4L, true);
+            File keysFile = new File(dir, FileItemStore.KEYS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(keysFile)));
+            try {
+                for (int itemNumber = 1; itemNumber <= itemCount; itemNumber++) {
+                    int nsIndex = in.readInt();
+                    long id = bases[nsIndex] + in.readInt();
+                    int classIndex = in.readInt();
+                    if (ids.getInt(id) != 0) {
+                        throw new ObjectStoreException("Items " + ids.getInt(id) + " and "
+                                + itemNumber + " have the same identifier in namespace "
+                                + namespaces.get(nsIndex));
+                    }
+                    ids.putInt(id, itemNumber);
+                    classes.putInt(classOffsets[classIndex]++, itemNumber);
+                }
+            } finally {
+                in.close();
+            }
+            if (!keysFile.delete()) {
+                LOG.warn("Could not delete " + keysFile);
+            }
+
+            MappedArray amendments = new MappedArray(new File(dir, FileItemStore.AMENDMENTS),
+                    itemCount * 8L, true);
+            for (int page = 0; page < lastAmendments.length; page++) {
+                if (lastAmendments[page] != null) {
+                    long first = ((long) page) << AMENDMENT_PAGE_BITS;
+                    for (int i = 0; i < lastAmendments[page].length; i++) {
+                        if (lastAmendments[page][i] != 0) {
+                            amendments.putLong(first + i, lastAmendments[page][i]);
+                        }
+                    }
+                }
+            }
+            lastAmendments = null;
+
+            // Written last, so that an incomplete store is not mistaken for a complete one
+            OutputStream out = new FileOutputStream(new File(dir, FileItemStore.MANIFEST));
+            try {
+                manifest.store(out, "Item store written by FileItemWriter");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("Error writing item store in " + dir, e);
+        }
+        LOG.info("Wrote " + itemCount + " items in " + (segment + 1) + " segments to " + dir
+                + ", indexes took " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Appends an amendment record for an Item that has already been stored. Each amendment holds
+     * the position of the previous amendment to the same Item, so that they can be found without
+     * an index of every amendment.
+     */
+    private void amend(byte type, Integer itemId, String name, String value)
+        throws ObjectStoreException {
+        if ((itemId == null) || (itemId.intValue() < 1) || (itemId.intValue() > itemCount)) {
+            throw new ObjectStoreException("No item has been stored with id " + itemId);
+        }
+        int index = itemId.intValue() - 1;
+        int page = index >>> AMENDMENT_PAGE_BITS;
+        if (page >= lastAmendments.length) {
+            lastAmendments = Arrays.copyOf(lastAmendments,
+                    Math.max(page + 1, lastAmendments.length * 2));
+        }
+        if (lastAmendments[page] == null) {
+            lastAmendments[page] = new long[1 << AMENDMENT_PAGE_BITS];
+        }
+        int offset = index & ((1 << AMENDMENT_PAGE_BITS) - 1);
+        long previous = lastAmendments[page][offset];
+        buffer.reset();
+        try {
+            record.writeByte(type);
+            record.writeInt(itemId.intValue());
+            record.writeLong(previous == 0 ? -1L : previous);
+            FileItemStore.writeString(record, name);
+            FileItemStore.writeString(record, value);
+            lastAmendments[page][offset] = append();
+        } catch (IOException e) {
+            throw new ObjectStoreException("Error writing " + name + " of item " + itemId, e);
+        }
+    }
+
+    /**
+     * Writes the record in the buffer to the current segment, starting a new segment if the
+     * record does not fit in this one, and returns its position.
+     */
+    private long append() throws IOException {
+        int length = buffer.size();
+        if ((data == null) || ((segmentOffset > 0) && (segmentOffset + length > segmentSize))) {
+            if (data != null) {
+                data.close();
+            }
+            segment++;
+            segmentOffset = 0;
+            data = open(FileItemStore.segmentName(segment));
+        }
+        long retval = FileItemStore.position(segment, segmentOffset);
+        buffer.writeTo(data);
+        buffer.reset();
+        segmentOffset += length;
+        return retval;
+    }
+
+    private int index(String namespace, int suffix) {
+        Integer retval = namespaceIndexes.get(namespace);
+        if (retval == null) {
+            retval = new Integer(namespaces.size());
+            namespaceIndexes.put(namespace, retval);
+            namespaces.add(namespace);
+            maxSuffixes.add(new Integer(suffix));
+        } else if (maxSuffixes.get(retval.intValue()).intValue() < suffix) {
+            maxSuffixes.set(retval.intValue(), new Integer(suffix));
+        }
+        return retval.intValue();
+    }
+
+    private int classIndex(String className) {
+        String key = (className == null) ? "" : className;
+        Integer retval = classIndexes.get(key);
+        if (retval == null) {
+            retval = new Integer(classNames.size());
+            classIndexes.put(key, retval);
+            classNames.add(key);
+            classCounts.add(new Integer(1));
+        } else {
+            classCounts.set(retval.intValue(),
+                    new Integer(classCounts.get(retval.intValue()).intValue() + 1));
+        }
+        return retval.intValue();
+    }
+
+    private DataOutputStream open(String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        new File(dir, name)), 65536));
+    }
+}
@@ -36,6 +36,7 @@ import org.intermine.model.fulldata.Reference;
 import org.intermine.model.fulldata.ReferenceList;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.fileitems.ObjectStoreFileItemsImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ClobAccess;
@@ -102,7 +103,16 @@ public class ItemToObjectTranslator extends Translator
         q.addToGroupBy(qe3);
         q.setDistinct(false);
         try {
-            if (os != null) {
+            if (os instanceof ObjectStoreFileItemsImpl) {
+                // The item store already knows the namespaces, so they need not be queried for
+                int offset = 0;
+                for (Map.Entry<String, Integer> entry : ((ObjectStoreFileItemsImpl) os).getStore()
+                        .getNamespaceMaxima().entrySet()) {
+                    idToNamespace.put(new Integer(offset), entry.getKey());
+                    namespaceToId.put(entry.getKey(), new Integer(offset));
+                    offset += entry.getValue().intValue() + 1;
+                }
+            } else if (os != null) {
                 Results res = os.execute(q, 1000, false, false, false);
                 int offset = 0;
                 @SuppressWarnings("unchecked") Collection<ResultsRow<Object>> tmpRes =
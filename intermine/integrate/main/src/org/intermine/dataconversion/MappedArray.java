@@ -0,0 +1,105 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of ints or longs, memory-mapped in chunks so that it may be larger than the 2GB that a
+ * single mapping can hold. Values are read and written by index, with absolute gets and puts, so
+ * that reading is safe from several threads.
+ *
+ * @author intermine
+ */
+class MappedArray
+{
+    /** Bytes in each mapped chunk, a multiple of the size of both ints and longs */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final ByteBuffer[] chunks;
+
+    /**
+     * Maps the given file.
+     *
+     * @param file the file
+     * @param length the length of the file in bytes. If writable, the file is created or
+     * extended to this length, filled with zeroes
+     * @param writable true to map the file for writing as well as reading
+     * @throws IOException if the file cannot be mapped
+     */
+    MappedArray(File file, long length, boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            if (writable) {
+                raf.setLength(length);
+            }
+            FileChannel channel = raf.getChannel();
+            chunks = new ByteBuffer[(int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE
+                        : FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE,
+                            length - start));
+            }
+        } finally {
+            // The mappings stay valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the int at the given index.
+     *
+     * @param index the index of the int
+     * @return the value
+     */
+    int getInt(long index) {
+        long byteIndex = index * 4;
+        return chunks[(int) (byteIndex / CHUNK_SIZE)].getInt((int) (byteIndex % CHUNK_SIZE));
+    }
+
+    /**
+     * Sets the int at the given index.
+     *
+     * @param index the index of the int
+     * @param value the value
+     */
+    void putInt(long index, int value) {
+        long byteIndex = index * 4;
+        chunks[(int) (byteIndex / CHUNK_SIZE)].putInt((int) (byteIndex % CHUNK_SIZE), value);
+    }
+
+    /**
+     * Returns the long at the given index.
+     *
+     * @param index the index of the long
+     * @return the value
+     */
+    long getLong(long index) {
+        long byteIndex = index * 8;
+        return chunks[(int) (byteIndex / CHUNK_SIZE)].getLong((int) (byteIndex % CHUNK_SIZE));
+    }
+
+    /**
+     * Sets the long at the given index.
+     *
+     * @param index the index of the long
+     * @param value the value
+     */
+    void putLong(long index, long value) {
+        long byteIndex = index * 8;
+        chunks[(int) (byteIndex / CHUNK_SIZE)].putLong((int) (byteIndex % CHUNK_SIZE), value);
+    }
+}
@@ -21,6 +21,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ClassDescriptor;
@@ -69,6 +71,9 @@ public class BatchingFetcher extends HintingFetcher
     protected long timeSpentExecute = 0;
     protected long timeSpentPrefetchEquiv = 0;
     protected long timeSpentPrefetchTracker = 0;
+    /** Time spent in doPk for each primary key, keyed by class and primary key name. */
+    protected ConcurrentHashMap<String, PkTiming> pkTimings
+        = new ConcurrentHashMap<String, PkTiming>();
 
     /**
      * Constructor
@@ -102,7 +107,49 @@ public class BatchingFetcher extends HintingFetcher
     public void close(Source source) {
         LOG.info("Batching equivalent object query summary for source " + source + " :"
                 + getSummary(source).toString() + "\nFetched " + batchQueried
-                + " objects by batch, cache misses: " + cacheMisses);
+                + " objects by batch, cache misses: " + cacheMisses + getPkTimingSummary());
+    }
+
+    /**
+     * Records the time taken to fetch equivalent objects for one primary key.
+     *
+     * @param pk the PrimaryKey
+     * @param cld the ClassDescriptor of the PrimaryKey
+     * @param time the time taken in milliseconds
+     * @param objectCount the number of objects that equivalents were fetched for
+     */
+    protected void recordPkTiming(PrimaryKey pk, ClassDescriptor cld, long time,
+            int objectCount) {
+        String key = cld.getUnqualifiedName() + "." + pk.getName();
+        PkTiming timing = pkTimings.get(key);
+        if (timing == null) {
+            timing = new PkTiming(key);
+            PkTiming existing = pkTimings.putIfAbsent(key, timing);
+            if (existing != null) {
+                timing = existing;
+            }
+        }
+        timing.calls.incrementAndGet();
+        timing.objects.addAndGet(objectCount);
+        timing.time.addAndGet(time);
+    }
+
+    /**
+     * Returns a description of the time spent on each primary key, most expensive first.
+     *
+     * @return a String starting with a newline, or an empty String if nothing has been fetched
+     */
+    protected String getPkTimingSummary() {
+        if (pkTimings.isEmpty()) {
+            return "";
+        }
+        List<PkTiming> timings = new ArrayList<PkTiming>(pkTimings.values());
+        Collections.sort(timings);
+        StringBuffer retval = new StringBuffer("\nTime spent fetching by primary key:");
+        for (PkTiming timing : timings) {
+            retval.append("\n    " + timing);
+        }
+        return retval.toString();
     }
 
     /**
@@ -265,8 +312,11 @@ public class BatchingFetcher extends HintingFetcher
                 ClassDescriptor cld = pksToDo.get(pk);
                 if (canDoPkNow(pk, cld, pksNotDone)) {
                     //LOG.error("Running pk " + cld.getName() + "." + pk.getName());
+                    long pkStart = System.currentTimeMillis();
                     doPk(pk, cld, results, cldToObjectsForCld.get(cld),
                             fetchedObjectIds);
+                    recordPkTiming(pk, cld, System.currentTimeMillis() - pkStart,
+                            cldToObjectsForCld.get(cld).size());
                     pkIter.remove();
                     pksNotDone.remove(pk);
                 } else {
@@ -472,6 +522,38 @@ public class BatchingFetcher extends HintingFetcher
         }
     }
 
+    /**
+     * Accumulated timings for one primary key.
+     */
+    protected static class PkTiming implements Comparable<PkTiming>
+    {
+        private final String name;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong objects = new AtomicLong();
+        private final AtomicLong time = new AtomicLong();
+
+        PkTiming(String name) {
+            this.name = name;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int compareTo(PkTiming o) {
+            long diff = o.time.get() - time.get();
+            return (diff < 0 ? -1 : (diff > 0 ? 1 : name.compareTo(o.name)));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return name + ": " + time.get() + " ms for " + objects.get() + " objects in "
+                + calls.get() + " batches";
+        }
+    }
+
     private class NoseyObjectStore extends ObjectStorePassthruImpl implements Shutdownable
     {
         public NoseyObjectStore(ObjectStore os) {
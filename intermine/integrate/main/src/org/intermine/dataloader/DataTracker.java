@@ -13,15 +13,18 @@ package org.intermine.dataloader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -52,6 +55,10 @@ public class DataTracker
      * The LinkedHashMap has a threshold size. When it grows bigger than maxSize, a database write
      * occurs, which stores commitSize least-recently-used entries in the database, which then
      * become type 4.
+     *
+     * If a store file is given, the whole tracker table is also copied into a MappedTrackerStore
+     * outside the Java heap, and kept up to date as entries are written to the database. Type 4
+     * entries are then read from the store instead of the database.
      */
     private int maxSize;
     private int commitSize;
@@ -64,12 +71,14 @@ public class DataTracker
     private Connection storeConn;
     protected Exception broken = null;
     private CacheStorer cacheStorer;
+    private MappedTrackerStore store = null;
     private int version = 0;
     // This reference is here so that the Database doesn't get garbage collected.
     private Database db;
 
     private int ops = 0;
     private int misses = 0;
+    private int storeReads = 0;
     private int batched = 0;
     private long timeSpentReading = 0;
     private long timeSpentPrefetching = 0;
@@ -82,6 +91,20 @@ public class DataTracker
      * @param commitSize number of entries to write to the database at a time
      */
     public DataTracker(Database db, int maxSize, int commitSize) {
+        this(db, maxSize, commitSize, null);
+    }
+
+    /**
+     * Constructor for DataTracker that keeps a copy of all the tracking data outside the Java
+     * heap. The copy is loaded from the database when the tracker is constructed.
+     *
+     * @param db a Database to back the tracker
+     * @param maxSize maximum number of cache entries
+     * @param commitSize number of entries to write to the database at a time
+     * @param storeFile a file to memory-map the tracking data from, or null to read tracking data
+     * that is not in the cache from the database
+     */
+    public DataTracker(Database db, int maxSize, int commitSize, File storeFile) {
         this.maxSize = maxSize;
         this.commitSize = commitSize;
         this.db = db;
@@ -97,11 +120,20 @@ public class DataTracker
             } catch (SQLException e2) {
                 clear();
             }
+            if (storeFile != null) {
+                store = new MappedTrackerStore(storeFile);
+                loadStore();
+            }
         } catch (SQLException e) {
             IllegalArgumentException e2 = new IllegalArgumentException(
                     "Could not access SQL database");
             e2.initCause(e);
             throw e2;
+        } catch (IOException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException(
+                    "Could not create tracker store " + storeFile);
+            e2.initCause(e);
+            throw e2;
         }
         cacheStorer = new CacheStorer();
         Thread cacheStorerThread = new Thread(cacheStorer, "DataTracker CacheStorer");
@@ -125,6 +157,74 @@ public class DataTracker
         s.execute("create table tracker (objectid int, fieldname text, sourcename text,"
                 + " version int)");
         s.execute("create index tracker_objectid on tracker (objectid)");
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    /**
+     * Reads the whole tracker table into the store, through a cursor so that the rows are not
+     * all held in memory at once.
+     *
+     * @throws SQLException if the table cannot be read
+     */
+    private void loadStore() throws SQLException {
+        long start = System.currentTimeMillis();
+        int rows = 0;
+        conn.setAutoCommit(false);
+        try {
+            Statement s = conn.createStatement();
+            s.setFetchSize(10000);
+            ResultSet r = s.executeQuery("SELECT objectid, fieldname, sourcename, version"
+                    + " FROM tracker ORDER BY objectid, version");
+            int currentId = 0;
+            Map<String, String> fields = null;
+            while (r.next()) {
+                int id = r.getInt(1);
+                if ((fields == null) || (id != currentId)) {
+                    if (fields != null) {
+                        store.put(currentId, fields);
+                    }
+                    currentId = id;
+                    fields = new HashMap<String, String>();
+                }
+                fields.put(r.getString(2), r.getString(3));
+                int rowVersion = r.getInt(4);
+                if (version <= rowVersion) {
+                    version = rowVersion + 1;
+                }
+                rows++;
+            }
+            if (fields != null) {
+                store.put(currentId, fields);
+            }
+            r.close();
+            s.close();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        LOG.info("Loaded " + rows + " tracker rows into " + store + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Creates an ObjectDescription from the data in the store. If the store has no data for the
+     * object, then the tracker table has none either, so the description is empty.
+     *
+     * @param id the ID of the object
+     * @return an ObjectDescription
+     */
+    private ObjectDescription readStore(Integer id) {
+        ObjectDescription desc = new ObjectDescription();
+        Map<String, String> fields = store.get(id.intValue());
+        if (fields != null) {
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                desc.putClean(field.getKey(), stringToSource(field.getValue()));
+            }
+        }
+        storeReads++;
+        return desc;
     }
 
     /**
@@ -133,6 +233,17 @@ public class DataTracker
      * @param ids a Set of Integers
      */
     public void prefetchIds(Set<Integer> ids) {
+        if (store != null) {
+            // Everything is already in memory, so just warm up the cache.
+            long startTime = System.currentTimeMillis();
+            synchronized (this) {
+                for (Integer id : ids) {
+                    getDesc(id, false);
+                }
+            }
+            timeSpentPrefetching += System.currentTimeMillis() - startTime;
+            return;
+        }
         Connection prefetchConn = null;
         try {
             prefetchConn = db.getConnection();
@@ -265,7 +376,11 @@ public class DataTracker
             }
             cache.put(id, desc);
         }
-        if (desc == null) {
+        if ((desc == null) && (store != null)) {
+            desc = readStore(id);
+            cache.put(id, desc);
+            maybePoke();
+        } else if (desc == null) {
             desc = new ObjectDescription();
             try {
                 long start = System.currentTimeMillis();
@@ -419,7 +534,8 @@ public class DataTracker
     public void close() {
         LOG.info("Closing DataTracker. Operations: " + ops + ", cache misses: " + misses
                 + ", time spent reading: " + timeSpentReading + ", prefetched: " + batched
-                + ", time spent prefetching: " + timeSpentPrefetching);
+                + ", time spent prefetching: " + timeSpentPrefetching + ", read from store: "
+                + storeReads + (store == null ? "" : ", store: " + store));
         cacheStorer.die();
         flush();
         synchronized (this) {
@@ -428,6 +544,14 @@ public class DataTracker
                 storeConn.close();
                 conn = null;
                 storeConn = null;
+                if (store != null) {
+                    store.close();
+                    store = null;
+                }
+            } catch (IOException e) {
+                IllegalArgumentException e2 = new IllegalArgumentException();
+                e2.initCause(e);
+                throw e2;
             } catch (SQLException e) {
                 IllegalArgumentException e2 = new IllegalArgumentException();
                 e2.initCause(e);
@@ -511,12 +635,25 @@ public class DataTracker
                 s = storeConn.createStatement();
                 LOG.warn("Using slow portable writing method");
             }
+            List<Integer> storeIds = new ArrayList<Integer>();
+            List<Map<String, String>> storeFields = new ArrayList<Map<String, String>>();
             for (Map.Entry<Integer, ObjectDescription> entry : map.entrySet()) {
                 Integer id = entry.getKey();
                 ObjectDescription desc = entry.getValue();
                 if (desc.isDirty()) {
                     Map<String, Source> orig = desc.getOrig();
                     Map<String, Source> newData = desc.getNewData();
+                    if (store != null) {
+                        Map<String, String> fields = new HashMap<String, String>();
+                        for (Map.Entry<String, Source> fieldEntry : orig.entrySet()) {
+                            fields.put(fieldEntry.getKey(), sourceToString(fieldEntry.getValue()));
+                        }
+                        for (Map.Entry<String, Source> fieldEntry : newData.entrySet()) {
+                            fields.put(fieldEntry.getKey(), sourceToString(fieldEntry.getValue()));
+                        }
+                        storeIds.add(id);
+                        storeFields.add(fields);
+                    }
                     for (Map.Entry<String, Source> fieldEntry : newData.entrySet()) {
                         String field = fieldEntry.getKey();
                         Source source = fieldEntry.getValue();
@@ -555,6 +692,10 @@ public class DataTracker
             }
             version++;
             storeConn.commit();
+            // The store must only describe data that is in the database
+            for (int i = 0; i < storeIds.size(); i++) {
+                store.put(storeIds.get(i).intValue(), storeFields.get(i));
+            }
         } catch (IOException e) {
             throw new SQLException(e.toString());
         }
@@ -10,6 +10,7 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -78,6 +79,17 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         eof = new HintingFetcher(beof);
     }
 
+    /**
+     * Replaces the id map, for example with one that spills to disc.
+     *
+     * @param idMap an empty IntToIntMap
+     */
+    protected void setIdMap(IntToIntMap idMap) {
+        this.idMap = idMap;
+        beof = new BaseEquivalentObjectFetcher(getModel(), idMap, osw);
+        eof = new HintingFetcher(beof);
+    }
+
     /**
      * Resets the IntegrationWriter, clearing the id map and the hints
      */
@@ -735,6 +747,11 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         osw.close();
         beof.close(lastSource);
         eof.close(lastSource);
+        try {
+            idMap.close();
+        } catch (IOException e) {
+            LOG.warn("Could not delete id map spill file", e);
+        }
     }
 
     /**
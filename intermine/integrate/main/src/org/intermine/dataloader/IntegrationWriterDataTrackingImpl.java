@@ -10,6 +10,7 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.File;
 import java.lang.reflect.Constructor;
 import java.util.Collections;
 import java.util.Comparator;
@@ -38,6 +39,7 @@ import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.sql.Database;
 import org.intermine.util.DynamicUtil;
 import org.intermine.util.IntPresentSet;
+import org.intermine.util.IntToIntMap;
 
 /**
  * Priority-based implementation of IntegrationWriter. Allows field values to be chosen according
@@ -116,6 +118,9 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     + " datatracker commit size specified (check properties file)");
         }
         String trackerMissingClassesString = props.getProperty("datatrackerMissingClasses");
+        String idMapSpillDir = props.getProperty("idMapSpillDir");
+        String idMapMaxHeapPagesString = props.getProperty("idMapMaxHeapPages");
+        String trackerStoreDir = props.getProperty("datatrackerStoreDir");
 
         ObjectStoreWriter writer = ObjectStoreWriterFactory.getObjectStoreWriter(writerAlias);
         try {
@@ -132,15 +137,37 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     trackerMissingClasses.add(c);
                 }
             }
-            Constructor<? extends DataTracker> con = trackerClass.getConstructor(
-                    new Class[] {Database.class, Integer.TYPE, Integer.TYPE});
-            DataTracker newDataTracker = con.newInstance(new Object[] {db,
-                new Integer(maxSize), new Integer(commitSize)});
+            DataTracker newDataTracker;
+            if (trackerStoreDir != null) {
+                File storeFile = File.createTempFile("datatracker", ".store",
+                        new File(trackerStoreDir));
+                LOG.info("Data tracker will be held in " + storeFile);
+                Constructor<? extends DataTracker> con = trackerClass.getConstructor(
+                        new Class[] {Database.class, Integer.TYPE, Integer.TYPE, File.class});
+                newDataTracker = con.newInstance(new Object[] {db, new Integer(maxSize),
+                    new Integer(commitSize), storeFile});
+            } else {
+                Constructor<? extends DataTracker> con = trackerClass.getConstructor(
+                        new Class[] {Database.class, Integer.TYPE, Integer.TYPE});
+                newDataTracker = con.newInstance(new Object[] {db,
+                    new Integer(maxSize), new Integer(commitSize)});
+            }
 
             Constructor<? extends IntegrationWriterDataTrackingImpl> con2 =
                 iwClass.getConstructor(new Class[] {ObjectStoreWriter.class, DataTracker.class,
                     Set.class});
-            return con2.newInstance(new Object[] {writer, newDataTracker, trackerMissingClasses});
+            IntegrationWriterDataTrackingImpl retval = con2.newInstance(new Object[] {writer,
+                newDataTracker, trackerMissingClasses});
+            if (idMapSpillDir != null) {
+                // Each page holds 8192 ids, so the default keeps 100 million ids on the heap
+                int maxHeapPages = (idMapMaxHeapPagesString == null ? 12207
+                        : Integer.parseInt(idMapMaxHeapPagesString));
+                File spillFile = File.createTempFile("idMap", ".spill", new File(idMapSpillDir));
+                retval.setIdMap(new IntToIntMap(spillFile, maxHeapPages));
+                LOG.info("Id map will spill to " + spillFile + " after " + maxHeapPages
+                        + " pages");
+            }
+            return retval;
         } catch (Exception e) {
             IllegalArgumentException e2 = new IllegalArgumentException("Problem instantiating"
                     + " IntegrationWriterDataTrackingImpl " + props.getProperty("alias"));
@@ -185,10 +212,10 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
     @Override
     public void reset() {
         super.reset();
-        skeletons = new IntPresentSet();
-        pureObjects = new IntPresentSet();
-        writtenObjects = new IntPresentSet();
-        duplicateObjects = new IntPresentSet();
+        skeletons.clear();
+        pureObjects.clear();
+        writtenObjects.clear();
+        duplicateObjects.clear();
         isDuplicates = false;
     }
 
@@ -0,0 +1,211 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.util.IntToIntMap;
+
+/**
+ * A store of data tracking information held outside the Java heap, in a memory-mapped file. For
+ * each object id, the store holds the name of the source of each field, as it is recorded in the
+ * tracker table, so a DataTracker can answer cache misses without querying the database.
+ * <p>
+ * Field names and source names are each numbered, and a record is one int holding the number of
+ * fields followed by one int per field, containing the field number and source number packed as
+ * two shorts. Records are appended to the file. Replacing the record for an object appends a new
+ * record and abandons the old one, which is acceptable as the tracker data for an object rarely
+ * changes more than a few times in a build. The only heap used per object is the four bytes of
+ * the index from object id to record.
+ * <p>
+ * The file is scratch space, and is deleted when the store is closed or the JVM exits. All
+ * methods are synchronised.
+ *
+ * @author intermine
+ */
+public class MappedTrackerStore
+{
+    private static final int CHUNK_INTS = 16 * 1024 * 1024;
+    private static final long CHUNK_BYTES = CHUNK_INTS * 4L;
+    private static final int MAX_NAMES = 0xffff;
+
+    private File file;
+    private RandomAccessFile raf;
+    private List<IntBuffer> chunks = new ArrayList<IntBuffer>();
+    private IntToIntMap index = new IntToIntMap();
+    private long position = 0;
+    private List<String> fieldNames = new ArrayList<String>();
+    private Map<String, Integer> fieldNumbers = new HashMap<String, Integer>();
+    private List<String> sourceNames = new ArrayList<String>();
+    private Map<String, Integer> sourceNumbers = new HashMap<String, Integer>();
+
+    /**
+     * Constructs a new empty store, backed by the given file. The file is created or truncated.
+     *
+     * @param file the file to map
+     * @throws IOException if the file cannot be created
+     */
+    public MappedTrackerStore(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        file.deleteOnExit();
+    }
+
+    /**
+     * Replaces the tracking data for an object.
+     *
+     * @param id the id of the object
+     * @param fieldToSource a Map from field name to source name
+     */
+    public synchronized void put(int id, Map<String, String> fieldToSource) {
+        int size = fieldToSource.size() + 1;
+        if (size > CHUNK_INTS) {
+            throw new IllegalArgumentException("Too many fields for object " + id + ": "
+                    + fieldToSource.size());
+        }
+        int offsetInChunk = (int) (position % CHUNK_INTS);
+        if (offsetInChunk + size > CHUNK_INTS) {
+            // Records never cross a chunk boundary
+            position += CHUNK_INTS - offsetInChunk;
+        }
+        if (position + size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Tracker store " + file + " is full");
+        }
+        IntBuffer chunk = chunkFor(position);
+        int offset = (int) (position % CHUNK_INTS);
+        chunk.put(offset, fieldToSource.size());
+        for (Map.Entry<String, String> entry : fieldToSource.entrySet()) {
+            offset++;
+            int field = number(entry.getKey(), fieldNames, fieldNumbers);
+            int source = number(entry.getValue(), sourceNames, sourceNumbers);
+            chunk.put(offset, (field << 16) | source);
+        }
+        index.put(id, (int) position);
+        position += size;
+    }
+
+    /**
+     * Returns the tracking data for an object.
+     *
+     * @param id the id of the object
+     * @return a Map from field name to source name, or null if the store has no data for the
+     * object
+     */
+    public synchronized Map<String, String> get(int id) {
+        int recordPosition = index.get(id);
+        if (recordPosition == -1) {
+            return null;
+        }
+        IntBuffer chunk = chunks.get(recordPosition / CHUNK_INTS);
+        int offset = recordPosition % CHUNK_INTS;
+        int count = chunk.get(offset);
+        Map<String, String> retval = new LinkedHashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            offset++;
+            int packed = chunk.get(offset);
+            retval.put(fieldNames.get(packed >>> 16), sourceNames.get(packed & 0xffff));
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of objects in the store.
+     *
+     * @return an int
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of bytes of the file that have been written, including abandoned
+     * records.
+     *
+     * @return a long
+     */
+    public synchronized long getBytesUsed() {
+        return position * 4;
+    }
+
+    /**
+     * Removes all data from the store.
+     */
+    public synchronized void clear() {
+        index.clear();
+        position = 0;
+    }
+
+    /**
+     * Closes the store and deletes the file. The store must not be used after this method has
+     * been called.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        index.clear();
+        chunks.clear();
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "MappedTrackerStore(" + file + ", objects: " + index.size() + ", bytes: "
+            + (position * 4) + ", fields: " + fieldNames.size() + ", sources: "
+            + sourceNames.size() + ")";
+    }
+
+    private IntBuffer chunkFor(long intPosition) {
+        int chunkNo = (int) (intPosition / CHUNK_INTS);
+        while (chunks.size() <= chunkNo) {
+            try {
+                chunks.add(raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                            chunks.size() * CHUNK_BYTES, CHUNK_BYTES).asIntBuffer());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not extend tracker store " + file, e);
+            }
+        }
+        return chunks.get(chunkNo);
+    }
+
+    private static int number(String name, List<String> names, Map<String, Integer> numbers) {
+        Integer retval = numbers.get(name);
+        if (retval == null) {
+            if (names.size() >= MAX_NAMES) {
+                throw new IllegalStateException("Too many distinct names in tracker store: "
+                        + names.size());
+            }
+            retval = new Integer(names.size());
+            String interned = name.intern();
+            names.add(interned);
+            numbers.put(interned, retval);
+        }
+        return retval.intValue();
+    }
+}
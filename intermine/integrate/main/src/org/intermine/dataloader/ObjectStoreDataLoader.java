@@ -87,11 +87,12 @@ public class ObjectStoreDataLoader extends DataLoader
                     LOG.info("Using ParallelBatchingFetcher - set the property "
                             + "\"equivalentObjectFetcher.useParallel\" to false to use the standard"
                             + " BatchingFetcher");
+                    int threads = getFetcherThreads(props, source);
                     ParallelBatchingFetcher eof =
                         new ParallelBatchingFetcher(((IntegrationWriterAbstractImpl)
                                 getIntegrationWriter()).getBaseEof(),
                             ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
-                            .getDataTracker(), source);
+                            .getDataTracker(), source, threads);
                     ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
                     os = eof.getNoseyObjectStore(os);
                 } else {
@@ -229,4 +230,33 @@ public class ObjectStoreDataLoader extends DataLoader
                     + ".allowMultipleErrors\" to false");
         }
     }
+
+    /**
+     * Returns the number of worker threads that the ParallelBatchingFetcher should use for a
+     * source. This is the property "equivalentObjectFetcher.&lt;source name&gt;.threads" if it is
+     * set, otherwise "equivalentObjectFetcher.threads", otherwise the default.
+     *
+     * @param props the equivalentObjectFetcher properties
+     * @param source the Source being loaded
+     * @return the number of threads
+     */
+    protected static int getFetcherThreads(Properties props, Source source) {
+        String threads = null;
+        if ((source != null) && (source.getName() != null)) {
+            threads = props.getProperty("equivalentObjectFetcher." + source.getName()
+                    + ".threads");
+        }
+        if (threads == null) {
+            threads = props.getProperty("equivalentObjectFetcher.threads");
+        }
+        if (threads == null) {
+            return ParallelBatchingFetcher.DEFAULT_THREADS;
+        }
+        try {
+            return Integer.parseInt(threads.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number of equivalentObjectFetcher threads"
+                    + " for source " + source + ": " + threads, e);
+        }
+    }
 }
@@ -10,34 +10,46 @@ package org.intermine.dataloader;
  *
  */
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.PrimaryKey;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.ObjectPipe;
 
 import org.apache.log4j.Logger;
 
 /**
  * Class providing EquivalentObjectFetcher functionality that fetches batches of equivalent objects
  * in parallel to improve performance.
+ * <p>
+ * Each primary key of a batch is a unit of work. A primary key that references a class that has
+ * primary keys still to be fetched must wait for them, so the calling thread acts as a scheduler,
+ * handing each primary key to the pool of worker threads as soon as everything it depends on has
+ * been fetched.
  *
  * @author Matthew Wakeling
  */
 public class ParallelBatchingFetcher extends BatchingFetcher
 {
     private static final Logger LOG = Logger.getLogger(ParallelBatchingFetcher.class);
-    private ObjectPipe<WorkUnit> jobs = new ObjectPipe<WorkUnit>();
+    /** The default number of worker threads. */
+    public static final int DEFAULT_THREADS = 10;
+    private final ExecutorService workers;
+    private final int threads;
 
     /**
      * Constructor
@@ -48,11 +60,43 @@ public class ParallelBatchingFetcher extends BatchingFetcher
      */
     public ParallelBatchingFetcher(BaseEquivalentObjectFetcher fetcher, DataTracker dataTracker,
             Source source) {
+        this(fetcher, dataTracker, source, DEFAULT_THREADS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param fetcher another EquivalentObjectFetcher
+     * @param dataTracker a DataTracker object to pass prefetch instructions to
+     * @param source the data Source that is being loaded
+     * @param threads the number of worker threads to fetch with
+     */
+    public ParallelBatchingFetcher(BaseEquivalentObjectFetcher fetcher, DataTracker dataTracker,
+            Source source, int threads) {
         super(fetcher, dataTracker, source);
-        for (int i = 0; i < 10; i++) {
-            Thread t = new Thread(new Worker(), "ParallelBatchingFetcher Worker " + (i + 1));
-            t.start();
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
         }
+        this.threads = threads;
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread retval = new Thread(r, "ParallelBatchingFetcher Worker "
+                        + count.incrementAndGet());
+                retval.setDaemon(true);
+                return retval;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return an int
+     */
+    public int getThreads() {
+        return threads;
     }
 
     /**
@@ -60,10 +104,11 @@ public class ParallelBatchingFetcher extends BatchingFetcher
      */
     @Override
     public void close(Source source) {
-        jobs.finish();
+        workers.shutdown();
         LOG.info("Parallel Batching equivalent object query summary for source " + source + " :"
                 + getSummary(source).toString() + "\nQueried " + batchQueried
-                + " objects by batch, cache misses: " + cacheMisses);
+                + " objects by batch with " + threads + " threads, cache misses: " + cacheMisses
+                + getPkTimingSummary());
     }
 
     /**
@@ -71,100 +116,66 @@ public class ParallelBatchingFetcher extends BatchingFetcher
      */
     @Override
     protected void doPks(Map<PrimaryKey, ClassDescriptor> pksToDo,
-            Map<InterMineObject, Set<InterMineObject>> results,
+            final Map<InterMineObject, Set<InterMineObject>> results,
             Map<ClassDescriptor, List<InterMineObject>> cldToObjectsForCld,
             long time1) throws ObjectStoreException {
+        // Only this thread reads or writes pksNotDone, so it needs no locking.
         Map<PrimaryKey, ClassDescriptor> pksNotDone
             = new IdentityHashMap<PrimaryKey, ClassDescriptor>(pksToDo);
-        List<Exception> exceptions = Collections.synchronizedList(new ArrayList<Exception>());
-        synchronized (pksNotDone) {
-            while (!pksToDo.isEmpty()) {
-                Iterator<PrimaryKey> pkIter = pksToDo.keySet().iterator();
+        CompletionService<PrimaryKey> completion = new ExecutorCompletionService<PrimaryKey>(
+                workers);
+        int running = 0;
+        Exception firstException = null;
+        while ((!pksToDo.isEmpty()) || (running > 0)) {
+            if (firstException == null) {
+                Iterator<Map.Entry<PrimaryKey, ClassDescriptor>> pkIter = pksToDo.entrySet()
+                    .iterator();
                 while (pkIter.hasNext()) {
-                    PrimaryKey pk = pkIter.next();
-                    ClassDescriptor cld = pksToDo.get(pk);
+                    Map.Entry<PrimaryKey, ClassDescriptor> entry = pkIter.next();
+                    final PrimaryKey pk = entry.getKey();
+                    final ClassDescriptor cld = entry.getValue();
                     if (canDoPkNow(pk, cld, pksNotDone)) {
-                        jobs.put(new WorkUnit(pk, cld, results, cldToObjectsForCld.get(cld),
-                                    pksNotDone, exceptions));
+                        final List<InterMineObject> objectsForCld = cldToObjectsForCld.get(cld);
+                        completion.submit(new Callable<PrimaryKey>() {
+                            public PrimaryKey call() throws Exception {
+                                long start = System.currentTimeMillis();
+                                Set<Integer> fetchedObjectIds = new HashSet<Integer>();
+                                doPk(pk, cld, results, objectsForCld, fetchedObjectIds);
+                                recordPkTiming(pk, cld, System.currentTimeMillis() - start,
+                                        objectsForCld.size());
+                                dataTracker.prefetchIds(fetchedObjectIds);
+                                return pk;
+                            }
+                        });
+                        running++;
                         pkIter.remove();
-                    //} else {
-                    //    LOG.error("Cannot do pk " + cld.getName() + "." + pk.getName() + " yet");
                     }
                 }
-                try {
-                    pksNotDone.wait();
-                } catch (InterruptedException e) {
-                }
-                if (!exceptions.isEmpty()) {
-                    throw new ObjectStoreException("Error in worker thread", exceptions.iterator()
-                            .next());
+                if (running == 0) {
+                    throw new RuntimeException("Error - cannot fetch any pks: "
+                            + pksToDo.keySet());
                 }
+            } else if (running == 0) {
+                // Stop scheduling after an error, and report it once everything has finished.
+                break;
             }
-            while (!pksNotDone.isEmpty()) {
-                try {
-                    pksNotDone.wait();
-                } catch (InterruptedException e) {
+            try {
+                PrimaryKey done = completion.take().get();
+                pksNotDone.remove(done);
+            } catch (InterruptedException e) {
+                continue;
+            } catch (ExecutionException e) {
+                if (firstException == null) {
+                    firstException = (e.getCause() instanceof Exception ? (Exception) e.getCause()
+                            : e);
                 }
             }
-            if (!exceptions.isEmpty()) {
-                throw new ObjectStoreException("Error in worker thread", exceptions.iterator()
-                        .next());
-            }
+            running--;
+        }
+        if (firstException != null) {
+            throw new ObjectStoreException("Error in worker thread", firstException);
         }
         long time2 = System.currentTimeMillis();
         timeSpentPrefetchEquiv += time2 - time1;
     }
-
-    private class WorkUnit
-    {
-        private PrimaryKey pk;
-        private ClassDescriptor cld;
-        private Map<InterMineObject, Set<InterMineObject>> results;
-        private List<InterMineObject> objectsForCld;
-        private Map<PrimaryKey, ClassDescriptor> pksNotDone;
-        private List<Exception> exceptions;
-
-        public WorkUnit(PrimaryKey pk, ClassDescriptor cld,
-                Map<InterMineObject, Set<InterMineObject>> results,
-                List<InterMineObject> objectsForCld,
-                Map<PrimaryKey, ClassDescriptor> pksNotDone, List<Exception> exceptions) {
-            this.pk = pk;
-            this.cld = cld;
-            this.results = results;
-            this.objectsForCld = objectsForCld;
-            this.pksNotDone = pksNotDone;
-            this.exceptions = exceptions;
-        }
-
-        public void fetch() {
-            try {
-                Set<Integer> fetchedObjectIds = new HashSet<Integer>();
-                doPk(pk, cld, results, objectsForCld, fetchedObjectIds);
-                dataTracker.prefetchIds(fetchedObjectIds);
-            } catch (Exception e) {
-                exceptions.add(e);
-            }
-            synchronized (pksNotDone) {
-                pksNotDone.remove(pk);
-                pksNotDone.notify();
-            }
-        }
-    }
-
-    private class Worker implements Runnable
-    {
-        public Worker() {
-        }
-
-        public void run() {
-            try {
-                while (true) {
-                    WorkUnit u = jobs.next();
-                    u.fetch();
-                }
-            } catch (NoSuchElementException e) {
-                // Fetcher has been closed
-            }
-        }
-    }
 }
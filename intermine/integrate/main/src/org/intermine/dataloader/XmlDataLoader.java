@@ -13,13 +13,13 @@ package org.intermine.dataloader;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.intermine.InterMineException;
 import org.intermine.model.FastPathObject;
-import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.XmlBinding;
+import org.intermine.xml.full.StreamingFullParser;
 
 /**
  * Provides a method for unmarshalling XML given source into java
@@ -32,7 +32,9 @@ import org.intermine.util.XmlBinding;
 public class XmlDataLoader extends DataLoader
 {
     private static final Logger LOG = Logger.getLogger(XmlDataLoader.class);
-    private static int idCounter = 1;
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger(1);
+
+    private int windowSize = StreamingFullParser.DEFAULT_WINDOW_SIZE;
 
     /**
      * @see DataLoader#DataLoader(IntegrationWriter)
@@ -44,8 +46,19 @@ public class XmlDataLoader extends DataLoader
     }
 
     /**
-     * Static method to unmarshall business objects from a given xml file and call
-     * store on each.
+     * Sets the number of items to read from the XML before realising and storing them. Memory
+     * use is proportional to this, rather than to the size of the XML.
+     *
+     * @param windowSize a number of items
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Unmarshalls business objects from a given xml file and calls store on each. The file is
+     * read in a separate thread, in windows of items, so the whole file is never held in memory,
+     * and the next window is read while the objects of the current one are stored.
      *
      * @param is access to xml file
      * @param source the main source
@@ -54,6 +67,7 @@ public class XmlDataLoader extends DataLoader
      */
     public void processXml(InputStream is, Source source, Source skelSource)
         throws InterMineException {
+        StreamingFullParser parser = null;
         try {
             long[] times = new long[20];
             for (int i = 0; i < 20; i++) {
@@ -62,42 +76,37 @@ public class XmlDataLoader extends DataLoader
             long opCount = 0;
             long time = (new Date()).getTime();
             long startTime = time;
-            LOG.info("Starting XmlDataLoader. Loading XML file.");
-            XmlBinding binding = new XmlBinding(getIntegrationWriter().getObjectStore().getModel());
-
-            List<FastPathObject> objects = binding.unmarshal(is);
-            LOG.info("Loaded XML file to list of " + objects.size() + " objects");
-
-            for (FastPathObject o : objects) {
-                if (o instanceof InterMineObject) {
-                    InterMineObject io = (InterMineObject) o;
-                    io.setId(new Integer(idCounter++));
-                }
-            }
+            LOG.info("Starting XmlDataLoader. Loading XML file in windows of " + windowSize
+                    + " items.");
+            parser = new StreamingFullParser(is, getIntegrationWriter().getObjectStore()
+                    .getModel(), getIntegrationWriter().getObjectStore(), ID_COUNTER, windowSize);
 
             getIntegrationWriter().beginTransaction();
-            for (FastPathObject o : objects) {
-                getIntegrationWriter().store(o, source, skelSource);
-                opCount++;
-                if (opCount % 1000 == 0) {
-                    long now = (new Date()).getTime();
-                    if (times[(int) ((opCount / 1000) % 20)] == -1) {
-                        LOG.info("Dataloaded " + opCount + " objects - running at "
-                                + (60000000 / (now - time)) + " (avg "
-                                + ((60000L * opCount) / (now - startTime))
-                                + ") objects per minute");
-                    } else {
-                        LOG.info("Dataloaded " + opCount + " objects - running at "
-                                + (60000000 / (now - time)) + " (20000 avg "
-                                + (1200000000 / (now - times[(int) ((opCount / 1000) % 20)]))
-                                + ") (avg = " + ((60000L * opCount) / (now - startTime))
-                                + ") objects per minute");
-                    }
-                    time = now;
-                    times[(int) ((opCount / 1000) % 20)] = now;
-                    if (opCount % 500000 == 0) {
-                        getIntegrationWriter().commitTransaction();
-                        getIntegrationWriter().beginTransaction();
+            List<FastPathObject> objects;
+            while ((objects = nextWindow(parser)) != null) {
+                for (FastPathObject o : objects) {
+                    getIntegrationWriter().store(o, source, skelSource);
+                    opCount++;
+                    if (opCount % 1000 == 0) {
+                        long now = (new Date()).getTime();
+                        if (times[(int) ((opCount / 1000) % 20)] == -1) {
+                            LOG.info("Dataloaded " + opCount + " objects - running at "
+                                    + (60000000 / (now - time)) + " (avg "
+                                    + ((60000L * opCount) / (now - startTime))
+                                    + ") objects per minute");
+                        } else {
+                            LOG.info("Dataloaded " + opCount + " objects - running at "
+                                    + (60000000 / (now - time)) + " (20000 avg "
+                                    + (1200000000 / (now - times[(int) ((opCount / 1000) % 20)]))
+                                    + ") (avg = " + ((60000L * opCount) / (now - startTime))
+                                    + ") objects per minute");
+                        }
+                        time = now;
+                        times[(int) ((opCount / 1000) % 20)] = now;
+                        if (opCount % 500000 == 0) {
+                            getIntegrationWriter().commitTransaction();
+                            getIntegrationWriter().beginTransaction();
+                        }
                     }
                 }
             }
@@ -108,6 +117,19 @@ public class XmlDataLoader extends DataLoader
                     + " ms total) for source " + source.getName());
         } catch (ObjectStoreException e) {
             throw new InterMineException("Problem with store method", e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+    }
+
+    private static List<FastPathObject> nextWindow(StreamingFullParser parser)
+        throws InterMineException {
+        try {
+            return parser.nextWindow();
+        } catch (Exception e) {
+            throw new InterMineException("Error during unmarshalling", e);
         }
     }
 
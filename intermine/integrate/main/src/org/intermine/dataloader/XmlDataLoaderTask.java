@@ -23,6 +23,7 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.FileSet;
+import org.intermine.xml.full.StreamingFullParser;
 
 /**
  * Uses an IntegrationWriter to load data from XML format
@@ -39,6 +40,7 @@ public class XmlDataLoaderTask extends Task
     protected String sourceName;
     private String sourceType;
     protected boolean ignoreDuplicates = false;
+    private int windowSize = StreamingFullParser.DEFAULT_WINDOW_SIZE;
     protected String file, xmlRes;
 
     /**
@@ -102,6 +104,15 @@ public class XmlDataLoaderTask extends Task
         LOG.info("Setting ignoreDuplicates to " + ignoreDuplicates);
     }
 
+    /**
+     * Set the number of items to read from each file before storing them.
+     *
+     * @param windowSize a number of items
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
     /**
      * {@inheritDoc}
      * @throws BuildException
@@ -123,6 +134,7 @@ public class XmlDataLoaderTask extends Task
             IntegrationWriter iw = IntegrationWriterFactory.getIntegrationWriter(integrationWriter);
             iw.setIgnoreDuplicates(ignoreDuplicates);
             loader = new XmlDataLoader(iw);
+            loader.setWindowSize(windowSize);
             List<File> files = new ArrayList<File>();
 
             // read an InputStream from the classpath
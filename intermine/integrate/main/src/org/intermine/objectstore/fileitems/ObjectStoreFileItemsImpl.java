@@ -0,0 +1,351 @@
+package org.intermine.objectstore.fileitems;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.intermine.dataconversion.FileItemStore;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.MetaDataException;
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.fulldata.Item;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * A read-only ObjectStore of fulldata Items, read from a FileItemStore instead of a database.
+ * It answers the queries that ItemToObjectTranslator makes, so it can be used as the items
+ * ObjectStore underneath an ObjectStoreTranslatingImpl in place of a PostgreSQL items database.
+ * <p>
+ * The queries supported select a single QueryClass of Item, with no ORDER BY or GROUP BY, and
+ * optionally constrain the identifier to a value or a bag of values and the className to a value,
+ * with an AND ConstraintSet if both are constrained. Items are returned in the order that they
+ * were stored. Any other query throws an ObjectStoreException.
+ * <p>
+ * The properties used by getInstance are "dir", the directory written by FileItemWriter, and
+ * "model", which should be "fulldata". For example, to load from a directory in place of the tgt
+ * items database:
+ * <pre>
+ * os.common-file-items-std.class=org.intermine.objectstore.fileitems.ObjectStoreFileItemsImpl
+ * os.common-file-items-std.model=fulldata
+ * os.common-file-items-std.dir=/data/intermine/items
+ *
+ * os.common-file-items.class=\
+ *     org.intermine.objectstore.fastcollections.ObjectStoreFastCollectionsImpl
+ * os.common-file-items.os=os.common-file-items-std
+ * os.common-file-items.model=fulldata
+ *
+ * os.common-file-translated-std.class=\
+ *     org.intermine.objectstore.translating.ObjectStoreTranslatingImpl
+ * os.common-file-translated-std.model=genomic
+ * os.common-file-translated-std.os=os.common-file-items
+ * os.common-file-translated-std.translatorClass=\
+ *     org.intermine.dataconversion.ItemToObjectTranslator
+ * </pre>
+ * The default integrate properties of a mine define these aliases without the directory. When
+ * the directory is set, the source project build (imbuild/source.xml) has custom file and
+ * directory converters write to it and loads the source from it.
+ *
+ * @author intermine
+ */
+public class ObjectStoreFileItemsImpl extends ObjectStoreAbstractImpl
+{
+    private static final Logger LOG = Logger.getLogger(ObjectStoreFileItemsImpl.class);
+
+    private final FileItemStore store;
+
+    /**
+     * Constructor
+     * @param model the fulldata Model
+     * @param store the FileItemStore to read Items from
+     */
+    public ObjectStoreFileItemsImpl(Model model, FileItemStore store) {
+        super(model);
+        this.store = store;
+    }
+
+    /**
+     * Gets an ObjectStore for the given properties.
+     *
+     * @param osAlias the alias of this objectstore
+     * @param props the properties used to configure the objectstore
+     * @return the ObjectStore
+     * @throws IllegalArgumentException if props are invalid
+     * @throws ObjectStoreException if the item store cannot be read
+     */
+    public static ObjectStoreFileItemsImpl getInstance(String osAlias, Properties props)
+        throws ObjectStoreException {
+        String dir = props.getProperty("dir");
+        if (dir == null) {
+            throw new IllegalArgumentException("No 'dir' property specified for FileItems"
+                    + " ObjectStore (check properties file)");
+        }
+        Model classpathModel;
+        try {
+            classpathModel = getModelFromClasspath(osAlias, props);
+        } catch (MetaDataException metaDataException) {
+            throw new ObjectStoreException("Cannot load model", metaDataException);
+        }
+        FileItemStore store;
+        try {
+            store = new FileItemStore(new File(dir));
+        } catch (IOException e) {
+            throw new ObjectStoreException("Cannot open item store in " + dir, e);
+        }
+        LOG.info("Opened item store in " + dir + " with " + store.getItemCount() + " items");
+        return new ObjectStoreFileItemsImpl(classpathModel, store);
+    }
+
+    /**
+     * Returns the FileItemStore that Items are read from.
+     *
+     * @return the FileItemStore
+     */
+    public FileItemStore getStore() {
+        return store;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
+            boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException {
+        Selection selection = select(q);
+        List<ResultsRow<Object>> results = new ArrayList<ResultsRow<Object>>();
+        int end = (int) Math.min(selection.size(), ((long) start) + limit);
+        for (int i = start; i < end; i++) {
+            Item item = store.getItem(selection.get(i));
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(item);
+            results.add(row);
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultsInfo estimate(Query q) throws ObjectStoreException {
+        return new ResultsInfo(0, 0, select(q).size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int count(Query q, Map<Object, Integer> sequence) throws ObjectStoreException {
+        return select(q).size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMultiConnection() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Object> getComponentsForQuery(Query q) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer getSerial() {
+        // The store never changes
+        return new Integer(0);
+    }
+
+    @Override
+    public <T extends InterMineObject> T getObjectByExample(T o, Set<String> fieldNames) {
+        throw new UnsupportedOperationException("getObjectByExample not supported by"
+                + " ObjectStoreFileItemsImpl");
+    }
+
+    @Override
+    public <T extends InterMineObject> Collection<T> getObjectsByExample(T o, Set<String> fs) {
+        throw new UnsupportedOperationException("getObjectsByExample not supported by"
+                + " ObjectStoreFileItemsImpl");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected InterMineObject internalGetObjectById(Integer id,
+            Class<? extends InterMineObject> clazz) {
+        // Item ids are their numbers in the store
+        if ((id == null) || (id.intValue() < 1) || (id.intValue() > store.getItemCount())) {
+            return null;
+        }
+        return store.getItem(id.intValue());
+    }
+
+    /**
+     * Works out which Items a query selects.
+     */
+    private Selection select(Query q) throws ObjectStoreException {
+        List<QuerySelectable> select = q.getSelect();
+        Set<FromElement> from = q.getFrom();
+        if (!(q.getOrderBy().isEmpty() && q.getGroupBy().isEmpty()
+                    && (select.size() == 1) && (from.size() == 1)
+                    && (select.get(0) == from.iterator().next())
+                    && (select.get(0) instanceof QueryClass)
+                    && Item.class.equals(((QueryClass) select.get(0)).getType()))) {
+            throw new ObjectStoreException("Query cannot be executed by ObjectStoreFileItemsImpl: "
+                    + q);
+        }
+        QueryClass qc = (QueryClass) select.get(0);
+
+        List<Constraint> constraints = new ArrayList<Constraint>();
+        Constraint constraint = q.getConstraint();
+        if ((constraint instanceof ConstraintSet) && (constraint.getOp() == ConstraintOp.AND)) {
+            constraints.addAll(((ConstraintSet) constraint).getConstraints());
+        } else if (constraint != null) {
+            constraints.add(constraint);
+        }
+        Set<Integer> itemNumbers = null;
+        String className = null;
+        for (Constraint c : constraints) {
+            if ((c instanceof BagConstraint) && (c.getOp() == ConstraintOp.IN)
+                    && isField(((BagConstraint) c).getQueryNode(), qc, "identifier")) {
+                Set<Integer> numbers = new TreeSet<Integer>();
+                for (Object identifier : ((BagConstraint) c).getBag()) {
+                    addItemNumber(numbers, (String) identifier);
+                }
+                itemNumbers = intersect(itemNumbers, numbers);
+            } else if ((c instanceof SimpleConstraint) && (c.getOp() == ConstraintOp.EQUALS)
+                    && (((SimpleConstraint) c).getArg2() instanceof QueryValue)) {
+                Object value = ((QueryValue) ((SimpleConstraint) c).getArg2()).getValue();
+                if (isField(((SimpleConstraint) c).getArg1(), qc, "identifier")) {
+                    Set<Integer> numbers = new TreeSet<Integer>();
+                    addItemNumber(numbers, (String) value);
+                    itemNumbers = intersect(itemNumbers, numbers);
+                } else if (isField(((SimpleConstraint) c).getArg1(), qc, "className")) {
+                    if ((className != null) && !className.equals(value)) {
+                        return new Selection(Collections.<Integer>emptySet(), null);
+                    }
+                    className = (String) value;
+                } else {
+                    throw new ObjectStoreException("Query cannot be executed by"
+                            + " ObjectStoreFileItemsImpl: " + q);
+                }
+            } else {
+                throw new ObjectStoreException("Query cannot be executed by"
+                        + " ObjectStoreFileItemsImpl: " + q);
+            }
+        }
+        if (itemNumbers != null) {
+            return new Selection(itemNumbers, className);
+        }
+        return new Selection(className);
+    }
+
+    private void addItemNumber(Set<Integer> numbers, String identifier) {
+        int itemNumber = store.getItemNumber(identifier);
+        if (itemNumber != 0) {
+            numbers.add(new Integer(itemNumber));
+        }
+    }
+
+    private static Set<Integer> intersect(Set<Integer> a, Set<Integer> b) {
+        if (a == null) {
+            return b;
+        }
+        a.retainAll(b);
+        return a;
+    }
+
+    private static boolean isField(Object node, QueryClass qc, String fieldName) {
+        return (node instanceof QueryField) && (((QueryField) node).getFromElement() == qc)
+            && fieldName.equals(((QueryField) node).getFieldName());
+    }
+
+    /**
+     * The numbers of the Items selected by a query, in ascending order so that the segment files
+     * are read sequentially. Selections of whole classes are read from the class index as they
+     * are needed, rather than copied.
+     */
+    private class Selection
+    {
+        private final int[] numbers;
+        private final String className;
+
+        Selection(Set<Integer> itemNumbers, String className) {
+            List<Integer> matching = new ArrayList<Integer>();
+            for (Integer itemNumber : itemNumbers) {
+                if ((className == null) || className.equals(store.getClassName(itemNumber
+                                .intValue()))) {
+                    matching.add(itemNumber);
+                }
+            }
+            numbers = new int[matching.size()];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = matching.get(i).intValue();
+            }
+            this.className = null;
+        }
+
+        Selection(String className) {
+            this.numbers = null;
+            this.className = className;
+        }
+
+        int size() {
+            if (numbers != null) {
+                return numbers.length;
+            } else if (className != null) {
+                return store.getClassCount(className);
+            }
+            return store.getItemCount();
+        }
+
+        int get(int index) {
+            if (numbers != null) {
+                return numbers[index];
+            } else if (className != null) {
+                return store.getItemNumberForClass(className, index);
+            }
+            return index + 1;
+        }
+    }
+}
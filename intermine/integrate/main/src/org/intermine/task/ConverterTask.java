@@ -31,6 +31,7 @@ public class ConverterTask extends DynamicAttributeTask
     private String modelName = null;
     private String osName;
     private String excludeList;
+    private String itemsDir = null;
 
     /**
      * Set the objectstore name
@@ -40,6 +41,24 @@ public class ConverterTask extends DynamicAttributeTask
         this.osName = osName;
     }
 
+    /**
+     * Set a directory to write Items to with a FileItemWriter, instead of writing them to the
+     * items ObjectStore named by osName. An empty String is ignored, so that build files can
+     * pass a property that is empty when no directory is configured.
+     * @param itemsDir the directory
+     */
+    public void setItemsDir(String itemsDir) {
+        this.itemsDir = ("".equals(itemsDir) ? null : itemsDir);
+    }
+
+    /**
+     * Return the directory set by setItemsDir(), or null if Items are written to an ObjectStore.
+     * @return the items directory
+     */
+    public String getItemsDir() {
+        return itemsDir;
+    }
+
     /**
      * Sets the list of classes to NOT try and convert
      * @param excludeList the suitably formatted list of classes to exclude.
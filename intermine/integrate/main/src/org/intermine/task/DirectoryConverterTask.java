@@ -15,6 +15,7 @@ import java.lang.reflect.Constructor;
 
 import org.apache.tools.ant.BuildException;
 import org.intermine.dataconversion.DirectoryConverter;
+import org.intermine.dataconversion.FileItemWriter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ObjectStoreItemWriter;
 import org.intermine.metadata.Model;
@@ -68,7 +69,7 @@ public class DirectoryConverterTask extends ConverterTask
         if (clsName == null) {
             throw new BuildException("clsName attribute is not set");
         }
-        if (getOsName() == null) {
+        if ((getOsName() == null) && (getItemsDir() == null)) {
             throw new BuildException("osName attribute is not set");
         }
         if (getModelName() == null) {
@@ -83,8 +84,12 @@ public class DirectoryConverterTask extends ConverterTask
         ItemWriter writer = null;
         try {
             Model model = Model.getInstanceByName(getModelName());
-            osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
-            writer = new ObjectStoreItemWriter(osw);
+            if (getItemsDir() != null) {
+                writer = new FileItemWriter(new File(getItemsDir()));
+            } else {
+                osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
+                writer = new ObjectStoreItemWriter(osw);
+            }
 
             Class c = Class.forName(clsName);
             if (!DirectoryConverter.class.isAssignableFrom(c)) {
@@ -116,7 +121,7 @@ public class DirectoryConverterTask extends ConverterTask
                 if (writer != null) {
                     writer.close();
                 }
-                if (writer != null) {
+                if (osw != null) {
                     osw.close();
                 }
             } catch (Exception e) {
@@ -124,10 +129,12 @@ public class DirectoryConverterTask extends ConverterTask
             }
         }
 
-        try {
-            doSQL(osw.getObjectStore());
-        } catch (Exception e) {
-            throw new BuildException(e);
+        if (osw != null) {
+            try {
+                doSQL(osw.getObjectStore());
+            } catch (Exception e) {
+                throw new BuildException(e);
+            }
         }
     }
 
@@ -13,6 +13,7 @@ package org.intermine.xml.full;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -91,8 +92,28 @@ public final class FullParser
      */
     public static List<FastPathObject> realiseObjects(Collection<Item> items, Model model,
             boolean useIdentifier, boolean abortOnError) throws ClassNotFoundException {
+        Map<String, FastPathObject> resolved = Collections.emptyMap();
+        return realiseObjects(items, model, useIdentifier, abortOnError, resolved);
+    }
+
+    /**
+     * Create business objects from a collection of Items, some of which may refer to objects
+     * that are not among the Items, for example because they were realised earlier.
+     * @param items a collection of items to realise
+     * @param model the parent model
+     * @param useIdentifier if true, set the id of each new object using the identifier of the Item
+     * @param abortOnError if true, throw an exception if there is a problem.  If false, log the
+     * problem and continue if possible
+     * @param resolved a Map from item identifier to the object to use for references to items
+     * that are not in the collection
+     * @return a collection of realised business objects, not including the resolved objects
+     * @throws ClassNotFoundException if one of the items has a class that isn't in the model
+     */
+    public static List<FastPathObject> realiseObjects(Collection<Item> items, Model model,
+            boolean useIdentifier, boolean abortOnError, Map<String, ? extends FastPathObject>
+            resolved) throws ClassNotFoundException {
         // map from id to outline object
-        Map<String, FastPathObject> objMap = new LinkedHashMap<String, FastPathObject>();
+        Map<String, FastPathObject> objMap = new LinkedHashMap<String, FastPathObject>(resolved);
 
         List<FastPathObject> result = new ArrayList<FastPathObject>();
         for (Item item : items) {
@@ -0,0 +1,278 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.Model;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.util.SAXParser;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads InterMine Full XML and realises it as business objects in windows of a bounded size,
+ * without holding the whole file in memory. The XML is parsed and the objects are realised in a
+ * separate thread, so the caller can store one window while the next is being read.
+ * <p>
+ * Every InterMineObject is given an id from a counter supplied by the caller. A reference to an
+ * item that was delivered in an earlier window is realised as a ProxyReference holding the id that
+ * was given to that item, so the caller must have stored the objects of each window before it
+ * asks for the next one. An item that refers to an item which has not been read yet is held back
+ * until that item has been read, and is then delivered in the same window as it, or a later one.
+ * References to items that are never read are left empty, as they are by FullParser.
+ * <p>
+ * Memory use therefore depends on the window size and on how far ahead of the items they refer
+ * to items appear in the file, plus the id given to each item identifier, but not on the size of
+ * the file.
+ *
+ * @author intermine
+ */
+public class StreamingFullParser
+{
+    private static final Logger LOG = Logger.getLogger(StreamingFullParser.class);
+
+    /** The default number of items to read before realising them */
+    public static final int DEFAULT_WINDOW_SIZE = 10000;
+
+    /** Put on the queue after the last window */
+    private static final List<FastPathObject> END = Collections.emptyList();
+
+    private final Model model;
+    private final ObjectStore os;
+    private final AtomicInteger idCounter;
+    private final int windowSize;
+    private final BlockingQueue<List<FastPathObject>> windows
+        = new ArrayBlockingQueue<List<FastPathObject>>(1);
+    private final Map<String, Integer> deliveredIds = new HashMap<String, Integer>();
+    private List<Item> deferred = new ArrayList<Item>();
+    private Thread parseThread;
+    private volatile Exception error = null;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+
+    /**
+     * Starts reading the given XML in a new thread.
+     *
+     * @param is the InputStream to read
+     * @param model the Model of the objects
+     * @param os the ObjectStore for the ProxyReferences to objects in earlier windows
+     * @param idCounter the source of the ids to give to InterMineObjects
+     * @param windowSize the number of items to read before realising them
+     */
+    public StreamingFullParser(final InputStream is, Model model, ObjectStore os,
+            AtomicInteger idCounter, int windowSize) {
+        if (is == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1: " + windowSize);
+        }
+        this.model = model;
+        this.os = os;
+        this.idCounter = idCounter;
+        this.windowSize = windowSize;
+        parseThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    SAXParser.parse(new InputSource(is), new WindowHandler());
+                } catch (Exception e) {
+                    if (!closed) {
+                        error = e;
+                    }
+                } catch (Error e) {
+                    error = new RuntimeException("Error while parsing XML", e);
+                } finally {
+                    if (!closed) {
+                        try {
+                            windows.put(END);
+                        } catch (InterruptedException e) {
+                            // close() has been called
+                        }
+                    }
+                }
+            }
+        }, "StreamingFullParser");
+        parseThread.setDaemon(true);
+        parseThread.start();
+    }
+
+    /**
+     * Returns the next window of realised objects, waiting for it to be read if necessary. The
+     * objects of the previous window must have been stored before this method is called.
+     *
+     * @return a List of objects, or null if there are no more
+     * @throws Exception if the XML cannot be parsed or an item cannot be realised
+     */
+    public List<FastPathObject> nextWindow() throws Exception {
+        if (finished) {
+            return null;
+        }
+        List<FastPathObject> retval = windows.take();
+        if (retval == END) {
+            finished = true;
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+        return retval;
+    }
+
+    /**
+     * Stops reading the XML. This need not be called if nextWindow() has returned null.
+     */
+    public void close() {
+        finished = true;
+        closed = true;
+        parseThread.interrupt();
+    }
+
+    /**
+     * Realises the given items, and the deferred items, that do not refer to items that have not
+     * been read yet, and queues them for the reader.
+     *
+     * @param window the items read since the last call
+     * @param last true if there are no more items to read, in which case every item is realised
+     * @throws Exception if an item cannot be realised, or the thread is interrupted
+     */
+    private void realise(List<Item> window, boolean last) throws Exception {
+        List<Item> items = new ArrayList<Item>(deferred);
+        items.addAll(window);
+        deferred = new ArrayList<Item>();
+        Set<String> ready = new HashSet<String>();
+        for (Item item : items) {
+            if (item.getIdentifier() != null) {
+                ready.add(item.getIdentifier());
+            }
+        }
+        if (!last) {
+            // Hold back items that refer to items not read yet, and then items that refer to
+            // those, until nothing changes
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                List<Item> stillReady = new ArrayList<Item>();
+                for (Item item : items) {
+                    if (isResolvable(item, ready)) {
+                        stillReady.add(item);
+                    } else {
+                        ready.remove(item.getIdentifier());
+                        deferred.add(item);
+                        changed = true;
+                    }
+                }
+                items = stillReady;
+            }
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        Map<String, FastPathObject> resolved = new HashMap<String, FastPathObject>();
+        for (Item item : items) {
+            for (String refId : getRefIds(item)) {
+                Integer id = deliveredIds.get(refId);
+                if ((id != null) && (!ready.contains(refId))) {
+                    resolved.put(refId, new ProxyReference(os, id, InterMineObject.class));
+                }
+            }
+        }
+        List<FastPathObject> objects = FullParser.realiseObjects(items, model, false, true,
+                resolved);
+        for (int i = 0; i < objects.size(); i++) {
+            FastPathObject o = objects.get(i);
+            if (o instanceof InterMineObject) {
+                Integer id = new Integer(idCounter.getAndIncrement());
+                ((InterMineObject) o).setId(id);
+                String identifier = items.get(i).getIdentifier();
+                if (identifier != null) {
+                    deliveredIds.put(identifier, id);
+                }
+            }
+        }
+        if (!deferred.isEmpty()) {
+            LOG.debug("Holding back " + deferred.size() + " items with forward references");
+        }
+        windows.put(objects);
+    }
+
+    private boolean isResolvable(Item item, Set<String> ready) {
+        for (String refId : getRefIds(item)) {
+            if ((!ready.contains(refId)) && (!deliveredIds.containsKey(refId))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> getRefIds(Item item) {
+        Set<String> retval = new HashSet<String>();
+        for (Reference ref : item.getReferences()) {
+            retval.add(ref.getRefId());
+        }
+        for (ReferenceList refList : item.getCollections()) {
+            retval.addAll(refList.getRefIds());
+        }
+        return retval;
+    }
+
+    /**
+     * A FullHandler that realises the items in windows, instead of collecting them all.
+     */
+    private class WindowHandler extends FullHandler
+    {
+        private List<Item> window = new ArrayList<Item>();
+
+        @Override
+        public void finishedItem(Item item) {
+            window.add(item);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+            super.endElement(uri, localName, qName);
+            if (window.size() >= windowSize) {
+                flush(false);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            flush(true);
+        }
+
+        private void flush(boolean last) throws SAXException {
+            try {
+                realise(window, last);
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+            window = new ArrayList<Item>();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+public class FileItemWriterTest extends TestCase
+{
+    private File dir;
+
+    public FileItemWriterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("fileitems", "");
+        dir.delete();
+    }
+
+    public void tearDown() throws Exception {
+        FileItemStore.delete(dir);
+        dir.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        // A small segment size, so that the items are spread over several segments
+        FileItemWriter writer = new FileItemWriter(dir, 100);
+        Integer companyId = writer.store(item("0_2", "Company", "name", "CompanyA"));
+        Item department = item("0_1", "Department", "name", "DepartmentA1");
+        Reference company = new Reference();
+        company.setName("company");
+        company.setRefId("0_2");
+        department.addReferences(company);
+        writer.store(department);
+        writer.store(item("1_5", "Employee", "name", "EmployeeA1"));
+        writer.store(item("1_3", "Employee", "name", "EmployeeA2"));
+        ReferenceList departments = new ReferenceList();
+        departments.setName("departments");
+        departments.setRefIds("0_1");
+        writer.store(departments, companyId);
+        Attribute vatNumber = new Attribute();
+        vatNumber.setName("vatNumber");
+        vatNumber.setValue("1234");
+        writer.store(vatNumber, companyId);
+        writer.close();
+
+        FileItemStore store = new FileItemStore(dir);
+        assertEquals(4, store.getItemCount());
+        assertEquals(2, store.getNamespaceMaxima().get("0").intValue());
+        assertEquals(5, store.getNamespaceMaxima().get("1").intValue());
+        assertEquals(1, store.getItemNumber("0_2"));
+        assertEquals(2, store.getItemNumber("0_1"));
+        assertEquals(3, store.getItemNumber("1_5"));
+        assertEquals(4, store.getItemNumber("1_3"));
+        assertEquals(0, store.getItemNumber("1_4"));
+        assertEquals(0, store.getItemNumber("1_6"));
+        assertEquals(0, store.getItemNumber("2_1"));
+
+        assertEquals(2, store.getClassCount("Employee"));
+        assertEquals(3, store.getItemNumberForClass("Employee", 0));
+        assertEquals(4, store.getItemNumberForClass("Employee", 1));
+        assertEquals(0, store.getClassCount("Address"));
+        assertEquals("Department", store.getClassName(2));
+
+        Item read = store.getItem(2);
+        assertEquals(new Integer(2), read.getId());
+        assertEquals("0_1", read.getIdentifier());
+        assertEquals("Department", read.getClassName());
+        assertEquals("DepartmentA1", read.getAttributes().iterator().next().getValue());
+        assertEquals("0_2", read.getReferences().iterator().next().getRefId());
+
+        // Amendments stored after the item are read with it
+        Item readCompany = store.getItem(1);
+        Map<String, String> attributes = new HashMap<String, String>();
+        for (Attribute a : readCompany.getAttributes()) {
+            attributes.put(a.getName(), a.getValue());
+        }
+        assertEquals("CompanyA", attributes.get("name"));
+        assertEquals("1234", attributes.get("vatNumber"));
+        assertEquals("0_1", readCompany.getCollections().iterator().next().getRefIds());
+    }
+
+    public void testAmendmentsOnManyPages() throws Exception {
+        FileItemWriter writer = new FileItemWriter(dir);
+        int count = 200000;
+        for (int i = 1; i <= count; i++) {
+            writer.store(item("0_" + i, "Employee", "name", "Employee" + i));
+        }
+        // amend every 1000th item twice, so that the amendments are spread over several pages
+        for (int i = 1000; i <= count; i += 1000) {
+            Attribute age = new Attribute();
+            age.setName("age");
+            age.setValue(Integer.toString(i));
+            writer.store(age, new Integer(i));
+            Reference address = new Reference();
+            address.setName("address");
+            address.setRefId("1_" + i);
+            writer.store(address, new Integer(i));
+        }
+        writer.close();
+
+        FileItemStore store = new FileItemStore(dir);
+        assertEquals(count, store.getItemCount());
+        for (int i = 1; i <= count; i++) {
+            Item read = store.getItem(i);
+            if (i % 1000 == 0) {
+                assertEquals(2, read.getAttributes().size());
+                assertEquals("1_" + i, read.getReferences().iterator().next().getRefId());
+            } else {
+                assertEquals(1, read.getAttributes().size());
+                assertEquals(0, read.getReferences().size());
+            }
+        }
+    }
+
+    public void testDuplicateIdentifier() throws Exception {
+        FileItemWriter writer = new FileItemWriter(dir);
+        writer.store(item("0_1", "Employee", "name", "EmployeeA1"));
+        writer.store(item("0_1", "Employee", "name", "EmployeeA2"));
+        try {
+            writer.close();
+            fail("Expected exception");
+        } catch (ObjectStoreException e) {
+            // expected
+        }
+    }
+
+    public void testIllegalIdentifier() throws Exception {
+        FileItemWriter writer = new FileItemWriter(dir);
+        try {
+            writer.store(item("fish", "Employee", "name", "EmployeeA1"));
+            fail("Expected exception");
+        } catch (ObjectStoreException e) {
+            // expected
+        }
+        writer.close();
+    }
+
+    private static Item item(String identifier, String className, String attName,
+            String attValue) {
+        Item item = new Item();
+        item.setIdentifier(identifier);
+        item.setClassName(className);
+        item.setImplementations("");
+        Attribute a = new Attribute();
+        a.setName(attName);
+        a.setValue(attValue);
+        item.addAttributes(a);
+        return item;
+    }
+}
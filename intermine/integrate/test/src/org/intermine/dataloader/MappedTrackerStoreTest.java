@@ -0,0 +1,76 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class MappedTrackerStoreTest extends TestCase
+{
+    private MappedTrackerStore store;
+
+    public MappedTrackerStoreTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        store = new MappedTrackerStore(File.createTempFile("MappedTrackerStoreTest", ".store"));
+    }
+
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    public void testPutGet() throws Exception {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put("name", "source1");
+        fields.put("address", "skel_source2");
+        store.put(5, fields);
+        store.put(6, new HashMap<String, String>());
+
+        assertEquals(fields, store.get(5));
+        assertEquals(new HashMap<String, String>(), store.get(6));
+        assertNull(store.get(7));
+        assertEquals(2, store.size());
+    }
+
+    public void testReplace() throws Exception {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put("name", "source1");
+        store.put(5, fields);
+        fields.put("name", "source2");
+        fields.put("age", "source1");
+        store.put(5, fields);
+
+        assertEquals(fields, store.get(5));
+        assertEquals(1, store.size());
+        assertEquals(20, store.getBytesUsed());
+        store.clear();
+        assertNull(store.get(5));
+        assertEquals(0, store.getBytesUsed());
+    }
+
+    public void testManyObjects() throws Exception {
+        for (int i = 0; i < 100000; i++) {
+            Map<String, String> fields = new HashMap<String, String>();
+            fields.put("field" + (i % 100), "source" + (i % 7));
+            store.put(i * 3, fields);
+        }
+        for (int i = 0; i < 100000; i++) {
+            Map<String, String> fields = store.get(i * 3);
+            assertEquals("source" + (i % 7), fields.get("field" + (i % 100)));
+            assertNull(store.get(i * 3 + 1));
+        }
+    }
+}
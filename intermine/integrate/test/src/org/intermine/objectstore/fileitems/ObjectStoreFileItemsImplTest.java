@@ -0,0 +1,156 @@
+package org.intermine.objectstore.fileitems;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.dataconversion.FileItemStore;
+import org.intermine.dataconversion.FileItemWriter;
+import org.intermine.dataconversion.ItemToObjectTranslator;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
+
+public class ObjectStoreFileItemsImplTest extends TestCase
+{
+    private File dir;
+    private ObjectStoreFileItemsImpl os;
+
+    public ObjectStoreFileItemsImplTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("fileitems", "");
+        dir.delete();
+        FileItemWriter writer = new FileItemWriter(dir);
+        Item company = item("0_1", "Company", "name", "CompanyA");
+        ReferenceList departments = new ReferenceList();
+        departments.setName("departments");
+        departments.setRefIds("0_2 0_3");
+        company.addCollections(departments);
+        writer.store(company);
+        writer.store(department("0_2", "DepartmentA1"));
+        writer.store(department("0_3", "DepartmentA2"));
+        writer.close();
+        os = new ObjectStoreFileItemsImpl(Model.getInstanceByName("fulldata"),
+                new FileItemStore(dir));
+    }
+
+    public void tearDown() throws Exception {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testQueries() throws Exception {
+        QueryClass qc = new QueryClass(Item.class);
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        assertEquals(3, os.executeSingleton(q).size());
+
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "className"),
+                    ConstraintOp.EQUALS, new QueryValue("Department")));
+        List<Object> results = os.executeSingleton(q);
+        assertEquals(2, results.size());
+        assertEquals("0_2", ((Item) results.get(0)).getIdentifier());
+        assertEquals("0_3", ((Item) results.get(1)).getIdentifier());
+
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(q.getConstraint());
+        cs.addConstraint(new BagConstraint(new QueryField(qc, "identifier"), ConstraintOp.IN,
+                    Arrays.asList(new String[] {"0_3", "0_1", "0_9"})));
+        q.setConstraint(cs);
+        results = os.executeSingleton(q);
+        assertEquals(1, results.size());
+        assertEquals("0_3", ((Item) results.get(0)).getIdentifier());
+
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "identifier"),
+                    ConstraintOp.EQUALS, new QueryValue("0_1")));
+        assertEquals(1, os.count(q, os.getSequence(os.getComponentsForQuery(q))));
+    }
+
+    public void testUnsupportedQuery() throws Exception {
+        QueryClass qc = new QueryClass(Item.class);
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "identifier"),
+                    ConstraintOp.NOT_EQUALS, new QueryValue("0_1")));
+        try {
+            os.execute(q, 0, 10, false, false, null);
+            fail("Expected exception");
+        } catch (ObjectStoreException e) {
+            // expected
+        }
+    }
+
+    public void testTranslate() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        ObjectStoreTranslatingImpl translating = new ObjectStoreTranslatingImpl(model, os,
+                new ItemToObjectTranslator(model, os));
+        QueryClass qc = new QueryClass(Company.class);
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults results = translating.executeSingleton(q);
+        assertEquals(1, results.size());
+        Company company = (Company) results.get(0);
+        assertEquals("CompanyA", company.getName());
+        assertEquals(2, company.getDepartments().size());
+        for (Department department : company.getDepartments()) {
+            assertSame(company, department.getCompany());
+        }
+    }
+
+    private static Item department(String identifier, String name) {
+        Item item = item(identifier, "Department", "name", name);
+        Reference company = new Reference();
+        company.setName("company");
+        company.setRefId("0_1");
+        item.addReferences(company);
+        return item;
+    }
+
+    private static Item item(String identifier, String className, String attName,
+            String attValue) {
+        Item item = new Item();
+        item.setIdentifier(identifier);
+        item.setClassName(className);
+        item.setImplementations("");
+        Attribute a = new Attribute();
+        a.setName(attName);
+        a.setValue(attValue);
+        item.addAttributes(a);
+        return item;
+    }
+}
@@ -0,0 +1,121 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+public class StreamingFullParserTest extends TestCase
+{
+    private static final String XML = "<items>"
+        + "<item id=\"1\" class=\"Address\" implements=\"\">"
+        + "<attribute name=\"address\" value=\"a1\"/></item>"
+        + "<item id=\"2\" class=\"Employee\" implements=\"\">"
+        + "<attribute name=\"name\" value=\"e1\"/>"
+        + "<reference name=\"address\" ref_id=\"1\"/>"
+        + "<reference name=\"department\" ref_id=\"3\"/></item>"
+        + "<item id=\"3\" class=\"Department\" implements=\"\">"
+        + "<attribute name=\"name\" value=\"d1\"/>"
+        + "<collection name=\"employees\"><reference ref_id=\"2\"/></collection></item>"
+        + "<item id=\"4\" class=\"Employee\" implements=\"\">"
+        + "<attribute name=\"name\" value=\"e2\"/>"
+        + "<reference name=\"department\" ref_id=\"5\"/></item>"
+        + "</items>";
+
+    private Model model;
+
+    public StreamingFullParserTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    public void testWindows() throws Exception {
+        StreamingFullParser parser = new StreamingFullParser(stream(XML), model, null,
+                new AtomicInteger(100), 1);
+        List<List<FastPathObject>> windows = readAll(parser);
+        assertEquals(3, windows.size());
+
+        Address address = (Address) windows.get(0).get(0);
+        assertEquals("a1", address.getAddress());
+        assertEquals(new Integer(100), address.getId());
+
+        // The employee waits for the department it refers to
+        List<FastPathObject> second = windows.get(1);
+        assertEquals(2, second.size());
+        Employee employee = (Employee) second.get(0);
+        Department department = (Department) second.get(1);
+        assertEquals("e1", employee.getName());
+        assertSame(department, employee.getDepartment());
+        assertSame(employee, department.getEmployees().iterator().next());
+        assertNotNull(employee.getId());
+        assertNotNull(department.getId());
+
+        // The address was delivered earlier, so is referred to by id
+        Object addressRef = employee.getFieldProxy("address");
+        assertTrue(addressRef instanceof ProxyReference);
+        assertEquals(new Integer(100), ((ProxyReference) addressRef).getId());
+
+        // Item 5 never appears, so the reference is left empty at the end
+        Employee orphan = (Employee) windows.get(2).get(0);
+        assertEquals("e2", orphan.getName());
+        assertNull(orphan.getFieldProxy("department"));
+    }
+
+    public void testSingleWindow() throws Exception {
+        StreamingFullParser parser = new StreamingFullParser(stream(XML), model, null,
+                new AtomicInteger(1), StreamingFullParser.DEFAULT_WINDOW_SIZE);
+        List<List<FastPathObject>> windows = readAll(parser);
+        assertEquals(1, windows.size());
+        assertEquals(4, windows.get(0).size());
+        Employee employee = (Employee) windows.get(0).get(1);
+        assertSame(windows.get(0).get(0), employee.getFieldProxy("address"));
+    }
+
+    public void testParseError() throws Exception {
+        StreamingFullParser parser = new StreamingFullParser(stream("<items><item id="),
+                model, null, new AtomicInteger(1), 1);
+        try {
+            readAll(parser);
+            fail("Expected exception");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    private static InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    private static List<List<FastPathObject>> readAll(StreamingFullParser parser)
+        throws Exception {
+        List<List<FastPathObject>> retval = new ArrayList<List<FastPathObject>>();
+        List<FastPathObject> window;
+        while ((window = parser.nextWindow()) != null) {
+            retval.add(window);
+        }
+        return retval;
+    }
+}
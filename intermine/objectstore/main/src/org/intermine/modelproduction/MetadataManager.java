@@ -109,6 +109,11 @@ public final class MetadataManager
      */
     public static final String NO_NOTXML = "noNotXml";
 
+    /**
+     * The name of the key used to store whether the OBJECT column uses the binary format.
+     */
+    public static final String BINARY_OBJECTS = "binaryObjects";
+
     /**
      * The name of the key used to store the modMine MetaData cache
      */
@@ -124,6 +129,11 @@ public final class MetadataManager
      */
     public static final String RANGE_DEFINITIONS = "rangeDefinitions";
 
+    /**
+     * The name of the key used to store the population counts of the enrichment widgets.
+     */
+    public static final String ENRICHMENT_POPULATIONS = "enrichmentPopulations";
+
     /**
      * Store a (key, value) pair in the metadata table of the database
      * @param database the database
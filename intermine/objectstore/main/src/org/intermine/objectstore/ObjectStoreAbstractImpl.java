@@ -34,7 +34,8 @@ import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
+import org.intermine.util.BoundedCacheMap;
+import org.intermine.util.CacheMapFactory;
 import org.intermine.util.PropertiesUtil;
 
 /**
@@ -47,6 +48,8 @@ import org.intermine.util.PropertiesUtil;
 public abstract class ObjectStoreAbstractImpl implements ObjectStore
 {
     private static final Logger LOG = Logger.getLogger(ObjectStoreAbstractImpl.class);
+    /** Maximum number of entries in the getObjectById cache, if it is an lru cache. */
+    protected static final int DEFAULT_OBJECT_CACHE_SIZE = 100000;
 
     protected static Random rand = new Random();
 
@@ -56,7 +59,7 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected Map<Integer, InterMineObject> cache;
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -99,8 +102,9 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        cache = CacheMapFactory.createCache("objects", getClass().getName() + " with sequence = "
+                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache",
+                DEFAULT_OBJECT_CACHE_SIZE);
     }
 
     /**
@@ -190,31 +194,22 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         getObjectOps++;
         if (getObjectOps % 10000 == 0) {
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
-                    + getObjectHits + ". Prefetches: " + getObjectPrefetches);
+                    + getObjectHits + ". Prefetches: " + getObjectPrefetches
+                    + (cache instanceof BoundedCacheMap<?, ?> ? ". Cache: " + cache : ""));
         }
-        boolean contains = true;
-        InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-        }
-        if (contains) {
+        // The cache is thread-safe on its own, so there is no lock held across the fetch from the
+        // database. At worst, two threads fetch the same object and one overwrites the other.
+        InterMineObject cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
             getObjectHits++;
             return cached;
         }
         InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-            if (contains) {
-                fromDb = cached;
-            } else {
-                cacheObjectById(id, fromDb);
-            }
+        cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
+            fromDb = cached;
+        } else {
+            cacheObjectById(id, fromDb);
         }
         return fromDb;
     }
@@ -297,18 +292,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
-        }
+        cache.remove(id);
     }
 
     /**
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
-        }
+        cache.put(id, obj);
         return obj;
     }
 
@@ -316,18 +307,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
-        }
+        return cache.get(id);
     }
 
     /**
@@ -0,0 +1,331 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import net.sf.cglib.proxy.Factory;
+
+import org.intermine.metadata.TypeUtil;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.util.DynamicBean;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Parses the binary object format, suitable for storing in the OBJECT field of database tables,
+ * into an Object. This is the counterpart of BinaryObjectRenderer.
+ *
+ * The format is a header (PREFIX followed by a single version character), the length-prefixed
+ * space-separated list of class names, and then a sequence of fields. Each field is the index of
+ * the field in the alphabetically-ordered field list of the class (as returned by
+ * TypeUtil.getFieldInfos()), a type character, and the value. Integers are written as
+ * zig-zag variable-length numbers, five bits to a character, so that the whole thing stays
+ * inside printable ASCII and can live in the existing text column. Strings are length-prefixed,
+ * so no escaping or splitting is needed when reading them back.
+ *
+ * @author intermine
+ */
+public final class BinaryObjectParser
+{
+    private BinaryObjectParser() {
+    }
+
+    /**
+     * The String that every value in the binary format starts with. NotXml always starts with
+     * NotXmlParser.DELIM, so the two formats can be told apart from the first three characters.
+     */
+    public static final String PREFIX = "$_B";
+    /**
+     * The current format version character, written after the PREFIX.
+     */
+    public static final char VERSION = '1';
+    /**
+     * The character offset for the last character of a variable-length number.
+     */
+    public static final char FINAL_BASE = 0x40;
+    /**
+     * The character offset for every character of a variable-length number except the last.
+     */
+    public static final char CONTINUATION_BASE = 0x20;
+    /**
+     * Number of bits of a variable-length number stored in each character.
+     */
+    public static final int BITS_PER_CHAR = 5;
+    /** Type tag for a boolean. */
+    public static final char TYPE_BOOLEAN = 'Z';
+    /** Type tag for a short. */
+    public static final char TYPE_SHORT = 'S';
+    /** Type tag for an int. */
+    public static final char TYPE_INT = 'I';
+    /** Type tag for a long. */
+    public static final char TYPE_LONG = 'J';
+    /** Type tag for a float. */
+    public static final char TYPE_FLOAT = 'F';
+    /** Type tag for a double. */
+    public static final char TYPE_DOUBLE = 'D';
+    /** Type tag for a Date. */
+    public static final char TYPE_DATE = 'W';
+    /** Type tag for a String. */
+    public static final char TYPE_STRING = 'T';
+    /** Type tag for a BigDecimal. */
+    public static final char TYPE_BIG_DECIMAL = 'B';
+    /** Type tag for a ClobAccess. */
+    public static final char TYPE_CLOB = 'C';
+    /** Type tag for a reference to another InterMineObject. */
+    public static final char TYPE_REFERENCE = 'R';
+    /** Type tag for any other value, stored as a String and converted with TypeUtil. */
+    public static final char TYPE_OTHER = 'X';
+
+    private static final Pattern SPACE_SPLITTER = Pattern.compile(" ", Pattern.LITERAL);
+    private static Map<String, Class<? extends FastPathObject>> classCache
+        = Collections.synchronizedMap(new HashMap<String, Class<? extends FastPathObject>>());
+    private static Map<Class<?>, TypeUtil.FieldInfo[]> fieldCache
+        = Collections.synchronizedMap(new HashMap<Class<?>, TypeUtil.FieldInfo[]>());
+
+    /**
+     * Returns true if the given String from the OBJECT column is in the binary format.
+     *
+     * @param data the contents of an OBJECT column
+     * @return a boolean
+     */
+    public static boolean isBinary(String data) {
+        return (data != null) && data.startsWith(PREFIX);
+    }
+
+    /**
+     * Parse the given String from the OBJECT column into an Object, using either this parser or
+     * the NotXmlParser depending on the format of the String. Databases written before the binary
+     * format existed therefore remain readable.
+     *
+     * @param data the contents of an OBJECT column
+     * @param os the ObjectStore from which to create lazy objects
+     * @return an InterMineObject
+     * @throws ClassNotFoundException if a class cannot be found
+     */
+    public static InterMineObject parseAny(String data,
+            ObjectStoreInterMineImpl os) throws ClassNotFoundException {
+        if (isBinary(data)) {
+            return parse(data, os);
+        }
+        return NotXmlParser.parse(data, os);
+    }
+
+    /**
+     * Parse the given binary format String into an Object.
+     *
+     * @param data the binary format String
+     * @param os the ObjectStore from which to create lazy objects
+     * @return an InterMineObject
+     * @throws ClassNotFoundException if a class cannot be found
+     * @throws IllegalArgumentException if the String is not in a supported version of the format
+     */
+    public static InterMineObject parse(String data,
+            ObjectStoreInterMineImpl os) throws ClassNotFoundException {
+        if (!isBinary(data) || (data.length() <= PREFIX.length())) {
+            throw new IllegalArgumentException("Not a binary format object: " + data);
+        }
+        char version = data.charAt(PREFIX.length());
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary object format version "
+                    + version + ", latest supported version: " + VERSION);
+        }
+        Reader reader = new Reader(data, PREFIX.length() + 1);
+        String classNames = reader.readString();
+
+        InterMineObject retval;
+        Class<? extends FastPathObject> clazz = classCache.get(classNames);
+        if (clazz == null) {
+            Set<Class<?>> classes = new HashSet<Class<?>>();
+            if (!"".equals(classNames)) {
+                String[] b = SPACE_SPLITTER.split(classNames);
+                for (int i = 0; i < b.length; i++) {
+                    classes.add(Class.forName(b[i]));
+                }
+            }
+            retval = (InterMineObject) DynamicUtil.createObject(classes);
+            clazz = retval.getClass();
+            classCache.put(classNames, clazz);
+        } else {
+            retval = (InterMineObject) DynamicUtil.createObject(clazz);
+        }
+
+        Map<String, Object> valueMap = null;
+        if (retval instanceof Factory) {
+            valueMap = ((DynamicBean) ((Factory) retval).getCallback(0)).getMap();
+        }
+        TypeUtil.FieldInfo[] fields = getFields(clazz);
+        boolean fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
+        while (reader.hasMore()) {
+            int fieldIndex = (int) reader.readUnsigned();
+            if (fieldIndex >= fields.length) {
+                throw new IllegalArgumentException("Field index " + fieldIndex + " out of range"
+                        + " for " + clazz.getName() + " in binary object: " + data);
+            }
+            TypeUtil.FieldInfo field = fields[fieldIndex];
+            char type = reader.readChar();
+            Object value;
+            switch (type) {
+                case TYPE_BOOLEAN:
+                    value = Boolean.valueOf(reader.readUnsigned() != 0L);
+                    break;
+                case TYPE_SHORT:
+                    value = Short.valueOf((short) reader.readSigned());
+                    break;
+                case TYPE_INT:
+                    value = Integer.valueOf((int) reader.readSigned());
+                    break;
+                case TYPE_LONG:
+                    value = Long.valueOf(reader.readSigned());
+                    break;
+                case TYPE_FLOAT:
+                    value = Float.valueOf(Float.intBitsToFloat((int) reader.readSigned()));
+                    break;
+                case TYPE_DOUBLE:
+                    value = Double.valueOf(Double.longBitsToDouble(reader.readSigned()));
+                    break;
+                case TYPE_DATE:
+                    value = new Date(reader.readSigned());
+                    break;
+                case TYPE_STRING:
+                    value = reader.readString();
+                    break;
+                case TYPE_BIG_DECIMAL:
+                    value = new BigDecimal(reader.readString());
+                    break;
+                case TYPE_CLOB:
+                    value = ClobAccess.decodeDbDescription(os, reader.readString());
+                    break;
+                case TYPE_REFERENCE:
+                    Integer id = Integer.valueOf((int) reader.readSigned());
+                    if (fetchFromInterMineObject) {
+                        value = new ProxyReference(os, id, InterMineObject.class);
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        Class<? extends InterMineObject> tmpType =
+                            (Class<? extends InterMineObject>) field.getType();
+                        value = new ProxyReference(os, id, tmpType);
+                    }
+                    break;
+                case TYPE_OTHER:
+                    value = TypeUtil.stringToObject(field.getType(), reader.readString());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type '" + type + "' for field "
+                            + field.getName() + " in binary object: " + data);
+            }
+            if (valueMap != null) {
+                valueMap.put(field.getName(), value);
+            } else {
+                retval.setFieldValue(field.getName(), value);
+            }
+        }
+
+        for (Map.Entry<String, Class<?>> collEntry : os.getModel().getCollectionsForClass(clazz)
+                .entrySet()) {
+            Collection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
+                    collEntry.getKey(), collEntry.getValue());
+            if (valueMap != null) {
+                valueMap.put(collEntry.getKey(), lazyColl);
+            } else {
+                retval.setFieldValue(collEntry.getKey(), lazyColl);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the fields of the given class, in the order used for field indexes.
+     *
+     * @param clazz a Class
+     * @return an array of FieldInfo objects
+     */
+    protected static TypeUtil.FieldInfo[] getFields(Class<?> clazz) {
+        TypeUtil.FieldInfo[] retval = fieldCache.get(clazz);
+        if (retval == null) {
+            Collection<TypeUtil.FieldInfo> infos = TypeUtil.getFieldInfos(clazz).values();
+            retval = infos.toArray(new TypeUtil.FieldInfo[infos.size()]);
+            fieldCache.put(clazz, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Reads values out of a binary format String, keeping track of the current position.
+     *
+     * @author intermine
+     */
+    private static final class Reader
+    {
+        private final String data;
+        private int pos;
+
+        Reader(String data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        boolean hasMore() {
+            return pos < data.length();
+        }
+
+        char readChar() {
+            if (pos >= data.length()) {
+                throw new IllegalArgumentException("Truncated binary object: " + data);
+            }
+            return data.charAt(pos++);
+        }
+
+        long readUnsigned() {
+            long retval = 0L;
+            int shift = 0;
+            while (true) {
+                char c = readChar();
+                if ((c >= FINAL_BASE) && (c < FINAL_BASE + (1 << BITS_PER_CHAR))) {
+                    return retval | (((long) (c - FINAL_BASE)) << shift);
+                } else if ((c >= CONTINUATION_BASE)
+                        && (c < CONTINUATION_BASE + (1 << BITS_PER_CHAR))) {
+                    retval |= ((long) (c - CONTINUATION_BASE)) << shift;
+                    shift += BITS_PER_CHAR;
+                } else {
+                    throw new IllegalArgumentException("Invalid character in number at position "
+                            + (pos - 1) + " in binary object: " + data);
+                }
+            }
+        }
+
+        long readSigned() {
+            long zigzag = readUnsigned();
+            return (zigzag >>> 1) ^ -(zigzag & 1L);
+        }
+
+        String readString() {
+            int length = (int) readUnsigned();
+            if (pos + length > data.length()) {
+                throw new IllegalArgumentException("Truncated binary object: " + data);
+            }
+            String retval = data.substring(pos, pos + length);
+            pos += length;
+            return retval;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.intermine.BinaryObjectParser.BITS_PER_CHAR;
+import static org.intermine.objectstore.intermine.BinaryObjectParser.CONTINUATION_BASE;
+import static org.intermine.objectstore.intermine.BinaryObjectParser.FINAL_BASE;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
+
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.StringConstructor;
+import org.intermine.objectstore.query.ClobAccess;
+
+/**
+ * Render an object into the binary object format, suitable for storing in the OBJECT field of
+ * database tables. See BinaryObjectParser for a description of the format.
+ *
+ * @author intermine
+ */
+public final class BinaryObjectRenderer
+{
+    private BinaryObjectRenderer() {
+    }
+
+    /**
+     * Strings longer than this are appended to the result on their own rather than copied into
+     * the buffer.
+     */
+    private static final int LARGE_STRING = 1024;
+
+    /**
+     * Render the given object in the binary format.
+     *
+     * @param obj the object to render
+     * @return the binary format String
+     */
+    public static StringConstructor render(Object obj) {
+        try {
+            StringConstructor retval = new StringConstructor();
+            StringBuilder sb = new StringBuilder();
+            sb.append(BinaryObjectParser.PREFIX).append(BinaryObjectParser.VERSION);
+            StringBuilder classNames = new StringBuilder();
+            boolean needComma = false;
+            for (Class<?> clazz : Util.decomposeClass(obj.getClass())) {
+                if (needComma) {
+                    classNames.append(" ");
+                }
+                needComma = true;
+                classNames.append(clazz.getName());
+            }
+            writeString(retval, sb, classNames.toString());
+
+            int fieldIndex = 0;
+            for (String fieldName : TypeUtil.getFieldInfos(obj.getClass()).keySet()) {
+                // Element is not output if the value is null or a collection
+                Object value = TypeUtil.getFieldProxy(obj, fieldName);
+                if ((value != null) && (!(value instanceof Collection<?>))) {
+                    writeUnsigned(sb, fieldIndex);
+                    if (value instanceof InterMineObject) {
+                        sb.append(BinaryObjectParser.TYPE_REFERENCE);
+                        writeSigned(sb, ((InterMineObject) value).getId().intValue());
+                    } else if (value instanceof Boolean) {
+                        sb.append(BinaryObjectParser.TYPE_BOOLEAN);
+                        writeUnsigned(sb, ((Boolean) value).booleanValue() ? 1L : 0L);
+                    } else if (value instanceof Short) {
+                        sb.append(BinaryObjectParser.TYPE_SHORT);
+                        writeSigned(sb, ((Short) value).shortValue());
+                    } else if (value instanceof Integer) {
+                        sb.append(BinaryObjectParser.TYPE_INT);
+                        writeSigned(sb, ((Integer) value).intValue());
+                    } else if (value instanceof Long) {
+                        sb.append(BinaryObjectParser.TYPE_LONG);
+                        writeSigned(sb, ((Long) value).longValue());
+                    } else if (value instanceof Float) {
+                        sb.append(BinaryObjectParser.TYPE_FLOAT);
+                        writeSigned(sb, Float.floatToIntBits(((Float) value).floatValue()));
+                    } else if (value instanceof Double) {
+                        sb.append(BinaryObjectParser.TYPE_DOUBLE);
+                        writeSigned(sb, Double.doubleToLongBits(((Double) value).doubleValue()));
+                    } else if (value instanceof Date) {
+                        sb.append(BinaryObjectParser.TYPE_DATE);
+                        writeSigned(sb, ((Date) value).getTime());
+                    } else if (value instanceof String) {
+                        sb.append(BinaryObjectParser.TYPE_STRING);
+                        writeString(retval, sb, (String) value);
+                    } else if (value instanceof BigDecimal) {
+                        sb.append(BinaryObjectParser.TYPE_BIG_DECIMAL);
+                        writeString(retval, sb, value.toString());
+                    } else if (value instanceof ClobAccess) {
+                        sb.append(BinaryObjectParser.TYPE_CLOB);
+                        writeString(retval, sb, ((ClobAccess) value).getDbDescription());
+                    } else {
+                        sb.append(BinaryObjectParser.TYPE_OTHER);
+                        writeString(retval, sb, value.toString());
+                    }
+                }
+                fieldIndex++;
+            }
+            if (sb.length() > 0) {
+                retval.append(sb.toString());
+            }
+            return retval;
+        } catch (IllegalAccessException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    private static void writeUnsigned(StringBuilder sb, long value) {
+        long remaining = value;
+        do {
+            int bits = (int) (remaining & ((1 << BITS_PER_CHAR) - 1));
+            remaining >>>= BITS_PER_CHAR;
+            sb.append((char) ((remaining == 0L ? FINAL_BASE : CONTINUATION_BASE) + bits));
+        } while (remaining != 0L);
+    }
+
+    private static void writeSigned(StringBuilder sb, long value) {
+        writeUnsigned(sb, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeString(StringConstructor retval, StringBuilder sb, String value) {
+        writeUnsigned(sb, value.length());
+        if (value.length() > LARGE_STRING) {
+            // Avoid copying large Strings - StringConstructor can hold them as they are.
+            retval.append(sb.toString());
+            sb.setLength(0);
+            retval.append(value);
+        } else {
+            sb.append(value);
+        }
+    }
+}
@@ -41,6 +41,7 @@ public class DatabaseSchema
     private Model model;
     private List<ClassDescriptor> truncated;
     private boolean noNotXml;
+    private boolean binaryObjects;
     private boolean flatMode;
     private Set<String> missingTables;
     private boolean fetchFromInterMineObject;
@@ -69,7 +70,30 @@ public class DatabaseSchema
      */
     public DatabaseSchema(Model model, List<ClassDescriptor> truncated, boolean noNotXml,
             Set<String> missingTables, int version, boolean hasBioSeg, boolean useRangeTypes) {
+        this(model, truncated, noNotXml, false, missingTables, version, hasBioSeg,
+                useRangeTypes);
+    }
+
+    /**
+     * Returns an instance of DatabaseSchema, for the given Model and and List of truncated classes.
+     *
+     * @param model a Model
+     * @param truncated a List of ClassDescriptors representing the truncated classes, in order of
+     * decreasing priority.
+     * @param noNotXml true if NotXML data should be omitted from every table except InterMineObject
+     * @param binaryObjects true if the OBJECT column should be written in the binary format
+     * instead of NotXml
+     * @param missingTables a Set of lowercase table names which are missing
+     * @param version the version number in the database
+     * @param hasBioSeg true if the database has the bioseg type installed
+     * @param useRangeTypes true if we can use Postgres built-in range types
+     * @throws IllegalArgumentException if the truncated class list does not make sense
+     */
+    public DatabaseSchema(Model model, List<ClassDescriptor> truncated, boolean noNotXml,
+            boolean binaryObjects, Set<String> missingTables, int version, boolean hasBioSeg,
+            boolean useRangeTypes) {
         this.model = model;
+        this.binaryObjects = binaryObjects;
         this.truncated = truncated;
         this.missingTables = missingTables;
         this.noNotXml = noNotXml && (!missingTables.contains("intermineobject"));
@@ -146,6 +170,16 @@ public class DatabaseSchema
         return noNotXml;
     }
 
+    /**
+     * Returns true if the OBJECT column is written in the binary format (see
+     * BinaryObjectParser) rather than NotXml. Both formats can always be read.
+     *
+     * @return a boolean
+     */
+    public boolean isBinaryObjects() {
+        return binaryObjects;
+    }
+
     /**
      * Returns true if the ObjectStore needs to run in flat mode for this Class - if
      * notXml is missing and the InterMineObject table is missing (or if the class is not a
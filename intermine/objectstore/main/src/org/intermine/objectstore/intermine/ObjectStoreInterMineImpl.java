@@ -90,6 +90,7 @@ import org.intermine.sql.query.PostgresExplainResult;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
 import org.intermine.util.CacheMap;
+import org.intermine.util.CacheMapFactory;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
 
@@ -107,6 +108,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     private static final Logger SQLLOGGER = Logger.getLogger("sqllogger");
 
     protected static final int CACHE_LARGEST_OBJECT = 5000000;
+    /** Maximum number of entries in each of the results caches, if they are lru caches. */
+    protected static final int DEFAULT_RESULTS_CACHE_SIZE = 1000;
     protected static Map<String, ObjectStoreInterMineImpl> instances
         = new HashMap<String, ObjectStoreInterMineImpl>();
     protected Database db;
@@ -146,11 +149,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected Map<Query, Integer> goFasterCountMap = new IdentityHashMap<Query, Integer>();
     protected ReferenceQueue<String> bagTablesToRemove = new ReferenceQueue<String>();
     protected String description;
-    protected Map<String, Results> resultsCache = new CacheMap<String, Results>();
-    protected Map<String, SingletonResults> singletonResultsCache
-        = new CacheMap<String, SingletonResults>();
-    protected Map<String, Map<Integer, ResultsBatches>> batchesCache
-        = new CacheMap<String, Map<Integer, ResultsBatches>>();
+    protected Map<String, Results> resultsCache = CacheMapFactory.createCache("results",
+            "ObjectStoreInterMineImpl resultsCache", DEFAULT_RESULTS_CACHE_SIZE);
+    protected Map<String, SingletonResults> singletonResultsCache = CacheMapFactory.createCache(
+            "results", "ObjectStoreInterMineImpl singletonResultsCache",
+            DEFAULT_RESULTS_CACHE_SIZE);
+    protected Map<String, Map<Integer, ResultsBatches>> batchesCache = CacheMapFactory
+        .createCache("batches", "ObjectStoreInterMineImpl batchesCache",
+                DEFAULT_RESULTS_CACHE_SIZE);
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -336,6 +342,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String missingTablesString = props.getProperty("missingTables");
         String truncatedClassesString = props.getProperty("truncatedClasses");
         String noNotXmlString = props.getProperty("noNotXml");
+        String binaryObjectsString = props.getProperty("binaryObjects");
 
         // Non-format properties
         String logfile = props.getProperty("logfile");
@@ -400,6 +407,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                                 MetadataManager.MISSING_TABLES);
                         noNotXmlString = MetadataManager.retrieve(database,
                                 MetadataManager.NO_NOTXML);
+                        binaryObjectsString = MetadataManager.retrieve(database,
+                                MetadataManager.BINARY_OBJECTS);
                     } catch (SQLException e) {
                         throw new IllegalArgumentException("Couldn't retrieve embedded config "
                                 + "for ObjectStore " + osAlias);
@@ -431,6 +440,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     throw new ObjectStoreException("Invalid value for property noNotXml: "
                             + noNotXmlString);
                 }
+                boolean binaryObjects = false;
+                if ("true".equals(binaryObjectsString)) {
+                    binaryObjects = true;
+                } else if (!((binaryObjectsString == null)
+                            || "false".equals(binaryObjectsString))) {
+                    throw new ObjectStoreException("Invalid value for property binaryObjects: "
+                            + binaryObjectsString);
+                }
                 HashSet<String> missingTables = new HashSet<String>();
                 if (missingTablesString != null) {
                     String[] tables = missingTablesString.split(",");
@@ -468,7 +485,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 }
 
                 DatabaseSchema schema = new DatabaseSchema(osModel, truncatedClasses, noNotXml,
-                        missingTables, formatVersion, hasBioSeg, useRangeTypes);
+                        binaryObjects, missingTables, formatVersion, hasBioSeg, useRangeTypes);
                 os = new ObjectStoreInterMineImpl(database, schema);
                 os.description = osAlias;
 
@@ -1020,6 +1037,128 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Executes a Query as a single forward-only database cursor, rather than in batches. The
+     * query is planned once, the rows are fetched from the database fetchSize at a time, and
+     * nothing is put in the results or batches caches, so very large results can be read in
+     * constant memory. This is intended for exports, which read every row once in order.
+     * <p>
+     * The returned StreamingResults holds a database connection until it is exhausted or closed.
+     *
+     * @param q the Query to run
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * @param optimise true if the query should be optimised
+     * @param explain true if the query should be explained first, to check that a batch of
+     * fetchSize rows will not take longer than the maximum permitted time
+     * @return a StreamingResults object
+     * @throws ObjectStoreException if an error occurs running the query
+     */
+    public StreamingResults executeStreaming(Query q, int fetchSize, boolean optimise,
+            boolean explain) throws ObjectStoreException {
+        return executeStreaming(q, 0, Integer.MAX_VALUE, fetchSize, optimise, explain);
+    }
+
+    /**
+     * Executes a Query as a single forward-only database cursor, as above, over only the rows
+     * from start to start + limit. The database skips the rows before start, so they are neither
+     * sent nor converted.
+     *
+     * @param q the Query to run
+     * @param start the index of the first row to return
+     * @param limit the maximum number of rows to return, or Integer.MAX_VALUE for all of them
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * @param optimise true if the query should be optimised
+     * @param explain true if the query should be explained first, to check that a batch of
+     * fetchSize rows will not take longer than the maximum permitted time
+     * @return a StreamingResults object
+     * @throws ObjectStoreException if an error occurs running the query
+     */
+    public StreamingResults executeStreaming(Query q, int start, int limit, int fetchSize,
+            boolean optimise, boolean explain) throws ObjectStoreException {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+        }
+        if ((start < 0) || (limit < 0)) {
+            throw new IllegalArgumentException("start and limit must not be negative: " + start
+                    + ", " + limit);
+        }
+        if (limit == 0) {
+            return new StreamingResults(this, q);
+        }
+        Constraint where = q.getConstraint();
+        // we know there will be no results if we ORing or NANDing over an empty constraint set
+        if (where instanceof ConstraintSet) {
+            ConstraintSet where2 = (ConstraintSet) where;
+            if (where2.getConstraints().isEmpty()
+                    && (ConstraintOp.NAND.equals(where2.getOp())
+                        || ConstraintOp.OR.equals(where2.getOp()))) {
+                return new StreamingResults(this, q);
+            }
+        }
+        Map<Object, Integer> sequence = getSequence(getComponentsForQuery(q));
+        Connection c = null;
+        String sql = null;
+        boolean handedOver = false;
+        try {
+            c = getConnection();
+            if (getMinBagTableSize() != -1) {
+                createTempBagTables(c, q);
+                flushOldTempBagTables(c);
+            }
+            try {
+                sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            } catch (CompletelyFalseException e) {
+                return new StreamingResults(this, q);
+            }
+            String generatedSql = sql;
+            if (optimise && everOptimise()) {
+                sql = QueryOptimiser.optimise(sql, null, db, c, QueryOptimiserContext.DEFAULT)
+                    .getBestQueryString();
+            }
+            if (explain) {
+                // The same check that Results makes for each batch, against the first batch
+                String batchSql = SqlGenerator.generate(q, start, Math.min(limit, fetchSize),
+                        schema, db, bagConstraintTables);
+                ExplainResult explainResult = ExplainResult.getInstance(batchSql, c);
+                if (explainResult.getTime() > getMaxTime()) {
+                    throw (new ObjectStoreQueryDurationException("Estimated time to run query("
+                                + explainResult.getTime() + ") greater than permitted maximum ("
+                                + getMaxTime() + "): IQL query: " + q + ", SQL query: "
+                                + batchSql));
+                }
+            }
+            if (getLogBeforeExecute() || getVerboseQueryLog()) {
+                SQLLOGGER.info("(STREAMING) iql: " + q + "\n"
+                        + "generated sql: " + generatedSql + "\n"
+                        + "optimised sql: " + sql);
+            }
+            // PostgreSQL only uses a cursor for a forward-only statement with a fetch size
+            // inside a transaction
+            c.setAutoCommit(false);
+            Statement s = c.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            s.setFetchSize(fetchSize);
+            registerStatement(s);
+            ResultSet sqlResults;
+            try {
+                sqlResults = s.executeQuery(sql);
+            } finally {
+                deregisterStatement(s);
+            }
+            handedOver = true;
+            return new StreamingResults(this, q, sequence, optimise, fetchSize, c, s, sqlResults);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem running SQL statement \"" + sql
+                    + "\" while executing query \"" + q + "\"", e);
+        } catch (RuntimeException e) {
+            throw new ObjectStoreException("Problem executing query \"" + q + "\"", e);
+        } finally {
+            if (!handedOver) {
+                releaseConnection(c);
+            }
+        }
+    }
+
     /**
      * Overrides Object.finalize - release the DB log connection.
      *
@@ -1790,7 +1929,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     throw new ObjectStoreException("More than one object in the database has this"
                             + " primary key");
                 }
-                InterMineObject retval = NotXmlParser.parse(currentColumn, this);
+                InterMineObject retval = BinaryObjectParser.parseAny(currentColumn, this);
                 //if (currentColumn.length() < CACHE_LARGEST_OBJECT) {
                 cacheObjectById(retval.getId(), retval);
                 //} else {
@@ -88,6 +88,33 @@ public final class ResultsConverter
             ObjectStoreInterMineImpl os, Connection c, Map<Object, Integer> sequence,
             boolean optimise, ExtraQueryTime extra, Set<PrecomputedTable> goFasterTables,
             OptimiserCache goFasterCache) throws ObjectStoreException {
+        return convert(sqlResults, q, os, c, sequence, optimise, extra, goFasterTables,
+                goFasterCache, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method to convert at most maxRows rows from SQL results to InterMine object-based results.
+     * The ResultSet is left positioned on the last row converted, so this method can be called
+     * repeatedly to convert a large ResultSet in chunks.
+     *
+     * @param sqlResults the ResultSet
+     * @param q the Query
+     * @param os the ObjectStoreInterMineImpl with which to associate any new lazy objects
+     * @param c a Connection with which to make extra requests
+     * @param sequence an object representing the state of the database
+     * @param optimise whether to use optimisation on path expression queries
+     * @param extra object to record extra query execution time
+     * @param goFasterTables a Set of PrecomputedTables that may help with extra queries
+     * @param goFasterCache an OptimiserCache that may help with extra queries
+     * @param maxRows the maximum number of rows to convert
+     * @return a List of ResultsRow objects, which is empty if the ResultSet is exhausted
+     * @throws ObjectStoreException if the ResultSet does not match the Query in any way, or if a
+     * SQL exception occurs
+     */
+    public static List<ResultsRow<Object>> convert(ResultSet sqlResults, Query q,
+            ObjectStoreInterMineImpl os, Connection c, Map<Object, Integer> sequence,
+            boolean optimise, ExtraQueryTime extra, Set<PrecomputedTable> goFasterTables,
+            OptimiserCache goFasterCache, int maxRows) throws ObjectStoreException {
         Object currentColumn = null;
         HashSet<QuerySelectable> noObjectColumns = new HashSet<QuerySelectable>();
         HashSet<String> noObjectClassColumns = new HashSet<String>();
@@ -102,7 +129,7 @@ public final class ResultsConverter
                 aliases.put(node, DatabaseUtil.generateSqlCompatibleName(q.getAliases().get(node)));
             }
 
-            while (sqlResults.next()) {
+            while ((retval.size() < maxRows) && sqlResults.next()) {
                 ResultsRow<Object> row = new ResultsRow<Object>();
                 for (QuerySelectable node : q.getSelect()) {
                     String alias = aliases.get(node);
@@ -132,7 +159,7 @@ public final class ResultsConverter
                                         objectField = sqlResults.getString(alias);
                                         if (objectField != null) {
                                             currentColumn = objectField;
-                                            obj = NotXmlParser.parse(objectField, os);
+                                            obj = BinaryObjectParser.parseAny(objectField, os);
                                             //if (objectField.length() < ObjectStoreInterMineImpl
                                             //        .CACHE_LARGEST_OBJECT) {
                                             os.cacheObjectById(((InterMineObject) obj).getId(),
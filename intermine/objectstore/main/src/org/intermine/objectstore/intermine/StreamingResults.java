@@ -0,0 +1,178 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * A forward-only Iterator over the results of a Query, read through a server-side database cursor.
+ * Unlike Results, the query is planned and executed once, and only the rows currently being
+ * converted are held in memory, so this is suitable for exporting very large result sets. Rows
+ * are not cached, and cannot be revisited.
+ * <p>
+ * A StreamingResults object holds a database connection until it is exhausted or closed, so
+ * callers that may stop iterating early MUST call close().
+ *
+ * @author intermine
+ */
+public class StreamingResults implements Iterator<ResultsRow<Object>>
+{
+    private static final Logger LOG = Logger.getLogger(StreamingResults.class);
+
+    private final ObjectStoreInterMineImpl os;
+    private final Query q;
+    private final Map<Object, Integer> sequence;
+    private final boolean optimise;
+    private final int fetchSize;
+    private Connection c;
+    private Statement s;
+    private ResultSet sqlResults;
+    private Iterator<ResultsRow<Object>> buffer;
+    private int rowCount = 0;
+
+    /**
+     * Constructs a StreamingResults object that has no rows.
+     *
+     * @param os the ObjectStore that the query was run in
+     * @param q the Query
+     */
+    StreamingResults(ObjectStoreInterMineImpl os, Query q) {
+        this.os = os;
+        this.q = q;
+        this.sequence = null;
+        this.optimise = false;
+        this.fetchSize = 0;
+        List<ResultsRow<Object>> empty = Collections.emptyList();
+        this.buffer = empty.iterator();
+    }
+
+    /**
+     * Constructs a StreamingResults object reading from an open cursor. The Connection must be in
+     * a transaction, and will be released back to the ObjectStore when the rows are exhausted or
+     * close() is called.
+     *
+     * @param os the ObjectStore that the query was run in
+     * @param q the Query
+     * @param sequence an object representing the state of the database
+     * @param optimise whether to use optimisation on path expression queries
+     * @param fetchSize the number of rows to fetch from the database and convert at a time
+     * @param c the Connection that the cursor is open on
+     * @param s the Statement that the cursor belongs to
+     * @param sqlResults the ResultSet of the cursor
+     */
+    StreamingResults(ObjectStoreInterMineImpl os, Query q, Map<Object, Integer> sequence,
+            boolean optimise, int fetchSize, Connection c, Statement s, ResultSet sqlResults) {
+        this.os = os;
+        this.q = q;
+        this.sequence = sequence;
+        this.optimise = optimise;
+        this.fetchSize = fetchSize;
+        this.c = c;
+        this.s = s;
+        this.sqlResults = sqlResults;
+        List<ResultsRow<Object>> empty = Collections.emptyList();
+        this.buffer = empty.iterator();
+    }
+
+    /**
+     * Returns the Query that these results are for.
+     *
+     * @return a Query
+     */
+    public Query getQuery() {
+        return q;
+    }
+
+    /**
+     * Returns the number of rows returned by this Iterator so far.
+     *
+     * @return an int
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if ((!buffer.hasNext()) && (sqlResults != null)) {
+            try {
+                List<ResultsRow<Object>> rows = ResultsConverter.convert(sqlResults, q, os, c,
+                        sequence, optimise, new ExtraQueryTime(), null, null, fetchSize);
+                if (rows.isEmpty()) {
+                    close();
+                } else {
+                    buffer = rows.iterator();
+                }
+            } catch (ObjectStoreException e) {
+                close();
+                throw new RuntimeException("ObjectStore error has occurred (in hasNext)", e);
+            }
+        }
+        return buffer.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsRow<Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        rowCount++;
+        return buffer.next();
+    }
+
+    /**
+     * This method is not supported.
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the database cursor and releases the connection back to the ObjectStore. This method
+     * may be called more than once.
+     */
+    public void close() {
+        if (sqlResults == null) {
+            return;
+        }
+        try {
+            sqlResults.close();
+            s.close();
+            c.commit();
+            c.setAutoCommit(true);
+        } catch (SQLException e) {
+            LOG.warn("Error closing cursor for query " + q, e);
+        } finally {
+            os.releaseConnection(c);
+            sqlResults = null;
+            s = null;
+            c = null;
+        }
+    }
+}
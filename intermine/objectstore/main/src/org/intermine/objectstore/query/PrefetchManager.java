@@ -11,15 +11,42 @@ package org.intermine.objectstore.query;
  */
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.PropertiesUtil;
 
 /**
  * A manager for the prefetch mechanism for the Results object.
+ * <p>
+ * Speculative read-ahead requests (from addRequest) are queued per ObjectStore and serviced by a
+ * bounded pool of daemon threads, with at most a configurable number of requests for any one
+ * ObjectStore being serviced at once. Requests made by a thread that actually needs the data
+ * (through doRequest) are always serviced in the calling thread, and take over any matching
+ * request that is still queued, so user-facing batches never wait behind read-ahead. The state
+ * of each request is held in a concurrent map and each request has its own monitor, so there is
+ * no global lock.
+ * <p>
+ * The following properties configure the pool:
+ * <ul>
+ * <li><tt>os.prefetch.threads</tt> - the maximum number of service threads (default 10)</li>
+ * <li><tt>os.prefetch.maxPerObjectStore</tt> - the maximum number of requests for one ObjectStore
+ * serviced at once (default 3)</li>
+ * </ul>
  *
  * @author Matthew Wakeling
  */
@@ -29,15 +56,65 @@ public final class PrefetchManager
     }
 
     private static final Logger LOG = Logger.getLogger(PrefetchManager.class);
-    /** Pending set of requests - always accessed inside a synchronise on sync. */
-    protected static Set<Request> pending = new HashSet<Request>();
-    /** Set of requests currently being serviced. This Set is not accessed inside a block
-     * synchronised on any global object, so it must be able to handle concurrent access. */
-    protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
-    protected static int serviceThreads = 0;
-    private static Object sync = new Object();
 
-    protected static final int LOADING = 3;
+    /** The default maximum number of service threads. */
+    public static final int DEFAULT_THREADS = 10;
+    /** The default maximum number of requests for one ObjectStore serviced at once. */
+    public static final int DEFAULT_MAX_PER_OBJECTSTORE = 3;
+    /** The number of completed prefetches between logging statistics. */
+    protected static final int LOG_INTERVAL = 1000;
+
+    /** Every request that is pending or being serviced, mapped onto itself so that there is one
+     * canonical Request object holding the state. */
+    protected static ConcurrentHashMap<Request, Request> requests
+        = new ConcurrentHashMap<Request, Request>();
+    /** The queue of pending requests for each ObjectStore. */
+    private static Map<ObjectStore, ObjectStoreQueue> queues = Collections.synchronizedMap(
+            new WeakHashMap<ObjectStore, ObjectStoreQueue>());
+    private static int maxPerObjectStore = DEFAULT_MAX_PER_OBJECTSTORE;
+    private static ExecutorService executor;
+
+    private static AtomicInteger queueDepth = new AtomicInteger();
+    private static AtomicLong queued = new AtomicLong();
+    private static AtomicLong completed = new AtomicLong();
+    private static AtomicLong failed = new AtomicLong();
+    private static AtomicLong takenOver = new AtomicLong();
+    private static AtomicLong used = new AtomicLong();
+
+    static {
+        int threads = DEFAULT_THREADS;
+        try {
+            Properties props = PropertiesUtil.stripStart("os.prefetch",
+                    PropertiesUtil.getPropertiesStartingWith("os.prefetch"));
+            if (props.getProperty("threads") != null) {
+                threads = Integer.parseInt(props.getProperty("threads"));
+            }
+            if (props.getProperty("maxPerObjectStore") != null) {
+                maxPerObjectStore = Integer.parseInt(props.getProperty("maxPerObjectStore"));
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not read os.prefetch properties - using defaults", e);
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread retval = new Thread(r, "PrefetchManager ServiceThread "
+                                + count.incrementAndGet());
+                        retval.setDaemon(true);
+                        return retval;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+        LOG.info("PrefetchManager using " + threads + " service threads, with at most "
+                + maxPerObjectStore + " requests per ObjectStore");
+    }
+
+    protected static final int PENDING = 0;
+    protected static final int SERVICING = 1;
+    protected static final int DONE = 2;
 
     /*
      * This class provides methods for cancelling requests, so here is an explanation of how this
@@ -82,7 +159,8 @@ public final class PrefetchManager
      */
 
     /**
-     * Adds a request to the Set of pending requests, and wakes up a Thread to handle it.
+     * Adds a request to the queue of pending requests for its ObjectStore, and makes sure a
+     * service thread will handle it.
      *
      * @param result a ResultsBatches object that is making the request
      * @param batchNo the batch number to be fetched
@@ -91,41 +169,28 @@ public final class PrefetchManager
      */
     public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
+        if (result.batches.containsKey(new Integer(batchNo))) {
+            // The request has already been done.
+            return;
+        }
         Request request = new Request(result, batchNo, optimise, explain);
-        synchronized (sync) {
-            synchronized (result) {
-                // Synchronise on BOTH locks, so we can muck about with anything.
-                if (!result.batches.containsKey(new Integer(batchNo))) {
-                    // The request has not been done.
-                    if (!serviced.contains(request)) {
-                        // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
-                        pending.add(request);
-                        if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
-                            // There are too many requests for the servicing threads.
-                            Thread newThread = new ServiceThread();
-                            newThread.setDaemon(true);
-                            newThread.setName("PrefetchManager ServiceThread");
-                            newThread.start();
-                            serviceThreads++;
-                            LOG.info("addRequest - creating new ServiceThread. We now have "
-                                    + serviceThreads);
-                        } else {
-                            // There may or may not be a service thread waiting. If not, a service
-                            // thread will soon finish a request.
-                            sync.notify();
-                        }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
-                    }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
-                }
+        if (requests.putIfAbsent(request, request) != null) {
+            // The request is already pending or being serviced.
+            return;
+        }
+        queued.incrementAndGet();
+        queueDepth.incrementAndGet();
+        getQueue(result.os).add(request);
+    }
+
+    private static ObjectStoreQueue getQueue(ObjectStore os) {
+        synchronized (queues) {
+            ObjectStoreQueue retval = queues.get(os);
+            if (retval == null) {
+                retval = new ObjectStoreQueue();
+                queues.put(os, retval);
             }
+            return retval;
         }
     }
 
@@ -156,167 +221,186 @@ public final class PrefetchManager
      * @throws IndexOutOfBoundsException if the batch is off the end of the results
      */
     protected static List<Object> doRequest(Request request) throws ObjectStoreException {
-        boolean needToWait = false;
-        List<Object> retval = null;
-
-        synchronized (sync) {
-            synchronized (request.result) {
-                // Synchronise on BOTH locks, so we can muck about with anything.
-                // Note, that to avoid deadlocks, we should never lock these two in the opposite
-                // order, or call wait on either of these locks where a notify needs to obtain
-                // the other one. We shouldn't call wait in here anyway really.
-                // We need both locks, because we need to exclude the possibility that someone
-                // finishes a request between us checking to see if it is already fetched, and
-                // checking if we need to wait for someone to finish fetching it.
-                retval = request.result.batches.get(new Integer(request.batchNo));
-                if (retval != null) {
-                    // The batch has already been fetched.
-                    //LOG.debug("doRequest - the request has already been done:        " + request);
-                    return retval;
-                }
-                if (pending.contains(request)) {
-                    // The request is pending.
-                    // If it is pending, then we wish it to be serviced by US. Therefore, we
-                    // need to move it to serviced state and do it.
-                    // The request is not being serviced. We take over.
-                    serviced.add(request);
-                    pending.remove(request);
-                    //LOG.debug("doRequest - the request was pending:                  " + request);
-                } else if (serviced.contains(request)) {
-                    // The request is being serviced. We just need to wait.
-                    needToWait = true;
-                    //LOG.debug("doRequest - the request is currently being serviced:  " + request);
-                } else {
-                    // The request has never been seen before. Therefore, we should add it to the
-                    // serviced set, and handle it.
-                    serviced.add(request);
-                    //LOG.debug("doRequest - new request:                              " + request);
-                }
+        while (true) {
+            List<Object> retval = request.result.batches.get(new Integer(request.batchNo));
+            if (retval != null) {
+                // The batch has already been fetched.
+                return retval;
             }
-        }
-
-        // At this stage, there is a limited set of states that we can be in. Either
-        // 1. We need to wait for another thread to finish servicing the request. In this case, we
-        //     know for sure that our request was in serviced when we left the synchronised block.
-        //     However, since this is a GAP between synchronising, another thread could finish the
-        //     request before we synchronise again. Therefore, we should check after we have
-        //     synchronised again.
-        // 2. We need to do the request ourselves. In this case, we set the PrefetchManager state
-        //     so that anything else to do with this request waits for us rather than changing the
-        //     state while we were in the synchronised block.
-
-        if (needToWait) {
-            synchronized (request.result) {
-                // We are synchronised. Now, no thread can report that the request is finished until
-                // we release the lock.
-                // First, check that someone didn't finish during the GAP.
-                if (serviced.contains(request)) {
-                    // Noone finished, so we can wait for that to happen.
-                    //LOG.debug("doRequest - waiting for another thread to finish:     " + request);
-                    try {
-                        request.result.wait();
-                    } catch (InterruptedException e) {
-                        // Ignore interruption.
+            Request existing = requests.putIfAbsent(request, request);
+            Request toService = null;
+            if (existing == null) {
+                // The request has never been seen before, and is now ours.
+                request.state.set(SERVICING);
+                toService = request;
+            } else if (existing.state.compareAndSet(PENDING, SERVICING)) {
+                // The request is pending for a service thread. We need the data now, so we take
+                // over, and the service thread will skip it.
+                takenOver.incrementAndGet();
+                toService = existing;
+            }
+            if (toService != null) {
+                try {
+                    // Someone may have finished the request between us checking batches and
+                    // claiming the request.
+                    retval = request.result.batches.get(new Integer(request.batchNo));
+                    if (retval == null) {
+                        // Now, we can service this request in a normal manner, outside all locks.
+                        retval = request.result.fetchBatchFromObjectStore(request.batchNo,
+                                request.optimise, request.explain);
                     }
+                    return retval;
+                } finally {
+                    // And then report that it is finished, even if we did get an exception.
+                    reportDone(toService);
                 }
-                // At this point, either our wait was interrupted by notifyAll(), or someone has
-                // removed the request from serviced. Either way, we can't be absolutely sure that
-                // result.batches contains the batch we want, for several reasons. So we recurse.
-                // Reasons:
-                // 1. request.result.batches may be a WeakHashMap, in which case the batch may have
-                //     been removed from it by the garbage collector since it was added.
-                // 2. The object we are waiting for is a result. A notify that we might have
-                //     received could have been for a different request.
-                // 3. The request is a dud, so the thread that was servicing the request received
-                //     an exception. Under this circumstance, that thread should still remove the
-                //     request from the serviced set, and notify other threads waiting for the
-                //     request. This allows threads waiting to do the operation themselves, and
-                //     therefore return back the correct exception.
-            }
-            retval = doRequest(request);
-        } else {
-            try {
-                //LOG.debug("doRequest - servicing request:                        " + request);
-                // Now, we can service this request in a normal manner, outside all locks.
-                retval = request.result.fetchBatchFromObjectStore(request.batchNo, request.optimise,
-                        request.explain);
-            } finally {
-                // And then report that it is finished, inside a lock, even if we did get an
-                // exception.
-                reportDone(request);
             }
+            // The request is being serviced by another thread. Wait for it to finish, and then
+            // loop round, because we can't be absolutely sure that result.batches contains the
+            // batch we want:
+            // 1. request.result.batches may be a soft cache, in which case the batch may have
+            //     been removed from it by the garbage collector since it was added.
+            // 2. The request is a dud, so the thread that was servicing the request received
+            //     an exception. This allows threads waiting to do the operation themselves, and
+            //     therefore return back the correct exception.
+            existing.awaitDone();
         }
-
-        return retval;
     }
 
     /**
      * Allows a system to report that it has finished servicing a particular request.
      *
-     * @param request the request that has been done
+     * @param request the canonical Request object that has been done
      */
     protected static void reportDone(Request request) {
-        synchronized (request.result) {
-            //LOG.debug("reportDone - finished request:                        " + request);
-            serviced.remove(request);
-            request.result.notifyAll();
-        }
+        requests.remove(request);
+        request.markDone();
     }
 
     /**
-     * Returns a request for a thread to service.
+     * Records that a batch fetched by a service thread has been used by a thread that needed the
+     * data.
+     */
+    protected static void reportPrefetchUsed() {
+        used.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of requests waiting for a service thread.
      *
-     * @return a request to service
+     * @return an int
      */
-    protected static Request getRequest() {
-        Request retval;
-        synchronized (sync) {
-            while (pending.isEmpty()) {
-                // There are no requests to get - wait for a notify.
-                //LOG.debug("getRequest - waiting for a request");
-                try {
-                    sync.wait();
-                } catch (InterruptedException e) {
-                    // Ignore interruption.
+    public static int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the number of prefetched batches that have not (yet) been used by a thread that
+     * needed the data, or that were fetched too late and had to be taken over by such a thread.
+     *
+     * @return a long
+     */
+    public static long getWastedPrefetches() {
+        return completed.get() - used.get() + takenOver.get() + failed.get();
+    }
+
+    /**
+     * Returns a summary of the activity of the PrefetchManager, suitable for logging.
+     *
+     * @return a String
+     */
+    public static String getStatistics() {
+        return "PrefetchManager: queue depth = " + getQueueDepth() + ", queued = " + queued.get()
+            + ", completed = " + completed.get() + ", used = " + used.get() + ", taken over = "
+            + takenOver.get() + ", failed = " + failed.get() + ", wasted = "
+            + getWastedPrefetches();
+    }
+
+    /**
+     * Services a single request in a service thread, unless a thread that needs the data has
+     * already taken it over.
+     *
+     * @param request the canonical Request object
+     */
+    private static void service(Request request) {
+        queueDepth.decrementAndGet();
+        if (!request.state.compareAndSet(PENDING, SERVICING)) {
+            return;
+        }
+        try {
+            if (!request.result.batches.containsKey(new Integer(request.batchNo))) {
+                // Now, we can service this request in a normal manner, outside all locks.
+                request.result.fetchBatchFromObjectStore(request.batchNo,
+                        request.optimise, request.explain);
+                request.result.markPrefetched(request.batchNo);
+            }
+            if (completed.incrementAndGet() % LOG_INTERVAL == 0) {
+                LOG.info(getStatistics());
+            }
+        } catch (Exception e) {
+            // We don't care about any exception - a thread that needs the data will do the
+            // request itself and get the exception.
+            failed.incrementAndGet();
+            LOG.warn("Service thread received exception for " + request + " " + e);
+        } finally {
+            // And then report that it is finished, even if we did get an exception.
+            reportDone(request);
+        }
+    }
+
+    /**
+     * The queue of pending requests for one ObjectStore, which makes sure no more than
+     * maxPerObjectStore of them are serviced at once.
+     */
+    private static class ObjectStoreQueue implements Runnable
+    {
+        private ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+        private AtomicInteger running = new AtomicInteger();
+
+        void add(Request request) {
+            pending.add(request);
+            schedule();
+        }
+
+        private void schedule() {
+            while (!pending.isEmpty()) {
+                int current = running.get();
+                if (current >= maxPerObjectStore) {
+                    // A running drainer will pick the request up.
+                    return;
+                }
+                if (running.compareAndSet(current, current + 1)) {
+                    executor.execute(this);
+                    return;
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                Request request;
+                while ((request = pending.poll()) != null) {
+                    service(request);
                 }
+            } finally {
+                running.decrementAndGet();
+                // Something may have been added after our last poll, but before the decrement.
+                schedule();
             }
-            // Get a request from the pending set. We know there is something in there, because we
-            // just got false from pending.isEmpty, and we have the lock on sync, and nothing
-            // touches pending unless they have that lock.
-            retval = pending.iterator().next();
-            //LOG.debug("getRequest - got request:                             " + retval);
-            // Now we have a request, we could synchronise by its result - other things look
-            // for the request in serviced - namely:
-            // 1. addRequest doesn't add a request to pending if it already in serviced. However,
-            //     that doesn't matter, because it is already synchronised on sync. Otherwise, you
-            //     might have had the situation where a request appears in both pending and serviced
-            //     sets.
-            // 2. doRequest also moves items from pending to serviced, but that doesn't matter
-            //     because it is also synchronised on sync. Otherwise you could have two threads
-            //     servicing the same request, which could possibly leave other requests not being
-            //     serviced while a service thread sleeps.
-            // 3. doRequest decides whether to wait on whether there is a request in serviced, but
-            //     this also does not matter, as it can only be broken by a thread removing a
-            //     request from serviced outside a synchronised block.
-            // 4. reportDone removes an entry from serviced, which does not matter, because it will
-            //     only break something that is broken by things being removed from serviced outside
-            //     a sync lock.
-            // Basically, we never check to see if the batch has already been fetched before
-            // checking to see if anyone is fetching it - we only put the request in serviced.
-            // Therefore, we do not need to synchronise by request.result here.
-
-            serviced.add(retval);
-            pending.remove(retval);
         }
-        return retval;
     }
 
-    private static class Request
+    /**
+     * A unit of work for the PrefetchManager, and the state of that work. Two Requests are equal
+     * if they are for the same batch of the same ResultsBatches object.
+     */
+    protected static class Request
     {
         private ResultsBatches result;
         private int batchNo;
         private boolean optimise;
         private boolean explain;
+        private AtomicInteger state = new AtomicInteger(PENDING);
 
         public Request(ResultsBatches result, int batchNo, boolean optimise, boolean explain) {
             this.result = result;
@@ -325,14 +409,30 @@ public final class PrefetchManager
             this.explain = explain;
         }
 
+        synchronized void markDone() {
+            state.set(DONE);
+            notifyAll();
+        }
+
+        synchronized void awaitDone() {
+            while (state.get() != DONE) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Ignore interruption.
+                }
+            }
+        }
+
         @Override
         public int hashCode() {
-            return 2 * result.query.hashCode() + 3 * batchNo;
+            return 2 * System.identityHashCode(result) + 3 * batchNo;
         }
 
         @Override
         public boolean equals(Object obj) {
-            return (result == ((Request) obj).result) && (((Request) obj).batchNo == batchNo);
+            return (obj instanceof Request) && (result == ((Request) obj).result)
+                && (((Request) obj).batchNo == batchNo);
         }
 
         @Override
@@ -340,42 +440,4 @@ public final class PrefetchManager
             return "Result " + result.query.hashCode() + ", batch " + batchNo;
         }
     }
-
-    private static class ServiceThread extends Thread
-    {
-        @Override
-        public void run() {
-            try {
-                while (true) {
-                    Request request = PrefetchManager.getRequest();
-                    //LOG.debug("ServiceThread.run - servicing request                 " + request);
-                    try {
-                        // Now, we can service this request in a normal manner, outside all locks.
-                        @SuppressWarnings("unused")
-                        List<Object> batch = request.result.fetchBatchFromObjectStore(request
-                                .batchNo, request.optimise, request.explain);
-                    } catch (Exception e) {
-                        LOG.warn("ServiceThread.run - Received exception                " + request
-                                + " " + e);
-                        // We don't care about any exception - we NEED this thread to keep running.
-                        // Otherwise, things go pear-shaped.
-                    } finally {
-                        // And then report that it is finished, inside a lock, even if we did get an
-                        // exception.
-                        reportDone(request);
-                    }
-                }
-            } catch (Error e) {
-                LOG.error("Failure of PrefetchManager service thread with error", e);
-                throw e;
-            } finally {
-                // Like I said, we REALLY NEED to know if something has gone wrong here, as it is a
-                // BIG BAD BUG.
-                LOG.error("ServiceThread died unexpectedly. PrefetchManager may stop working");
-                // And decrement the count of available ServiceThreads.
-                PrefetchManager.serviceThreads--;
-            }
-        }
-    }
 }
-
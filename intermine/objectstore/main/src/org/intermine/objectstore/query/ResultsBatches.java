@@ -13,8 +13,10 @@ package org.intermine.objectstore.query;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.intermine.objectstore.DataChangedException;
 import org.intermine.objectstore.ObjectStore;
@@ -47,6 +49,8 @@ public class ResultsBatches
     // A map of batch number against a List of ResultsRows
     protected Map<Integer, List<Object>> batches = Collections.synchronizedMap(
             new CacheMap<Integer, List<Object>>("Results batches"));
+    // The batch numbers fetched by the PrefetchManager that have not yet been used
+    protected Set<Integer> prefetched = Collections.synchronizedSet(new HashSet<Integer>());
 
     /**
      * Construct a new ResultsBatches object. This is generally only called by the Results object.
@@ -163,9 +167,22 @@ public class ResultsBatches
         if (retval == null) {
             retval = PrefetchManager.doRequest(this, batchNo, optimise, explain);
         }
+        if (prefetched.remove(new Integer(batchNo))) {
+            PrefetchManager.reportPrefetchUsed();
+        }
         return retval;
     }
 
+    /**
+     * Records that a batch was fetched by the PrefetchManager rather than by a thread that needed
+     * the data, so that the PrefetchManager can report how many prefetches were useful.
+     *
+     * @param batchNo the batch number that was prefetched
+     */
+    protected void markPrefetched(int batchNo) {
+        prefetched.add(new Integer(batchNo));
+    }
+
     /**
      * Gets a batch from the ObjectStore.
      *
@@ -16,10 +16,17 @@ import java.util.Map;
 import java.util.Set;
 
 import org.intermine.sql.Database;
-import org.intermine.util.CacheMap;
+import org.intermine.util.BoundedCacheMap;
+import org.intermine.util.CacheMapFactory;
+import org.intermine.util.PropertiesUtil;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
+ * <p>
+ * As well as the optimised SQL for each exact query, the cache holds templates keyed by the query
+ * with its constants taken out (see ParameterisedSql), so that queries that differ only in their
+ * constants, such as repeated runs of a template query, are not optimised again. This can be
+ * switched off by setting the property "os.cache.optimiser.parameterised" to false.
  *
  * @author Matthew Wakeling
  */
@@ -29,6 +36,39 @@ public class OptimiserCache
     public static final int MAX_LINESETS = 1000;
     /** Number of events to happen before an expiration run. */
     public static final int EXPIRE_INTERVAL = 100;
+    /** Maximum number of original queries in the cache, if it is an lru cache. */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * Weighs a cache entry by the approximate number of bytes of SQL it holds, so that the
+     * optimiser cache can be given a budget in bytes with os.cache.optimiser.maxWeight.
+     */
+    private static final BoundedCacheMap.Weigher<String, Set<OptimiserCacheLine>> SQL_WEIGHER
+        = new BoundedCacheMap.Weigher<String, Set<OptimiserCacheLine>>() {
+            public int weigh(String original, Set<OptimiserCacheLine> lines) {
+                // Each line holds its own optimised SQL, and a reference to the original.
+                int chars = original.length();
+                if (lines != null) {
+                    for (OptimiserCacheLine line : lines) {
+                        chars += line.getOptimised().length();
+                    }
+                }
+                return 2 * chars;
+            }
+        };
+
+    private static final BoundedCacheMap.Weigher<String, Set<TemplateLine>> TEMPLATE_WEIGHER
+        = new BoundedCacheMap.Weigher<String, Set<TemplateLine>>() {
+            public int weigh(String key, Set<TemplateLine> lines) {
+                int chars = key.length();
+                if (lines != null) {
+                    for (TemplateLine line : lines) {
+                        chars += line.template.getLength();
+                    }
+                }
+                return 2 * chars;
+            }
+        };
 
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
     // given a database. We need to be careful about synchronisation in this whole class.
@@ -54,11 +94,26 @@ public class OptimiserCache
      */
     protected Map<String, Set<OptimiserCacheLine>> cacheLines;
 
+    /**
+     * A Map that holds a mapping from the key of a ParameterisedSql of an unoptimised query
+     * string (with LIMIT and OFFSET stripped off) to a Set of TemplateLine objects, or null if
+     * templates are switched off.
+     */
+    protected Map<String, Set<TemplateLine>> templateLines = null;
+
+    private int templateHits = 0;
+
     /**
      * Constructor for this object.
      */
     public OptimiserCache() {
-        cacheLines = new CacheMap<String, Set<OptimiserCacheLine>>();
+        cacheLines = CacheMapFactory.createCache("optimiser", "OptimiserCache cacheLines",
+                DEFAULT_CACHE_SIZE, SQL_WEIGHER);
+        if (!"false".equals(PropertiesUtil.getProperties().getProperty(
+                        CacheMapFactory.PROPERTY_PREFIX + ".optimiser.parameterised"))) {
+            templateLines = CacheMapFactory.createCache("optimiserTemplates",
+                    "OptimiserCache templateLines", DEFAULT_CACHE_SIZE, TEMPLATE_WEIGHER);
+        }
     }
 
     /**
@@ -66,6 +121,90 @@ public class OptimiserCache
      */
     public synchronized void flush() {
         cacheLines.clear();
+        if (templateLines != null) {
+            templateLines.clear();
+        }
+    }
+
+    /**
+     * Adds a template to the cache, if the optimised query is valid for other values of the
+     * constants in the original query.
+     *
+     * @param original the original SQL string (stripped of LIMIT and OFFSET)
+     * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
+     * @param limit the limit that was used during the optimisation
+     * @return true if a template was added
+     */
+    public synchronized boolean addTemplate(String original, String optimised, int limit) {
+        if (templateLines == null) {
+            return false;
+        }
+        if (original.toUpperCase().startsWith("EXPLAIN ")) {
+            original = original.substring(8);
+        }
+        if (optimised.toUpperCase().startsWith("EXPLAIN ")) {
+            optimised = optimised.substring(8);
+        }
+        ParameterisedSql originalSql = new ParameterisedSql(original);
+        ParameterisedSql.Template template = originalSql.createTemplate(
+                new ParameterisedSql(optimised));
+        if (template == null) {
+            return false;
+        }
+        Set<TemplateLine> lines = templateLines.get(originalSql.getKey());
+        if (lines == null) {
+            lines = new HashSet<TemplateLine>();
+        }
+        lines.add(new TemplateLine(template, limit));
+        templateLines.put(originalSql.getKey(), lines);
+        return true;
+    }
+
+    /**
+     * Attempts to find a template in the cache for a query that differs from the original query
+     * only in its constants, and binds it to the constants of the query.
+     *
+     * @param original the original SQL string (minus LIMIT and OFFSET)
+     * @param limit the limit required
+     * @return a possible optimised SQL string (minus LIMIT and OFFSET)
+     */
+    public synchronized String lookupTemplate(String original, int limit) {
+        if (templateLines == null) {
+            return null;
+        }
+        boolean originalWasExplain = false;
+        if (original.toUpperCase().startsWith("EXPLAIN ")) {
+            original = original.substring(8);
+            originalWasExplain = true;
+        }
+        ParameterisedSql originalSql = new ParameterisedSql(original);
+        Set<TemplateLine> lines = templateLines.get(originalSql.getKey());
+        if (lines == null) {
+            return null;
+        }
+        double bestScore = Double.POSITIVE_INFINITY;
+        TemplateLine bestLine = null;
+        for (TemplateLine line : lines) {
+            double score = OptimiserCacheLine.score(line.limit, limit);
+            if (score < bestScore) {
+                bestScore = score;
+                bestLine = line;
+            }
+        }
+        if (bestScore > 1.0) {
+            return null;
+        }
+        templateHits++;
+        return (originalWasExplain ? "EXPLAIN " : "") + bestLine.template.bind(originalSql);
+    }
+
+    /**
+     * Returns the number of times a template has been used to answer a lookup.
+     *
+     * @return an int
+     */
+    public synchronized int getTemplateHits() {
+        return templateHits;
     }
 
     /**
@@ -85,12 +224,13 @@ public class OptimiserCache
         Set<OptimiserCacheLine> lines = cacheLines.get(original);
         if (lines == null) {
             lines = new HashSet<OptimiserCacheLine>();
-            cacheLines.put(original, lines);
         }
 
         OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original);
 
         lines.add(line);
+        // Put the Set back every time, so that the cache can account for its new size.
+        cacheLines.put(original, lines);
     }
 
     /**
@@ -130,4 +270,18 @@ public class OptimiserCache
         //LOG.debug("Cache hit");
         return (originalWasExplain ? "EXPLAIN " : "") + bestLine.getOptimised();
     }
+
+    /**
+     * A template, and the limit it was produced for.
+     */
+    protected static class TemplateLine
+    {
+        private ParameterisedSql.Template template;
+        private int limit;
+
+        TemplateLine(ParameterisedSql.Template template, int limit) {
+            this.template = template;
+            this.limit = limit;
+        }
+    }
 }
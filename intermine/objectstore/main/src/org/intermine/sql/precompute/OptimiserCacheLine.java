@@ -46,8 +46,21 @@ public class OptimiserCacheLine
      * reasonable cut-off point to ignore the line
      */
     public double score(int limit) {
-        double limitFactor = (limit > this.limit ? Math.log(limit) - Math.log(this.limit)
-                : Math.log(this.limit) - Math.log(limit));
+        return score(this.limit, limit);
+    }
+
+    /**
+     * Scores a cache entry created with one limit according to how far away the required limit
+     * is.
+     *
+     * @param lineLimit the limit used to create the cache entry
+     * @param limit the required limit
+     * @return a double according to how close the match is. Less is better, with 1.0 as a
+     * reasonable cut-off point to ignore the entry
+     */
+    public static double score(int lineLimit, int limit) {
+        double limitFactor = (limit > lineLimit ? Math.log(limit) - Math.log(lineLimit)
+                : Math.log(lineLimit) - Math.log(limit));
         return (limitFactor / Math.log(MAX_LIMIT_FACTOR));
     }
 
@@ -0,0 +1,237 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A SQL string split into the constants it contains and the text between them, so that queries
+ * that differ only in their constants can share an entry in the OptimiserCache. String literals
+ * and unsigned numeric literals are treated as constants. Quoted identifiers, and digits that are
+ * part of an identifier, are not.
+ *
+ * @author intermine
+ */
+public class ParameterisedSql
+{
+    /** Stands in for each constant in the key. It cannot appear in SQL generated by InterMine. */
+    private static final char PLACEHOLDER = '\u0001';
+
+    private List<String> fragments = new ArrayList<String>();
+    private List<String> constants = new ArrayList<String>();
+    private String key;
+
+    /**
+     * Splits a SQL string into constants and the text between them.
+     *
+     * @param sql the SQL string
+     */
+    public ParameterisedSql(String sql) {
+        StringBuffer fragment = new StringBuffer();
+        StringBuffer keyBuffer = new StringBuffer();
+        int length = sql.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = sql.charAt(pos);
+            int end = pos + 1;
+            boolean constant = false;
+            if (c == '\'') {
+                // A string literal, in which a quote is escaped by doubling it
+                while (end < length) {
+                    if (sql.charAt(end) == '\'') {
+                        if ((end + 1 < length) && (sql.charAt(end + 1) == '\'')) {
+                            end += 2;
+                        } else {
+                            end++;
+                            break;
+                        }
+                    } else {
+                        end++;
+                    }
+                }
+                constant = true;
+            } else if (c == '"') {
+                // A quoted identifier
+                while ((end < length) && (sql.charAt(end) != '"')) {
+                    end++;
+                }
+                end = Math.min(end + 1, length);
+            } else if (isDigit(c) && ((pos == 0) || (!isIdentifierPart(sql.charAt(pos - 1))))) {
+                end = scanNumber(sql, pos);
+                constant = (end == length) || (!isIdentifierPart(sql.charAt(end)));
+            } else if (isIdentifierPart(c)) {
+                while ((end < length) && isIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+            }
+            if (constant) {
+                fragments.add(fragment.toString());
+                keyBuffer.append(fragment).append(PLACEHOLDER);
+                fragment = new StringBuffer();
+                constants.add(sql.substring(pos, end));
+            } else {
+                fragment.append(sql, pos, end);
+            }
+            pos = end;
+        }
+        fragments.add(fragment.toString());
+        keyBuffer.append(fragment);
+        key = keyBuffer.toString();
+    }
+
+    /**
+     * Returns the SQL with every constant replaced by a placeholder. Two SQL strings that differ
+     * only in their constants have the same key.
+     *
+     * @return a String
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the constants in the SQL, as they appear in the SQL, in order.
+     *
+     * @return an unmodifiable List of Strings
+     */
+    public List<String> getConstants() {
+        return Collections.unmodifiableList(constants);
+    }
+
+    /**
+     * Creates a Template that produces the given SQL when bound to the constants of this SQL,
+     * and produces the same rewrite of any other SQL with the same key when bound to that SQL's
+     * constants. A Template can only be created if each constant of this SQL is distinct, and
+     * appears in the other SQL. Otherwise the other SQL has used the value of a constant, for
+     * example by removing a constraint that a precomputed table already applies, and so is not
+     * valid for other values.
+     *
+     * @param rewritten SQL produced from this SQL, for example by the QueryOptimiser
+     * @return a Template, or null if the rewrite depends on the values of the constants
+     */
+    public Template createTemplate(ParameterisedSql rewritten) {
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = 0; i < constants.size(); i++) {
+            if (positions.put(constants.get(i), new Integer(i)) != null) {
+                return null;
+            }
+        }
+        int[] parameters = new int[rewritten.constants.size()];
+        Set<Integer> used = new HashSet<Integer>();
+        for (int i = 0; i < parameters.length; i++) {
+            Integer position = positions.get(rewritten.constants.get(i));
+            if (position == null) {
+                parameters[i] = -1;
+            } else {
+                parameters[i] = position.intValue();
+                used.add(position);
+            }
+        }
+        if (used.size() < constants.size()) {
+            return null;
+        }
+        return new Template(rewritten.fragments, rewritten.constants, parameters);
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || (c == '_') || (c == '$');
+    }
+
+    private static int scanNumber(String sql, int start) {
+        int length = sql.length();
+        int end = start;
+        while ((end < length) && isDigit(sql.charAt(end))) {
+            end++;
+        }
+        if ((end + 1 < length) && (sql.charAt(end) == '.') && isDigit(sql.charAt(end + 1))) {
+            end++;
+            while ((end < length) && isDigit(sql.charAt(end))) {
+                end++;
+            }
+        }
+        if ((end + 1 < length) && ((sql.charAt(end) == 'e') || (sql.charAt(end) == 'E'))) {
+            int exponent = end + 1;
+            if ((exponent < length) && ((sql.charAt(exponent) == '+')
+                        || (sql.charAt(exponent) == '-'))) {
+                exponent++;
+            }
+            if ((exponent < length) && isDigit(sql.charAt(exponent))) {
+                end = exponent;
+                while ((end < length) && isDigit(sql.charAt(end))) {
+                    end++;
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * A rewritten SQL string with some of its constants replaced by references to the constants
+     * of the SQL it was produced from.
+     */
+    public static class Template
+    {
+        private List<String> fragments;
+        private List<String> literals;
+        private int[] parameters;
+        private int length;
+
+        Template(List<String> fragments, List<String> literals, int[] parameters) {
+            this.fragments = fragments;
+            this.literals = literals;
+            this.parameters = parameters;
+            length = 0;
+            for (String fragment : fragments) {
+                length += fragment.length();
+            }
+        }
+
+        /**
+         * Produces the rewritten SQL for another SQL string with the same key as the one the
+         * Template was created from.
+         *
+         * @param original the other SQL string
+         * @return a SQL String
+         */
+        public String bind(ParameterisedSql original) {
+            StringBuffer retval = new StringBuffer(length + 16 * parameters.length);
+            for (int i = 0; i < parameters.length; i++) {
+                retval.append(fragments.get(i));
+                if (parameters[i] == -1) {
+                    retval.append(literals.get(i));
+                } else {
+                    retval.append(original.constants.get(parameters[i]));
+                }
+            }
+            retval.append(fragments.get(parameters.length));
+            return retval.toString();
+        }
+
+        /**
+         * Returns the approximate number of characters held by this Template.
+         *
+         * @return an int
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+}
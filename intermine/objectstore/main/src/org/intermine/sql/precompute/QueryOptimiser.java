@@ -202,6 +202,15 @@ public final class QueryOptimiser
                     + " ms - cache hit: " + query);
             return new BestQueryFallback(null, limitOffsetQuery.reconstruct(cachedQuery));
         }
+        if (!context.isVerbose()) {
+            cachedQuery = cache.lookupTemplate(limitOffsetQuery.getQuery(),
+                    limitOffsetQuery.getLimit());
+        }
+        if (cachedQuery != null) {
+            LOG.debug("Optimising query took " + ((new Date()).getTime() - start)
+                    + " ms - template cache hit: " + query);
+            return new BestQueryFallback(null, limitOffsetQuery.reconstruct(cachedQuery));
+        }
         try {
             boolean openedConnection = false;
             if (explainConnection == null) {
@@ -267,6 +276,10 @@ public final class QueryOptimiser
             LOG.debug("New cache line produced - limit = " + limitOffsetQuery.getLimit());
             cache.addCacheLine(limitOffsetQuery.getQuery(), limitOffsetOptimisedQuery.getQuery(),
                     limitOffsetQuery.getLimit());
+            if (usesOnlyConstantFreeTables(optimisedQuery, precomputedTables)) {
+                cache.addTemplate(limitOffsetQuery.getQuery(),
+                        limitOffsetOptimisedQuery.getQuery(), limitOffsetQuery.getLimit());
+            }
             LOG.debug("Optimising " + (expectedTime == 0 ? "" : expectedTime + " ms ")
                     + "query took " + ((new Date()).getTime() - start)
                     + (parseTime == 0 ? " ms without parsing " : " ms including "
@@ -289,6 +302,42 @@ public final class QueryOptimiser
         return new BestQueryFallback(originalQuery, query);
     }
 
+    /**
+     * Returns true if none of the precomputed tables used by an optimised query contain
+     * constants. A precomputed table whose definition contains constants may only have been
+     * chosen because of the values of the constants in the original query, for example one
+     * restricted to "x > 3" for a query containing "x = 5", so a rewrite that uses it must not be
+     * reused for other values.
+     *
+     * @param optimisedQuery the optimised SQL string
+     * @param precomputedTables the Set of PrecomputedTables that the optimiser chose from
+     * @return true if the rewrite does not depend on the values of constants
+     */
+    protected static boolean usesOnlyConstantFreeTables(String optimisedQuery,
+            Set<PrecomputedTable> precomputedTables) {
+        for (PrecomputedTable pt : precomputedTables) {
+            if (containsWord(optimisedQuery, pt.getName())
+                    && (!new ParameterisedSql(pt.getSQLString()).getConstants().isEmpty())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsWord(String sql, String word) {
+        int pos = sql.indexOf(word);
+        while (pos != -1) {
+            int end = pos + word.length();
+            if (((pos == 0) || (!Character.isJavaIdentifierPart(sql.charAt(pos - 1))))
+                    && ((end == sql.length())
+                        || (!Character.isJavaIdentifierPart(sql.charAt(end))))) {
+                return true;
+            }
+            pos = sql.indexOf(word, pos + 1);
+        }
+        return false;
+    }
+
     /**
      * Remaps the aliases of any table that starts with the ALIAS_PREFIX, to avoid clashes with
      * future precomputed tables.
@@ -21,14 +21,34 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.model.StringConstructor;
+import org.intermine.util.PropertiesUtil;
 import org.postgresql.PGConnection;
 import org.postgresql.copy.CopyManager;
 
 /**
  * An implementation of the BatchWriter interface that uses PostgreSQL-specific COPY commands.
+ * <p>
+ * The COPY data for large tables is encoded in parallel by a shared pool of threads, so a flush
+ * that touches many tables does not encode them one after another. The COPY commands are still
+ * sent in order over the one Connection, because the data must be written in the same transaction
+ * as everything else on that Connection, and a flush job only waits for the encoding of its own
+ * table. The number of encoding threads is set by the property
+ * "writebatch.encodingThreads". Statistics on the rows, bytes and time spent for each table are
+ * kept, and logged periodically.
  *
  * @author Matthew Wakeling
  */
@@ -39,75 +59,205 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
     protected static final BigInteger HUNDRED = new BigInteger("100");
     protected static final BigInteger THOUSAND = new BigInteger("1000");
     protected static final BigInteger TEN_THOUSAND = new BigInteger("10000");
+    /** Tables with fewer rows than this are encoded immediately rather than in the background */
+    protected static final int MIN_BACKGROUND_ROWS = 1000;
+    private static final long STATISTICS_INTERVAL = 100000;
+    private static ExecutorService encoders = null;
+
+    private ConcurrentHashMap<String, TableStatistics> tableStatistics
+        = new ConcurrentHashMap<String, TableStatistics>();
+    private AtomicLong lastStatisticsMessage = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Returns the shared pool of threads that encode COPY data, creating it if necessary.
+     *
+     * @return an ExecutorService
+     */
+    private static synchronized ExecutorService getEncoders() {
+        if (encoders == null) {
+            int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+            String threadsString = PropertiesUtil.getProperties().getProperty(
+                    "writebatch.encodingThreads");
+            if (threadsString != null) {
+                threads = Integer.parseInt(threadsString.trim());
+            }
+            final AtomicInteger threadNo = new AtomicInteger();
+            encoders = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread retval = new Thread(r, "WriteBatch Encoder - "
+                            + threadNo.incrementAndGet());
+                    retval.setDaemon(true);
+                    return retval;
+                }
+            });
+            LOG.info("Encoding COPY data with " + threads + " threads");
+        }
+        return encoders;
+    }
+
+    /**
+     * Creates a flush job that copies data into a table, encoding the data in the background if
+     * there are enough rows to make it worthwhile.
+     *
+     * @param copyManager the CopyManager to use
+     * @param sql the COPY command
+     * @param encoder a Callable that returns the COPY data
+     * @param name the name of the table
+     * @param rows the number of rows being copied
+     * @return a FlushJob
+     * @throws SQLException if the data is encoded immediately, and cannot be
+     */
+    protected FlushJob copyJob(CopyManager copyManager, String sql,
+            Callable<PostgresByteArrayOutputStream> encoder, String name,
+            int rows) throws SQLException {
+        FutureTask<PostgresByteArrayOutputStream> task
+            = new FutureTask<PostgresByteArrayOutputStream>(encoder);
+        if (rows >= MIN_BACKGROUND_ROWS) {
+            getEncoders().execute(task);
+        } else {
+            task.run();
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                // Cannot happen, as the task has already run
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new SQLException(e.getCause().toString());
+            }
+        }
+        return new FlushJobPostgresCopyImpl(copyManager, sql, task, this, name, rows);
+    }
+
+    /**
+     * Records the statistics for a COPY into a table, and logs the statistics for all tables if
+     * they have not been logged recently.
+     *
+     * @param name the name of the table
+     * @param rows the number of rows copied
+     * @param bytes the number of bytes copied
+     * @param waitTime the time spent waiting for the data to be encoded, in milliseconds
+     * @param copyTime the time spent sending the data to the database, in milliseconds
+     */
+    protected void recordCopy(String name, int rows, long bytes, long waitTime, long copyTime) {
+        TableStatistics stats = tableStatistics.get(name);
+        if (stats == null) {
+            tableStatistics.putIfAbsent(name, new TableStatistics());
+            stats = tableStatistics.get(name);
+        }
+        stats.copies.incrementAndGet();
+        stats.rows.addAndGet(rows);
+        stats.bytes.addAndGet(bytes);
+        stats.waitTime.addAndGet(waitTime);
+        stats.copyTime.addAndGet(copyTime);
+        long now = System.currentTimeMillis();
+        long last = lastStatisticsMessage.get();
+        if ((now - last > STATISTICS_INTERVAL) && lastStatisticsMessage.compareAndSet(last, now)) {
+            LOG.info("COPY statistics by table:" + getTableStatistics());
+        }
+    }
+
+    /**
+     * Returns a description of the rows, bytes and time spent copying into each table since this
+     * writer was created, one table per line.
+     *
+     * @return a String
+     */
+    public String getTableStatistics() {
+        StringBuffer retval = new StringBuffer();
+        for (Map.Entry<String, TableStatistics> entry
+                : new TreeMap<String, TableStatistics>(tableStatistics).entrySet()) {
+            retval.append("\n").append(entry.getKey()).append(": ")
+                .append(entry.getValue().toString());
+        }
+        return retval.toString();
+    }
 
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
     protected int doInserts(String name, TableBatch table, List<FlushJob> batches)
         throws SQLException {
-        String[] colNames = table.getColNames();
+        final String[] colNames = table.getColNames();
         if ((colNames != null) && (!table.getIdsToInsert().isEmpty())) {
-            try {
-                CopyManager copyManager = null;
-                if (con.isWrapperFor(PGConnection.class)) {
-                    copyManager = con.unwrap(PGConnection.class).getCopyAPI();
-                }
-                if (copyManager == null) {
-                    LOG.warn("Database with Connection " + con.getClass().getName()
-                            + " is incompatible with the PostgreSQL COPY command - falling"
-                            + " back to prepared statements");
-                    super.doInserts(name, table, batches);
-                } else {
-                    PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
-                    PostgresDataOutputStream dos = new PostgresDataOutputStream(baos);
-                    dos.writeBytes("PGCOPY\n");
-                    dos.writeByte(255);
-                    dos.writeBytes("\r\n");
-                    dos.writeByte(0); // Signature done
-                    dos.writeInt(0); // Flags - we aren't supplying OIDS
-                    dos.writeInt(0); // Length of header extension
-                    for (Map.Entry<Object, Object> insertEntry : table.getIdsToInsert()
-                            .entrySet()) {
-                        Object inserts = insertEntry.getValue();
-                        if (inserts instanceof Object[]) {
-                            Object[] values = (Object[]) inserts;
-                            dos.writeShort(colNames.length);
-                            for (int i = 0; i < colNames.length; i++) {
-                                writeObject(dos, values[i]);
-                            }
-                        } else {
-                            for (Object[] values : ((List<Object[]>) inserts)) {
-                                dos.writeShort(colNames.length);
-                                for (int i = 0; i < colNames.length; i++) {
-                                    writeObject(dos, values[i]);
-                                }
-                            }
-                        }
-                    }
-                    StringBuffer sqlBuffer = new StringBuffer("COPY ").append(name).append(" (");
-                    for (int i = 0; i < colNames.length; i++) {
-                        if (i > 0) {
-                            sqlBuffer.append(", ");
+            CopyManager copyManager = null;
+            if (con.isWrapperFor(PGConnection.class)) {
+                copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+            }
+            if (copyManager == null) {
+                LOG.warn("Database with Connection " + con.getClass().getName()
+                        + " is incompatible with the PostgreSQL COPY command - falling"
+                        + " back to prepared statements");
+                super.doInserts(name, table, batches);
+            } else {
+                // The table will be cleared before the data is encoded, but clearing the
+                // table replaces this Map rather than emptying it.
+                final Map<Object, Object> idsToInsert = table.getIdsToInsert();
+                Callable<PostgresByteArrayOutputStream> encoder
+                    = new Callable<PostgresByteArrayOutputStream>() {
+                        public PostgresByteArrayOutputStream call() throws IOException {
+                            return encodeInserts(colNames, idsToInsert);
                         }
-                        sqlBuffer.append(colNames[i]);
+                    };
+                StringBuffer sqlBuffer = new StringBuffer("COPY ").append(name).append(" (");
+                for (int i = 0; i < colNames.length; i++) {
+                    if (i > 0) {
+                        sqlBuffer.append(", ");
                     }
-                    sqlBuffer.append(") FROM STDIN BINARY");
-                    String sql = sqlBuffer.toString();
-                    dos.writeShort(-1);
-                    dos.flush();
-                    batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
-                                baos.getBuffer(), baos.size()));
+                    sqlBuffer.append(colNames[i]);
                 }
-            } catch (IOException e) {
-                throw new SQLException(e.toString());
+                sqlBuffer.append(") FROM STDIN BINARY");
+                batches.add(copyJob(copyManager, sqlBuffer.toString(), encoder, name,
+                            idsToInsert.size()));
             }
             return table.getIdsToInsert().size();
         }
         return 0;
     }
 
+    /**
+     * Encodes rows in the PostgreSQL binary COPY format.
+     *
+     * @param colNames the names of the columns
+     * @param idsToInsert a Map from id to either an array of values or a List of arrays of values
+     * @return a PostgresByteArrayOutputStream containing the data
+     * @throws IOException if a value cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    protected static PostgresByteArrayOutputStream encodeInserts(String[] colNames,
+            Map<Object, Object> idsToInsert) throws IOException {
+        PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
+        PostgresDataOutputStream dos = new PostgresDataOutputStream(baos);
+        dos.writeBytes("PGCOPY\n");
+        dos.writeByte(255);
+        dos.writeBytes("\r\n");
+        dos.writeByte(0); // Signature done
+        dos.writeInt(0); // Flags - we aren't supplying OIDS
+        dos.writeInt(0); // Length of header extension
+        for (Map.Entry<Object, Object> insertEntry : idsToInsert.entrySet()) {
+            Object inserts = insertEntry.getValue();
+            if (inserts instanceof Object[]) {
+                Object[] values = (Object[]) inserts;
+                dos.writeShort(colNames.length);
+                for (int i = 0; i < colNames.length; i++) {
+                    writeObject(dos, values[i]);
+                }
+            } else {
+                for (Object[] values : ((List<Object[]>) inserts)) {
+                    dos.writeShort(colNames.length);
+                    for (int i = 0; i < colNames.length; i++) {
+                        writeObject(dos, values[i]);
+                    }
+                }
+            }
+        }
+        dos.writeShort(-1);
+        dos.flush();
+        return baos;
+    }
+
     // TODO: Add support for UUID.
     private static void writeObject(PostgresDataOutputStream dos, Object o) throws IOException {
         if (o == null) {
@@ -199,45 +349,60 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
     protected int doIndirectionInserts(String name,
             IndirectionTableBatch table, List<FlushJob> batches) throws SQLException {
         if (!table.getRowsToInsert().isEmpty()) {
-            try {
-                CopyManager copyManager = null;
-                if (con.isWrapperFor(PGConnection.class)) {
-                    copyManager = con.unwrap(PGConnection.class).getCopyAPI();
-                }
-                if (copyManager == null) {
-                    LOG.warn("Database is incompatible with the PostgreSQL COPY command - falling"
-                            + " back to prepared statements");
-                    super.doIndirectionInserts(name, table, batches);
-                } else {
-                    PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    dos.writeBytes("PGCOPY\n");
-                    dos.writeByte(255);
-                    dos.writeBytes("\r\n");
-                    dos.writeByte(0); // Signature done
-                    dos.writeInt(0); // Flags - we aren't supplying OIDS
-                    dos.writeInt(0); // Length of header extension
-                    for (Row row : table.getRowsToInsert()) {
-                        dos.writeShort(2);
-                        dos.writeInt(4);
-                        dos.writeInt(row.getLeft());
-                        dos.writeInt(4);
-                        dos.writeInt(row.getRight());
-                    }
-                    String sql = "COPY " + name + " (" + table.getLeftColName() + ", "
-                        + table.getRightColName() + ") FROM STDIN BINARY";
-                    dos.writeShort(-1);
-                    dos.flush();
-                    batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
-                                baos.getBuffer(), baos.size()));
-                }
-            } catch (IOException e) {
-                throw new SQLException(e.toString());
+            CopyManager copyManager = null;
+            if (con.isWrapperFor(PGConnection.class)) {
+                copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+            }
+            if (copyManager == null) {
+                LOG.warn("Database is incompatible with the PostgreSQL COPY command - falling"
+                        + " back to prepared statements");
+                super.doIndirectionInserts(name, table, batches);
+            } else {
+                // As with doInserts, clearing the table replaces this Set
+                final Set<Row> rowsToInsert = table.getRowsToInsert();
+                Callable<PostgresByteArrayOutputStream> encoder
+                    = new Callable<PostgresByteArrayOutputStream>() {
+                        public PostgresByteArrayOutputStream call() throws IOException {
+                            return encodeIndirectionInserts(rowsToInsert);
+                        }
+                    };
+                String sql = "COPY " + name + " (" + table.getLeftColName() + ", "
+                    + table.getRightColName() + ") FROM STDIN BINARY";
+                batches.add(copyJob(copyManager, sql, encoder, name, rowsToInsert.size()));
             }
         }
         return table.getRowsToInsert().size();
     }
 
+    /**
+     * Encodes rows of an indirection table in the PostgreSQL binary COPY format.
+     *
+     * @param rowsToInsert a Set of Rows
+     * @return a PostgresByteArrayOutputStream containing the data
+     * @throws IOException if the data cannot be written
+     */
+    protected static PostgresByteArrayOutputStream encodeIndirectionInserts(Set<Row> rowsToInsert)
+        throws IOException {
+        PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeBytes("PGCOPY\n");
+        dos.writeByte(255);
+        dos.writeBytes("\r\n");
+        dos.writeByte(0); // Signature done
+        dos.writeInt(0); // Flags - we aren't supplying OIDS
+        dos.writeInt(0); // Length of header extension
+        for (Row row : rowsToInsert) {
+            dos.writeShort(2);
+            dos.writeInt(4);
+            dos.writeInt(row.getLeft());
+            dos.writeInt(4);
+            dos.writeInt(row.getRight());
+        }
+        dos.writeShort(-1);
+        dos.flush();
+        return baos;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -256,4 +421,25 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
             throw new SQLException("No results");
         }
     }
+
+    /**
+     * Counters of the COPY operations into one table.
+     */
+    private static class TableStatistics
+    {
+        private AtomicLong copies = new AtomicLong();
+        private AtomicLong rows = new AtomicLong();
+        private AtomicLong bytes = new AtomicLong();
+        private AtomicLong waitTime = new AtomicLong();
+        private AtomicLong copyTime = new AtomicLong();
+
+        @Override
+        public String toString() {
+            long time = copyTime.get();
+            return rows.get() + " rows, " + bytes.get() + " bytes in " + copies.get()
+                + " copies, " + time + " ms copying (" + (time == 0 ? "-" : "" + (rows.get()
+                            * 1000 / time)) + " rows/s), " + waitTime.get()
+                + " ms waiting for encoding";
+        }
+    }
 }
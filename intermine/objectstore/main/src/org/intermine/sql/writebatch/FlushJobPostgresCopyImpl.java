@@ -13,11 +13,16 @@ package org.intermine.sql.writebatch;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.postgresql.copy.CopyManager;
 
 /**
  * An implementation of the FlushJob interface that represents a batch created in a Statement.
+ * <p>
+ * The COPY data may be supplied as a Future, in which case it is being encoded in the background
+ * and this job waits for it when flushed.
  *
  * @author Matthew Wakeling
  */
@@ -27,6 +32,10 @@ public class FlushJobPostgresCopyImpl implements FlushJob
     private String sql;
     private byte[] data;
     private int size;
+    private Future<PostgresByteArrayOutputStream> pending = null;
+    private BatchWriterPostgresCopyImpl writer = null;
+    private String tableName = null;
+    private int rows = 0;
 
     /**
      * Constructor for this class
@@ -43,12 +52,46 @@ public class FlushJobPostgresCopyImpl implements FlushJob
         this.size = size;
     }
 
+    /**
+     * Constructor for this class that reports the progress of the copy to the writer that created
+     * it.
+     *
+     * @param copyManager the CopyManager to use
+     * @param sql the SQL String containing the COPY command
+     * @param pending a Future that will return the COPY data
+     * @param writer the BatchWriterPostgresCopyImpl to report statistics to
+     * @param tableName the name of the table being copied into
+     * @param rows the number of rows being copied
+     */
+    public FlushJobPostgresCopyImpl(CopyManager copyManager, String sql,
+            Future<PostgresByteArrayOutputStream> pending, BatchWriterPostgresCopyImpl writer,
+            String tableName, int rows) {
+        this.copyManager = copyManager;
+        this.sql = sql;
+        this.pending = pending;
+        this.writer = writer;
+        this.tableName = tableName;
+        this.rows = rows;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void flush() throws SQLException {
         try {
+            long start = System.currentTimeMillis();
+            if (pending != null) {
+                PostgresByteArrayOutputStream baos = pending.get();
+                data = baos.getBuffer();
+                size = baos.size();
+                pending = null;
+            }
+            long encoded = System.currentTimeMillis();
             copyManager.copyIn(sql, new ByteArrayInputStream(data, 0, size));
+            if (writer != null) {
+                writer.recordCopy(tableName, rows, size, encoded - start,
+                        System.currentTimeMillis() - encoded);
+            }
             copyManager = null;
             sql = null;
             data = null;
@@ -62,6 +105,15 @@ public class FlushJobPostgresCopyImpl implements FlushJob
                     + sql + ", data size = " + size);
             e2.initCause(e);
             throw e2;
+        } catch (ExecutionException e) {
+            SQLException e2 = new SQLException("Error encoding data for statement " + sql);
+            e2.initCause(e.getCause());
+            throw e2;
+        } catch (InterruptedException e) {
+            SQLException e2 = new SQLException("Interrupted while encoding data for statement "
+                    + sql);
+            e2.initCause(e);
+            throw e2;
         }
     }
 }
@@ -123,11 +123,13 @@ public class IndirectionTableBatch implements Table
     }
 
     /**
-     * Clears the batch.
+     * Clears the batch. The Sets previously returned by getRowsToInsert() and getRowsToDelete()
+     * are replaced rather than emptied, so a BatchWriter may carry on reading them in the
+     * background after the batch has been cleared.
      */
     public void clear() {
-        rowsToInsert.clear();
-        rowsToDelete.clear();
+        rowsToInsert = new TreeSet<Row>();
+        rowsToDelete = new TreeSet<Row>();
         size = 0;
     }
 
@@ -183,14 +183,16 @@ public class TableBatch implements Table
     }
 
     /**
-     * Clears the batch.
+     * Clears the batch. The collections previously returned by getIdsToInsert() and
+     * getIdsToDelete() are replaced rather than emptied, so a BatchWriter may carry on reading
+     * them in the background after the batch has been cleared.
      */
     public void clear() {
         if (idsToDelete != null) {
-            idsToDelete.clear();
+            idsToDelete = new TreeSet<Object>(NullFirstComparator.SINGLETON);
         }
         if (idsToInsert != null) {
-            idsToInsert.clear();
+            idsToInsert = new TreeMap<Object, Object>(NullFirstComparator.SINGLETON);
         }
         size = 0;
     }
@@ -94,6 +94,7 @@ public class StoreMetadataTask extends Task
             String missingTablesString = props.getProperty("missingTables");
             String truncatedClassesString = props.getProperty("truncatedClasses");
             String noNotXmlString = props.getProperty("noNotXml");
+            String binaryObjectsString = props.getProperty("binaryObjects");
 
             boolean noNotXml = false;
             if ("true".equals(noNotXmlString) || (noNotXmlString == null)) {
@@ -104,6 +105,13 @@ public class StoreMetadataTask extends Task
                 throw new BuildException("Invalid value for property noNotXml: "
                         + noNotXmlString);
             }
+            boolean binaryObjects = false;
+            if ("true".equals(binaryObjectsString)) {
+                binaryObjects = true;
+            } else if (!((binaryObjectsString == null) || "false".equals(binaryObjectsString))) {
+                throw new BuildException("Invalid value for property binaryObjects: "
+                        + binaryObjectsString);
+            }
 
             MetadataManager.store(db, MetadataManager.OS_FORMAT_VERSION, "" + FORMAT_VERSION);
             if (truncatedClassesString != null) {
@@ -114,6 +122,7 @@ public class StoreMetadataTask extends Task
                 MetadataManager.store(db, MetadataManager.MISSING_TABLES, missingTablesString);
             }
             MetadataManager.store(db, MetadataManager.NO_NOTXML, "" + noNotXml);
+            MetadataManager.store(db, MetadataManager.BINARY_OBJECTS, "" + binaryObjects);
             MetadataManager.store(db, MetadataManager.SERIAL_NUMBER, Long.toString(
                     new Random().nextLong()));
         } catch (Exception e) {
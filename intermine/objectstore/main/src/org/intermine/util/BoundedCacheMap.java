@@ -0,0 +1,393 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Map implementation designed for caches that must stay within a fixed budget. Unlike CacheMap,
+ * the values are held strongly, and the least recently used entries are evicted as soon as the
+ * number of entries or the total weight of the entries exceeds the configured maximum, so a full
+ * garbage collection never empties the whole cache at once.
+ * <p>
+ * The Map is split into a number of independently-locked segments, each of which is an LRU map
+ * with its share of the budget, so concurrent threads using different keys rarely contend. Null
+ * values are permitted, so that a cache can remember that something does not exist. Counters of
+ * hits, misses and evictions are kept.
+ * <p>
+ * The keySet(), values() and entrySet() methods return unmodifiable snapshots.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @author intermine
+ */
+public class BoundedCacheMap<K, V> implements Map<K, V>
+{
+    private static final Object NULL_VALUE = new Object();
+    private static final int MIN_SEGMENT_ENTRIES = 16;
+
+    private final String name;
+    private final Weigher<? super K, ? super V> weigher;
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a new, empty BoundedCacheMap limited only by the number of entries.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maxEntries the maximum number of entries
+     * @param concurrency the number of segments to split the map into
+     */
+    public BoundedCacheMap(String name, int maxEntries, int concurrency) {
+        this(name, maxEntries, Long.MAX_VALUE, null, concurrency);
+    }
+
+    /**
+     * Constructs a new, empty BoundedCacheMap limited by both the number of entries and their
+     * total weight.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maxEntries the maximum number of entries
+     * @param maxWeight the maximum total weight of all entries
+     * @param weigher a Weigher used to calculate the weight of each entry, or null to give every
+     * entry a weight of one
+     * @param concurrency the number of segments to split the map into
+     * @throws IllegalArgumentException if maxEntries, maxWeight or concurrency are not positive
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCacheMap(String name, int maxEntries, long maxWeight,
+            Weigher<? super K, ? super V> weigher, int concurrency) {
+        if ((maxEntries <= 0) || (maxWeight <= 0) || (concurrency <= 0)) {
+            throw new IllegalArgumentException("Invalid limits for cache " + name
+                    + ": maxEntries = " + maxEntries + ", maxWeight = " + maxWeight
+                    + ", concurrency = " + concurrency);
+        }
+        this.name = name;
+        this.weigher = weigher;
+        int segmentCount = 1;
+        while ((segmentCount < concurrency)
+                && (maxEntries / (segmentCount * 2) >= MIN_SEGMENT_ENTRIES)) {
+            segmentCount *= 2;
+        }
+        segments = new BoundedCacheMap.Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / segmentCount),
+                    Math.max(1L, maxWeight / segmentCount));
+        }
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = (key == null ? 0 : key.hashCode());
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        int retval = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                retval += segment.size();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsKey(Object key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsValue(Object value) {
+        for (V existing : values()) {
+            if ((value == null ? existing == null : value.equals(existing))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return (entry.value == NULL_VALUE ? null : (V) entry.value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int weight = (weigher == null ? 1 : weigher.weigh(key, value));
+        Entry entry = new Entry(value == null ? NULL_VALUE : value, weight);
+        Segment segment = segmentFor(key);
+        Entry old;
+        synchronized (segment) {
+            old = segment.put(key, entry);
+            segment.weight += weight;
+            if (old != null) {
+                segment.weight -= old.weight;
+            }
+            segment.evict();
+        }
+        return ((old == null) || (old.value == NULL_VALUE) ? null : (V) old.value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        Segment segment = segmentFor(key);
+        Entry old;
+        synchronized (segment) {
+            old = segment.remove(key);
+            if (old != null) {
+                segment.weight -= old.weight;
+            }
+        }
+        return ((old == null) || (old.value == NULL_VALUE) ? null : (V) old.value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void putAll(Map<? extends K, ? extends V> t) {
+        for (Map.Entry<? extends K, ? extends V> entry : t.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the keys in this map.
+     *
+     * @return an unmodifiable Set
+     */
+    public Set<K> keySet() {
+        Set<K> retval = new HashSet<K>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                retval.addAll(segment.keySet());
+            }
+        }
+        return Collections.unmodifiableSet(retval);
+    }
+
+    /**
+     * Returns a snapshot of the values in this map.
+     *
+     * @return an unmodifiable Collection
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<V> values() {
+        List<V> retval = new ArrayList<V>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Entry entry : segment.values()) {
+                    retval.add(entry.value == NULL_VALUE ? null : (V) entry.value);
+                }
+            }
+        }
+        return Collections.unmodifiableList(retval);
+    }
+
+    /**
+     * Returns a snapshot of the entries in this map.
+     *
+     * @return an unmodifiable Set
+     */
+    @SuppressWarnings("unchecked")
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> retval = new HashMap<K, V>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<K, Entry> entry : segment.entrySet()) {
+                    Object value = entry.getValue().value;
+                    retval.put(entry.getKey(), (value == NULL_VALUE ? null : (V) value));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(retval).entrySet();
+    }
+
+    /**
+     * Returns the total weight of all the entries in the map.
+     *
+     * @return a long
+     */
+    public long getWeight() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                retval += segment.weight;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of calls to get() that found an entry.
+     *
+     * @return a long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of calls to get() that did not find an entry.
+     *
+     * @return a long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to stay within the budget.
+     *
+     * @return a long
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns a summary of the size of the cache and its counters, suitable for logging.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        return name + ": size = " + size() + ", weight = " + getWeight() + ", hits = "
+            + getHits() + ", misses = " + getMisses() + ", evictions = " + getEvictions();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getStatistics();
+    }
+
+    /**
+     * Calculates the weight of an entry in a BoundedCacheMap, for example an estimate of its size
+     * in bytes.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @author intermine
+     */
+    public interface Weigher<K, V>
+    {
+        /**
+         * Returns the weight of an entry.
+         *
+         * @param key the key
+         * @param value the value, which may be null
+         * @return a positive int
+         */
+        int weigh(K key, V value);
+    }
+
+    private static final class Entry
+    {
+        private final Object value;
+        private final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<K, Entry>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+        private final long maxWeight;
+        private long weight = 0;
+
+        Segment(int maxEntries, long maxWeight) {
+            super(16, 0.75F, true);
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Removes least recently used entries until this segment is within its budget. A single
+         * entry is always kept, even if it is on its own over the weight budget.
+         */
+        void evict() {
+            Iterator<Entry> iter = values().iterator();
+            while (((size() > maxEntries) || (weight > maxWeight)) && (size() > 1)) {
+                Entry eldest = iter.next();
+                iter.remove();
+                weight -= eldest.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the Maps used by the ObjectStore for caching, configured from the global properties.
+ * The following properties are read, where NAME is the name of the cache (for example
+ * "objects", "results", "batches" or "optimiser"):
+ * <ul>
+ * <li><tt>os.cache.type</tt> or <tt>os.cache.NAME.type</tt> - "soft" (the default) for a CacheMap
+ * that the garbage collector may empty, or "lru" for a BoundedCacheMap</li>
+ * <li><tt>os.cache.NAME.maxEntries</tt> - the maximum number of entries of an lru cache</li>
+ * <li><tt>os.cache.NAME.maxWeight</tt> - the maximum total weight of an lru cache, where the
+ * cache has a Weigher (for example approximate bytes of SQL for the optimiser cache)</li>
+ * <li><tt>os.cache.concurrency</tt> - the number of independently-locked segments of an lru
+ * cache</li>
+ * </ul>
+ * Every Map returned is safe to use from multiple threads.
+ *
+ * @author intermine
+ */
+public final class CacheMapFactory
+{
+    private static final Logger LOG = Logger.getLogger(CacheMapFactory.class);
+
+    /** The prefix of the properties read by this class. */
+    public static final String PROPERTY_PREFIX = "os.cache";
+    /** The default number of segments of an lru cache. */
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    private CacheMapFactory() {
+    }
+
+    /**
+     * Creates a cache Map with no Weigher.
+     *
+     * @param cacheName the name used to look up properties for this cache
+     * @param description a description of the cache - printed out in log messages
+     * @param defaultMaxEntries the maximum number of entries of an lru cache if not configured
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a thread-safe Map
+     */
+    public static <K, V> Map<K, V> createCache(String cacheName, String description,
+            int defaultMaxEntries) {
+        return createCache(cacheName, description, defaultMaxEntries, null);
+    }
+
+    /**
+     * Creates a cache Map.
+     *
+     * @param cacheName the name used to look up properties for this cache
+     * @param description a description of the cache - printed out in log messages
+     * @param defaultMaxEntries the maximum number of entries of an lru cache if not configured
+     * @param weigher a Weigher for the entries of an lru cache, or null
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a thread-safe Map
+     * @throws IllegalArgumentException if the properties are invalid
+     */
+    public static <K, V> Map<K, V> createCache(String cacheName, String description,
+            int defaultMaxEntries, BoundedCacheMap.Weigher<? super K, ? super V> weigher) {
+        Properties props = PropertiesUtil.stripStart(PROPERTY_PREFIX,
+                PropertiesUtil.getPropertiesStartingWith(PROPERTY_PREFIX));
+        String type = props.getProperty(cacheName + ".type", props.getProperty("type", "soft"));
+        if ("soft".equals(type)) {
+            return Collections.synchronizedMap(new CacheMap<K, V>(description));
+        } else if ("lru".equals(type)) {
+            int maxEntries = getInt(props, cacheName + ".maxEntries", defaultMaxEntries);
+            long maxWeight = Long.MAX_VALUE;
+            String maxWeightString = props.getProperty(cacheName + ".maxWeight");
+            if (maxWeightString != null) {
+                try {
+                    maxWeight = Long.parseLong(maxWeightString);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for property "
+                            + PROPERTY_PREFIX + "." + cacheName + ".maxWeight: "
+                            + maxWeightString, e);
+                }
+            }
+            int concurrency = getInt(props, "concurrency", DEFAULT_CONCURRENCY);
+            LOG.debug("Creating lru cache " + description + " with maxEntries = " + maxEntries
+                    + ", maxWeight = " + maxWeight + ", concurrency = " + concurrency);
+            return new BoundedCacheMap<K, V>(description, maxEntries, maxWeight, weigher,
+                    concurrency);
+        } else {
+            throw new IllegalArgumentException("Invalid value for property " + PROPERTY_PREFIX
+                    + "." + cacheName + ".type: " + type + " - should be soft or lru");
+        }
+    }
+
+    private static int getInt(Properties props, String name, int defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for property " + PROPERTY_PREFIX
+                    + "." + name + ": " + value, e);
+        }
+    }
+}
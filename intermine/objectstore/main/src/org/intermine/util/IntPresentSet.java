@@ -10,16 +10,21 @@ package org.intermine.util;
  *
  */
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * This is a set of ints. This class provides methods to insert an int, check for the presence of a
  * given int, and remove an int from the set. This class is designed to use as little RAM as
  * possible, and assumes that the ints are reasonably closely-spaced. In the case where the ints
  * are consecutive, this class will use not much more than an eighth of a byte per mapping.
+ * <p>
+ * This class is safe to use from multiple threads. Reads do not lock, and writes only lock one of
+ * a number of stripes, so threads working on different parts of the set rarely contend.
  *
  * @author Matthew Wakeling
  */
@@ -29,14 +34,26 @@ public class IntPresentSet
     private static final int WORD_MASK = WORD_SIZE - 1;
     private static final int PAGE_SIZE = 0x2000; // Number of words per page
     private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int STRIPES = 64;
 
-    private Map<Integer, int[]> pages = new HashMap<Integer, int[]>();
-    private int size = 0;
+    private ConcurrentHashMap<Integer, AtomicIntegerArray> pages
+        = new ConcurrentHashMap<Integer, AtomicIntegerArray>();
+    private AtomicInteger size = new AtomicInteger();
+    private Object[] locks = new Object[STRIPES];
 
     /**
      * Constructor for this class. Creates an empty map.
      */
     public IntPresentSet() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(int pageNo) {
+        int h = pageNo;
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return locks[h & (STRIPES - 1)];
     }
 
     /**
@@ -49,31 +66,34 @@ public class IntPresentSet
         int bitNo = i & WORD_MASK;
         i /= WORD_SIZE;
         int wordNo = i & PAGE_MASK;
-        Integer pageNo = new Integer(i / PAGE_SIZE);
-        int[] page = pages.get(pageNo);
-        if (page == null) {
-            page = new int[PAGE_SIZE + 1];
-            for (int o = 0; o <= PAGE_SIZE; o++) {
-                page[o] = 0;
-            }
-            pages.put(pageNo, page);
-        }
-        int bitMask = 1 << bitNo;
-        int word = page[wordNo];
-        boolean oldBit = ((word & bitMask) != 0);
-        if (oldBit != newBit) {
-            if (newBit) {
-                word = word | bitMask;
-                size++;
-                page[PAGE_SIZE]++;
-            } else {
-                word = word & (~bitMask);
-                size--;
-                page[PAGE_SIZE]--;
+        int pageNoInt = i / PAGE_SIZE;
+        Integer pageNo = new Integer(pageNoInt);
+        synchronized (lockFor(pageNoInt)) {
+            AtomicIntegerArray page = pages.get(pageNo);
+            if (page == null) {
+                if (!newBit) {
+                    return;
+                }
+                page = new AtomicIntegerArray(PAGE_SIZE + 1);
+                pages.put(pageNo, page);
             }
-            page[wordNo] = word;
-            if (page[PAGE_SIZE] == 0) {
-                pages.remove(pageNo);
+            int bitMask = 1 << bitNo;
+            int word = page.get(wordNo);
+            boolean oldBit = ((word & bitMask) != 0);
+            if (oldBit != newBit) {
+                if (newBit) {
+                    word = word | bitMask;
+                    size.incrementAndGet();
+                    page.incrementAndGet(PAGE_SIZE);
+                } else {
+                    word = word & (~bitMask);
+                    size.decrementAndGet();
+                    page.decrementAndGet(PAGE_SIZE);
+                }
+                page.set(wordNo, word);
+                if (page.get(PAGE_SIZE) == 0) {
+                    pages.remove(pageNo);
+                }
             }
         }
     }
@@ -89,12 +109,12 @@ public class IntPresentSet
         i /= WORD_SIZE;
         int wordNo = i & PAGE_MASK;
         Integer pageNo = new Integer(i / PAGE_SIZE);
-        int[] page = pages.get(pageNo);
+        AtomicIntegerArray page = pages.get(pageNo);
         if (page == null) {
             return false;
         }
         int bitMask = 1 << bitNo;
-        int word = page[wordNo];
+        int word = page.get(wordNo);
         return ((word & bitMask) != 0);
     }
 
@@ -131,15 +151,21 @@ public class IntPresentSet
      * @return the size
      */
     public int size() {
-        return size;
+        return size.get();
     }
 
     /**
      * Removes all ints from the object.
      */
     public void clear() {
-        pages.clear();
-        size = 0;
+        for (Integer pageNo : new ArrayList<Integer>(pages.keySet())) {
+            synchronized (lockFor(pageNo.intValue())) {
+                AtomicIntegerArray page = pages.remove(pageNo);
+                if (page != null) {
+                    size.addAndGet(-page.get(PAGE_SIZE));
+                }
+            }
+        }
     }
 
     /**
@@ -154,9 +180,12 @@ public class IntPresentSet
         while (keyIter.hasNext()) {
             Integer pageNo = keyIter.next();
             int pageNoInt = pageNo.intValue();
-            int[] page = pages.get(pageNo);
+            AtomicIntegerArray page = pages.get(pageNo);
+            if (page == null) {
+                continue;
+            }
             for (int wordNo = 0; wordNo < PAGE_SIZE; wordNo++) {
-                int word = page[wordNo];
+                int word = page.get(wordNo);
                 if (word != 0) {
                     int bitMask = 1;
                     for (int bitNo = 0; bitNo < WORD_SIZE; bitNo++) {
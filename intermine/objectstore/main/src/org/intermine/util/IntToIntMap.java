@@ -10,10 +10,17 @@ package org.intermine.util;
  *
  */
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * This is a map that maps from int to int. All non-existent mappings automatically map onto -1 -
@@ -21,6 +28,13 @@ import java.util.TreeSet;
  * possible, and assumes that the mappings are from reasonably closely-spaced ints. In the case
  * where the mappings are from consecutive ints, this class will use not much more than four bytes
  * per mapping.
+ * <p>
+ * This class is safe to use from multiple threads. Reads do not lock, and writes only lock one of
+ * a number of stripes, so threads working on different parts of the map rarely contend.
+ * <p>
+ * For very large maps, the map can be created with a spill file, in which case only a limited
+ * number of pages are held on the Java heap, and the rest are memory-mapped from the file so the
+ * operating system can page them in and out.
  *
  * @author Matthew Wakeling
  */
@@ -29,14 +43,50 @@ public class IntToIntMap
     private static final int INNER_MASK = 0x1fff;
     private static final int OUTER_MASK = ~INNER_MASK;
     private static final int PAGE_SIZE = INNER_MASK + 1;
+    private static final int PAGE_BYTES = PAGE_SIZE * 4;
+    private static final int STRIPES = 64;
 
-    private Map<Integer, int[]> pages = new HashMap<Integer, int[]>();
-    private int size = 0;
+    private ConcurrentHashMap<Integer, Page> pages = new ConcurrentHashMap<Integer, Page>();
+    private AtomicInteger size = new AtomicInteger();
+    private Object[] locks = new Object[STRIPES];
+
+    private File spillFile = null;
+    private RandomAccessFile spillRaf = null;
+    private int maxHeapPages = Integer.MAX_VALUE;
+    private AtomicInteger heapPages = new AtomicInteger();
+    private AtomicInteger mappedPages = new AtomicInteger();
 
     /**
      * Constructor for this class. Creates an empty map.
      */
     public IntToIntMap() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Constructor for this class. Creates an empty map that holds at most maxHeapPages pages of
+     * 8192 mappings on the Java heap, and memory-maps any further pages from the given file. The
+     * file is created or truncated, and is deleted when close() is called or the JVM exits.
+     *
+     * @param spillFile the file to hold the pages that do not fit on the heap
+     * @param maxHeapPages the maximum number of pages to hold on the heap
+     * @throws IOException if the file cannot be created
+     */
+    public IntToIntMap(File spillFile, int maxHeapPages) throws IOException {
+        this();
+        this.spillFile = spillFile;
+        this.maxHeapPages = maxHeapPages;
+        spillRaf = new RandomAccessFile(spillFile, "rw");
+        spillRaf.setLength(0);
+        spillFile.deleteOnExit();
+    }
+
+    private Object lockFor(int pageNo) {
+        int h = pageNo >>> 13;
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return locks[h & (STRIPES - 1)];
     }
 
     /**
@@ -45,29 +95,34 @@ public class IntToIntMap
      * @param from any int
      * @param to any int - or -1 to effectively remove the mapping
      */
-    public synchronized void put(int from, int to) {
-        Integer pageNo = new Integer(from & OUTER_MASK);
-        int[] page = pages.get(pageNo);
-        if (page == null) {
-            page = new int[PAGE_SIZE + 1];
-            for (int i = 0; i < PAGE_SIZE; i++) {
-                page[i] = -1;
+    public void put(int from, int to) {
+        int pageNoInt = from & OUTER_MASK;
+        Integer pageNo = new Integer(pageNoInt);
+        synchronized (lockFor(pageNoInt)) {
+            Page page = pages.get(pageNo);
+            if (page == null) {
+                if (to == -1) {
+                    return;
+                }
+                page = newPage();
+                pages.put(pageNo, page);
+            }
+            int old = page.get(from & INNER_MASK);
+            page.set(from & INNER_MASK, to);
+            if (old != -1) {
+                size.decrementAndGet();
+                page.count--;
+            }
+            if (to != -1) {
+                size.incrementAndGet();
+                page.count++;
+            }
+            if ((page.count == 0) && (page instanceof HeapPage)) {
+                // Memory-mapped pages are kept, as they cost no heap and a reader may be using
+                // them, so they can never be given to a different part of the map.
+                pages.remove(pageNo);
+                heapPages.decrementAndGet();
             }
-            page[PAGE_SIZE] = 0;
-            pages.put(pageNo, page);
-        }
-        int old = page[from & INNER_MASK];
-        page[from & INNER_MASK] = to;
-        if (old != -1) {
-            size--;
-            page[PAGE_SIZE]--;
-        }
-        if (to != -1) {
-            size++;
-            page[PAGE_SIZE]++;
-        }
-        if (page[PAGE_SIZE] == 0) {
-            pages.remove(pageNo);
         }
     }
 
@@ -77,13 +132,13 @@ public class IntToIntMap
      * @param from any int
      * @return an int - -1 if there is no mapping present that matches
      */
-    public synchronized int get(int from) {
+    public int get(int from) {
         Integer pageNo = new Integer(from & OUTER_MASK);
-        int[] page = pages.get(pageNo);
+        Page page = pages.get(pageNo);
         if (page == null) {
             return -1;
         }
-        return page[from & INNER_MASK];
+        return page.get(from & INNER_MASK);
     }
 
     /**
@@ -130,23 +185,85 @@ public class IntToIntMap
      *
      * @return the size
      */
-    public synchronized int size() {
-        return size;
+    public int size() {
+        return size.get();
     }
 
     /**
      * Removes all mappings from the object.
      */
-    public synchronized void clear() {
-        pages.clear();
-        size = 0;
+    public void clear() {
+        for (Integer pageNo : new ArrayList<Integer>(pages.keySet())) {
+            synchronized (lockFor(pageNo.intValue())) {
+                Page page = pages.get(pageNo);
+                if (page != null) {
+                    size.addAndGet(-page.count);
+                    page.count = 0;
+                    if (page instanceof HeapPage) {
+                        pages.remove(pageNo);
+                        heapPages.decrementAndGet();
+                    } else {
+                        for (int i = 0; i < PAGE_SIZE; i++) {
+                            page.set(i, -1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all mappings from the object, and deletes the spill file if there is one. The map
+     * must not be used after this method has been called.
+     *
+     * @throws IOException if the spill file cannot be closed
+     */
+    public void close() throws IOException {
+        clear();
+        if (spillRaf != null) {
+            pages.clear();
+            spillRaf.close();
+            spillRaf = null;
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pages that are memory-mapped from the spill file.
+     *
+     * @return an int
+     */
+    public int getMappedPageCount() {
+        return mappedPages.get();
+    }
+
+    private Page newPage() {
+        if ((spillRaf == null) || (heapPages.get() < maxHeapPages)) {
+            heapPages.incrementAndGet();
+            return new HeapPage();
+        }
+        long offset = ((long) mappedPages.getAndIncrement()) * PAGE_BYTES;
+        MappedPage retval;
+        try {
+            retval = new MappedPage(spillRaf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        offset, PAGE_BYTES).asIntBuffer());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not extend IntToIntMap spill file "
+                    + spillFile, e);
+        }
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            retval.set(i, -1);
+        }
+        return retval;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized String toString() {
+    public String toString() {
         StringBuffer retval = new StringBuffer("{");
         boolean needComma = false;
         TreeSet<Integer> sortedKeys = new TreeSet<Integer>(pages.keySet());
@@ -154,18 +271,82 @@ public class IntToIntMap
         while (keyIter.hasNext()) {
             Integer pageNo = keyIter.next();
             int pageNoInt = pageNo.intValue();
-            int[] page = pages.get(pageNo);
+            Page page = pages.get(pageNo);
+            if (page == null) {
+                continue;
+            }
             for (int i = 0; i < PAGE_SIZE; i++) {
-                if (page[i] != -1) {
+                int to = page.get(i);
+                if (to != -1) {
                     if (needComma) {
                         retval.append(", ");
                     }
                     needComma = true;
-                    retval.append((pageNoInt + i) + " -> " + page[i]);
+                    retval.append((pageNoInt + i) + " -> " + to);
                 }
             }
         }
         retval.append("}");
         return retval.toString();
     }
+
+    /**
+     * A page of PAGE_SIZE mappings. The count is only accessed while holding the stripe lock for
+     * the page.
+     */
+    private abstract static class Page
+    {
+        int count = 0;
+
+        abstract int get(int index);
+
+        abstract void set(int index, int value);
+    }
+
+    /**
+     * A page held on the heap, which can be read without locking.
+     */
+    private static final class HeapPage extends Page
+    {
+        private final AtomicIntegerArray values = new AtomicIntegerArray(PAGE_SIZE);
+
+        HeapPage() {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                values.lazySet(i, -1);
+            }
+        }
+
+        @Override
+        int get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        void set(int index, int value) {
+            values.set(index, value);
+        }
+    }
+
+    /**
+     * A page memory-mapped from the spill file. An IntBuffer gives no guarantee of visibility
+     * between threads, so access to it is synchronised.
+     */
+    private static final class MappedPage extends Page
+    {
+        private final IntBuffer values;
+
+        MappedPage(IntBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        synchronized int get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        synchronized void set(int index, int value) {
+            values.put(index, value);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Types;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.util.DynamicUtil;
+
+public class BinaryObjectFormatTest extends TestCase
+{
+    ObjectStoreInterMineImpl os;
+
+    public void setUp() throws Exception {
+        os = (ObjectStoreInterMineImpl) ObjectStoreFactory.getObjectStore("os.unittest");
+    }
+
+    public void testRoundTrip() throws Exception {
+        Employee e = new Employee();
+        Department d = new Department();
+        e.setId(new Integer(1234));
+        e.setName("Employee1");
+        e.setAge(-42);
+        d.setId(new Integer(5678));
+        e.setDepartment(d);
+
+        String binary = BinaryObjectRenderer.render(e).toString();
+        assertTrue(binary, BinaryObjectParser.isBinary(binary));
+
+        Employee obj1 = (Employee) BinaryObjectParser.parse(binary, os);
+        assertEquals("Employee1", obj1.getName());
+        assertEquals(new Integer(1234), obj1.getId());
+        assertEquals(-42, obj1.getAge());
+        java.lang.reflect.Field f = Employee.class.getDeclaredField("department");
+        f.setAccessible(true);
+        ProxyReference o = (ProxyReference) f.get(obj1);
+        assertNotNull(o);
+        assertEquals(new Integer(5678), o.getId());
+    }
+
+    public void testTypes() throws Exception {
+        Types t = new Types();
+        t.setId(new Integer(99));
+        t.setIntType(Integer.MIN_VALUE);
+        t.setLongType(Long.MAX_VALUE);
+        t.setShortType((short) -7);
+        t.setFloatType(3.25F);
+        t.setDoubleType(-1.0E100);
+        t.setBooleanType(true);
+        t.setDateObjType(new Date(1234567890123L));
+        t.setBigDecimalObjType(new BigDecimal("12345.6789"));
+        t.setStringObjType("Flibble $_^ Wotsit $_B1 \u00e9\n");
+
+        Types reparsed = (Types) BinaryObjectParser.parse(BinaryObjectRenderer.render(t)
+                .toString(), os);
+
+        assertEquals(t.getId(), reparsed.getId());
+        assertEquals(t.getIntType(), reparsed.getIntType());
+        assertEquals(t.getLongType(), reparsed.getLongType());
+        assertEquals(t.getShortType(), reparsed.getShortType());
+        assertEquals(t.getFloatType(), reparsed.getFloatType(), 0.0F);
+        assertEquals(t.getDoubleType(), reparsed.getDoubleType(), 0.0);
+        assertEquals(t.getBooleanType(), reparsed.getBooleanType());
+        assertEquals(t.getDateObjType(), reparsed.getDateObjType());
+        assertEquals(t.getBigDecimalObjType(), reparsed.getBigDecimalObjType());
+        assertEquals(t.getStringObjType(), reparsed.getStringObjType());
+        assertNull(reparsed.getIntObjType());
+    }
+
+    public void testRoundTripDynamic() throws Exception {
+        Company c = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        Address a = new Address();
+        a.setId(new Integer(74328));
+        c.setAddress(a);
+        c.setId(new Integer(74350));
+        c.setName("CompanyC");
+        c.setVatNumber(100);
+
+        Company obj1 = (Company) BinaryObjectParser.parse(BinaryObjectRenderer.render(c)
+                .toString(), os);
+
+        assertEquals("CompanyC", obj1.getName());
+        assertEquals(100, obj1.getVatNumber());
+        assertEquals(new Integer(74350), obj1.getId());
+        assertEquals(new Integer(74328), ((ProxyReference) obj1.proxGetAddress()).getId());
+    }
+
+    public void testParseAnyReadsNotXml() throws Exception {
+        String s = NotXmlParser.DELIM + "org.intermine.model.testmodel.Employee"
+            + NotXmlParser.DELIM + "aid" + NotXmlParser.DELIM + "1234"
+            + NotXmlParser.DELIM + "aname" + NotXmlParser.DELIM + "Employee1";
+        assertFalse(BinaryObjectParser.isBinary(s));
+
+        Employee obj1 = (Employee) BinaryObjectParser.parseAny(s, os);
+        assertEquals("Employee1", obj1.getName());
+        assertEquals(new Integer(1234), obj1.getId());
+    }
+
+    public void testUnsupportedVersion() throws Exception {
+        try {
+            BinaryObjectParser.parse(BinaryObjectParser.PREFIX + "9", os);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
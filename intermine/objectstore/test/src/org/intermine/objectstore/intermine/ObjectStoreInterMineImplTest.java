@@ -936,6 +936,53 @@ public class ObjectStoreInterMineImplTest extends ObjectStoreAbstractImplTestCas
         assertTrue(r5.isSingleBatch());
     }
 
+    public void testExecuteStreaming() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        Results r1 = os.execute(q, 1000, true, false, false);
+        // A fetch size smaller than the results makes the iterator convert several chunks
+        StreamingResults r2 = ((ObjectStoreInterMineImpl) os).executeStreaming(q, 2, true, false);
+        List<Object> streamed = new ArrayList<Object>();
+        while (r2.hasNext()) {
+            streamed.add(r2.next());
+        }
+        assertEquals(new ArrayList<Object>(r1), streamed);
+        assertEquals(streamed.size(), r2.getRowCount());
+        // Exhausting the iterator releases the connection, and close() is harmless afterwards
+        r2.close();
+
+        StreamingResults r3 = ((ObjectStoreInterMineImpl) os).executeStreaming(q, 2, true, false);
+        assertTrue(r3.hasNext());
+        r3.next();
+        r3.close();
+        assertFalse(r3.hasNext());
+    }
+
+    public void testExecuteStreamingStartAndLimit() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        List<Object> all = new ArrayList<Object>(os.execute(q, 1000, true, false, false));
+        // The rows before start are skipped by the database, and the cursor ends after limit
+        StreamingResults r1 = ((ObjectStoreInterMineImpl) os).executeStreaming(q, 2, 3, 2, true,
+                false);
+        List<Object> streamed = new ArrayList<Object>();
+        while (r1.hasNext()) {
+            streamed.add(r1.next());
+        }
+        assertEquals(all.subList(2, 5), streamed);
+
+        StreamingResults r2 = ((ObjectStoreInterMineImpl) os).executeStreaming(q, all.size(), 10,
+                2, true, false);
+        assertFalse(r2.hasNext());
+        StreamingResults r3 = ((ObjectStoreInterMineImpl) os).executeStreaming(q, 0, 0, 2, true,
+                false);
+        assertFalse(r3.hasNext());
+    }
+
     public void testBatchesCacheSmallToLarge() throws Exception {
         Query q = new Query();
         QueryClass qc = new QueryClass(Company.class);
@@ -0,0 +1,66 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+
+public class PrefetchManagerTest extends TestCase
+{
+    private ObjectStoreDummyImpl os;
+    private Query q;
+
+    public PrefetchManagerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        os.setResultsSize(100);
+        for (int i = 0; i < 100; i++) {
+            ResultsRow row = new ResultsRow();
+            row.add("" + i);
+            os.addRow(row);
+        }
+        q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+    }
+
+    public void testPrefetchThenGet() throws Exception {
+        ResultsBatches batches = new ResultsBatches(q, os, ObjectStore.SEQUENCE_IGNORE);
+        batches.setBatchSize(10);
+        for (int i = 0; i < 10; i++) {
+            batches.prefetch(i, false, false);
+        }
+        for (int i = 0; i < 10; i++) {
+            List<Object> batch = batches.getBatch(i, false, false);
+            assertEquals(10, batch.size());
+            assertEquals("" + (i * 10), ((List<?>) batch.get(0)).get(0));
+        }
+        // Each batch is fetched exactly once, whether by a service thread or by this thread.
+        assertEquals(10, os.getExecuteCalls());
+    }
+
+    public void testDoRequestWithoutPrefetch() throws Exception {
+        ResultsBatches batches = new ResultsBatches(q, os, ObjectStore.SEQUENCE_IGNORE);
+        batches.setBatchSize(10);
+        List<Object> batch = PrefetchManager.doRequest(batches, 3, false, false);
+        assertEquals("30", ((List<?>) batch.get(0)).get(0));
+        assertSame(batch, batches.getBatch(3, false, false));
+        assertEquals(1, os.getExecuteCalls());
+        assertTrue(PrefetchManager.requests.isEmpty());
+    }
+}
@@ -28,4 +28,20 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testTemplate() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        assertTrue(cache.addTemplate("SELECT a1_.id FROM table1 AS a1_ WHERE a1_.name = 'Fred'",
+                    "SELECT P1.id FROM precomp1 AS P1 WHERE P1.name = 'Fred'", 1000));
+        assertFalse(cache.addTemplate("SELECT a1_.id FROM table1 AS a1_ WHERE a1_.age = 5",
+                    "SELECT P1.id FROM precomp2 AS P1", 1000));
+        assertEquals("SELECT P1.id FROM precomp1 AS P1 WHERE P1.name = 'Bob'",
+                cache.lookupTemplate("SELECT a1_.id FROM table1 AS a1_ WHERE a1_.name = 'Bob'",
+                    2000));
+        assertNull(cache.lookupTemplate("SELECT a1_.id FROM table1 AS a1_ WHERE a1_.name = 'Bob'",
+                    10));
+        assertNull(cache.lookupTemplate("SELECT a1_.id FROM table1 AS a1_ WHERE a1_.age = 6",
+                    1000));
+        assertEquals(1, cache.getTemplateHits());
+    }
 }
@@ -0,0 +1,59 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ParameterisedSqlTest extends TestCase
+{
+    public ParameterisedSqlTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testConstants() throws Exception {
+        ParameterisedSql sql = new ParameterisedSql("SELECT a1_.id AS a2_, \"x1\" FROM table1"
+                + " AS a1_ WHERE a1_.name = 'it''s 5' AND a1_.age > 42 AND a1_.height < 1.5E-3");
+        assertEquals(Arrays.asList("'it''s 5'", "42", "1.5E-3"), sql.getConstants());
+        ParameterisedSql other = new ParameterisedSql("SELECT a1_.id AS a2_, \"x1\" FROM table1"
+                + " AS a1_ WHERE a1_.name = 'Fred' AND a1_.age > 7 AND a1_.height < 2");
+        assertEquals(sql.getKey(), other.getKey());
+        assertFalse(sql.getKey().equals(new ParameterisedSql("SELECT a1_.id AS a2_, \"x1\" FROM"
+                        + " table1 AS a1_ WHERE a1_.name = 'Fred' AND a1_.age < 7 AND"
+                        + " a1_.height < 2").getKey()));
+    }
+
+    public void testTemplate() throws Exception {
+        ParameterisedSql original = new ParameterisedSql("SELECT a1_.id FROM table1 AS a1_, table2"
+                + " AS a2_ WHERE a1_.id = a2_.id AND a1_.name = 'Fred' AND a2_.age > 7");
+        ParameterisedSql optimised = new ParameterisedSql("SELECT P42.id FROM precomp1 AS P42"
+                + " WHERE P42.age > 7 AND P42.name = 'Fred' AND P42.x = 'fixed'");
+        ParameterisedSql.Template template = original.createTemplate(optimised);
+        assertNotNull(template);
+        ParameterisedSql other = new ParameterisedSql("SELECT a1_.id FROM table1 AS a1_, table2"
+                + " AS a2_ WHERE a1_.id = a2_.id AND a1_.name = 'Bob' AND a2_.age > 12");
+        assertEquals("SELECT P42.id FROM precomp1 AS P42 WHERE P42.age > 12 AND P42.name = 'Bob'"
+                + " AND P42.x = 'fixed'", template.bind(other));
+    }
+
+    public void testTemplateUsingConstant() throws Exception {
+        // The optimiser has dropped a constraint applied by the precomputed table
+        ParameterisedSql original = new ParameterisedSql("SELECT a1_.id FROM table1 AS a1_"
+                + " WHERE a1_.name = 'Fred' AND a1_.age > 7");
+        assertNull(original.createTemplate(new ParameterisedSql("SELECT P42.id FROM precomp1"
+                        + " AS P42 WHERE P42.age > 7")));
+        // Two constants with the same value cannot be told apart
+        original = new ParameterisedSql("SELECT a1_.id FROM table1 AS a1_ WHERE a1_.age > 7"
+                + " AND a1_.height > 7");
+        assertNull(original.createTemplate(original));
+    }
+}
@@ -0,0 +1,85 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class BoundedCacheMapTest extends TestCase
+{
+    public BoundedCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        BoundedCacheMap<Integer, String> map = new BoundedCacheMap<Integer, String>("test", 3, 1);
+        map.put(1, "one");
+        map.put(2, "two");
+        map.put(3, "three");
+        assertEquals("one", map.get(1));
+        map.put(4, "four");
+
+        assertEquals(3, map.size());
+        assertFalse(map.containsKey(2));
+        assertEquals("one", map.get(1));
+        assertEquals("three", map.get(3));
+        assertEquals("four", map.get(4));
+        assertEquals(1, map.getEvictions());
+    }
+
+    public void testNullValues() throws Exception {
+        BoundedCacheMap<Integer, String> map = new BoundedCacheMap<Integer, String>("test", 10, 1);
+        map.put(1, null);
+        assertTrue(map.containsKey(1));
+        assertNull(map.get(1));
+        assertFalse(map.containsKey(2));
+        assertNull(map.get(2));
+        assertEquals(1, map.getHits());
+        assertEquals(1, map.getMisses());
+        assertNull(map.remove(1));
+        assertTrue(map.isEmpty());
+    }
+
+    public void testWeight() throws Exception {
+        BoundedCacheMap.Weigher<String, String> weigher = new BoundedCacheMap.Weigher<String,
+            String>() {
+                public int weigh(String key, String value) {
+                    return value.length();
+                }
+            };
+        BoundedCacheMap<String, String> map = new BoundedCacheMap<String, String>("test", 100, 10,
+                weigher, 1);
+        map.put("a", "12345");
+        map.put("b", "1234");
+        assertEquals(9, map.getWeight());
+        map.put("c", "123");
+        assertEquals(7, map.getWeight());
+        assertFalse(map.containsKey("a"));
+        map.put("b", "1");
+        assertEquals(4, map.getWeight());
+        map.clear();
+        assertEquals(0, map.getWeight());
+        assertEquals(0, map.size());
+    }
+
+    public void testSegments() throws Exception {
+        BoundedCacheMap<Integer, Integer> map = new BoundedCacheMap<Integer, Integer>("test", 1000,
+                16);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        assertTrue(map.size() <= 1000);
+        assertTrue(map.size() > 900);
+        for (Integer key : map.keySet()) {
+            assertEquals(key, map.get(key));
+        }
+        assertEquals(10000 - map.size(), map.getEvictions());
+    }
+}
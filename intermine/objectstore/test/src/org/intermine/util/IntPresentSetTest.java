@@ -46,5 +46,31 @@ public class IntPresentSetTest extends TestCase
         assertFalse(set.contains(63));
         assertEquals("[28673452]", set.toString());
     }
-}
 
+    public void testConcurrent() throws Exception {
+        final IntPresentSet set = new IntPresentSet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    // Threads interleave within the same words and pages
+                    for (int i = offset; i < 400000; i += 4) {
+                        set.set(i, true);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, set.size());
+        for (int i = 0; i < 400000; i++) {
+            assertTrue(set.contains(i));
+        }
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(1));
+    }
+}
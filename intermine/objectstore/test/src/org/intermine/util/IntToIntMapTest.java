@@ -10,6 +10,8 @@ package org.intermine.util;
  *
  */
 
+import java.io.File;
+
 import junit.framework.*;
 
 public class IntToIntMapTest extends TestCase
@@ -38,4 +40,60 @@ public class IntToIntMapTest extends TestCase
         assertEquals(0, map.size());
         assertEquals("{}", map.toString());
     }
+
+    public void testConcurrent() throws Exception {
+        final IntToIntMap map = new IntToIntMap();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = offset; i < 100000; i += 4) {
+                        map.put(i, i * 2);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100000, map.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i * 2, map.get(i));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(1));
+    }
+
+    public void testSpill() throws Exception {
+        File file = File.createTempFile("IntToIntMapTest", ".spill");
+        IntToIntMap map = new IntToIntMap(file, 1);
+        try {
+            // Three pages, two of which are memory-mapped
+            map.put(4, 6);
+            map.put(10000, 7);
+            map.put(20000, 8);
+            assertEquals(2, map.getMappedPageCount());
+            assertEquals(6, map.get(4));
+            assertEquals(7, map.get(10000));
+            assertEquals(8, map.get(20000));
+            assertEquals(-1, map.get(20001));
+            assertEquals(3, map.size());
+            assertEquals("{4 -> 6, 10000 -> 7, 20000 -> 8}", map.toString());
+
+            map.put(20000, -1);
+            assertEquals(-1, map.get(20000));
+            assertEquals(2, map.size());
+            map.clear();
+            assertEquals(0, map.size());
+            assertEquals(-1, map.get(10000));
+            map.put(10001, 9);
+            assertEquals(9, map.get(10001));
+        } finally {
+            map.close();
+        }
+        assertFalse(file.exists());
+    }
 }
@@ -0,0 +1,67 @@
+package org.intermine.performance;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A single operation to be timed by the BenchmarkRunner. The run() method is called many times,
+ * and should do the same work each time. It returns a value derived from its work, so that the
+ * JIT compiler cannot discard the work as dead code.
+ *
+ * @author intermine
+ */
+public abstract class Benchmark
+{
+    private final String name;
+
+    /**
+     * Constructs a Benchmark.
+     *
+     * @param name the name of the benchmark, used in reports and baseline files
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of this benchmark.
+     *
+     * @return a String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares any state needed by run(). The default implementation does nothing.
+     *
+     * @throws Exception if the benchmark cannot be set up
+     */
+    public void setUp() throws Exception {
+        // empty
+    }
+
+    /**
+     * Performs the operation being measured once.
+     *
+     * @return the result of the operation
+     * @throws Exception if the operation fails
+     */
+    public abstract Object run() throws Exception;
+
+    /**
+     * Releases any state created by setUp(). The default implementation does nothing.
+     *
+     * @throws Exception if the benchmark cannot be torn down
+     */
+    public void tearDown() throws Exception {
+        // empty
+    }
+}
@@ -0,0 +1,219 @@
+package org.intermine.performance;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs Benchmarks and reports the time taken per operation. Each benchmark is first run for a
+ * warmup period, so that the JIT compiler has compiled the code being measured, and then for a
+ * number of measured rounds. The median time of the rounds is reported, as it is less affected
+ * by garbage collection pauses than the mean.
+ * <p>
+ * The results can be written to a properties file, and compared with a baseline written by an
+ * earlier run. If any benchmark is slower than its baseline by more than the tolerance, the
+ * runner exits with status 1, so that a build running it fails.
+ * <p>
+ * Usage: BenchmarkRunner [-filter substring] [-warmup ms] [-time ms] [-rounds n]
+ * [-baseline file] [-tolerance percent] [-write file]
+ *
+ * @author intermine
+ */
+public final class BenchmarkRunner
+{
+    private static final long DEFAULT_WARMUP_MS = 2000;
+    private static final long DEFAULT_TIME_MS = 5000;
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final double DEFAULT_TOLERANCE = 20.0;
+
+    /** Results are written here, so that the JIT compiler cannot discard the benchmarked work */
+    private static volatile Object sink;
+
+    private long warmupMs = DEFAULT_WARMUP_MS;
+    private long timeMs = DEFAULT_TIME_MS;
+    private int rounds = DEFAULT_ROUNDS;
+
+    private BenchmarkRunner() {
+        // use main()
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args the command-line arguments, described in the class comment
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String filter = null;
+        String baselineFile = null;
+        String writeFile = null;
+        double tolerance = DEFAULT_TOLERANCE;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + arg);
+            }
+            String value = args[++i];
+            if ("-filter".equals(arg)) {
+                filter = value;
+            } else if ("-warmup".equals(arg)) {
+                runner.warmupMs = Long.parseLong(value);
+            } else if ("-time".equals(arg)) {
+                runner.timeMs = Long.parseLong(value);
+            } else if ("-rounds".equals(arg)) {
+                runner.rounds = Integer.parseInt(value);
+            } else if ("-baseline".equals(arg)) {
+                baselineFile = value;
+            } else if ("-tolerance".equals(arg)) {
+                tolerance = Double.parseDouble(value);
+            } else if ("-write".equals(arg)) {
+                writeFile = value;
+            } else {
+                usage("Unknown argument " + arg);
+            }
+        }
+
+        Map<String, Double> results = new LinkedHashMap<String, Double>();
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.addAll(ObjectStoreBenchmarks.getBenchmarks());
+        benchmarks.addAll(EnrichmentBenchmarks.getBenchmarks());
+        for (Benchmark benchmark : benchmarks) {
+            if ((filter == null) || (benchmark.getName().indexOf(filter) != -1)) {
+                double nanosPerOp = runner.measure(benchmark);
+                results.put(benchmark.getName(), new Double(nanosPerOp));
+                System.out .println(String.format("%-30s %15.1f ns/op", benchmark.getName(),
+                            nanosPerOp));
+            }
+        }
+
+        if (writeFile != null) {
+            write(results, writeFile);
+        }
+        if (baselineFile != null) {
+            List<String> regressions = compare(results, read(baselineFile), tolerance);
+            if (!regressions.isEmpty()) {
+                for (String regression : regressions) {
+                    System.err .println("REGRESSION: " + regression);
+                }
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Runs a benchmark and returns the median time per operation over the measured rounds.
+     *
+     * @param benchmark the Benchmark
+     * @return the time per operation in nanoseconds
+     * @throws Exception if the benchmark fails
+     */
+    private double measure(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+        try {
+            runFor(benchmark, warmupMs);
+            double[] roundTimes = new double[rounds];
+            for (int i = 0; i < rounds; i++) {
+                roundTimes[i] = runFor(benchmark, Math.max(1, timeMs / rounds));
+            }
+            Arrays.sort(roundTimes);
+            return roundTimes[rounds / 2];
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Runs a benchmark repeatedly for at least the given time, checking the clock only every
+     * batch of operations so that reading it does not distort short operations.
+     *
+     * @return the time per operation in nanoseconds
+     */
+    private static double runFor(Benchmark benchmark, long millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1000000L;
+        long ops = 0;
+        int batch = 1;
+        long start = System.nanoTime();
+        long now;
+        do {
+            for (int i = 0; i < batch; i++) {
+                sink = benchmark.run();
+            }
+            ops += batch;
+            if (batch < 1024) {
+                batch *= 2;
+            }
+            now = System.nanoTime();
+        } while (now < deadline);
+        return ((double) (now - start)) / ops;
+    }
+
+    /**
+     * Compares results with a baseline, returning a description of each benchmark that is slower
+     * than its baseline by more than the tolerance. Benchmarks missing from either are ignored.
+     */
+    private static List<String> compare(Map<String, Double> results, Properties baseline,
+            double tolerance) {
+        List<String> retval = new ArrayList<String>();
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            String expected = baseline.getProperty(entry.getKey());
+            if (expected != null) {
+                double limit = Double.parseDouble(expected) * (1.0 + tolerance / 100.0);
+                if (entry.getValue().doubleValue() > limit) {
+                    retval.add(entry.getKey() + " took " + entry.getValue() + " ns/op, baseline "
+                            + expected + " ns/op, tolerance " + tolerance + "%");
+                }
+            }
+        }
+        return retval;
+    }
+
+    private static Properties read(String fileName) throws IOException {
+        Properties retval = new Properties();
+        InputStream in = new FileInputStream(fileName);
+        try {
+            retval.load(in);
+        } finally {
+            in.close();
+        }
+        return retval;
+    }
+
+    private static void write(Map<String, Double> results, String fileName) throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            props.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        OutputStream out = new FileOutputStream(fileName);
+        try {
+            props.store(out, "Benchmark results in ns/op, written by BenchmarkRunner");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void usage(String message) {
+        System.err .println(message);
+        System.err .println("Usage: BenchmarkRunner [-filter substring] [-warmup ms] [-time ms]"
+                + " [-rounds n] [-baseline file] [-tolerance percent] [-write file]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,72 @@
+package org.intermine.performance;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.distribution.HypergeometricDistribution;
+import org.intermine.web.logic.widget.HypergeometricCalculator;
+
+/**
+ * Benchmarks for the hypergeometric tests of the enrichment widgets, comparing a distribution
+ * object per attribute with the HypergeometricCalculator, for a GO-sized set of attributes.
+ *
+ * @author intermine
+ */
+public final class EnrichmentBenchmarks
+{
+    private static final int POPULATION_SIZE = 20000;
+    private static final int SAMPLE_SIZE = 2000;
+    private static final int ATTRIBUTES = 5000;
+
+    private EnrichmentBenchmarks() {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the benchmarks for enrichment.
+     *
+     * @return a List of Benchmarks
+     */
+    public static List<Benchmark> getBenchmarks() {
+        Random random = new Random(42);
+        final int[] populationCounts = new int[ATTRIBUTES];
+        final int[] sampleCounts = new int[ATTRIBUTES];
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            populationCounts[i] = 1 + random.nextInt(2000);
+            sampleCounts[i] = 1 + random.nextInt(Math.min(populationCounts[i], 400));
+        }
+
+        List<Benchmark> retval = new ArrayList<Benchmark>();
+        retval.add(new Benchmark("Enrichment.distribution") {
+            @Override
+            public Object run() {
+                double[] pValues = new double[ATTRIBUTES];
+                for (int i = 0; i < ATTRIBUTES; i++) {
+                    pValues[i] = new HypergeometricDistribution(POPULATION_SIZE,
+                            populationCounts[i], SAMPLE_SIZE)
+                        .upperCumulativeProbability(sampleCounts[i]);
+                }
+                return pValues;
+            }
+        });
+        retval.add(new Benchmark("Enrichment.calculator") {
+            @Override
+            public Object run() {
+                return new HypergeometricCalculator(POPULATION_SIZE)
+                    .upperCumulativeProbabilities(SAMPLE_SIZE, populationCounts, sampleCounts);
+            }
+        });
+        return retval;
+    }
+}
@@ -0,0 +1,178 @@
+package org.intermine.performance;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory stand-ins for the parts of JDBC used by the code being benchmarked, so that the
+ * benchmarks run without a database and measure only InterMine code. Only the methods that the
+ * benchmarked code calls are implemented; any other method throws UnsupportedOperationException.
+ *
+ * @author intermine
+ */
+public final class FixtureJdbc
+{
+    private FixtureJdbc() {
+        // don't instantiate
+    }
+
+    /**
+     * Returns a ResultSet over the given rows. Columns are read by label, and next(), getInt(),
+     * getLong(), getString(), getObject(), wasNull() and close() are supported.
+     *
+     * @param rows a List of rows, each a Map from column label to value
+     * @return a ResultSet
+     */
+    public static ResultSet resultSet(final List<Map<String, Object>> rows) {
+        return (ResultSet) Proxy.newProxyInstance(FixtureJdbc.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+                    private int row = -1;
+                    private boolean wasNull = false;
+
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                        throws SQLException {
+                        String name = method.getName();
+                        if ("next".equals(name)) {
+                            row++;
+                            return Boolean.valueOf(row < rows.size());
+                        } else if ("wasNull".equals(name)) {
+                            return Boolean.valueOf(wasNull);
+                        } else if ("close".equals(name)) {
+                            return null;
+                        } else if (name.startsWith("get") && (args != null) && (args.length == 1)) {
+                            Object value = column(args[0]);
+                            wasNull = value == null;
+                            if ("getInt".equals(name)) {
+                                return new Integer(value == null ? 0
+                                        : ((Number) value).intValue());
+                            } else if ("getLong".equals(name)) {
+                                return new Long(value == null ? 0 : ((Number) value).longValue());
+                            } else if ("getString".equals(name)) {
+                                return value == null ? null : value.toString();
+                            } else if ("getObject".equals(name)) {
+                                return value;
+                            }
+                        }
+                        throw new UnsupportedOperationException("ResultSet." + name);
+                    }
+
+                    private Object column(Object label) throws SQLException {
+                        if ((row < 0) || (row >= rows.size())) {
+                            throw new SQLException("ResultSet is not on a row");
+                        }
+                        Map<String, Object> values = rows.get(row);
+                        if (!values.containsKey(label)) {
+                            throw new SQLException("No column " + label);
+                        }
+                        return values.get(label);
+                    }
+                });
+    }
+
+    /**
+     * Returns a Connection that answers every EXPLAIN statement with the given line of planner
+     * output, as PostgreSQL would format it. The metadata of the Connection reports every column
+     * as a non-null INTEGER, which is what PrecomputedTable asks about.
+     *
+     * @param explainLine a line of EXPLAIN output, for example "Seq Scan on employee
+     * (cost=0.00..100.00 rows=1000 width=4)"
+     * @return a Connection
+     */
+    public static Connection explainConnection(final String explainLine) {
+        final Map<String, Object> row = Collections.<String, Object>singletonMap("1", explainLine);
+        final InvocationHandler statementHandler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("execute".equals(name)) {
+                    return Boolean.TRUE;
+                } else if ("getResultSet".equals(name)) {
+                    return indexedResultSet(row);
+                } else if ("getMoreResults".equals(name)) {
+                    return Boolean.FALSE;
+                } else if ("close".equals(name)) {
+                    return null;
+                }
+                throw new UnsupportedOperationException("Statement." + name);
+            }
+        };
+        final InvocationHandler metaDataHandler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getColumns".equals(method.getName())) {
+                    Map<String, Object> column = new HashMap<String, Object>();
+                    column.put("3", args[2]);
+                    column.put("4", args[3]);
+                    column.put("5", new Integer(Types.INTEGER));
+                    column.put("11", new Integer(DatabaseMetaData.columnNoNulls));
+                    return indexedResultSet(column);
+                }
+                throw new UnsupportedOperationException("DatabaseMetaData." + method.getName());
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(FixtureJdbc.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("createStatement".equals(name)) {
+                            return Proxy.newProxyInstance(FixtureJdbc.class.getClassLoader(),
+                                    new Class<?>[] {Statement.class}, statementHandler);
+                        } else if ("getMetaData".equals(name)) {
+                            return Proxy.newProxyInstance(FixtureJdbc.class.getClassLoader(),
+                                    new Class<?>[] {DatabaseMetaData.class}, metaDataHandler);
+                        } else if ("close".equals(name)) {
+                            return null;
+                        } else if ("toString".equals(name)) {
+                            return "FixtureJdbc explain connection";
+                        }
+                        throw new UnsupportedOperationException("Connection." + name);
+                    }
+                });
+    }
+
+    /**
+     * Returns a ResultSet with one row, whose columns are read by index.
+     */
+    private static ResultSet indexedResultSet(final Map<String, Object> row) {
+        return (ResultSet) Proxy.newProxyInstance(FixtureJdbc.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+                    private boolean onRow = false;
+                    private boolean done = false;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("next".equals(name)) {
+                            onRow = !done;
+                            done = true;
+                            return Boolean.valueOf(onRow);
+                        } else if ("getString".equals(name) && onRow) {
+                            return row.get(String.valueOf(args[0]));
+                        } else if ("getInt".equals(name) && onRow) {
+                            return row.get(String.valueOf(args[0]));
+                        } else if ("close".equals(name)) {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException("ResultSet." + name);
+                    }
+                });
+    }
+}
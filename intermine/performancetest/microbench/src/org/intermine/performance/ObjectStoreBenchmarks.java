@@ -0,0 +1,269 @@
+package org.intermine.performance;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.NotXmlParser;
+import org.intermine.objectstore.intermine.NotXmlRenderer;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.ResultsConverter;
+import org.intermine.objectstore.intermine.SqlGenerator;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.objectstore.query.iql.IqlQueryParser;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.precompute.OptimiserCache;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.QueryOptimiser;
+import org.intermine.sql.precompute.QueryOptimiserContext;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Benchmarks for the hot paths of the InterMine ObjectStore, run against fixed fixtures built
+ * from the testmodel, so that no database is needed.
+ *
+ * @author intermine
+ */
+public final class ObjectStoreBenchmarks
+{
+    private static final String PACKAGE = "org.intermine.model.testmodel";
+
+    /** Representative IQL queries: a lookup, a join with ordering, and an aggregate. */
+    private static final String[] IQL = new String[] {
+        "SELECT a1_ FROM Employee AS a1_ WHERE a1_.name = 'EmployeeA1'",
+        "SELECT a1_, a2_ FROM Department AS a1_, Employee AS a2_ WHERE a1_.employees CONTAINS a2_"
+            + " AND a2_.age > 30 ORDER BY a2_.name",
+        "SELECT a1_.name AS a3_, COUNT(*) AS a4_ FROM Company AS a1_, Department AS a2_"
+            + " WHERE a1_.departments CONTAINS a2_ GROUP BY a1_.name"};
+
+    /** The query that the precomputed table used by the QueryOptimiser benchmark is built from */
+    private static final String PRECOMPUTED_IQL = "SELECT a1_, a2_ FROM Department AS a1_,"
+        + " Employee AS a2_ WHERE a1_.employees CONTAINS a2_";
+
+    /** Planner output returned for every EXPLAIN, so that all candidate queries cost the same */
+    private static final String EXPLAIN_LINE =
+        "Seq Scan on employee  (cost=0.00..1000.00 rows=1000 width=4)";
+
+    private static final int RESULT_ROWS = 100;
+
+    private ObjectStoreBenchmarks() {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the benchmarks for the ObjectStore.
+     *
+     * @return a List of Benchmarks
+     * @throws Exception if the fixtures cannot be built
+     */
+    public static List<Benchmark> getBenchmarks() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        DatabaseSchema schema = new DatabaseSchema(model, Collections.<ClassDescriptor>emptyList(),
+                false, Collections.<String>emptySet(), 1, false, false);
+        ObjectStoreInterMineImpl os = new ObjectStoreInterMineImpl(null, schema)
+        {
+            // Uses the protected constructor, as there is no database
+        };
+
+        List<Benchmark> retval = new ArrayList<Benchmark>();
+        retval.add(notXmlRender());
+        retval.add(notXmlParse(os));
+        retval.add(iqlParse());
+        retval.add(sqlGenerate(schema));
+        retval.add(resultsConvert(os));
+        retval.add(queryOptimise(schema));
+        retval.add(typeUtilFieldAccess());
+        return retval;
+    }
+
+    private static Benchmark notXmlRender() {
+        final Employee employee = sampleEmployee(1);
+        return new Benchmark("NotXmlRenderer.render") {
+            @Override
+            public Object run() {
+                return NotXmlRenderer.render(employee).toString();
+            }
+        };
+    }
+
+    private static Benchmark notXmlParse(final ObjectStoreInterMineImpl os) {
+        final String notXml = NotXmlRenderer.render(sampleEmployee(1)).toString();
+        return new Benchmark("NotXmlParser.parse") {
+            @Override
+            public Object run() throws Exception {
+                return NotXmlParser.parse(notXml, os);
+            }
+        };
+    }
+
+    private static Benchmark iqlParse() {
+        return new Benchmark("IqlQueryParser.parse") {
+            @Override
+            public Object run() {
+                List<Query> retval = new ArrayList<Query>();
+                for (String iql : IQL) {
+                    retval.add(IqlQueryParser.parse(new IqlQuery(iql, PACKAGE)));
+                }
+                return retval;
+            }
+        };
+    }
+
+    private static Benchmark sqlGenerate(final DatabaseSchema schema) {
+        final List<Query> queries = new ArrayList<Query>();
+        for (String iql : IQL) {
+            queries.add(IqlQueryParser.parse(new IqlQuery(iql, PACKAGE)));
+        }
+        final Map<Object, String> bagTableNames = Collections.emptyMap();
+        return new Benchmark("SqlGenerator.generate") {
+            @Override
+            public Object run() throws Exception {
+                // Uses the method that does not cache its results in the Query
+                List<String> retval = new ArrayList<String>();
+                for (Query q : queries) {
+                    retval.add(SqlGenerator.generate(q, schema, null, null,
+                                SqlGenerator.QUERY_NORMAL, bagTableNames));
+                }
+                return retval;
+            }
+        };
+    }
+
+    private static Benchmark resultsConvert(final ObjectStoreInterMineImpl os) {
+        final Query q = IqlQueryParser.parse(new IqlQuery(
+                    "SELECT a1_, a1_.age AS a2_ FROM Employee AS a1_", PACKAGE));
+        List<String> labels = new ArrayList<String>();
+        for (QuerySelectable node : q.getSelect()) {
+            labels.add(DatabaseUtil.generateSqlCompatibleName(q.getAliases().get(node)));
+        }
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 1; i <= RESULT_ROWS; i++) {
+            Employee employee = sampleEmployee(i);
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put(labels.get(0) + "id", employee.getId());
+            row.put(labels.get(0), NotXmlRenderer.render(employee).toString());
+            row.put(labels.get(1), new Integer(employee.getAge()));
+            rows.add(row);
+        }
+        return new Benchmark("ResultsConverter.convert") {
+            @Override
+            public Object run() throws Exception {
+                // Otherwise every object would come from the ObjectStore's cache after the first
+                // call
+                os.flushObjectById();
+                return ResultsConverter.convert(FixtureJdbc.resultSet(rows), q, os, null, null,
+                        false, null, null, null);
+            }
+        };
+    }
+
+    private static Benchmark queryOptimise(DatabaseSchema schema) throws Exception {
+        final Map<Object, String> bagTableNames = Collections.emptyMap();
+        Query precomputedQuery = IqlQueryParser.parse(new IqlQuery(PRECOMPUTED_IQL, PACKAGE));
+        final Connection c = FixtureJdbc.explainConnection(EXPLAIN_LINE);
+        String precomputedSql = SqlGenerator.generate(precomputedQuery, schema, null, null,
+                SqlGenerator.QUERY_FOR_PRECOMP, bagTableNames);
+        final Set<PrecomputedTable> precomputedTables = new HashSet<PrecomputedTable>();
+        precomputedTables.add(new PrecomputedTable(new org.intermine.sql.query.Query(
+                        precomputedSql), precomputedSql, "precomp1", "benchmark", c));
+        final List<String> sqls = new ArrayList<String>();
+        for (String iql : IQL) {
+            sqls.add(SqlGenerator.generate(IqlQueryParser.parse(new IqlQuery(iql, PACKAGE)),
+                        schema, null, null, SqlGenerator.QUERY_NORMAL, bagTableNames));
+        }
+        // A cache that never hits, so that every call does the full search
+        final OptimiserCache cache = new OptimiserCache() {
+            @Override
+            public synchronized String lookup(String original, int limit) {
+                return null;
+            }
+
+            @Override
+            public synchronized String lookupTemplate(String original, int limit) {
+                return null;
+            }
+        };
+        return new Benchmark("QueryOptimiser.optimise") {
+            @Override
+            public Object run() throws Exception {
+                List<String> retval = new ArrayList<String>();
+                for (String sql : sqls) {
+                    retval.add(QueryOptimiser.optimiseWith(sql, null, null, c,
+                                QueryOptimiserContext.DEFAULT, precomputedTables, cache)
+                            .getBestQueryString());
+                }
+                return retval;
+            }
+        };
+    }
+
+    private static Benchmark typeUtilFieldAccess() {
+        final Employee employee = sampleEmployee(1);
+        final String[] fieldNames = new String[] {"name", "age", "fullTime", "end", "department",
+            "address", "id"};
+        return new Benchmark("TypeUtil.getFieldValue") {
+            @Override
+            public Object run() throws Exception {
+                int retval = 0;
+                for (String fieldName : fieldNames) {
+                    Object value = TypeUtil.getFieldValue(employee, fieldName);
+                    retval += (value == null) ? 0 : 1;
+                    retval += TypeUtil.getFieldInfo(Employee.class, fieldName).getName().length();
+                }
+                return new Integer(retval);
+            }
+        };
+    }
+
+    /**
+     * Returns an Employee with its references filled in, so that rendered and parsed objects
+     * have a realistic number of fields.
+     */
+    private static Employee sampleEmployee(int id) {
+        Company company = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        company.setId(new Integer(1000000 + id));
+        company.setName("CompanyA");
+        company.setVatNumber(1234);
+        Department department = new Department();
+        department.setId(new Integer(2000000 + id));
+        department.setName("DepartmentA1");
+        department.setCompany(company);
+        Address address = new Address();
+        address.setId(new Integer(3000000 + id));
+        address.setAddress("Employee Street, AVille");
+        Employee employee = new Employee();
+        employee.setId(new Integer(id));
+        employee.setName("EmployeeA" + id);
+        employee.setAge(20 + (id % 40));
+        employee.setFullTime((id % 2) == 0);
+        employee.setEnd(String.valueOf(id % 7));
+        employee.setDepartment(department);
+        employee.setAddress(address);
+        return employee;
+    }
+}
@@ -22,6 +22,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.struts.action.ActionMessage;
 import org.intermine.api.InterMineAPI;
+import org.intermine.api.idresolution.IDResolver;
 import org.intermine.api.profile.BadTemplateException;
 import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.InterMineBag;
@@ -226,9 +227,9 @@ public abstract class LoginHandler extends InterMineAction
                     .getConnection();
             if (api.getBagManager().isAnyBagNotCurrent(profile)
                     && !DatabaseUtil.isBagValuesEmpty(con)) {
-                Thread upgrade = new Thread(procedure);
-                upgrade.setDaemon(true);
-                upgrade.start();
+                // nobody is waiting for the upgrade, so it yields to the lists users upload
+                IDResolver.getInstance().execute(procedure, "user:" + profile.getUsername(),
+                        IDResolver.Priority.BACKGROUND);
             }
         } catch (SQLException sqle) {
             LOG.error("Problems retrieving the connection", sqle);
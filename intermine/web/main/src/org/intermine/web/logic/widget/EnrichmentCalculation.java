@@ -15,7 +15,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.math3.distribution.HypergeometricDistribution;
 
 /**
  * Calculate enrichment of an attribute applied to members of a sample that is a subset of a larger
@@ -83,18 +82,26 @@ public final class EnrichmentCalculation
     private static Map<String, BigDecimal> getRawResults(int sampleSize,
             int populationSize, Map<String, Integer> sampleCounts,
             Map<String, PopulationInfo> annotatedPopulationInfo) {
-        Map<String, BigDecimal> rawResults = new HashMap<String, BigDecimal>();
+        String[] attributes = new String[sampleCounts.size()];
+        int[] sampleCountArray = new int[attributes.length];
+        int[] populationCounts = new int[attributes.length];
+        int i = 0;
         for (Map.Entry<String, Integer> entry : sampleCounts.entrySet()) {
-            String attribute = entry.getKey();
-
-            Integer sampleCount = entry.getValue();
-            PopulationInfo pi = annotatedPopulationInfo.get(attribute);
-            Integer populationCount = (pi != null) ? pi.getSize() : 0;
+            attributes[i] = entry.getKey();
+            sampleCountArray[i] = entry.getValue().intValue();
+            PopulationInfo pi = annotatedPopulationInfo.get(entry.getKey());
+            populationCounts[i] = (pi != null) ? pi.getSize() : 0;
+            i++;
+        }
 
-            HypergeometricDistribution h =
-                new HypergeometricDistribution(populationSize, populationCount, sampleSize);
-            Double pValue = h.upperCumulativeProbability(sampleCount);
-            rawResults.put(attribute, new BigDecimal(pValue));
+        Map<String, BigDecimal> rawResults = new HashMap<String, BigDecimal>();
+        if (attributes.length == 0) {
+            return rawResults;
+        }
+        double[] pValues = new HypergeometricCalculator(populationSize)
+            .upperCumulativeProbabilities(sampleSize, populationCounts, sampleCountArray);
+        for (i = 0; i < attributes.length; i++) {
+            rawResults.put(attributes[i], new BigDecimal(pValues[i]));
         }
         return rawResults;
     }
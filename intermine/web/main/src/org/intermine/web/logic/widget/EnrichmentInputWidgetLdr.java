@@ -20,7 +20,6 @@ import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
-import org.intermine.util.CacheMap;
 
 /**
  * Executes queries and summarises data for a specific EnrichmentWidgetLdr ready for calculation.
@@ -37,19 +36,6 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     private Map<String, String> labels = null;
     private static final int BATCH_SIZE = 20000;
 
-    // population queries that don't involve bags can be cached between widget executions
-    private static CacheMap<String, PopulationInfo> populationCache = new CacheMap<String,
-        PopulationInfo>();
-    private static CacheMap<String, Map<String, PopulationInfo>> populationCountsCache =
-        new CacheMap<String, Map<String, PopulationInfo>>();
-
-    // TODO population counts and sizes are no longer cached
-
-    // TODO make a static cache from populate query to size and populationCounts maps,
-    // this should only have a few entries per widget depending on the organism composition
-    // of bags and other parameters, e.g. GO namespace.  But log cache size for a bit to make
-    // sure.  This should be a CacheMap, old cache was just a standard Map.
-
     /**
      * Construct with an EnrichmentWidgetLdr that contains queries needed for specific widget tests.
      * This class executes queries and summarises data ready for calculation.
@@ -65,8 +51,9 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     public Map<String, PopulationInfo> getAnnotatedCountsInPopulation() {
         if (populationCounts == null) {
             Query query = ldr.getPopulationQuery(false);
+            PopulationCountCache cache = PopulationCountCache.getInstance(os);
 
-            populationCounts = populationCountsCache.get(query.toString());
+            populationCounts = cache.getCounts(query.toString(), ldr.hasPopulationBag());
             if (populationCounts == null) {
                 populationCounts = new HashMap<String, PopulationInfo>();
 
@@ -92,7 +79,7 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
                     }
                     populationCounts.put(identifier, new PopulationInfo(count, geneLengthAverage));
                 }
-                populationCountsCache.put(query.toString(), populationCounts);
+                cache.putCounts(query.toString(), ldr.hasPopulationBag(), populationCounts);
             }
         }
         return populationCounts;
@@ -138,7 +125,8 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     @Override
     public PopulationInfo getPopulationInfo() {
         Query q = ldr.getPopulationQuery(true);
-        PopulationInfo populationInfo = populationCache.get(q.toString());
+        PopulationCountCache cache = PopulationCountCache.getInstance(os);
+        PopulationInfo populationInfo = cache.getTotal(q.toString(), ldr.hasPopulationBag());
         if (populationInfo == null) {
             int size = 0;
             float extraAttribute = 0;
@@ -152,7 +140,7 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
                 }
             }
             populationInfo = new PopulationInfo(size, extraAttribute);
-            populationCache.put(q.toString(), populationInfo);
+            cache.putTotal(q.toString(), ldr.hasPopulationBag(), populationInfo);
         }
         return populationInfo;
     }
@@ -11,6 +11,9 @@ package org.intermine.web.logic.widget;
  */
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.objectstore.ObjectStore;
@@ -46,6 +49,7 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
     private InterMineBag populationBag;
     private boolean extraCorrectionCoefficient;
     private CorrectionCoefficient correctionCoefficient;
+    private Map<String, Set<Object>> listValues = new HashMap<String, Set<Object>>();
 
     /**
      * Construct an Enrichment widget loader, which performs the queries needed for
@@ -234,10 +238,12 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
                         QueryField qfStartClassId = new QueryField(startClass, "id");
                         csSubQuery.addConstraint(new BagConstraint(qfStartClassId,
                                                  ConstraintOp.IN, bag.getOsb()));
-                        QueryField outerQFConstraint = new QueryField(subQuery, qfConstraint);
-                        cs.addConstraint(new SimpleConstraint(qfConstraint, ConstraintOp.EQUALS,
-                                                              outerQFConstraint));
-                        query.addFrom(subQuery);
+                        subQuery.setDistinct(true);
+                        // constrain the population to the values in the list rather than joining
+                        // to the list, so that the population query, and its cached counts, are
+                        // the same for every list with those values
+                        cs.addConstraint(new BagConstraint(qfConstraint, ConstraintOp.IN,
+                                                           getListValues(pc.getPath(), subQuery)));
                     }
                 } else {
                     if (queryValue != null) {
@@ -288,6 +294,33 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         }
     }
 
+    /**
+     * Find the values of a list constrained path in the items of the list.
+     * @param path the path of the list constraint
+     * @param subQuery a query selecting the values
+     * @return the values in order
+     */
+    private Set<Object> getListValues(String path, Query subQuery) {
+        Set<Object> values = listValues.get(path);
+        if (values == null) {
+            values = new TreeSet<Object>();
+            for (Object row : os.executeSingleton(subQuery)) {
+                if (row != null) {
+                    values.add(row);
+                }
+            }
+            listValues.put(path, values);
+        }
+        return values;
+    }
+
+    /**
+     * @return true if the population is a list rather than the whole database
+     */
+    public boolean hasPopulationBag() {
+        return populationBag != null;
+    }
+
     /**
      * @param calcTotal whether or not to calculate the total number of annotated objects in the
      * sample
@@ -12,12 +12,15 @@ package org.intermine.web.logic.widget;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.intermine.web.logic.SortableMap;
-
 
 /**
  * See online help docs for detailed description of what error correction is and why we need it.
@@ -58,6 +61,16 @@ public final class ErrorCorrection
     protected static final BigDecimal ZERO = new BigDecimal(0);
     protected static final BigDecimal ONE = new BigDecimal(1);
 
+    // Smallest p-values first, then by key
+    private static final Comparator<Entry<String, BigDecimal>> ASCENDING =
+        new Comparator<Entry<String, BigDecimal>>() {
+            @Override
+            public int compare(Entry<String, BigDecimal> a, Entry<String, BigDecimal> b) {
+                int retval = a.getValue().compareTo(b.getValue());
+                return (retval != 0) ? retval : a.getKey().compareTo(b.getKey());
+            }
+        };
+
     private ErrorCorrection() {
         // hidden constructor.
     }
@@ -93,10 +106,13 @@ public final class ErrorCorrection
      * @return A similar map, but sorted.
      */
     public static Map<String, BigDecimal> sortMap(Map<String, BigDecimal> originalMap) {
-        SortableMap<String, BigDecimal> sortedMap =
-                new SortableMap<String, BigDecimal>(originalMap);
-        // sort ascending, smallest values first
-        sortedMap.sortValues(false, true);
+        List<Entry<String, BigDecimal>> entries =
+            new ArrayList<Entry<String, BigDecimal>>(originalMap.entrySet());
+        Collections.sort(entries, ASCENDING);
+        Map<String, BigDecimal> sortedMap = new LinkedHashMap<String, BigDecimal>();
+        for (Entry<String, BigDecimal> entry : entries) {
+            sortedMap.put(entry.getKey(), entry.getValue());
+        }
         return sortedMap;
     }
 
@@ -131,14 +147,14 @@ public final class ErrorCorrection
     private static Map<String, BigDecimal> calculateBonferroni(Map<String, BigDecimal> results,
             int numberOfTests, Double max) {
         Map<String, BigDecimal> adjustedMap = new HashMap<String, BigDecimal>();
+        BigDecimal n = new BigDecimal(numberOfTests);
         for (Entry<String, BigDecimal> entry : results.entrySet()) {
 
             // get original values
             BigDecimal p = entry.getValue();
 
             // calc new value - p * N
-            BigDecimal adjustedP = p.multiply(new BigDecimal(numberOfTests),
-                    MathContext.DECIMAL128);
+            BigDecimal adjustedP = p.multiply(n, MathContext.DECIMAL128);
 
             // p is never over 1
             if (adjustedP.compareTo(ONE) >= 0) {
@@ -173,6 +189,7 @@ public final class ErrorCorrection
         BigDecimal lastValue = null;
         int i = 1;
         BigDecimal index = ONE;
+        BigDecimal n = new BigDecimal(numberOfTests);
 
         for (Entry<String, BigDecimal> entry : sortedResults.entrySet()) {
 
@@ -184,7 +201,7 @@ public final class ErrorCorrection
             }
 
             // n/rank
-            BigDecimal m = new BigDecimal(numberOfTests).divide(index, MathContext.DECIMAL128);
+            BigDecimal m = n.divide(index, MathContext.DECIMAL128);
 
             // p-value*(n/rank)
             BigDecimal adjustedP = p.multiply(m, MathContext.DECIMAL128);
@@ -228,6 +245,7 @@ public final class ErrorCorrection
         int i = 0;
         // rank, only increments if pvalue is unique
         BigDecimal rank = ZERO;
+        BigDecimal n = new BigDecimal(numberOfTests);
 
         // smallest to largest
         for (Entry<String, BigDecimal> entry : sortedResults.entrySet()) {
@@ -241,7 +259,7 @@ public final class ErrorCorrection
             }
 
             // n - rank
-            m = new BigDecimal(numberOfTests).subtract(rank, MathContext.DECIMAL128);
+            m = n.subtract(rank, MathContext.DECIMAL128);
 
             // p-value*(n-rank)
             BigDecimal adjustedP = p.multiply(m, MathContext.DECIMAL128);
@@ -0,0 +1,199 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Calculates the p-values of hypergeometric tests for many attributes of the same sample, for
+ * enrichment widgets.
+ * <p>
+ * The probabilities are summed from a table of log(n!) that covers the population, so no
+ * distribution object is made per attribute. The table is shared between calculations and grows
+ * to the largest population seen. Large numbers of attributes are divided between several
+ * threads.
+ *
+ * @author intermine
+ */
+public class HypergeometricCalculator
+{
+    /** The fewest attributes for which the calculation is divided between threads **/
+    public static final int PARALLEL_THRESHOLD = 256;
+
+    // Terms smaller than this fraction of the sum so far no longer change it
+    private static final double PRECISION = 1e-17;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static double[] logFactorials = new double[] {0.0, 0.0};
+    private static ExecutorService executor = null;
+
+    private final int populationSize;
+    private final double[] logFactorial;
+
+    /**
+     * Constructor.
+     * @param populationSize the number of items in the population
+     */
+    public HypergeometricCalculator(int populationSize) {
+        if (populationSize <= 0) {
+            throw new IllegalArgumentException("Population size must be positive: "
+                    + populationSize);
+        }
+        this.populationSize = populationSize;
+        this.logFactorial = getLogFactorials(populationSize);
+    }
+
+    /**
+     * The probability of the sample having at least the given number of items with an attribute,
+     * if it were chosen at random from the population.
+     * @param populationCount the number of items in the population with the attribute
+     * @param sampleSize the number of items in the sample
+     * @param sampleCount the number of items in the sample with the attribute
+     * @return the p-value
+     */
+    public double upperCumulativeProbability(int populationCount, int sampleSize,
+            int sampleCount) {
+        if (populationCount < 0 || populationCount > populationSize) {
+            throw new IllegalArgumentException("Number of items with the attribute ("
+                    + populationCount + ") must be between 0 and the population size ("
+                    + populationSize + ")");
+        }
+        if (sampleSize < 0 || sampleSize > populationSize) {
+            throw new IllegalArgumentException("Sample size (" + sampleSize
+                    + ") must be between 0 and the population size (" + populationSize + ")");
+        }
+        int lower = Math.max(0, sampleSize - (populationSize - populationCount));
+        int upper = Math.min(populationCount, sampleSize);
+        if (sampleCount <= lower) {
+            return 1.0;
+        }
+        if (sampleCount > upper) {
+            return 0.0;
+        }
+        // The terms increase up to the mode and decrease after it
+        int mode = (int) (((sampleSize + 1.0) * (populationCount + 1.0)) / (populationSize + 2.0));
+        double logTotal = logChoose(populationSize, sampleSize);
+        double sum = 0.0;
+        for (int k = sampleCount; k <= upper; k++) {
+            double term = Math.exp(logChoose(populationCount, k)
+                    + logChoose(populationSize - populationCount, sampleSize - k) - logTotal);
+            sum += term;
+            if (k > mode && term <= sum * PRECISION) {
+                break;
+            }
+        }
+        return Math.min(sum, 1.0);
+    }
+
+    /**
+     * Calculate the p-values for several attributes of the same sample.
+     * @param sampleSize the number of items in the sample
+     * @param populationCounts the number of items in the population with each attribute
+     * @param sampleCounts the number of items in the sample with each attribute
+     * @return the p-value of each attribute
+     */
+    public double[] upperCumulativeProbabilities(final int sampleSize,
+            final int[] populationCounts, final int[] sampleCounts) {
+        if (populationCounts.length != sampleCounts.length) {
+            throw new IllegalArgumentException("There must be a count in the population for each"
+                    + " count in the sample");
+        }
+        final double[] retval = new double[sampleCounts.length];
+        if (retval.length < PARALLEL_THRESHOLD || THREADS == 1) {
+            calculate(sampleSize, populationCounts, sampleCounts, retval, 0, retval.length);
+            return retval;
+        }
+        int chunk = (retval.length + THREADS - 1) / THREADS;
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int start = 0; start < retval.length; start += chunk) {
+            final int from = start;
+            final int to = Math.min(start + chunk, retval.length);
+            futures.add(getExecutor().submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    calculate(sampleSize, populationCounts, sampleCounts, retval, from, to);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calculating enrichment", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error calculating enrichment", e.getCause());
+        }
+        return retval;
+    }
+
+    private void calculate(int sampleSize, int[] populationCounts, int[] sampleCounts,
+            double[] retval, int from, int to) {
+        for (int i = from; i < to; i++) {
+            retval[i] = upperCumulativeProbability(populationCounts[i], sampleSize,
+                    sampleCounts[i]);
+        }
+    }
+
+    private double logChoose(int n, int k) {
+        return logFactorial[n] - logFactorial[k] - logFactorial[n - k];
+    }
+
+    /**
+     * Get a table of log(n!) for n from 0 to at least the given size, extending the shared table
+     * if it is too small.
+     */
+    private static synchronized double[] getLogFactorials(int size) {
+        if (logFactorials.length <= size) {
+            double[] extended = new double[size + 1];
+            System.arraycopy(logFactorials, 0, extended, 0, logFactorials.length);
+            for (int n = logFactorials.length; n <= size; n++) {
+                extended[n] = Gamma.logGamma(n + 1.0);
+            }
+            logFactorials = extended;
+        }
+        return logFactorials;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "enrichment-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
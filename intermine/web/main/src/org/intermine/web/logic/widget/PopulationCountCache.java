@@ -0,0 +1,221 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.sql.Database;
+import org.intermine.util.CacheMap;
+
+/**
+ * The counts of annotated objects in the populations of enrichment widgets, keyed by the
+ * population query. They only change when the data does, so widget requests only need to query
+ * the user's list.
+ * <p>
+ * Counts for populations of the whole database are stored in the metadata of the ObjectStore,
+ * along with the serial number of the database, so they are calculated once per build rather
+ * than after every restart. Counts for populations that are lists are only kept in memory, while
+ * there is room for them.
+ *
+ * @author intermine
+ */
+public final class PopulationCountCache
+{
+    private static final Logger LOG = Logger.getLogger(PopulationCountCache.class);
+
+    private static final Map<ObjectStore, PopulationCountCache> INSTANCES =
+        new IdentityHashMap<ObjectStore, PopulationCountCache>();
+
+    private final ObjectStore os;
+    private boolean loaded = false;
+    private String serialNumber = null;
+    private final HashMap<String, Map<String, PopulationInfo>> counts =
+        new HashMap<String, Map<String, PopulationInfo>>();
+    private final HashMap<String, PopulationInfo> totals = new HashMap<String, PopulationInfo>();
+    private final CacheMap<String, Map<String, PopulationInfo>> listCounts =
+        new CacheMap<String, Map<String, PopulationInfo>>();
+    private final CacheMap<String, PopulationInfo> listTotals =
+        new CacheMap<String, PopulationInfo>();
+
+    private PopulationCountCache(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Get the cache for an ObjectStore.
+     * @param os the ObjectStore the populations are counted in
+     * @return the cache
+     */
+    public static synchronized PopulationCountCache getInstance(ObjectStore os) {
+        PopulationCountCache retval = INSTANCES.get(os);
+        if (retval == null) {
+            retval = new PopulationCountCache(os);
+            INSTANCES.put(os, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Get the counts of objects with each annotation in a population.
+     * @param query the population query
+     * @param list true if the population is a list rather than the whole database
+     * @return the counts, or null if they are not cached
+     */
+    public synchronized Map<String, PopulationInfo> getCounts(String query, boolean list) {
+        if (list) {
+            return listCounts.get(query);
+        }
+        load();
+        return counts.get(query);
+    }
+
+    /**
+     * Cache the counts of objects with each annotation in a population.
+     * @param query the population query
+     * @param list true if the population is a list rather than the whole database
+     * @param populationCounts the counts
+     */
+    public synchronized void putCounts(String query, boolean list,
+            Map<String, PopulationInfo> populationCounts) {
+        if (list) {
+            listCounts.put(query, populationCounts);
+        } else {
+            load();
+            counts.put(query, populationCounts);
+            save();
+        }
+    }
+
+    /**
+     * Get the size of a population.
+     * @param query the population query
+     * @param list true if the population is a list rather than the whole database
+     * @return the size, or null if it is not cached
+     */
+    public synchronized PopulationInfo getTotal(String query, boolean list) {
+        if (list) {
+            return listTotals.get(query);
+        }
+        load();
+        return totals.get(query);
+    }
+
+    /**
+     * Cache the size of a population.
+     * @param query the population query
+     * @param list true if the population is a list rather than the whole database
+     * @param total the size
+     */
+    public synchronized void putTotal(String query, boolean list, PopulationInfo total) {
+        if (list) {
+            listTotals.put(query, total);
+        } else {
+            load();
+            totals.put(query, total);
+            save();
+        }
+    }
+
+    private Database getDatabase() {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            return ((ObjectStoreInterMineImpl) os).getDatabase();
+        }
+        return null;
+    }
+
+    /**
+     * Read the stored counts, if they were made from this build of the database.
+     */
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        Database db = getDatabase();
+        if (db == null) {
+            return;
+        }
+        try {
+            serialNumber = MetadataManager.retrieve(db, MetadataManager.SERIAL_NUMBER);
+            InputStream is = MetadataManager.retrieveBLOBInputStream(db,
+                    MetadataManager.ENRICHMENT_POPULATIONS);
+            if (is == null) {
+                return;
+            }
+            ObjectInputStream ois = new ObjectInputStream(is);
+            try {
+                String storedSerialNumber = (String) ois.readObject();
+                if (StringUtils.equals(serialNumber, storedSerialNumber)) {
+                    counts.putAll((Map<String, Map<String, PopulationInfo>>) ois.readObject());
+                    totals.putAll((Map<String, PopulationInfo>) ois.readObject());
+                    LOG.info("Read the enrichment population counts for " + counts.size()
+                            + " queries");
+                } else {
+                    LOG.info("Ignoring the enrichment population counts of database "
+                            + storedSerialNumber);
+                }
+            } finally {
+                ois.close();
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not read the enrichment population counts", e);
+        } catch (IOException e) {
+            LOG.warn("Could not read the enrichment population counts", e);
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Could not read the enrichment population counts", e);
+        }
+    }
+
+    private void save() {
+        Database db = getDatabase();
+        if (db == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(serialNumber);
+            oos.writeObject(copy(counts));
+            oos.writeObject(new HashMap<String, PopulationInfo>(totals));
+            oos.close();
+            MetadataManager.storeBinary(db, MetadataManager.ENRICHMENT_POPULATIONS,
+                    bytes.toByteArray());
+        } catch (SQLException e) {
+            LOG.warn("Could not store the enrichment population counts", e);
+        } catch (IOException e) {
+            LOG.warn("Could not store the enrichment population counts", e);
+        }
+    }
+
+    private static Serializable copy(Map<String, Map<String, PopulationInfo>> map) {
+        HashMap<String, HashMap<String, PopulationInfo>> retval =
+            new HashMap<String, HashMap<String, PopulationInfo>>();
+        for (Map.Entry<String, Map<String, PopulationInfo>> entry : map.entrySet()) {
+            retval.put(entry.getKey(), new HashMap<String, PopulationInfo>(entry.getValue()));
+        }
+        return retval;
+    }
+}
@@ -10,13 +10,16 @@ package org.intermine.web.logic.widget;
  *
  */
 
+import java.io.Serializable;
+
 /**
  * Container for size and extra attribute (e.g. gene length average) for the whole population
  * @author Daniela Butano
  *
  */
-public final class PopulationInfo
+public final class PopulationInfo implements Serializable
 {
+    private static final long serialVersionUID = 1L;
     private final int size;
     private final float extraAttribute;
 
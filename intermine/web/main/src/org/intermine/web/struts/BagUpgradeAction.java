@@ -61,7 +61,8 @@ public class BagUpgradeAction extends InterMineAction
 
         BagQueryRunner bagRunner = im.getBagQueryRunner();
         BagQueryUpgrade bagQueryUpgrade = new BagQueryUpgrade(bagRunner, savedBag);
-        Job job = IDResolver.getInstance().submit(bagQueryUpgrade);
+        Job job = IDResolver.getInstance().submit(bagQueryUpgrade,
+                "user:" + profile.getUsername());
         session.setAttribute(WS_JOB_ID_KEY, job.getUid());
 
         request.setAttribute("newBagName", bagName);
@@ -175,7 +175,9 @@ public class BuildBagAction extends InterMineAction
             }
         }
         WebJobInput input = new WebJobInput(type, list, buildBagForm);
-        Job job = IDResolver.getInstance().submit(bagRunner, input);
+        String owner = (profile != null && profile.isLoggedIn())
+            ? "user:" + profile.getUsername() : "session:" + session.getId();
+        Job job = IDResolver.getInstance().submit(bagRunner, input, owner);
 
         session.setAttribute("idresolutionjobid", job.getUid());
         request.setAttribute("bagType", type);
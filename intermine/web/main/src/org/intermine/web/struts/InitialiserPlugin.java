@@ -10,6 +10,7 @@ package org.intermine.web.struts;
  *
  */
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -53,7 +54,9 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.LinkRedirectManager;
 import org.intermine.api.bag.BagQueryConfig;
 import org.intermine.api.bag.BagQueryHelper;
+import org.intermine.api.bag.IdentifierIndexManager;
 import org.intermine.api.config.ClassKeyHelper;
+import org.intermine.api.idresolution.IDResolver;
 import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.ProfileManager;
@@ -125,6 +128,7 @@ public class InitialiserPlugin implements PlugIn
     };
 
     private ObjectStoreWriter userprofileOSW;
+    private IdentifierIndexManager identifierIndexManager = null;
 
     /**
      * Init method called at Servlet initialisation
@@ -195,6 +199,7 @@ public class InitialiserPlugin implements PlugIn
         // Verify that the superuser found in the DB matches the user set in the properties file.
         final Profile superProfile = profileManager.getSuperuserProfile();
         initSuperUser(superProfile);
+        initIDResolver(webProperties);
         try {
             startBagUpgrade(im, profileManager.getAllSuperUsers());
         } catch (ObjectStoreException e) {
@@ -203,6 +208,8 @@ public class InitialiserPlugin implements PlugIn
 
         initSearch(servletContext, superProfile);
 
+        initIdentifierIndexes(servletContext, webProperties, im);
+
         servletContext.setAttribute(Constants.GRAPH_CACHE, new HashMap<String, String>());
 
         loadAutoCompleter(servletContext, os);
@@ -229,6 +236,65 @@ public class InitialiserPlugin implements PlugIn
         LOG.debug("LOADED SEARCH REPOSITORY");
     }
 
+    /**
+     * Start building the indexes used to resolve the identifiers of list uploads, for the types
+     * in bag.index.types. They are saved in bag.index.directory, or the servlet temp directory.
+     */
+    private void initIdentifierIndexes(final ServletContext servletContext,
+            final Properties webProperties, final InterMineAPI im) {
+        String types = webProperties.getProperty("bag.index.types", "").trim();
+        if (types.length() == 0) {
+            return;
+        }
+        File directory;
+        String directoryName = webProperties.getProperty("bag.index.directory", "").trim();
+        if (directoryName.length() > 0) {
+            directory = new File(directoryName);
+        } else {
+            directory = (File) servletContext.getAttribute("javax.servlet.context.tempdir");
+        }
+        identifierIndexManager = new IdentifierIndexManager(os, Arrays.asList(types.split("\\s+")),
+                directory);
+        im.getBagQueryRunner().setIdentifierIndexManager(identifierIndexManager);
+        try {
+            im.getBagQueryRunner().prepareIdentifierIndexes();
+        } catch (ClassNotFoundException e) {
+            LOG.error("Unknown type in bag.index.types: " + types, e);
+        }
+        LOG.debug("STARTED IDENTIFIER INDEXES FOR " + types);
+    }
+
+    /**
+     * Set the limits on the threads that resolve the identifiers of list uploads and upgrades,
+     * from the idresolution properties.
+     */
+    private void initIDResolver(final Properties webProperties) {
+        IDResolver.getInstance().configure(
+                getIntProperty(webProperties, "idresolution.threads",
+                    IDResolver.DEFAULT_THREADS),
+                getIntProperty(webProperties, "idresolution.max-per-user",
+                    IDResolver.DEFAULT_MAX_JOBS_PER_OWNER),
+                getIntProperty(webProperties, "idresolution.retention-minutes",
+                    (int) (IDResolver.DEFAULT_RETENTION / 60000)) * 60000L);
+    }
+
+    private static int getIntProperty(Properties props, String name, int defaultValue) {
+        String value = props.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            int retval = Integer.parseInt(value.trim());
+            if (retval > 0) {
+                return retval;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        LOG.warn("Ignoring invalid value for " + name + ": " + value);
+        return defaultValue;
+    }
+
     private void initSuperUser(final Profile superProfile) {
         if (!superProfile.getUsername()
             .equals(PropertiesUtil.getProperties().getProperty("superuser.account").trim())) {
@@ -908,6 +974,10 @@ public class InitialiserPlugin implements PlugIn
         // shutdown all objects that have registerted themselves. However, this doesn't get
         // called automatically unless the JVM itself (tomcat) is shut down,
         ShutdownHook.shutdown();
+        if (identifierIndexManager != null) {
+            identifierIndexManager.shutdown();
+        }
+        IDResolver.getInstance().shutdown();
 
         // The ShutdownHook is registered JVM-wide so unless we remove it a reference will be held
         // to the current WebappClassLoader preventing it from being garbage collected. This will
@@ -11,9 +11,11 @@ package org.intermine.webservice.server;
  */
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.security.KeyStoreException;
@@ -48,9 +50,11 @@ import org.intermine.web.logic.profile.LoginHandler;
 import org.intermine.web.security.KeyStorePublicKeySource;
 import org.intermine.web.security.PublicKeySource;
 import org.intermine.webservice.server.core.ListManager;
+import org.intermine.webservice.server.core.RateLimitHistory;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.MissingParameterException;
 import org.intermine.webservice.server.exceptions.NotAcceptableException;
+import org.intermine.webservice.server.exceptions.RateLimitException;
 import org.intermine.webservice.server.exceptions.ServiceException;
 import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
 import org.intermine.webservice.server.exceptions.UnauthorizedException;
@@ -103,6 +107,7 @@ public abstract class WebService
 
     private static final String COMPRESS = "compress";
     private static final String GZIP = "gzip";
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
     private static final String ZIP = "zip";
 
     private static final Logger LOG = Logger.getLogger(WebService.class);
@@ -116,6 +121,12 @@ public abstract class WebService
     private static final String WS_HEADERS_PREFIX = "ws.response.header";
     private static final String BOTS = "ws.robots";
     private static final String WEB_SERVICE_DISABLED_PROPERTY = "webservice.disabled";
+    private static final String RATE_LIMIT_PROPERTY = "ws.ratelimit.per-hour";
+
+    // Shared by the services that have a rate limit cost, read from the web properties once
+    private static volatile boolean rateLimitRead = false;
+    private static RateLimitHistory rateLimitHistory = null;
+    private static int rateLimitPerHour = 0;
 
     /**
      * The servlet request.
@@ -344,6 +355,7 @@ public abstract class WebService
                 initOutput();
                 checkEnabled();
                 authenticate();
+                checkRateLimit();
                 initialised = true;
                 postInit();
                 validateState();
@@ -413,6 +425,50 @@ public abstract class WebService
         }
     }
 
+    /**
+     * Returns the number of requests that a request to this service counts as against the
+     * rate limit that expensive services share, configured as ws.ratelimit.per-hour for each IP
+     * address. Subclasses that use a lot of database or CPU time should override this.
+     *
+     * @return The cost of a request, or 0 if this service is not rate limited.
+     */
+    protected int getRateLimitCost() {
+        return 0;
+    }
+
+    private void checkRateLimit() {
+        int cost = getRateLimitCost();
+        if (cost > 0) {
+            RateLimitHistory history = getRateLimitHistory(webProperties);
+            String ipAddr = request.getRemoteAddr();
+            if (history != null && !history.tryAcquire(ipAddr, cost)) {
+                throw new RateLimitException(ipAddr, rateLimitPerHour);
+            }
+        }
+    }
+
+    private static RateLimitHistory getRateLimitHistory(Properties webProperties) {
+        if (!rateLimitRead) {
+            synchronized (WebService.class) {
+                if (!rateLimitRead) {
+                    String limit = webProperties.getProperty(RATE_LIMIT_PROPERTY);
+                    if (StringUtils.isNotBlank(limit)) {
+                        try {
+                            rateLimitPerHour = Integer.parseInt(limit.trim());
+                        } catch (NumberFormatException e) {
+                            LOG.error("Ignoring invalid " + RATE_LIMIT_PROPERTY + ": " + limit);
+                        }
+                    }
+                    if (rateLimitPerHour > 0) {
+                        rateLimitHistory = new RateLimitHistory(60 * 60, rateLimitPerHour);
+                    }
+                    rateLimitRead = true;
+                }
+            }
+        }
+        return rateLimitHistory;
+    }
+
     /**
      * Subclasses may put clean-up code here, to be run after the request has
      * been executed.
@@ -801,11 +857,13 @@ public abstract class WebService
             response.setBufferSize(8 * 1024);
             os = response.getOutputStream();
             if (isGzip()) {
-                os = new GZIPOutputStream(os);
+                os = new GZIPOutputStream(os, OUTPUT_BUFFER_SIZE);
             } else if (isZip()) {
-                os = new ZipOutputStream(new BufferedOutputStream(os));
+                os = new ZipOutputStream(new BufferedOutputStream(os, OUTPUT_BUFFER_SIZE));
             }
-            out = new PrintWriter(os);
+            // Rows are written a field at a time, so buffer them in large chunks.
+            out = new PrintWriter(
+                    new BufferedWriter(new OutputStreamWriter(os), OUTPUT_BUFFER_SIZE));
         } catch (IOException e) {
             throw new ServiceException(e);
         }
@@ -10,23 +10,39 @@ package org.intermine.webservice.server.core;
  *
  */
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class for making sure that certain resources don't get hammered.
+ * <p>
+ * Each requester may make a burst of up to the maximum number of requests, which is then
+ * refilled evenly over the period (the generic cell rate algorithm, an equivalent of a token
+ * bucket). Only one number is kept per requester - the time at which their allowance will be
+ * full again - and it is updated with compare-and-set, so checks do not take a lock. Requesters
+ * whose allowance is full are forgotten, as they are indistinguishable from new requesters.
+ * <p>
+ * Requests may have a cost, so that expensive services use more of the allowance than cheap
+ * ones (see WebService.getRateLimitCost()).
+ *
  * @author Alex Kalderimis
  */
 public class RateLimitHistory implements Predicate<String>
 {
+    // How many checks are made between sweeps for requesters to forget
+    private static final int EVICTION_INTERVAL = 1024;
 
-    private final Map<String, List<Long>> historyOfRequests = new HashMap<String, List<Long>>();
+    // For each requester, the time (in nanoseconds) at which their allowance will be full
+    private final ConcurrentMap<String, AtomicLong> fullAt
+        = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicInteger checks = new AtomicInteger();
 
-    private int periodLength;
-    private int maxRequests;
+    private final long periodLength;
+    private final long interval;
 
     /**
      * Constructor
@@ -34,53 +50,124 @@ public class RateLimitHistory implements Predicate<String>
      * @param maxRequestsPerPeriod The maximum number of requests in any given period.
      */
     public RateLimitHistory(int periodInSeconds, int maxRequestsPerPeriod) {
-        periodLength = periodInSeconds;
-        maxRequests = maxRequestsPerPeriod;
-    }
-
-    private synchronized List<Long> getRequestHistory(String id) {
-        List<Long> requestHistory = new ArrayList<Long>();
-        if (id != null) {
-            if (historyOfRequests.containsKey(id)) {
-                requestHistory = historyOfRequests.get(id);
-                // Cull all records of requests made outside time period.
-                for (Iterator<Long> it = requestHistory.iterator(); it.hasNext();) {
-                    Long timestamp = it.next();
-                    if (timestamp == null
-                            || System.currentTimeMillis() - timestamp > (periodLength * 1000)) {
-                        it.remove();
-                    }
-                }
-            } else {
-                historyOfRequests.put(id, requestHistory);
-            }
+        if (periodInSeconds < 1 || maxRequestsPerPeriod < 1) {
+            throw new IllegalArgumentException("The period and maximum number of requests must be"
+                    + " positive");
         }
-        return requestHistory;
+        periodLength = periodInSeconds * 1000000000L;
+        interval = periodLength / maxRequestsPerPeriod;
     }
 
     /**
-     * Check that this requester is within their limit.
+     * Check that this requester is within their limit, without recording a request.
      * @param id The ID to key their requests against.
      * @return true or false.
      */
-    public synchronized boolean isWithinLimit(String id) {
-        List<Long> requests = getRequestHistory(id);
-        return requests.size() < maxRequests;
+    public boolean isWithinLimit(String id) {
+        if (id == null) {
+            return true;
+        }
+        AtomicLong full = fullAt.get(id);
+        if (full == null) {
+            return true;
+        }
+        long now = now();
+        return Math.max(full.get(), now) + interval - now <= periodLength;
     }
 
+    /**
+     * Record a request of cost 1 if the requester is within their limit.
+     * @param id The ID to key their requests against.
+     * @return true if the request is allowed.
+     */
     @Override
     public Boolean call(String id) {
-        return isWithinLimit(id);
+        return tryAcquire(id, 1);
+    }
+
+    /**
+     * Record a request if the requester is within their limit, so that checking and recording
+     * happen together.
+     * @param id The ID to key their requests against.
+     * @param cost The number of requests this one counts as.
+     * @return true if the request is allowed, in which case it has been recorded.
+     */
+    public boolean tryAcquire(String id, int cost) {
+        if (id == null) {
+            return true;
+        }
+        long now = now();
+        AtomicLong full = getFullAt(id, now);
+        while (true) {
+            long current = full.get();
+            long next = Math.max(current, now) + (interval * cost);
+            if (next - now > periodLength) {
+                return false;
+            }
+            if (full.compareAndSet(current, next)) {
+                return true;
+            }
+        }
     }
 
     /**
-     * Record that a request was made.
+     * Record that a request was made, whether or not the requester was within their limit.
      * @param id The id to key this request against.
      */
     public void recordRequest(String id) {
-        List<Long> requests = getRequestHistory(id);
-        synchronized (requests) {
-            requests.add(Long.valueOf(System.currentTimeMillis()));
+        if (id == null) {
+            return;
+        }
+        long now = now();
+        AtomicLong full = getFullAt(id, now);
+        while (true) {
+            long current = full.get();
+            if (full.compareAndSet(current, Math.max(current, now) + interval)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The number of requesters currently remembered.
+     */
+    public int size() {
+        return fullAt.size();
+    }
+
+    /**
+     * The current time, in nanoseconds.
+     * @return The time.
+     */
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    private AtomicLong getFullAt(String id, long now) {
+        if (checks.incrementAndGet() % EVICTION_INTERVAL == 0) {
+            evictIdle(now);
+        }
+        AtomicLong full = fullAt.get(id);
+        if (full == null) {
+            AtomicLong fresh = new AtomicLong(now);
+            full = fullAt.putIfAbsent(id, fresh);
+            if (full == null) {
+                full = fresh;
+            }
+        }
+        return full;
+    }
+
+    /**
+     * Forget the requesters whose allowance is full. A request being recorded for one of them at
+     * the same time may be lost, which only errs in the requester's favour.
+     */
+    private void evictIdle(long now) {
+        Iterator<Map.Entry<String, AtomicLong>> it = fullAt.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().get() <= now) {
+                it.remove();
+            }
         }
     }
 }
@@ -18,6 +18,7 @@ import java.util.List;
 import org.intermine.api.results.ResultElement;
 import org.intermine.pathquery.ConstraintValueParser;
 import org.intermine.webservice.server.output.Output;
+import org.intermine.webservice.server.output.StreamedOutput;
 
 /**
  * Processor of Results object for easy accessing and parsing of results to list of strings.
@@ -42,32 +43,47 @@ public class ResultProcessor
     }
 
     /**
-     * Writes results to output.
+     * Writes results to output. Rows are written straight to outputs that can format them
+     * directly, and turned into lists of strings for all others.
      * @param resultIt iterator over results row
      * @param output output
      */
     public void write(Iterator<List<ResultElement>> resultIt, Output output) {
+        StreamedOutput direct = null;
+        if (output instanceof StreamedOutput
+                && ((StreamedOutput) output).canWriteResultRows()) {
+            direct = (StreamedOutput) output;
+        }
         while (resultIt.hasNext())  {
             List<ResultElement> row = resultIt.next();
-            output.addResultItem(convertResultElementsToStrings(row));
+            if (direct != null) {
+                direct.addResultRow(row);
+            } else {
+                output.addResultItem(convertResultElementsToStrings(row));
+            }
         }
     }
 
     private static List<String> convertResultElementsToStrings(List<ResultElement> row) {
-        List<String> ret = new ArrayList<String>();
-        String value;
+        List<String> ret = new ArrayList<String>(row.size());
         for (ResultElement el : row) {
-            if (el != null && el.getField() != null) {
-                if (el.getField() instanceof Date) {
-                    value = ConstraintValueParser.ISO_DATE_FORMAT.format(el.getField());
-                } else {
-                    value = el.getField().toString();
-                }
-            } else {
-                value = "";
-            }
-            ret.add(value);
+            ret.add(formatValue(el));
         }
         return ret;
     }
+
+    /**
+     * Format the value of a cell of results as a string.
+     * @param el The cell, which may be null.
+     * @return The string value, or the empty string if there is no value.
+     */
+    public static String formatValue(ResultElement el) {
+        if (el != null && el.getField() != null) {
+            if (el.getField() instanceof Date) {
+                return ConstraintValueParser.ISO_DATE_FORMAT.format(el.getField());
+            }
+            return el.getField().toString();
+        }
+        return "";
+    }
 }
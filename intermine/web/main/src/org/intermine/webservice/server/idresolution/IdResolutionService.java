@@ -21,6 +21,7 @@ import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.idresolution.IDResolver;
 import org.intermine.api.idresolution.Job;
 import org.intermine.api.idresolution.JobInput;
+import org.intermine.api.profile.Profile;
 import org.intermine.webservice.server.core.JSONService;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.ServiceException;
@@ -53,7 +54,10 @@ public class IdResolutionService extends JSONService
 
         final BagQueryRunner runner = im.getBagQueryRunner();
 
-        Job job = IDResolver.getInstance().submit(runner, in);
+        Profile profile = getPermission().getProfile();
+        String owner = profile.isLoggedIn()
+            ? "user:" + profile.getUsername() : "address:" + request.getRemoteAddr();
+        Job job = IDResolver.getInstance().submit(runner, in, owner);
 
         addResultValue(job.getUid(), false);
     }
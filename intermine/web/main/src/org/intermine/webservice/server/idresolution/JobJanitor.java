@@ -10,12 +10,7 @@ package org.intermine.webservice.server.idresolution;
  *
  */
 
-import java.util.Date;
-import java.util.Iterator;
-
-import org.apache.commons.lang.time.DateUtils;
 import org.intermine.api.idresolution.IDResolver;
-import org.intermine.api.idresolution.Job;
 
 /**
  * Wake up once a minute and evict old completed jobs.
@@ -32,27 +27,7 @@ public class JobJanitor implements Runnable
     public void run() {
         IDResolver idresolver = IDResolver.getInstance();
         while (canContinue) {
-            Iterator<Job> jobs = idresolver.getJobs().values().iterator();
-            Date cutOff = DateUtils.addHours(new Date(), -3);
-            while (jobs.hasNext()) {
-                if (Thread.interrupted()) {
-                    return;
-                }
-                Job job = jobs.next();
-                switch (job.getStatus()) {
-                    case ERROR:
-                    case SUCCESS:
-                        Date startedAt = job.getStartedAt();
-                        if (startedAt != null && startedAt.before(cutOff)) {
-                            jobs.remove();
-                        }
-                        break;
-                    case PENDING:
-                    case RUNNING:
-                    default:
-                        continue;
-                }
-            }
+            idresolver.removeExpiredJobs();
 
             try {
                 Thread.sleep(PERIOD);
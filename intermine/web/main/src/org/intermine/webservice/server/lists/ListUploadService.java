@@ -85,6 +85,16 @@ public class ListUploadService extends ListMakerService
         runner = im.getBagQueryRunner();
     }
 
+    /**
+     * Resolving the identifiers runs several queries for each batch of them, so an upload counts
+     * as several query results requests.
+     * @return The cost of an upload.
+     */
+    @Override
+    protected int getRateLimitCost() {
+        return 5;
+    }
+
     /**
      * Gets the header attributes on the output object.
      * @return A map of header attributes for JSON output.
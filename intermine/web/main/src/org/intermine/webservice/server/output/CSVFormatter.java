@@ -10,8 +10,6 @@ package org.intermine.webservice.server.output;
  *
  */
 
-import org.intermine.web.logic.export.RowFormatterImpl;
-
 /**
  * Formats data to comma separated data format.
  *
@@ -24,6 +22,6 @@ public class CSVFormatter extends FlatFileFormatter
      * Construct a CSV formatter.
      */
     public CSVFormatter() {
-        setRowFormatter(new RowFormatterImpl(",", true));
+        setDelimiter(",", true);
     }
 }
@@ -10,10 +10,14 @@ package org.intermine.webservice.server.output;
  *
  */
 
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.Map;
 
+import org.intermine.api.results.ResultElement;
 import org.intermine.web.logic.export.RowFormatter;
+import org.intermine.web.logic.export.RowFormatterImpl;
+import org.intermine.webservice.server.core.ResultProcessor;
 
 /**
  * A class to define behaviour common to flat files (csv, tsv)
@@ -31,6 +35,9 @@ public abstract class FlatFileFormatter extends Formatter
     public static final String COLUMN_HEADERS = "view";
     protected RowFormatter labourer = null;
 
+    private String delimiter = null;
+    private boolean quoted = true;
+
     /**
      * Get the row formatter
      * @return the object that formats the rows
@@ -45,6 +52,63 @@ public abstract class FlatFileFormatter extends Formatter
      */
     protected void setRowFormatter(RowFormatter fmtr) {
         labourer = fmtr;
+        delimiter = null;
+    }
+
+    /**
+     * Format rows as delimited fields, which may be quoted. Rows formatted this way can also be
+     * written directly with writeResult.
+     * @param delim The string between fields.
+     * @param quote Whether or not to quote each field.
+     */
+    protected void setDelimiter(String delim, boolean quote) {
+        setRowFormatter(new RowFormatterImpl(delim, quote));
+        delimiter = delim;
+        quoted = quote;
+    }
+
+    /**
+     * @return Whether rows can be written directly with writeResult.
+     */
+    public boolean canWriteResults() {
+        return delimiter != null;
+    }
+
+    /**
+     * Write a row of results to a writer exactly as formatResult would format the strings of
+     * their values, but without making a list of strings or the line for each row. Fields are
+     * escaped as they are written.
+     * @param row The row of results.
+     * @param out Where to write the formatted row.
+     */
+    public void writeResult(List<ResultElement> row, PrintWriter out) {
+        if (delimiter == null) {
+            throw new IllegalStateException("This formatter cannot write results directly");
+        }
+        for (int i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                out.write(delimiter);
+            }
+            writeField(ResultProcessor.formatValue(row.get(i)), out);
+        }
+    }
+
+    private void writeField(String value, PrintWriter out) {
+        if (!quoted && value.length() > 0 && value.indexOf(delimiter) < 0) {
+            out.write(value);
+            return;
+        }
+        // Quotes are quoted by doubling them.
+        out.write('"');
+        int start = 0;
+        int quote;
+        while ((quote = value.indexOf('"', start)) >= 0) {
+            out.write(value, start, quote + 1 - start);
+            out.write('"');
+            start = quote + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
     }
 
     /** {@inheritDoc}} **/
@@ -14,6 +14,8 @@ import java.io.PrintWriter;
 import java.util.List;
 import java.util.Map;
 
+import org.intermine.api.results.ResultElement;
+
 /**
  * Immediately as the data or error messages are added they are streamed via http connection.
  * So the data can not be retrieved later. Before streaming they are formatted with
@@ -70,6 +72,10 @@ public class StreamedOutput extends Output
 
     private void writeLn(String s) {
         writer.print(s);
+        endLine();
+    }
+
+    private void endLine() {
         if (separator == null) {
             writer.println();
         } else {
@@ -87,6 +93,27 @@ public class StreamedOutput extends Output
         resultsCount++;
     }
 
+    /**
+     * @return Whether rows of results can be written directly with addResultRow, rather than
+     * being turned into strings for addResultItem.
+     */
+    public boolean canWriteResultRows() {
+        return (formatter instanceof FlatFileFormatter)
+            && ((FlatFileFormatter) formatter).canWriteResults();
+    }
+
+    /**
+     * Write a row of results directly to the associated writer, without formatting it as a
+     * string first.
+     * @param row The row of results.
+     */
+    public void addResultRow(List<ResultElement> row) {
+        ensureHeaderIsPrinted();
+        ((FlatFileFormatter) formatter).writeResult(row, writer);
+        endLine();
+        resultsCount++;
+    }
+
     /** Returns associated writer
      * @return writer
      * **/
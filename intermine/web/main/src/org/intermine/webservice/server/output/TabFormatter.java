@@ -10,8 +10,6 @@ package org.intermine.webservice.server.output;
  *
  */
 
-import org.intermine.web.logic.export.RowFormatterImpl;
-
 /**
  * Formats data to tab separated data format.
  * @author Jakub Kulaviak
@@ -22,7 +20,7 @@ public class TabFormatter extends FlatFileFormatter
      * Constructor.
      */
     public TabFormatter() {
-        setRowFormatter(new RowFormatterImpl("\t", true));
+        setDelimiter("\t", true);
     }
 
     /**
@@ -30,6 +28,6 @@ public class TabFormatter extends FlatFileFormatter
      * @param quoted Whether or not to quote each field.
      */
     public TabFormatter(boolean quoted) {
-        setRowFormatter(new RowFormatterImpl("\t", quoted));
+        setDelimiter("\t", quoted);
     }
 }
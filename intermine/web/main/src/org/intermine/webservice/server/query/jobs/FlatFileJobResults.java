@@ -0,0 +1,144 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.query.QueryJob;
+import org.intermine.api.results.ResultElement;
+import org.intermine.webservice.server.Format;
+import org.intermine.webservice.server.core.ResultProcessor;
+import org.intermine.webservice.server.output.CSVFormatter;
+import org.intermine.webservice.server.output.FlatFileFormatter;
+import org.intermine.webservice.server.output.Output;
+import org.intermine.webservice.server.output.StreamedOutput;
+import org.intermine.webservice.server.output.TabFormatter;
+
+/**
+ * Stores the results of a query job as a tab or comma separated file, which is sent to the
+ * client as it is when the results are fetched.
+ *
+ * @author intermine
+ */
+public class FlatFileJobResults implements QueryJob.ResultsHandler
+{
+    private static final Logger LOG = Logger.getLogger(FlatFileJobResults.class);
+
+    private final Format format;
+    private final boolean quoted;
+    private final List<String> columnHeaders;
+    private final String separator;
+    // The file and whether the results have been released, guarded by this
+    private File file = null;
+    private boolean released = false;
+
+    /**
+     * Constructor.
+     *
+     * @param format TSV or CSV
+     * @param quoted whether TSV values should be quoted
+     * @param columnHeaders the headers to write above the results, or null for none
+     * @param separator the line separator
+     */
+    public FlatFileJobResults(Format format, boolean quoted, List<String> columnHeaders,
+            String separator) {
+        if ((format != Format.TSV) && (format != Format.CSV)) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        this.format = format;
+        this.quoted = quoted;
+        this.columnHeaders = columnHeaders;
+        this.separator = separator;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(Iterator<List<ResultElement>> results) throws IOException {
+        File tmp = File.createTempFile("queryjob", "." + format.name().toLowerCase());
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                    "UTF-8"));
+        boolean written = false;
+        try {
+            Output output;
+            if (format == Format.CSV) {
+                output = new StreamedOutput(writer, new CSVFormatter(), separator);
+            } else {
+                output = new StreamedOutput(writer, new TabFormatter(quoted), separator);
+            }
+            if (columnHeaders != null) {
+                Map<String, Object> attributes = new HashMap<String, Object>();
+                attributes.put(FlatFileFormatter.COLUMN_HEADERS, columnHeaders);
+                output.setHeaderAttributes(attributes);
+            }
+            new ResultProcessor().write(results, output);
+            // Closes the writer
+            output.flush();
+            if (writer.checkError()) {
+                throw new IOException("Could not write results to " + tmp);
+            }
+            written = true;
+        } finally {
+            writer.close();
+            boolean keep = false;
+            synchronized (this) {
+                // The job may have been removed while the results were being written
+                if (written && !released) {
+                    file = tmp;
+                    keep = true;
+                }
+            }
+            if (!keep && !tmp.delete()) {
+                LOG.warn("Could not delete " + tmp);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release() {
+        File f;
+        synchronized (this) {
+            released = true;
+            f = file;
+            file = null;
+        }
+        if ((f != null) && !f.delete()) {
+            LOG.warn("Could not delete " + f);
+        }
+    }
+
+    /**
+     * @return the format of the results
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the file holding the results, or null if they have not been written
+     */
+    public synchronized File getFile() {
+        return file;
+    }
+}
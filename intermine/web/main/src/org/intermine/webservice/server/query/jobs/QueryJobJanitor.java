@@ -0,0 +1,51 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.api.query.QueryJobManager;
+
+/**
+ * Wake up once a minute and remove expired query jobs, deleting their results, so that they
+ * do not stay on disk while no jobs are being submitted.
+ *
+ * @author intermine
+ */
+public class QueryJobJanitor implements Runnable
+{
+    private static final long PERIOD = 60 * 1000;
+    private final QueryJobManager manager;
+    private volatile boolean canContinue = true;
+
+    /**
+     * @param manager the manager whose jobs should be removed when they expire
+     */
+    public QueryJobJanitor(QueryJobManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        while (canContinue) {
+            manager.removeExpiredJobs();
+
+            try {
+                Thread.sleep(PERIOD);
+            } catch (InterruptedException e) {
+                return; // Server going down
+            }
+        }
+    }
+
+    /** Let others tell us to stop. **/
+    public void stop() {
+        canContinue = false;
+    }
+}
@@ -0,0 +1,52 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.query.QueryJob;
+import org.intermine.api.query.QueryJobManager;
+import org.intermine.webservice.server.core.JSONService;
+
+/**
+ * Cancels a query job if it is still pending or running, and removes it with its results.
+ *
+ * @author intermine
+ */
+public class QueryJobRemovalService extends JSONService
+{
+    private final QueryJobManager manager;
+
+    /**
+     * Constructor.
+     * @param im The InterMine state object.
+     * @param manager The manager that runs the jobs.
+     */
+    public QueryJobRemovalService(InterMineAPI im, QueryJobManager manager) {
+        super(im);
+        this.manager = manager;
+    }
+
+    @Override
+    protected void execute() {
+        String uid = StringUtils.defaultString(request.getPathInfo(), "").replaceAll("^/", "");
+        QueryJob job = QueryJobServlet.getJob(manager, uid, getPermission().getProfile(),
+                request);
+        boolean wasFinished = job.isFinished();
+        manager.removeJob(uid);
+        addResultValue(wasFinished ? "REMOVED" : "CANCELLED", false);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "status";
+    }
+}
@@ -0,0 +1,95 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.query.QueryJob;
+import org.intermine.api.query.QueryJobManager;
+import org.intermine.webservice.server.Format;
+import org.intermine.webservice.server.WebService;
+import org.intermine.webservice.server.exceptions.NoContentException;
+import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
+import org.intermine.webservice.server.exceptions.ServiceException;
+
+/**
+ * Sends the results of a finished query job, in the format they were stored in.
+ *
+ * @author intermine
+ */
+public class QueryJobResultsService extends WebService
+{
+    private final QueryJobManager manager;
+    private final String jobId;
+
+    /**
+     * Constructor.
+     * @param im The InterMine state object.
+     * @param manager The manager that runs the jobs.
+     * @param jobId The id of the job.
+     */
+    public QueryJobResultsService(InterMineAPI im, QueryJobManager manager, String jobId) {
+        super(im);
+        this.manager = manager;
+        this.jobId = jobId;
+    }
+
+    @Override
+    protected Format getDefaultFormat() {
+        QueryJob job = manager.getJob(jobId);
+        if ((job != null) && (job.getResultsHandler() instanceof FlatFileJobResults)) {
+            return ((FlatFileJobResults) job.getResultsHandler()).getFormat();
+        }
+        return Format.TSV;
+    }
+
+    @Override
+    protected String getDefaultFileName() {
+        return "results";
+    }
+
+    @Override
+    protected void execute() {
+        QueryJob job = QueryJobServlet.getJob(manager, jobId, getPermission().getProfile(),
+                request);
+        if (job.getStatus() == QueryJob.Status.ERROR) {
+            throw new NoContentException("Job failed: " + job.getError().getMessage());
+        } else if (job.getStatus() != QueryJob.Status.SUCCESS) {
+            throw new NoContentException("Job not ready: " + job.getStatus());
+        }
+        File file = ((FlatFileJobResults) job.getResultsHandler()).getFile();
+        if (file == null) {
+            throw new ResourceNotFoundException("No results for job: " + jobId);
+        }
+        PrintWriter out = getRawOutput();
+        char[] buffer = new char[8192];
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // The job may have been removed while its results were being sent
+            throw new ServiceException("Could not read results of job " + jobId, e);
+        }
+    }
+}
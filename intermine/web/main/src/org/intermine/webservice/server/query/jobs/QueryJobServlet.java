@@ -0,0 +1,183 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.api.profile.Profile;
+import org.intermine.api.query.QueryJob;
+import org.intermine.api.query.QueryJobManager;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.webservice.server.WebService;
+import org.intermine.webservice.server.core.NoServiceException;
+import org.intermine.webservice.server.core.WebServiceServlet;
+import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
+
+/**
+ * Route requests for query jobs, which run queries in the background so that long exports do not
+ * hold a servlet container thread:
+ * <ul>
+ *   <li>POST submits a query and returns the job id</li>
+ *   <li>GET /{uid}/status reports the status of the job</li>
+ *   <li>GET /{uid}/results sends the results of a finished job</li>
+ *   <li>DELETE /{uid} cancels the job and removes it</li>
+ * </ul>
+ * The jobs are run by a QueryJobManager, configured by the web properties
+ * <code>ws.query.jobs.threads</code>, <code>ws.query.jobs.max-per-user</code>,
+ * <code>ws.query.jobs.max-pending</code> and <code>ws.query.jobs.retention-minutes</code>.
+ *
+ * @author intermine
+ */
+public class QueryJobServlet extends WebServiceServlet
+{
+    private static final Logger LOG = Logger.getLogger(QueryJobServlet.class);
+    private static final long serialVersionUID = 6213937580472924931L;
+    private static final String PREFIX = "ws.query.jobs.";
+
+    private QueryJobManager manager = null;
+    private QueryJobJanitor janitor = null;
+    private Thread janitorThread = null;
+
+    @Override
+    public void init(ServletConfig config) {
+        Properties props = InterMineContext.getWebProperties();
+        manager = new QueryJobManager(
+                getIntProperty(props, "threads", QueryJobManager.DEFAULT_THREADS),
+                getIntProperty(props, "max-per-user", QueryJobManager.DEFAULT_MAX_JOBS_PER_OWNER),
+                getIntProperty(props, "max-pending", QueryJobManager.DEFAULT_MAX_PENDING),
+                getIntProperty(props, "retention-minutes",
+                    (int) (QueryJobManager.DEFAULT_RETENTION / 60000)) * 60000L);
+        janitor = new QueryJobJanitor(manager);
+        janitorThread = new Thread(janitor, "QueryJobJanitor");
+        janitorThread.setDaemon(true);
+        janitorThread.start();
+    }
+
+    @Override
+    public void destroy() {
+        if (janitor != null) {
+            janitor.stop();
+        }
+        if (janitorThread != null) {
+            janitorThread.interrupt();
+        }
+        if (manager != null) {
+            manager.shutdown();
+        }
+        super.destroy();
+    }
+
+    private static int getIntProperty(Properties props, String name, int defaultValue) {
+        String value = (props == null) ? null : props.getProperty(PREFIX + name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid value for " + PREFIX + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    @Override
+    protected void respond(
+            Method method,
+            HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+        if (Method.GET == method) {
+            String[] uidAndCommand = getUidAndCommand(request);
+            if (uidAndCommand != null) {
+                WebService getter = getGetter(uidAndCommand[0], uidAndCommand[1]);
+                if (getter != null) {
+                    getter.service(request, response);
+                    return;
+                }
+            }
+        }
+        super.respond(method, request, response);
+    }
+
+    private static String[] getUidAndCommand(HttpServletRequest request) {
+        String pathInfo = StringUtils.defaultString(request.getPathInfo(), "").replaceAll("^/", "");
+        int slashIndex = pathInfo.indexOf('/');
+        if (slashIndex > 0) {
+            String jobId = pathInfo.substring(0, slashIndex);
+            String command = pathInfo.substring(slashIndex + 1);
+            return new String[] {jobId, command};
+        }
+        return null;
+    }
+
+    private WebService getGetter(String uid, String command) {
+        WebService ws = null;
+        if ("status".equalsIgnoreCase(command)) {
+            ws = new QueryJobStatusService(api, manager, uid);
+        } else if ("result".equalsIgnoreCase(command) || "results".equalsIgnoreCase(command)) {
+            ws = new QueryJobResultsService(api, manager, uid);
+        }
+        return ws;
+    }
+
+    @Override
+    protected WebService getService(Method method) throws NoServiceException {
+        switch (method) {
+            case POST:
+                return new QueryJobSubmissionService(api, manager);
+            case DELETE:
+                return new QueryJobRemovalService(api, manager);
+            default:
+                throw new NoServiceException();
+        }
+    }
+
+    /**
+     * The owner of the jobs of a request, by which jobs are queued fairly: the user name for
+     * authenticated requests, and the client address otherwise.
+     *
+     * @param profile the profile of the request
+     * @param request the request
+     * @return the owner
+     */
+    static String getOwner(Profile profile, HttpServletRequest request) {
+        if ((profile != null) && profile.isLoggedIn()) {
+            return "user:" + profile.getUsername();
+        }
+        return "address:" + request.getRemoteAddr();
+    }
+
+    /**
+     * Looks up a job, which must belong to the owner of the request.
+     *
+     * @param manager the manager running the jobs
+     * @param uid the job id
+     * @param profile the profile of the request
+     * @param request the request
+     * @return the job
+     * @throws ResourceNotFoundException if there is no such job for this owner
+     */
+    static QueryJob getJob(QueryJobManager manager, String uid, Profile profile,
+            HttpServletRequest request) {
+        QueryJob job = manager.getJob(uid);
+        if ((job == null) || !job.getOwner().equals(getOwner(profile, request))) {
+            throw new ResourceNotFoundException("No such job: " + uid);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,55 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.query.QueryJob;
+import org.intermine.api.query.QueryJobManager;
+import org.intermine.webservice.server.core.JSONService;
+
+/**
+ * Reports the status of a query job, with the number of rows it has read so far.
+ *
+ * @author intermine
+ */
+public class QueryJobStatusService extends JSONService
+{
+    private final QueryJobManager manager;
+    private final String jobId;
+
+    /**
+     * Constructor.
+     * @param im The InterMine state object.
+     * @param manager The manager that runs the jobs.
+     * @param jobId The id of the job.
+     */
+    public QueryJobStatusService(InterMineAPI im, QueryJobManager manager, String jobId) {
+        super(im);
+        this.manager = manager;
+        this.jobId = jobId;
+    }
+
+    @Override
+    protected void execute() {
+        QueryJob job = QueryJobServlet.getJob(manager, jobId, getPermission().getProfile(),
+                request);
+        if (job.getStatus() == QueryJob.Status.ERROR) {
+            addOutputInfo("message", String.valueOf(job.getError().getMessage()));
+        }
+        addOutputInfo("rows", String.valueOf(job.getRowCount()));
+        addResultValue(job.getStatus().name(), false);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "status";
+    }
+}
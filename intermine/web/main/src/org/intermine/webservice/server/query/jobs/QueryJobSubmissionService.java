@@ -0,0 +1,106 @@
+package org.intermine.webservice.server.query.jobs;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.Profile;
+import org.intermine.api.query.PathQueryExecutor;
+import org.intermine.api.query.QueryJob;
+import org.intermine.api.query.QueryJobManager;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.web.logic.WebUtil;
+import org.intermine.webservice.server.ColumnHeaderStyle;
+import org.intermine.webservice.server.Format;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.core.ListManager;
+import org.intermine.webservice.server.exceptions.BadRequestException;
+import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+import org.intermine.webservice.server.query.AbstractQueryService;
+import org.intermine.webservice.server.query.result.PathQueryBuilder;
+import org.intermine.webservice.server.query.result.QueryResultInput;
+import org.intermine.webservice.server.query.result.QueryResultRequestParser;
+
+/**
+ * Submits a query to be run in the background, and returns the id of the job so that its status
+ * can be polled and its results fetched later. The query is given as for the query results
+ * service, and the format of the results is given by the <code>resultformat</code> parameter,
+ * which may be "tsv" (the default) or "csv".
+ *
+ * @author intermine
+ */
+public class QueryJobSubmissionService extends JSONService
+{
+    /** The name of the parameter giving the format of the results **/
+    public static final String RESULT_FORMAT_PARAMETER = "resultformat";
+
+    private final QueryJobManager manager;
+
+    /**
+     * Constructor.
+     * @param im The InterMine state object.
+     * @param manager The manager that runs the jobs.
+     */
+    public QueryJobSubmissionService(InterMineAPI im, QueryJobManager manager) {
+        super(im);
+        this.manager = manager;
+    }
+
+    @Override
+    protected void execute() {
+        Format resultFormat;
+        String formatName = getOptionalParameter(RESULT_FORMAT_PARAMETER, "tsv");
+        if ("tsv".equalsIgnoreCase(formatName)) {
+            resultFormat = Format.TSV;
+        } else if ("csv".equalsIgnoreCase(formatName)) {
+            resultFormat = Format.CSV;
+        } else {
+            throw new BadRequestException("Unsupported " + RESULT_FORMAT_PARAMETER + ": "
+                    + formatName);
+        }
+
+        Profile profile = getPermission().getProfile();
+        QueryResultInput input = new QueryResultRequestParser(im.getQueryStore(), request)
+            .getInput();
+        PathQueryBuilder builder = new PathQueryBuilder(input.getXml(),
+                AbstractQueryService.getSchemaLocation(request), new ListManager(im, profile));
+        PathQuery pq = builder.getQuery();
+
+        List<String> columnHeaders = null;
+        if (getColumnHeaderStyle() == ColumnHeaderStyle.FRIENDLY) {
+            columnHeaders = WebUtil.formatPathQueryView(pq, InterMineContext.getWebConfig());
+        } else if (getColumnHeaderStyle() == ColumnHeaderStyle.PATH) {
+            columnHeaders = pq.getView();
+        }
+        FlatFileJobResults results = new FlatFileJobResults(resultFormat,
+                "true".equals(getProperty("ws.tsv.quoted")), columnHeaders, getLineBreak());
+
+        PathQueryExecutor executor = im.getPathQueryExecutor(profile);
+        executor.setBatchSize(PathQueryExecutor.DEFAULT_BATCH_SIZE);
+        QueryJob job = new QueryJob(QueryJobServlet.getOwner(profile, request), pq, executor,
+                im.getObjectStore(), input.getStart(), input.getLimit(), results);
+        try {
+            manager.submit(job);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceForbiddenException(e.getMessage());
+        }
+
+        addResultValue(job.getUid(), false);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "uid";
+    }
+}
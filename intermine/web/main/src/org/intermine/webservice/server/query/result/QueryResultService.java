@@ -13,6 +13,7 @@ package org.intermine.webservice.server.query.result;
 import static org.apache.commons.lang.StringUtils.isBlank;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -22,23 +23,33 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.query.BagNotFound;
 import org.intermine.api.query.PathQueryExecutor;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
 import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreQueryDurationException;
+import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.pathquery.Path;
 import org.intermine.pathquery.PathException;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.web.context.InterMineContext;
+import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.WebUtil;
 import org.intermine.webservice.server.ColumnHeaderStyle;
 import org.intermine.webservice.server.Format;
@@ -71,6 +82,13 @@ import static org.apache.commons.lang.StringUtils.isNotBlank;
  * Schema and and finds out if there were some errors during unmarshalling
  * PathQuery from xml. 2) Executes created PathQuery. 3) Print results to
  * output.
+ * <p>
+ * Uncompressed responses of a limited size are kept in a QueryResultsCache, so the same request
+ * is answered from the cache until the tables it reads are changed. Cached responses carry an
+ * ETag, and a request with a matching If-None-Match header for a response that is still cached is
+ * answered with 304 Not Modified. The cache is
+ * configured by the web properties <code>ws.results.cache.max-size</code> and
+ * <code>ws.results.cache.max-entry-size</code>, in characters; a maximum size of 0 turns it off.
  *
  * @author Jakub Kulaviak
  * @author Alex Kalderimis
@@ -81,11 +99,20 @@ public class QueryResultService extends AbstractQueryService
 
     /** Batch size to use **/
     public static final int BATCH_SIZE = 5000;
+    private static final Logger LOG = Logger.getLogger(QueryResultService.class);
+    private static QueryResultsCache resultsCache = null;
+    private static boolean resultsCacheConfigured = false;
+
     protected Map<String, Object> attributes = new HashMap<String, Object>();
 
     private boolean wantsCount = false;
     private PathQueryExecutor executor;
 
+    private QueryResultsCache.Capture capture = null;
+    private String cacheKey = null;
+    private String cacheVersion = null;
+    private boolean complete = false;
+
     /**
      * Constructor
      * @param im The InterMineAPI settings bundle for this webservice
@@ -117,6 +144,11 @@ public class QueryResultService extends AbstractQueryService
         return Format.TSV;
     }
 
+    @Override
+    protected int getRateLimitCost() {
+        return 1;
+    }
+
     private static final Set<Format> MENU = new HashSet<Format>() {
         private static final long serialVersionUID = -6257564064566791521L;
         {
@@ -296,15 +328,145 @@ public class QueryResultService extends AbstractQueryService
      *            maximum number of results
      */
     public void runPathQuery(PathQuery pathQuery, int firstResult, int maxResults) {
+        if (serveFromCache(pathQuery, firstResult, maxResults)) {
+            return;
+        }
         if (wantsCount) {
             runCount(pathQuery);
         } else {
             runResults(pathQuery, firstResult, maxResults);
         }
+        // Only complete responses are cached
+        complete = (capture != null);
+    }
+
+    /**
+     * Answers the request from the results cache if possible. Otherwise, if the response can be
+     * cached, arranges for it to be copied as it is written.
+     *
+     * @return true if the response has been sent
+     */
+    private boolean serveFromCache(PathQuery pq, int firstResult, int maxResults) {
+        QueryResultsCache cache = getResultsCache(webProperties);
+        if ((cache == null) || !isUncompressed() || !(output instanceof StreamedOutput)) {
+            return false;
+        }
+        cacheKey = getCacheKey(pq, firstResult, maxResults);
+        cacheVersion = getDataVersion(pq);
+        if ((cacheKey == null) || (cacheVersion == null)) {
+            return false;
+        }
+        StreamedOutput streamedOutput = (StreamedOutput) output;
+        PrintWriter writer = streamedOutput.getWriter();
+        String cached = cache.get(cacheKey, cacheVersion);
+        if (cached == null) {
+            // The ETag is only sent once there is a complete response for it to stand for
+            capture = cache.capture(writer);
+            streamedOutput.setWriter(new PrintWriter(capture));
+            return false;
+        }
+        String etag = QueryResultsCache.getEtag(cacheKey, cacheVersion);
+        response.setHeader("ETag", etag);
+        if (QueryResultsCache.matchesEtag(etag, request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            writer.write(cached);
+        }
+        writer.flush();
+        // Discard the header and footer that the output writes when it is flushed
+        streamedOutput.setWriter(new PrintWriter(new StringWriter()));
+        return true;
+    }
+
+    private String getCacheKey(PathQuery pq, int firstResult, int maxResults) {
+        StringBuilder key = new StringBuilder();
+        key.append(getClass().getName()).append('\n').append(getFormat()).append('\n')
+            .append(getLineBreak()).append('\n').append(firstResult).append('\n')
+            .append(maxResults).append('\n');
+        // The parameters that affect the output. The query is replaced by its canonical form,
+        // and the user's credentials by the ids of the lists the query uses.
+        Map<String, String[]> parameters = new TreeMap<String, String[]>(
+                request.getParameterMap());
+        parameters.remove(QueryResultRequestParser.QUERY_PARAMETER);
+        parameters.remove("token");
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            key.append(parameter.getKey()).append('=')
+                .append(Arrays.asList(parameter.getValue())).append('\n');
+        }
+        key.append(pq.toXml(PathQuery.USERPROFILE_VERSION));
+        Profile profile = getPermission().getProfile();
+        for (String bagName : new TreeSet<String>(pq.getBagNames())) {
+            InterMineBag bag = im.getBagManager().getBag(profile, bagName);
+            if (bag == null) {
+                return null;
+            }
+            key.append('\n').append(bagName).append('=').append(bag.getOsb().getBagId());
+        }
+        return key.toString();
+    }
+
+    /**
+     * The version of the data a query reads: the release, and the ObjectStore's sequence numbers
+     * for the tables in the query, which change whenever those tables are written to.
+     */
+    private String getDataVersion(PathQuery pq) {
+        Query q;
+        try {
+            q = executor.makeQuery(pq);
+        } catch (ObjectStoreException e) {
+            // Let the query report the problem
+            return null;
+        }
+        ObjectStore os = im.getObjectStore();
+        Map<String, Integer> sequence = new TreeMap<String, Integer>();
+        for (Map.Entry<Object, Integer> entry
+                : os.getSequence(os.getComponentsForQuery(q)).entrySet()) {
+            sequence.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return webProperties.getProperty("project.releaseVersion") + "-"
+            + Constants.WEB_SERVICE_VERSION + "-" + sequence;
+    }
+
+    @Override
+    protected void cleanUp() {
+        super.cleanUp();
+        if (complete) {
+            String copy = capture.getCopy();
+            if (copy != null) {
+                getResultsCache(webProperties).put(cacheKey, cacheVersion, copy);
+                if (!response.isCommitted()) {
+                    response.setHeader("ETag", QueryResultsCache.getEtag(cacheKey, cacheVersion));
+                }
+            }
+        }
+    }
+
+    private static synchronized QueryResultsCache getResultsCache(Properties props) {
+        if (!resultsCacheConfigured) {
+            long maxSize = QueryResultsCache.DEFAULT_MAX_SIZE;
+            int maxEntrySize = QueryResultsCache.DEFAULT_MAX_ENTRY_SIZE;
+            try {
+                String value = props.getProperty("ws.results.cache.max-size");
+                if (StringUtils.isNotBlank(value)) {
+                    maxSize = Long.parseLong(value.trim());
+                }
+                value = props.getProperty("ws.results.cache.max-entry-size");
+                if (StringUtils.isNotBlank(value)) {
+                    maxEntrySize = Integer.parseInt(value.trim());
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid query results cache size - using the defaults", e);
+            }
+            if (maxSize > 0) {
+                resultsCache = new QueryResultsCache(maxSize, maxEntrySize);
+            }
+            resultsCacheConfigured = true;
+        }
+        return resultsCache;
     }
 
     private void runResults(PathQuery pq,  int firstResult, int maxResults) {
-        final boolean canGoFaster;
+        boolean streaming = false;
         final Iterator<List<ResultElement>> it;
         final String summaryPath = getOptionalParameter("summaryPath");
         if (isNotBlank(summaryPath)) {
@@ -323,17 +485,22 @@ public class QueryResultService extends AbstractQueryService
                     attributes.put("filteredCount", r.size());
                 }
                 it = new FilteringResultIterator(r, firstResult, maxResults, filterTerm);
-                canGoFaster = false;
             } catch (ObjectStoreQueryDurationException e) {
                 throw new ServiceException("Query would take too long to run");
             } catch (ObjectStoreException e) {
                 throw new ServiceException("Problem getting summary.", e);
             }
         } else {
-            canGoFaster = maxResults > (BATCH_SIZE * 2);
+            // Large exports read every row once, so stream them through a database cursor
+            // rather than paging through cached batches.
+            streaming = maxResults > (BATCH_SIZE * 2);
             executor.setBatchSize(BATCH_SIZE);
             try {
-                it = executor.execute(pq, firstResult, maxResults);
+                if (streaming) {
+                    it = executor.executeStreaming(pq, firstResult, maxResults);
+                } else {
+                    it = executor.execute(pq, firstResult, maxResults);
+                }
             } catch (ObjectStoreQueryDurationException e) {
                 throw new ServiceException("Query would take too long to run");
             } catch (ObjectStoreException e) {
@@ -342,17 +509,14 @@ public class QueryResultService extends AbstractQueryService
         }
 
         ResultProcessor processor = makeResultProcessor();
-        if (it.hasNext()) { // Prime the batch fetching pumps
-            try {
-                if (canGoFaster) {
-                    // Going faster means writing to the DB. Don't do this if it is pointless.
-                    ((ExportResultsIterator) it).goFaster();
-                }
+        try {
+            if (it.hasNext()) { // Prime the batch fetching pumps
                 processor.write(it, output);
-            } finally {
-                if (canGoFaster) {
-                    ((ExportResultsIterator) it).releaseGoFaster();
-                }
+            }
+        } finally {
+            if (streaming) {
+                // Release the cursor even if the client went away part way through.
+                ((ExportResultsIterator) it).close();
             }
         }
     }
@@ -395,7 +559,7 @@ public class QueryResultService extends AbstractQueryService
                 request).getInput();
         // Table format doesn't actually fetch any rows but we want it to trigger a query in
         // ObjectStore so results are in cache when Row processors need to fetch them. We need
-        // to set a limit here to prevent runResults() from calling goFaster() and precomputing.
+        // to set a limit here to prevent runResults() from streaming past the results cache.
         if (getFormat() == Format.TABLE) {
             qri.setLimit(WebServiceRequestParser.MIN_LIMIT);
         }
@@ -0,0 +1,225 @@
+package org.intermine.webservice.server.query.result;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * A cache of the formatted output of the query results service, so that the same page of the
+ * same query requested by many clients is only run and formatted once.
+ * <p>
+ * Entries are keyed by a description of the request (the query, the format, the page and the
+ * other parameters that affect the output), and are only valid for the version of the data they
+ * were made from - the release and the ObjectStore sequence numbers of the tables the query reads,
+ * which change whenever those tables are written to. Each entry has an ETag made from its key and
+ * version, so clients can ask whether their copy is still current without the query being run.
+ * <p>
+ * The cache holds at most a given number of characters, discarding the least recently used
+ * entries, and responses larger than a given size are not cached.
+ *
+ * @author intermine
+ */
+public class QueryResultsCache
+{
+    private static final Logger LOG = Logger.getLogger(QueryResultsCache.class);
+
+    /** The default maximum number of characters cached **/
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+    /** The default maximum number of characters in one response that is cached **/
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 512 * 1024;
+
+    private final long maxSize;
+    private final int maxEntrySize;
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor.
+     * @param maxSize the maximum number of characters to cache
+     * @param maxEntrySize the maximum number of characters in one response to cache
+     */
+    public QueryResultsCache(long maxSize, int maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Makes the ETag for a response.
+     * @param key the key of the response
+     * @param version the version of the data
+     * @return a quoted ETag
+     */
+    public static String getEtag(String key, String version) {
+        return "\"" + DigestUtils.sha1Hex(version + "\n" + key) + "\"";
+    }
+
+    /**
+     * Tests whether an If-None-Match header matches an ETag. The header is a comma separated list
+     * of ETags, which match whether they are weak or strong, or "*", which matches any ETag.
+     * @param etag the ETag of the response
+     * @param ifNoneMatch the value of the header, or null if there was none
+     * @return true if the client's copy of the response is current
+     */
+    public static boolean matchesEtag(String etag, String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up a response.
+     * @param key the key of the response
+     * @param version the current version of the data
+     * @return the formatted response, or null if it is not cached for this version
+     */
+    public synchronized String get(String key, String version) {
+        Entry entry = entries.get(key);
+        if ((entry != null) && !entry.version.equals(version)) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            if (misses % 1000 == 0) {
+                LOG.info(getStatistics());
+            }
+            return null;
+        }
+        hits++;
+        return entry.content;
+    }
+
+    /**
+     * Stores a response, if it is small enough.
+     * @param key the key of the response
+     * @param version the version of the data it was made from
+     * @param content the formatted response
+     */
+    public synchronized void put(String key, String version, String content) {
+        if (content.length() > maxEntrySize) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(version, content));
+        size += content.length();
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().content.length();
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            size -= old.content.length();
+        }
+    }
+
+    /**
+     * Makes a Writer that copies what is written to it, to be cached once the response is
+     * complete. It stops copying if the response becomes too large to cache.
+     * @param writer the writer to copy
+     * @return a copying writer
+     */
+    public Capture capture(Writer writer) {
+        return new Capture(writer, maxEntrySize);
+    }
+
+    /**
+     * @return the number of characters cached
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return a description of the use of the cache, for logging
+     */
+    public synchronized String getStatistics() {
+        return "Query results cache: " + hits + " hits, " + misses + " misses, " + entries.size()
+            + " entries, " + size + " characters";
+    }
+
+    private static class Entry
+    {
+        final String version;
+        final String content;
+
+        Entry(String version, String content) {
+            this.version = version;
+            this.content = content;
+        }
+    }
+
+    /**
+     * A Writer that copies what is written to it.
+     */
+    public static class Capture extends Writer
+    {
+        private final Writer writer;
+        private final int maxSize;
+        private StringBuilder copy = new StringBuilder();
+
+        Capture(Writer writer, int maxSize) {
+            this.writer = writer;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (copy != null) {
+                if (copy.length() + len > maxSize) {
+                    copy = null;
+                } else {
+                    copy.append(cbuf, off, len);
+                }
+            }
+            writer.write(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        /**
+         * @return what has been written, or null if it was too large to keep
+         */
+        public String getCopy() {
+            return (copy == null) ? null : copy.toString();
+        }
+    }
+}
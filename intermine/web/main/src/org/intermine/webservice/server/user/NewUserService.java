@@ -71,11 +71,10 @@ public class NewUserService extends JSONService
     protected void validateState() {
         super.validateState();
         final String ipAddr = request.getRemoteAddr();
-        if (!requestHistory.isWithinLimit(ipAddr)) {
+        // Checks and records this request
+        if (!requestHistory.call(ipAddr)) {
             throw new RateLimitException(ipAddr, maxNewUsersPerAddressPerHour);
         }
-        // Record this request...
-        requestHistory.recordRequest(ipAddr);
     }
 
     @Override
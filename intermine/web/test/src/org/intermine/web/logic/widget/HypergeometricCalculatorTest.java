@@ -0,0 +1,84 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.math3.distribution.HypergeometricDistribution;
+
+public class HypergeometricCalculatorTest extends TestCase
+{
+    public HypergeometricCalculatorTest(String arg) {
+        super(arg);
+    }
+
+    public void testMatchesCommonsMath() {
+        int populationSize = 20000;
+        HypergeometricCalculator calculator = new HypergeometricCalculator(populationSize);
+        int[][] cases = new int[][] {
+            // populationCount, sampleSize, sampleCount
+            {100, 500, 1}, {100, 500, 3}, {100, 500, 20}, {5000, 2000, 600},
+            {5000, 2000, 450}, {1, 1, 1}, {20000, 20000, 20000}, {300, 19900, 299},
+            {12, 40, 12}, {7000, 15000, 5300}};
+        for (int[] c : cases) {
+            double expected = new HypergeometricDistribution(populationSize, c[0], c[1])
+                .upperCumulativeProbability(c[2]);
+            assertClose(expected, calculator.upperCumulativeProbability(c[0], c[1], c[2]));
+        }
+    }
+
+    public void testBounds() {
+        HypergeometricCalculator calculator = new HypergeometricCalculator(100);
+        assertEquals(1.0, calculator.upperCumulativeProbability(10, 95, 5), 0.0);
+        assertEquals(1.0, calculator.upperCumulativeProbability(10, 20, 0), 0.0);
+        assertEquals(0.0, calculator.upperCumulativeProbability(10, 20, 11), 0.0);
+        assertEquals(0.0, calculator.upperCumulativeProbability(0, 20, 1), 0.0);
+        try {
+            calculator.upperCumulativeProbability(101, 20, 1);
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new HypergeometricCalculator(0);
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testManyAttributes() {
+        int populationSize = 15000;
+        int sampleSize = 800;
+        int count = HypergeometricCalculator.PARALLEL_THRESHOLD * 4 + 3;
+        Random random = new Random(42);
+        int[] populationCounts = new int[count];
+        int[] sampleCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            populationCounts[i] = 1 + random.nextInt(1000);
+            sampleCounts[i] = 1 + random.nextInt(Math.min(populationCounts[i], 60));
+        }
+        double[] pValues = new HypergeometricCalculator(populationSize)
+            .upperCumulativeProbabilities(sampleSize, populationCounts, sampleCounts);
+        assertEquals(count, pValues.length);
+        for (int i = 0; i < count; i++) {
+            double expected = new HypergeometricDistribution(populationSize,
+                    populationCounts[i], sampleSize).upperCumulativeProbability(sampleCounts[i]);
+            assertClose(expected, pValues[i]);
+        }
+    }
+
+    private static void assertClose(double expected, double actual) {
+        assertEquals(expected, actual, Math.max(expected * 1e-9, 1e-300));
+    }
+}
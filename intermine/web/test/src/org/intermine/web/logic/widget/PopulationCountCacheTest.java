@@ -0,0 +1,52 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+
+public class PopulationCountCacheTest extends TestCase
+{
+    public PopulationCountCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testCounts() {
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        PopulationCountCache cache = PopulationCountCache.getInstance(os);
+        assertSame(cache, PopulationCountCache.getInstance(os));
+        assertNotSame(cache, PopulationCountCache.getInstance(new ObjectStoreDummyImpl()));
+
+        Map<String, PopulationInfo> counts = new HashMap<String, PopulationInfo>();
+        counts.put("GO:0001", new PopulationInfo(12, 0));
+        assertNull(cache.getCounts("q1", false));
+        cache.putCounts("q1", false, counts);
+        assertSame(counts, cache.getCounts("q1", false));
+        // Counts for a population list are kept separately
+        assertNull(cache.getCounts("q1", true));
+        cache.putCounts("q1", true, new HashMap<String, PopulationInfo>());
+        assertSame(counts, cache.getCounts("q1", false));
+        assertTrue(cache.getCounts("q1", true).isEmpty());
+    }
+
+    public void testTotals() {
+        PopulationCountCache cache = PopulationCountCache.getInstance(new ObjectStoreDummyImpl());
+        PopulationInfo total = new PopulationInfo(15000, 1.5f);
+        assertNull(cache.getTotal("q1", false));
+        cache.putTotal("q1", false, total);
+        assertSame(total, cache.getTotal("q1", false));
+        assertNull(cache.getTotal("q1", true));
+    }
+}
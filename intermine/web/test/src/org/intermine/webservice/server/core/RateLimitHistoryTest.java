@@ -0,0 +1,83 @@
+package org.intermine.webservice.server.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimitHistoryTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private static class TestHistory extends RateLimitHistory {
+        long time = 0;
+
+        TestHistory(int periodInSeconds, int maxRequestsPerPeriod) {
+            super(periodInSeconds, maxRequestsPerPeriod);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+
+    @Test
+    public void testBurstAndRefill() {
+        TestHistory history = new TestHistory(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(history.call("a"));
+        }
+        assertFalse(history.isWithinLimit("a"));
+        assertFalse(history.call("a"));
+        // Other requesters are unaffected
+        assertTrue(history.call("b"));
+
+        // One request is refilled every two seconds
+        history.time = SECOND;
+        assertFalse(history.call("a"));
+        history.time = 2 * SECOND;
+        assertTrue(history.isWithinLimit("a"));
+        assertTrue(history.call("a"));
+        assertFalse(history.call("a"));
+    }
+
+    @Test
+    public void testCost() {
+        TestHistory history = new TestHistory(10, 5);
+        assertTrue(history.tryAcquire("a", 3));
+        assertFalse(history.tryAcquire("a", 3));
+        assertTrue(history.call("a"));
+        assertTrue(history.call("a"));
+        assertFalse(history.call("a"));
+    }
+
+    @Test
+    public void testRecordRequest() {
+        TestHistory history = new TestHistory(10, 2);
+        history.recordRequest("a");
+        history.recordRequest("a");
+        history.recordRequest("a");
+        assertFalse(history.isWithinLimit("a"));
+        // One request is refilled every five seconds, and three were recorded
+        history.time = 9 * SECOND;
+        assertFalse(history.isWithinLimit("a"));
+        history.time = 10 * SECOND;
+        assertTrue(history.isWithinLimit("a"));
+    }
+
+    @Test
+    public void testIdleRequestersForgotten() {
+        TestHistory history = new TestHistory(1, 1);
+        for (int i = 0; i < 1000; i++) {
+            history.call("client" + i);
+        }
+        assertEquals(1000, history.size());
+        history.time = 2 * SECOND;
+        for (int i = 0; i < 100; i++) {
+            history.call("other");
+        }
+        assertEquals(1, history.size());
+    }
+}
@@ -210,5 +210,24 @@ public class TabFormatterTest extends TestCase {
         assertEquals(expected, sw.toString());
     }
 
+    public void testFormatAllUnquoted() {
+        TabFormatter fmtr = new TabFormatter(false);
+        StreamedOutput out = new StreamedOutput(pw, fmtr);
+        out.setHeaderAttributes(attributes);
+
+        processor.write(iterator, out);
+        out.flush();
 
+        // Only empty values and values containing tabs are quoted.
+        String expected =
+              "foo\tbar\tbaz\n"
+            + "Tim Canterbury\t30\ta\n"
+            + "Gareth Keenan\t32\tb\n"
+            + "Dawn Tinsley\t26\t\"\"\n"
+            + "Keith Bishop\t41\tquote here -> \" <- there\n"
+            + "Lee\t28\t\"tab here -> \t <- there\"\n";
+
+        assertEquals(5, out.getResultsCount());
+        assertEquals(expected, sw.toString());
+    }
 }
@@ -0,0 +1,66 @@
+package org.intermine.webservice.server.query.jobs;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.results.ResultElement;
+import org.intermine.webservice.server.Format;
+
+public class FlatFileJobResultsTest extends TestCase
+{
+    public FlatFileJobResultsTest(String arg) {
+        super(arg);
+    }
+
+    public void testHandle() throws Exception {
+        FlatFileJobResults results = new FlatFileJobResults(Format.TSV, false, null, "\n");
+        results.handle(Collections.<List<ResultElement>>emptyList().iterator());
+        File file = results.getFile();
+        assertNotNull(file);
+        assertTrue(file.exists());
+        results.release();
+        assertNull(results.getFile());
+        assertFalse(file.exists());
+    }
+
+    public void testReleaseWhileWriting() throws Exception {
+        final FlatFileJobResults results =
+            new FlatFileJobResults(Format.CSV, false, null, "\n");
+        int before = countResultFiles();
+        results.handle(new Iterator<List<ResultElement>>() {
+            @Override
+            public boolean hasNext() {
+                // The job is removed before the results have been written
+                results.release();
+                return false;
+            }
+
+            @Override
+            public List<ResultElement> next() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        assertNull(results.getFile());
+        assertEquals(before, countResultFiles());
+    }
+
+    private static int countResultFiles() {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        return dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith("queryjob") && name.endsWith(".csv");
+            }
+        }).length;
+    }
+}
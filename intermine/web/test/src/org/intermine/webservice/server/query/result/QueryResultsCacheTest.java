@@ -0,0 +1,72 @@
+package org.intermine.webservice.server.query.result;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class QueryResultsCacheTest extends TestCase
+{
+    public QueryResultsCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testVersion() {
+        QueryResultsCache cache = new QueryResultsCache(100, 10);
+        cache.put("q1", "v1", "results");
+        assertEquals("results", cache.get("q1", "v1"));
+        assertNull(cache.get("q2", "v1"));
+        // The data has changed
+        assertNull(cache.get("q1", "v2"));
+        assertNull(cache.get("q1", "v1"));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testSizeLimits() {
+        QueryResultsCache cache = new QueryResultsCache(20, 10);
+        cache.put("large", "v1", "more than ten");
+        assertNull(cache.get("large", "v1"));
+        cache.put("q1", "v1", "123456789");
+        cache.put("q2", "v1", "123456789");
+        // Use q1, so that q2 is the least recently used
+        assertNotNull(cache.get("q1", "v1"));
+        cache.put("q3", "v1", "123456789");
+        assertNotNull(cache.get("q1", "v1"));
+        assertNull(cache.get("q2", "v1"));
+        assertNotNull(cache.get("q3", "v1"));
+        assertEquals(18, cache.getSize());
+    }
+
+    public void testCapture() {
+        QueryResultsCache cache = new QueryResultsCache(100, 10);
+        StringWriter out = new StringWriter();
+        QueryResultsCache.Capture capture = cache.capture(out);
+        PrintWriter writer = new PrintWriter(capture);
+        writer.print("12345");
+        writer.flush();
+        assertEquals("12345", capture.getCopy());
+        writer.print("678901");
+        writer.flush();
+        assertNull(capture.getCopy());
+        assertEquals("12345678901", out.toString());
+    }
+
+    public void testEtag() {
+        assertEquals(QueryResultsCache.getEtag("q1", "v1"), QueryResultsCache.getEtag("q1", "v1"));
+        assertFalse(QueryResultsCache.getEtag("q1", "v1").equals(
+                    QueryResultsCache.getEtag("q1", "v2")));
+        assertTrue(QueryResultsCache.getEtag("q1", "v1").startsWith("\""));
+    }
+
+    public void testMatchesEtag() {
+        String etag = QueryResultsCache.getEtag("q1", "v1");
+        assertFalse(QueryResultsCache.matchesEtag(etag, null));
+        assertTrue(QueryResultsCache.matchesEtag(etag, etag));
+        assertTrue(QueryResultsCache.matchesEtag(etag, "W/" + etag));
+        assertTrue(QueryResultsCache.matchesEtag(etag, "\"other\", " + etag));
+        assertTrue(QueryResultsCache.matchesEtag(etag, "*"));
+        assertFalse(QueryResultsCache.matchesEtag(etag, "\"other\""));
+        assertFalse(QueryResultsCache.matchesEtag(etag,
+                    QueryResultsCache.getEtag("q1", "v2")));
+    }
+}
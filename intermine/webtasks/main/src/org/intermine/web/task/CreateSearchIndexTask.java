@@ -35,6 +35,7 @@ public class CreateSearchIndexTask extends Task
 
     protected String osAlias = null;
     protected ObjectStore os;
+    protected Boolean incremental = null;
 
     /**
      * Set the alias of the main object store.
@@ -44,6 +45,15 @@ public class CreateSearchIndexTask extends Task
         this.osAlias = osAlias;
     }
 
+    /**
+     * Set whether to update the index stored in the database rather than building it again.
+     * Defaults to the index.incremental setting in keyword_search.properties.
+     * @param incremental true to only index the classes that have changed
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = Boolean.valueOf(incremental);
+    }
+
     private ObjectStore getObjectStore() throws Exception {
         if (osAlias == null) {
             throw new BuildException("objectStoreWriter attribute is not set");
@@ -96,7 +106,11 @@ public class CreateSearchIndexTask extends Task
             ClassKeyHelper.readKeys(objectStore.getModel(), classKeyProperties);
 
         //index and save
-        KeywordSearch.saveIndexToDatabase(objectStore, classKeys);
+        if (incremental == null) {
+            KeywordSearch.saveIndexToDatabase(objectStore, classKeys);
+        } else {
+            KeywordSearch.saveIndexToDatabase(objectStore, classKeys, incremental.booleanValue());
+        }
         KeywordSearch.deleteIndexDirectory();
     }
 